@@ -0,0 +1,29 @@
+package edu.upenn.cis.precise.openicelite.connman.api;
+
+/**
+ * Connection state of a managed driver
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public enum ConnectionState {
+    /**
+     * Added but not connecting yet (manager not started)
+     */
+    DISCONNECTED,
+    /**
+     * Connect attempt in progress
+     */
+    CONNECTING,
+    /**
+     * Connected, subscribed and passing health probes
+     */
+    CONNECTED,
+    /**
+     * Waiting before the next connect attempt after a failure or lost connection
+     */
+    BACKOFF,
+    /**
+     * Removed from the manager (terminal)
+     */
+    STOPPED
+}
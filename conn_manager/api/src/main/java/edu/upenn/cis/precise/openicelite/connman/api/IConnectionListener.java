@@ -0,0 +1,19 @@
+package edu.upenn.cis.precise.openicelite.connman.api;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+
+/**
+ * Allow an application to be notified when the connection state of a device changes
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IConnectionListener {
+    /**
+     * Handle a connection state change (called from manager threads, must not block)
+     *
+     * @param info     device information
+     * @param previous previous state
+     * @param current  new state
+     */
+    void stateChanged(DeviceInfo info, ConnectionState previous, ConnectionState current);
+}
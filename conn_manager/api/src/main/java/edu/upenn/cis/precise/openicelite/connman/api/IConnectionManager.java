@@ -0,0 +1,99 @@
+package edu.upenn.cis.precise.openicelite.connman.api;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interface for all connection manager implementations
+ * <p>
+ * A connection manager owns the connection lifecycle of drivers: it connects them,
+ * subscribes them to their callbacks once connected, probes their health and
+ * reconnects them when they fail.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IConnectionManager {
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    void init(HashMap<String, Object> options);
+
+    /**
+     * Add a driver to be managed (connected right away if the manager is started)
+     *
+     * @param driver   initialized driver with its device information
+     * @param address  device's serial/ethernet address
+     * @param options  additional connecting and subscribing options
+     * @param callback the class to callback for device data once connected
+     */
+    void add(IDriver driver, String address, HashMap<String, Object> options, IDriverCallback callback);
+
+    /**
+     * Add a driver to be managed with a device specific health probe
+     *
+     * @param driver   initialized driver with its device information
+     * @param address  device's serial/ethernet address
+     * @param options  additional connecting and subscribing options
+     * @param callback the class to callback for device data once connected
+     * @param probe    health probe run in addition to the default checks
+     */
+    void add(IDriver driver, String address, HashMap<String, Object> options, IDriverCallback callback,
+             IHealthProbe probe);
+
+    /**
+     * Stop managing a driver, then disconnect and close it
+     *
+     * @param deviceId device ID as a string
+     * @return true if removed, false if not found
+     */
+    boolean remove(String deviceId);
+
+    /**
+     * Start connecting all drivers in parallel and supervising them
+     * (returns immediately, see awaitConnected)
+     */
+    void start();
+
+    /**
+     * Block until all drivers are connected
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of timeout
+     * @return true if all drivers are connected, false if timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Return the connection state of a device
+     *
+     * @param deviceId device ID as a string
+     * @return connection state, or null if not managed
+     */
+    ConnectionState getState(String deviceId);
+
+    /**
+     * Return connection states of all managed devices
+     *
+     * @return connection states by device ID
+     */
+    Map<String, ConnectionState> getStates();
+
+    /**
+     * Add a listener for connection state changes
+     *
+     * @param listener the class to callback for state changes
+     */
+    void addListener(IConnectionListener listener);
+
+    /**
+     * Remove all drivers and release all associated resource
+     */
+    void close();
+}
@@ -0,0 +1,18 @@
+package edu.upenn.cis.precise.openicelite.connman.api;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+
+/**
+ * Device specific health check of a connected driver (e.g., query a status register)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IHealthProbe {
+    /**
+     * Determine if a connected driver is still healthy (must return quickly)
+     *
+     * @param driver connected driver
+     * @return true if healthy, false otherwise.
+     */
+    boolean isHealthy(IDriver driver);
+}
@@ -0,0 +1,45 @@
+package edu.upenn.cis.precise.openicelite.connman.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter
+ * <p>
+ * The delay of attempt n is drawn uniformly between half and all of
+ * min(max, initial * multiplier^n), so devices which fail together (e.g., after a
+ * power cut of a USB hub) do not retry in lockstep.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class Backoff {
+    private final long initial;
+    private final long max;
+    private final double multiplier;
+
+    /**
+     * Backoff constructor
+     *
+     * @param initial    delay before the first retry (milliseconds)
+     * @param max        maximum delay (milliseconds)
+     * @param multiplier growth factor per failed attempt
+     */
+    Backoff(long initial, long max, double multiplier) {
+        if (initial < 1 || max < initial || multiplier < 1) {
+            throw new IllegalArgumentException("Invalid backoff settings!");
+        }
+        this.initial = initial;
+        this.max = max;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Return the delay before a retry
+     *
+     * @param attempt number of consecutive failed attempts so far (0 for the first retry)
+     * @return delay in milliseconds
+     */
+    long delay(int attempt) {
+        double ceiling = Math.min(max, initial * Math.pow(multiplier, Math.min(attempt, 62)));
+        return (long) (ceiling * (0.5 + 0.5 * ThreadLocalRandom.current().nextDouble()));
+    }
+}
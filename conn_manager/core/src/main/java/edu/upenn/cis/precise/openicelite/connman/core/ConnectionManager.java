@@ -0,0 +1,460 @@
+package edu.upenn.cis.precise.openicelite.connman.core;
+
+import edu.upenn.cis.precise.openicelite.connman.api.ConnectionState;
+import edu.upenn.cis.precise.openicelite.connman.api.IConnectionListener;
+import edu.upenn.cis.precise.openicelite.connman.api.IConnectionManager;
+import edu.upenn.cis.precise.openicelite.connman.api.IHealthProbe;
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.IGracefulShutdown;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connect drivers in parallel and keep them connected
+ * <p>
+ * Every connect attempt runs on its own worker thread with a timeout, so boot time
+ * is bounded by the slowest device (or the connect timeout) rather than the sum of
+ * all devices. Calls changing the connection of one driver (connect, subscribe,
+ * unsubscribe, disconnect and close) are serialized on a lane of that driver: a
+ * connect which outlives its timeout is interrupted, and no new attempt starts until
+ * it has returned and the driver has been disconnected. Once connected, a driver is
+ * subscribed to its callback and probed periodically: it is healthy if it reports
+ * being connected, has delivered data within the idle timeout (if set) and passes
+ * its health probe (if any). Failed attempts and unhealthy drivers are disconnected
+ * and retried with exponential backoff and jitter.
+ * <p>
+ * If a middleware is given, every managed device is registered with it (and thus
+ * listed in the dongle information reported to Map Manager) with its connection
+ * state in the "connection" attribute.
+ * <p>
+ * Available options for initialization:
+ * - "connect_timeout":     timeout in seconds of a connect attempt (default to 10)
+ * - "backoff_initial":     delay in milliseconds before the first retry (default to 500)
+ * - "backoff_max":         maximum delay in milliseconds between retries (default to 60000)
+ * - "backoff_multiplier":  growth of the delay per failed attempt (default to 2)
+ * - "probe_interval":      interval in seconds between health probes (default to 5)
+ * - "probe_failures":      consecutive failed probes before reconnecting (default to 2)
+ * - "idle_timeout":        seconds without data after which a driver is unhealthy
+ *                              (default to 0, disabled)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class ConnectionManager implements IConnectionManager, IGracefulShutdown {
+    public static final String CONNECTION_ATTRIBUTE = "connection";
+
+    private static final Logger logger = LogManager.getLogger(ConnectionManager.class);
+
+    private final IMiddleware middleware;
+    private final LinkedHashMap<String, ManagedDriver> drivers = new LinkedHashMap<>();
+    private final CopyOnWriteArrayList<IConnectionListener> listeners = new CopyOnWriteArrayList<>();
+    private ExecutorService workers;
+    private ScheduledExecutorService scheduler;
+    private boolean started = false;
+
+    // Overwritten-able configuration
+    private long connectTimeout = 10 * 1000;
+    private long backoffInitial = 500;
+    private long backoffMax = 60 * 1000;
+    private double backoffMultiplier = 2;
+    private long probeInterval = 5 * 1000;
+    private int probeFailureLimit = 2;
+    private long idleTimeout = 0;
+    private Backoff backoff = new Backoff(backoffInitial, backoffMax, backoffMultiplier);
+
+    /**
+     * Connection manager constructor
+     *
+     * @param middleware middleware to keep device information in sync with (may be null)
+     */
+    public ConnectionManager(IMiddleware middleware) {
+        this.middleware = middleware;
+    }
+
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("connect_timeout")) {
+            connectTimeout = Long.parseLong(options.get("connect_timeout").toString()) * 1000;
+        }
+        if (options.containsKey("backoff_initial")) {
+            backoffInitial = Long.parseLong(options.get("backoff_initial").toString());
+        }
+        if (options.containsKey("backoff_max")) {
+            backoffMax = Long.parseLong(options.get("backoff_max").toString());
+        }
+        if (options.containsKey("backoff_multiplier")) {
+            backoffMultiplier = Double.parseDouble(options.get("backoff_multiplier").toString());
+        }
+        if (options.containsKey("probe_interval")) {
+            probeInterval = Long.parseLong(options.get("probe_interval").toString()) * 1000;
+        }
+        if (options.containsKey("probe_failures")) {
+            probeFailureLimit = Integer.parseInt(options.get("probe_failures").toString());
+        }
+        if (options.containsKey("idle_timeout")) {
+            idleTimeout = Long.parseLong(options.get("idle_timeout").toString()) * 1000;
+        }
+        if (connectTimeout < 1 || probeInterval < 1 || probeFailureLimit < 1 || idleTimeout < 0) {
+            throw new IllegalArgumentException("Invalid connection manager options!");
+        }
+        backoff = new Backoff(backoffInitial, backoffMax, backoffMultiplier);
+    }
+
+    @Override
+    public void add(IDriver driver, String address, HashMap<String, Object> options, IDriverCallback callback) {
+        add(driver, address, options, callback, null);
+    }
+
+    @Override
+    public synchronized void add(IDriver driver, String address, HashMap<String, Object> options,
+                                 IDriverCallback callback, IHealthProbe probe) {
+        DeviceInfo info = driver.getDeviceInfo();
+        if (info == null || info.getDeviceId() == null) {
+            throw new IllegalArgumentException("Driver has no device ID!");
+        }
+        if (drivers.containsKey(info.getDeviceId())) {
+            throw new IllegalArgumentException("Duplicated device ID - " + info.getDeviceId());
+        }
+        ManagedDriver managed = new ManagedDriver(driver, address, options, callback, probe);
+        drivers.put(managed.deviceId, managed);
+        syncDevice(managed);
+        if (started) submitAttempt(managed);
+    }
+
+    @Override
+    public boolean remove(String deviceId) {
+        return remove(deviceId, true);
+    }
+
+    /**
+     * Stop managing a driver, then disconnect and close it
+     *
+     * @param deviceId   device ID as a string
+     * @param unregister true to remove the device from the middleware as well, false if
+     *                   the caller does it (e.g., once the messages of the driver are flushed)
+     * @return true if removed, false if not found
+     */
+    public boolean remove(String deviceId, boolean unregister) {
+        ManagedDriver managed;
+        Future<?> closed;
+        synchronized (this) {
+            managed = drivers.remove(deviceId);
+            if (managed == null) return false;
+            transition(managed, ConnectionState.STOPPED);
+            logger.info("Removing device " + deviceId + "...");
+            // Queued behind a connect still running on the driver, if any
+            disconnect(managed);
+            closed = managed.lane.submit(() -> {
+                try {
+                    managed.driver.close();
+                } catch (Exception ex) {
+                    logger.warn("Failed to close driver of device " + deviceId, ex);
+                }
+            });
+            managed.lane.shutdown();
+        }
+        try {
+            closed.get(connectTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            logger.warn("Timed out closing device " + deviceId + " (still busy connecting)");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // Logged by the task
+        }
+        if (unregister && middleware != null) middleware.removeDevice(deviceId);
+        return true;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        AtomicInteger count = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ConnectionManager-Worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ConnectionManager-Supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Connecting " + drivers.size() + " devices...");
+        for (ManagedDriver managed : drivers.values()) {
+            submitAttempt(managed);
+        }
+        scheduler.scheduleWithFixedDelay(this::probeAll, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            boolean connected = true;
+            for (ManagedDriver managed : drivers.values()) {
+                if (managed.state != ConnectionState.CONNECTED) {
+                    connected = false;
+                    break;
+                }
+            }
+            if (connected) return true;
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+    }
+
+    @Override
+    public synchronized ConnectionState getState(String deviceId) {
+        ManagedDriver managed = drivers.get(deviceId);
+        return (managed == null) ? null : managed.state;
+    }
+
+    @Override
+    public synchronized Map<String, ConnectionState> getStates() {
+        LinkedHashMap<String, ConnectionState> states = new LinkedHashMap<>();
+        for (ManagedDriver managed : drivers.values()) {
+            states.put(managed.deviceId, managed.state);
+        }
+        return states;
+    }
+
+    @Override
+    public void addListener(IConnectionListener listener) {
+        if (listener != null) listeners.add(listener);
+    }
+
+    /**
+     * Drivers are disconnected when closing (see close)
+     */
+    @Override
+    public void disconnect() {
+        // Does not apply in this context
+    }
+
+    @Override
+    public void close() {
+        List<String> deviceIds;
+        synchronized (this) {
+            deviceIds = new ArrayList<>(drivers.keySet());
+        }
+        for (String deviceId : deviceIds) {
+            remove(deviceId);
+        }
+        synchronized (this) {
+            if (!started) return;
+            started = false;
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    // ** Supervision ** //
+
+    /**
+     * Run a connect attempt on a worker (must hold the lock)
+     */
+    private void submitAttempt(ManagedDriver managed) {
+        long generation = managed.generation;
+        workers.execute(() -> attempt(managed, generation));
+    }
+
+    /**
+     * Schedule a connect attempt after backoff (must hold the lock)
+     */
+    private void retryLater(ManagedDriver managed) {
+        transition(managed, ConnectionState.BACKOFF);
+        long delay = backoff.delay(managed.attempts++);
+        long generation = managed.generation;
+        logger.info("Retrying device " + managed.deviceId + " in " + delay + " ms (attempt " +
+                managed.attempts + ")");
+        scheduler.schedule(() -> workers.execute(() -> attempt(managed, generation)),
+                delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(ManagedDriver managed, long generation) {
+        Future<Boolean> future;
+        synchronized (this) {
+            if (managed.generation != generation || !started) return;
+            if (managed.pending != null && !managed.pending.isDone()) {
+                // A timed out connect (or the disconnect after it) has not returned yet
+                logger.warn("Device " + managed.deviceId + " is still busy with a previous attempt");
+                retryLater(managed);
+                return;
+            }
+            transition(managed, ConnectionState.CONNECTING);
+            generation = managed.generation;
+            long connecting = generation;
+            future = managed.lane.submit(() -> {
+                managed.driver.connect(managed.address, managed.deviceId, managed.options);
+                synchronized (this) {
+                    // Timed out or removed meanwhile, a disconnect is queued behind
+                    if (managed.generation != connecting) return false;
+                }
+                if (!managed.driver.isConnected()) return false;
+                managed.driver.subscribe(managed.options, managed);
+                return true;
+            });
+            managed.pending = future;
+        }
+
+        boolean connected = false;
+        try {
+            connected = future.get(connectTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // Only interrupts the connect: the disconnect below waits for it on the lane
+            future.cancel(true);
+            logger.warn("Timed out connecting device " + managed.deviceId);
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            return;
+        } catch (ExecutionException ex) {
+            logger.warn("Failed to connect device " + managed.deviceId, ex.getCause());
+        }
+        if (!connected) disconnect(managed);
+
+        synchronized (this) {
+            if (managed.generation != generation) {
+                // Removed while connecting, the driver is disconnected by remove
+            } else if (connected) {
+                managed.attempts = 0;
+                managed.probeFailures = 0;
+                managed.lastActivity = System.nanoTime();
+                managed.connectedSince = System.currentTimeMillis();
+                transition(managed, ConnectionState.CONNECTED);
+            } else {
+                retryLater(managed);
+            }
+        }
+    }
+
+    private void probeAll() {
+        List<ManagedDriver> connected = new ArrayList<>();
+        List<Long> generations = new ArrayList<>();
+        synchronized (this) {
+            for (ManagedDriver managed : drivers.values()) {
+                if (managed.state == ConnectionState.CONNECTED) {
+                    connected.add(managed);
+                    generations.add(managed.generation);
+                }
+            }
+        }
+        for (int i = 0; i < connected.size(); i++) {
+            ManagedDriver managed = connected.get(i);
+            String reason = probe(managed);
+            synchronized (this) {
+                if (managed.generation != generations.get(i)) continue;
+                if (reason == null) {
+                    managed.probeFailures = 0;
+                    continue;
+                }
+                if (++managed.probeFailures < probeFailureLimit) continue;
+                logger.warn("Device " + managed.deviceId + " is unhealthy (" + reason + "), reconnecting...");
+                disconnect(managed);
+                retryLater(managed);
+            }
+        }
+    }
+
+    /**
+     * Check health of a connected driver
+     *
+     * @return null if healthy, the reason otherwise
+     */
+    private String probe(ManagedDriver managed) {
+        try {
+            if (!managed.driver.isConnected()) return "disconnected";
+            if (idleTimeout > 0 &&
+                    System.nanoTime() - managed.lastActivity > TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+                return "no data for " + idleTimeout / 1000 + " seconds";
+            }
+            if (managed.probe != null && !managed.probe.isHealthy(managed.driver)) return "probe failed";
+            return null;
+        } catch (Exception ex) {
+            return "probe error - " + ex.getMessage();
+        }
+    }
+
+    /**
+     * Queue a disconnect on the lane of the driver without waiting for it
+     * (ignored once the driver is removed, whose removal disconnects it)
+     */
+    private synchronized void disconnect(ManagedDriver managed) {
+        if (managed.lane.isShutdown()) return;
+        managed.pending = managed.lane.submit(() -> {
+            try {
+                managed.driver.unsubscribe();
+                managed.driver.disconnect();
+            } catch (Exception ex) {
+                logger.warn("Failed to disconnect device " + managed.deviceId, ex);
+            }
+        });
+    }
+
+    /**
+     * Change state, notify listeners and waiters, and sync device information
+     * (must hold the lock)
+     */
+    private void transition(ManagedDriver managed, ConnectionState state) {
+        ConnectionState previous = managed.state;
+        managed.state = state;
+        managed.generation++;
+        notifyAll();
+        if (previous == state) return;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Device " + managed.deviceId + ": " + previous + " -> " + state);
+        }
+        if (state == ConnectionState.CONNECTED) {
+            logger.info("Device " + managed.deviceId + " is connected");
+        }
+        if (state != ConnectionState.STOPPED) syncDevice(managed);
+        for (IConnectionListener listener : listeners) {
+            try {
+                listener.stateChanged(managed.driver.getDeviceInfo(), previous, state);
+            } catch (Exception ex) {
+                logger.warn("Connection listener failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Register a copy of the device information with its connection state, so that
+     * the middleware never sees a device information object being modified
+     */
+    private void syncDevice(ManagedDriver managed) {
+        if (middleware == null) return;
+        DeviceInfo info = managed.driver.getDeviceInfo();
+        DeviceInfo copy = new DeviceInfo(info.getDeviceId());
+        copy.setDeviceType(info.getDeviceType());
+        if (info.getAttributes() != null) copy.setAttributes(new HashMap<>(info.getAttributes()));
+        copy.setAttribute(CONNECTION_ATTRIBUTE, managed.state.name().toLowerCase());
+        middleware.addDevice(copy);
+    }
+}
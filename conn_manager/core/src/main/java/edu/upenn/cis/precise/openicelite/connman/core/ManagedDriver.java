@@ -0,0 +1,78 @@
+package edu.upenn.cis.precise.openicelite.connman.core;
+
+import edu.upenn.cis.precise.openicelite.connman.api.ConnectionState;
+import edu.upenn.cis.precise.openicelite.connman.api.IHealthProbe;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A driver under supervision with its connection state
+ * <p>
+ * The manager subscribes the driver with this object, which records data activity
+ * (used to detect silent devices) before forwarding messages to the application
+ * callback. State fields are guarded by the manager.
+ * <p>
+ * Connects, disconnects and the final close of the driver all run on its own lane (a
+ * single thread), so they never overlap even when a connect outlives its timeout: the
+ * disconnect issued after the timeout waits for the connect to return.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class ManagedDriver implements IDriverCallback {
+    final IDriver driver;
+    final String deviceId;
+    final String address;
+    final HashMap<String, Object> options;
+    final IDriverCallback callback;
+    final IHealthProbe probe;
+    final ExecutorService lane;
+
+    ConnectionState state = ConnectionState.DISCONNECTED;
+    // Incremented on every transition so that stale timers and attempts are ignored
+    long generation = 0;
+    int attempts = 0;
+    int probeFailures = 0;
+    long connectedSince = 0;
+    volatile long lastActivity = 0;
+    // Last task submitted to the lane, the driver is busy until it is done
+    Future<?> pending = null;
+
+    ManagedDriver(IDriver driver, String address, HashMap<String, Object> options,
+                  IDriverCallback callback, IHealthProbe probe) {
+        this.driver = driver;
+        this.deviceId = driver.getDeviceInfo().getDeviceId();
+        this.address = address;
+        this.options = options;
+        this.callback = callback;
+        this.probe = probe;
+        this.lane = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ConnectionManager-" + deviceId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void handleMessage(byte[] message) {
+        lastActivity = System.nanoTime();
+        if (callback != null) callback.handleMessage(message);
+    }
+
+    @Override
+    public void handleMessage(String message) {
+        lastActivity = System.nanoTime();
+        if (callback != null) callback.handleMessage(message);
+    }
+
+    @Override
+    public void handleMessage(ByteBuffer message) {
+        lastActivity = System.nanoTime();
+        if (callback != null) callback.handleMessage(message);
+    }
+}
@@ -0,0 +1,254 @@
+package edu.upenn.cis.precise.openicelite.connman.core;
+
+import edu.upenn.cis.precise.openicelite.connman.api.ConnectionState;
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class ConnectionManagerTest {
+    private final ConnectionManager manager = new ConnectionManager(null);
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Test(timeout = 30000)
+    public void connectsDriversInParallel() throws Exception {
+        init("connect_timeout", 5);
+        List<FakeDriver> drivers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            FakeDriver driver = new FakeDriver("parallel-" + i, 500);
+            manager.add(driver, null, null, null);
+            drivers.add(driver);
+        }
+
+        long start = System.nanoTime();
+        manager.start();
+        assertTrue(manager.awaitConnected(10, TimeUnit.SECONDS));
+        // Connecting one after another would take 2 seconds
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+        for (FakeDriver driver : drivers) {
+            assertEquals(Arrays.asList("connect", "subscribe"), driver.getCalls());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void neverOverlapsCallsAfterConnectTimeout() throws Exception {
+        init("connect_timeout", 1, "backoff_initial", 10, "backoff_max", 50);
+        // The first connect ignores the interrupt and outlives its timeout
+        FakeDriver driver = new FakeDriver("timeout", 2500, 0);
+        manager.add(driver, null, null, null);
+
+        manager.start();
+        assertTrue(manager.awaitConnected(10, TimeUnit.SECONDS));
+        assertEquals(1, driver.maxActive.get());
+        List<String> calls = driver.getCalls();
+        assertEquals("connect", calls.get(0));
+        // Disconnected after the timed out connect returned, then connected again
+        assertEquals(Arrays.asList("unsubscribe", "disconnect", "connect", "subscribe"),
+                calls.subList(1, calls.size()));
+    }
+
+    @Test(timeout = 30000)
+    public void reconnectsUnhealthyDriver() throws Exception {
+        init("probe_interval", 1, "probe_failures", 1, "backoff_initial", 10);
+        FakeDriver driver = new FakeDriver("unhealthy", 0);
+        manager.add(driver, null, null, null);
+        manager.start();
+        assertTrue(manager.awaitConnected(10, TimeUnit.SECONDS));
+
+        // Lose the connection, the next probe reconnects the driver
+        driver.connected = false;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (driver.connects.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(manager.awaitConnected(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("connect", "subscribe", "unsubscribe", "disconnect", "connect", "subscribe"),
+                driver.getCalls());
+        assertEquals(1, driver.maxActive.get());
+    }
+
+    @Test(timeout = 30000)
+    public void removeWaitsForRunningConnect() throws Exception {
+        init("connect_timeout", 5);
+        FakeDriver driver = new FakeDriver("removed", 1000);
+        manager.add(driver, null, null, null);
+        manager.start();
+        while (driver.active.get() == 0) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(manager.remove("removed"));
+        assertEquals(Arrays.asList("connect", "unsubscribe", "disconnect", "close"), driver.getCalls());
+        assertEquals(1, driver.maxActive.get());
+        assertNull(manager.getState("removed"));
+        assertFalse(manager.remove("removed"));
+    }
+
+    @Test(timeout = 30000)
+    public void forwardsDataToCallback() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        FakeDriver driver = new FakeDriver("data", 0);
+        manager.add(driver, null, null, new IDriverCallback() {
+            @Override
+            public void handleMessage(byte[] message) {
+                received.add(new String(message));
+            }
+
+            @Override
+            public void handleMessage(String message) {
+                received.add(message);
+            }
+        });
+        assertEquals(ConnectionState.DISCONNECTED, manager.getState("data"));
+        manager.start();
+        assertTrue(manager.awaitConnected(10, TimeUnit.SECONDS));
+
+        driver.callback.handleMessage("hello");
+        assertEquals(Collections.singletonList("hello"), received);
+    }
+
+    private void init(Object... keyValues) {
+        HashMap<String, Object> options = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            options.put(keyValues[i].toString(), keyValues[i + 1]);
+        }
+        manager.init(options);
+    }
+
+    /**
+     * Driver recording its calls and how many of them overlap; connect takes the
+     * given time per attempt (the last one repeats) and ignores interrupts
+     */
+    private static class FakeDriver implements IDriver {
+        private final long[] connectMillis;
+        private final List<String> calls = new ArrayList<>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final AtomicInteger connects = new AtomicInteger();
+        private DeviceInfo info;
+        private volatile boolean connected = false;
+        private volatile IDriverCallback callback;
+
+        private FakeDriver(String deviceId, long... connectMillis) {
+            this.info = new DeviceInfo(deviceId);
+            this.connectMillis = connectMillis;
+        }
+
+        private List<String> getCalls() {
+            synchronized (calls) {
+                return new ArrayList<>(calls);
+            }
+        }
+
+        private void enter(String call) {
+            synchronized (calls) {
+                calls.add(call);
+            }
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        }
+
+        @Override
+        public void setDeviceInfo(DeviceInfo info) {
+            this.info = info;
+        }
+
+        @Override
+        public DeviceInfo getDeviceInfo() {
+            return info;
+        }
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+            enter("connect");
+            int attempt = connects.getAndIncrement();
+            long deadline = System.currentTimeMillis() + connectMillis[Math.min(attempt, connectMillis.length - 1)];
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException ex) {
+                    // Like a blocking socket connect
+                }
+            }
+            connected = true;
+            active.decrementAndGet();
+        }
+
+        @Override
+        public String read(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public byte[] readBytes(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public void write(String message) {
+        }
+
+        @Override
+        public void write(byte[] message) {
+        }
+
+        @Override
+        public void subscribe(HashMap<String, Object> options, IDriverCallback callback) {
+            enter("subscribe");
+            this.callback = callback;
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void unsubscribe() {
+            enter("unsubscribe");
+            callback = null;
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void disconnect() {
+            enter("disconnect");
+            connected = false;
+            active.decrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            enter("close");
+            active.decrementAndGet();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void setCallback(IDriverCallback callback) {
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+/**
+ * Alarm raised or cleared by a rule, published as JSON on the alarm topic of the device
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class Alarm {
+    public static final String RAISED = "raised";
+    public static final String CLEARED = "cleared";
+
+    private String rule;
+    private String severity;
+    private String state;
+    private String dongleId;
+    private String deviceId;
+    private String channel;
+    private double value;
+    private double limit;
+    private long sampleTime;
+    private long detectTime;
+
+    public Alarm() {
+
+    }
+
+    /**
+     * Alarm constructor
+     *
+     * @param rule       rule which changed state
+     * @param state      RAISED or CLEARED
+     * @param dongleId   dongle ID of the device
+     * @param deviceId   device ID
+     * @param value      value (or rate) which caused the change
+     * @param sampleTime time of the sample (milliseconds)
+     */
+    public Alarm(AlarmRule rule, String state, String dongleId, String deviceId,
+                 double value, long sampleTime) {
+        this.rule = rule.getName();
+        this.severity = rule.getSeverity();
+        this.state = state;
+        this.dongleId = dongleId;
+        this.deviceId = deviceId;
+        this.channel = rule.getChannel();
+        this.value = value;
+        this.limit = rule.getValue();
+        this.sampleTime = sampleTime;
+        this.detectTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the rule name
+     *
+     * @return rule name
+     */
+    public String getRule() {
+        return rule;
+    }
+
+    /**
+     * Return the severity
+     *
+     * @return severity
+     */
+    public String getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Return the alarm state
+     *
+     * @return RAISED or CLEARED
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * Return the dongle ID of the device
+     *
+     * @return dongle ID
+     */
+    public String getDongleId() {
+        return dongleId;
+    }
+
+    /**
+     * Return the device ID
+     *
+     * @return device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Return the channel of the rule
+     *
+     * @return channel name
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Return the value (or rate for rate rules) which caused the change
+     *
+     * @return value
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Return the limit of the rule
+     *
+     * @return limit
+     */
+    public double getLimit() {
+        return limit;
+    }
+
+    /**
+     * Return the time of the sample which caused the change
+     *
+     * @return time in milliseconds
+     */
+    public long getSampleTime() {
+        return sampleTime;
+    }
+
+    /**
+     * Return the time the change was detected
+     *
+     * @return time in milliseconds
+     */
+    public long getDetectTime() {
+        return detectTime;
+    }
+
+    @Override
+    public String toString() {
+        return rule + " " + state + " on " + deviceId + " (" + channel + " = " + value
+                + ", limit " + limit + ", " + severity + ")";
+    }
+}
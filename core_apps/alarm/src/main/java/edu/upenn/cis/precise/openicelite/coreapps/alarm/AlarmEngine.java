@@ -0,0 +1,370 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+import edu.upenn.cis.precise.openicelite.coreapps.stream.SampleCallback;
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.QuantileSketch;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+import edu.upenn.cis.precise.openicelite.middleware.api.ShutdownHook;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluate alarm rules on the data of all devices of a project and publish alarms
+ * <p>
+ * Rules are compiled once into a table from channel to rules, and every device gets
+ * its own state machine per rule (see AlarmRule and RuleState). A data message is
+ * parsed straight from the delivered buffer and each of its samples only updates the
+ * states of the rules on its channel, so evaluation takes constant time per sample no
+ * matter how long rules look back.
+ * <p>
+ * Alarms are published when a rule is raised or cleared on the alarm topic of the
+ * device (see ITopicHandler.getAlarmTopic). MQTT has no message priority, so alarms
+ * are kept apart from data on their own topic and sent at a higher QoS. The time spent
+ * parsing and evaluating each message is recorded and reported as percentiles.
+ * <p>
+ * Available options for initialization (see AlarmRule for rule options):
+ * - "alarm_qos":           MQTT QoS of published alarms, to be kept above the QoS of
+ *                              device data (default to 2)
+ * - "alarm_report":        interval in seconds to log evaluation report when running as
+ *                              an application (default to 60)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class AlarmEngine extends SampleCallback<AlarmEngine.Evaluation> {
+    private static final String PROPERTIES_FILE_NAME = "alarm.properties";
+    private static final String UUID = java.util.UUID.randomUUID().toString();
+
+    private static final Logger logger = LogManager.getLogger(AlarmEngine.class);
+
+    private final Gson gson = new Gson();
+    private final ConcurrentHashMap<String, RuleState[]> devices = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<QuantileSketch> latencies = new CopyOnWriteArrayList<>();
+    private final LongAdder raised = new LongAdder();
+    private final LongAdder cleared = new LongAdder();
+
+    // Compiled rules
+    private AlarmRule[] rules = new AlarmRule[0];
+    private HashMap<String, int[]> channelRules = new HashMap<>();
+
+    // Publishing
+    private IMiddleware middleware;
+    private String projectName;
+    private final HashMap<String, Object> publishOptions = new HashMap<>();
+
+    // Overwritten-able configuration
+    private int qos = 2;
+    private int reportInterval = 60;
+
+    /**
+     * Alarm engine constructor (the topic handler is given when starting)
+     */
+    public AlarmEngine() {
+        super(null);
+    }
+
+    public static void main(String[] args) {
+        logger.info("Starting Alarm Engine...");
+
+        // Load configuration
+        ClassLoader loader = AlarmEngine.class.getClassLoader();
+        URL propResource = loader.getResource(PROPERTIES_FILE_NAME);
+        File propFile = new File("./" + PROPERTIES_FILE_NAME);
+
+        String clientName = "Alarm-" + UUID;
+        String projectName = "DEFAULT";
+        HashMap<String, Object> options = new HashMap<>();
+
+        if (propFile.isFile() || propResource != null) {
+            logger.info("Loading configuration from " +
+                    (propFile.isFile() ? "./" : "default ") + PROPERTIES_FILE_NAME + "...");
+            try (InputStream input = (propFile.isFile() ?
+                    new FileInputStream("./" + PROPERTIES_FILE_NAME) :
+                    loader.getResourceAsStream(PROPERTIES_FILE_NAME))) {
+                Properties properties = new Properties();
+                properties.load(input);
+                Enumeration<?> p = properties.propertyNames();
+                while (p.hasMoreElements()) {
+                    String key = (String) p.nextElement();
+                    options.put(key, properties.getProperty(key));
+                }
+                if (options.containsKey("project_name")) {
+                    projectName = (String) options.get("project_name");
+                }
+            } catch (Exception ex) {
+                logger.error("Failed to load configuration!", ex);
+                System.exit(-1);
+            }
+        } else {
+            logger.info("Cannot find configuration file - " + PROPERTIES_FILE_NAME + ", using defaults");
+        }
+
+        AlarmEngine engine = new AlarmEngine();
+        engine.init(options);
+        if (engine.getRules().isEmpty()) {
+            logger.warn("No alarm rules configured!");
+        }
+
+        IMiddleware middleware = new Dongle(clientName);
+        middleware.init(options);
+        middleware.connect(null, null, null);
+        Runtime.getRuntime().addShutdownHook(new ShutdownHook(middleware));
+        engine.start(middleware, new TopicHandler(), projectName);
+
+        while (true) {
+            try {
+                Thread.sleep(engine.reportInterval * 1000L);
+                logger.info("Alarm evaluation:\n" + engine.report());
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Load engine options and compile rules (before starting)
+     *
+     * @param options initializing options
+     */
+    public void init(Map<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("alarm_qos")) {
+            qos = Integer.parseInt(options.get("alarm_qos").toString());
+        }
+        if (options.containsKey("alarm_report")) {
+            reportInterval = Integer.parseInt(options.get("alarm_report").toString());
+        }
+        if (qos < 0 || qos > 2) throw new IllegalArgumentException("Invalid alarm options!");
+        compile(AlarmRule.load(options));
+    }
+
+    /**
+     * Replace all rules (before starting)
+     *
+     * @param rules alarm rules
+     */
+    public void compile(List<AlarmRule> rules) {
+        HashMap<String, int[]> table = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            int[] indices = table.get(rules.get(i).getChannel());
+            if (indices == null) {
+                indices = new int[]{i};
+            } else {
+                indices = Arrays.copyOf(indices, indices.length + 1);
+                indices[indices.length - 1] = i;
+            }
+            table.put(rules.get(i).getChannel(), indices);
+            logger.info("Alarm rule " + rules.get(i));
+        }
+        this.rules = rules.toArray(new AlarmRule[0]);
+        this.channelRules = table;
+        devices.clear();
+    }
+
+    /**
+     * Subscribe to data of all devices of a project and publish alarms through the
+     * same middleware
+     *
+     * @param middleware   connected middleware
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     */
+    public void start(IMiddleware middleware, ITopicHandler topicHandler, String projectName) {
+        this.middleware = middleware;
+        setTopicHandler(topicHandler);
+        this.projectName = projectName;
+        publishOptions.put("qos", qos);
+        middleware.waitConnected();
+        middleware.subscribe(topicHandler.getDataBaseTopic(projectName), null, this);
+    }
+
+    /**
+     * Drop the rule states of a device (e.g., when it is disconnected), clearing its
+     * alarms without publishing
+     *
+     * @param deviceId device ID
+     * @return true if removed, false if not found
+     */
+    public boolean reset(String deviceId) {
+        return devices.remove(deviceId) != null;
+    }
+
+    private RuleState[] getStates(String deviceId) {
+        RuleState[] states = devices.get(deviceId);
+        if (states == null) {
+            states = devices.computeIfAbsent(deviceId, key -> {
+                RuleState[] created = new RuleState[rules.length];
+                for (int i = 0; i < rules.length; i++) {
+                    if (rules[i].appliesTo(key)) created[i] = RuleState.create(rules[i]);
+                }
+                return created;
+            });
+        }
+        return states;
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    protected Evaluation createExtraction() {
+        return new Evaluation();
+    }
+
+    @Override
+    protected boolean begin(Evaluation evaluation, ParsedTopic topic) {
+        if (rules.length == 0) return false;
+        evaluation.start = System.nanoTime();
+        evaluation.states = getStates(topic.getDeviceId());
+        return true;
+    }
+
+    @Override
+    protected void end(Evaluation evaluation) {
+        double elapsed = (System.nanoTime() - evaluation.start) / 1000.0;
+        synchronized (evaluation.latency) {
+            evaluation.latency.add(elapsed);
+        }
+        evaluation.states = null;
+
+        // Publish outside the measured evaluation
+        if (!evaluation.alarms.isEmpty()) {
+            for (Alarm alarm : evaluation.alarms) {
+                publish(alarm);
+            }
+            evaluation.alarms.clear();
+        }
+    }
+
+    private void publish(Alarm alarm) {
+        if (Alarm.RAISED.equals(alarm.getState())) {
+            raised.increment();
+            logger.warn("Alarm " + alarm);
+        } else {
+            cleared.increment();
+            logger.info("Alarm " + alarm);
+        }
+        if (middleware == null) return;
+        String topic = getTopicHandler().getAlarmTopic(projectName, alarm.getDongleId(), alarm.getDeviceId());
+        if (topic == null) {
+            logger.warn("Cannot publish alarm of unknown device - " + alarm);
+            return;
+        }
+        middleware.publish(topic, gson.toJson(alarm), publishOptions);
+    }
+
+    /**
+     * Return compiled rules
+     *
+     * @return alarm rules
+     */
+    public List<AlarmRule> getRules() {
+        return new ArrayList<>(Arrays.asList(rules));
+    }
+
+    /**
+     * Return the number of raised alarms
+     *
+     * @return number of alarms
+     */
+    public long getRaised() {
+        return raised.sum();
+    }
+
+    /**
+     * Return the number of cleared alarms
+     *
+     * @return number of alarms
+     */
+    public long getCleared() {
+        return cleared.sum();
+    }
+
+    /**
+     * Return the time spent parsing and evaluating each message, over all callback
+     * threads
+     *
+     * @return sketch of latencies in microseconds
+     */
+    public QuantileSketch getLatency() {
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch sketch : latencies) {
+            synchronized (sketch) {
+                merged.merge(sketch);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Format counters and evaluation latency as a human readable report
+     *
+     * @return report
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("rules: ").append(rules.length)
+                .append(", devices: ").append(devices.size())
+                .append(", messages: ").append(getMessages())
+                .append(", samples: ").append(getSamples())
+                .append(", errors: ").append(getErrors())
+                .append("\nalarms: raised=").append(getRaised())
+                .append(", cleared=").append(getCleared());
+        QuantileSketch latency = getLatency();
+        if (!latency.isEmpty()) {
+            builder.append(String.format("%nevaluation (us/message): p50=%.1f, p90=%.1f, p99=%.1f, max=%.1f",
+                    latency.getQuantile(0.5), latency.getQuantile(0.9),
+                    latency.getQuantile(0.99), latency.getMax()));
+            if (getSamples() > 0) {
+                builder.append(String.format(", mean per sample=%.3f", latency.getSum() / getSamples()));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Evaluation state of a callback thread, also the sink of its samples
+     */
+    class Evaluation extends SampleCallback.Extraction {
+        private final QuantileSketch latency = new QuantileSketch();
+        private final ArrayList<Alarm> alarms = new ArrayList<>();
+        private long start;
+        private RuleState[] states;
+
+        Evaluation() {
+            latencies.add(latency);
+        }
+
+        @Override
+        public void accept(String channel, long timestamp, double value) {
+            int[] indices = channelRules.get(channel);
+            if (indices == null) return;
+            for (int index : indices) {
+                RuleState state = states[index];
+                if (state == null) continue;
+                int change = state.update(timestamp, value);
+                if (change == RuleState.NONE) continue;
+                alarms.add(new Alarm(rules[index], (change == RuleState.RAISED) ? Alarm.RAISED : Alarm.CLEARED,
+                        getTopic().getDongleId(), getTopic().getDeviceId(), state.getObserved(), timestamp));
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Alarm rule on a channel of device data (see JsonSampleExtractor for channels)
+ * <p>
+ * Rules are loaded from options: "rules" lists rule names separated by commas, and
+ * each rule is configured by "rule.NAME.*" options:
+ * - "channel":             channel to watch, e.g., "hr" or the waveform type
+ * - "type":                "threshold" (value crosses the limit), "sustained" (value
+ *                              stays across the limit for a duration), or "rate" (change
+ *                              per second over a duration crosses the limit)
+ *                              (default to threshold)
+ * - "op":                  one of ">", ">=", "<", "<=" (default to >)
+ * - "value":               limit
+ * - "duration":            duration in milliseconds for sustained and rate rules
+ *                              (default to 0)
+ * - "hysteresis":          margin the value must move back past the limit before the
+ *                              alarm is cleared (default to 0)
+ * - "severity":            severity published with the alarm (default to warning)
+ * - "device":              only apply to this device ID (default to all devices)
+ * <p>
+ * For example, a heart rate above 120 for 10 seconds:
+ * rules=hr_high
+ * rule.hr_high.channel=hr
+ * rule.hr_high.type=sustained
+ * rule.hr_high.value=120
+ * rule.hr_high.duration=10000
+ * rule.hr_high.hysteresis=5
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class AlarmRule {
+    private final String name;
+    private final String channel;
+    private final Type type;
+    private final Comparison op;
+    private final double value;
+    private final long duration;
+    private final double hysteresis;
+    private final String severity;
+    private final String deviceId;
+
+    /**
+     * Alarm rule constructor
+     *
+     * @param name       rule name
+     * @param channel    channel to watch
+     * @param type       rule type
+     * @param op         comparison with the limit
+     * @param value      limit
+     * @param duration   duration in milliseconds for sustained and rate rules
+     * @param hysteresis margin to move back past the limit before clearing
+     * @param severity   severity of the alarm
+     * @param deviceId   only apply to this device ID (null for all devices)
+     */
+    public AlarmRule(String name, String channel, Type type, Comparison op, double value,
+                     long duration, double hysteresis, String severity, String deviceId) {
+        if (name == null || name.isEmpty() || channel == null || channel.isEmpty()
+                || type == null || op == null || Double.isNaN(value)
+                || duration < 0 || hysteresis < 0) {
+            throw new IllegalArgumentException("Invalid alarm rule - " + name + "!");
+        }
+        this.name = name;
+        this.channel = channel;
+        this.type = type;
+        this.op = op;
+        this.value = value;
+        this.duration = duration;
+        this.hysteresis = hysteresis;
+        this.severity = severity;
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Load all rules listed in options
+     *
+     * @param options rule options
+     * @return rules in listed order
+     */
+    public static List<AlarmRule> load(Map<String, Object> options) {
+        List<AlarmRule> rules = new ArrayList<>();
+        if (options == null || !options.containsKey("rules")) return rules;
+        for (String name : options.get("rules").toString().split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) rules.add(load(name, options));
+        }
+        return rules;
+    }
+
+    /**
+     * Load a rule from its "rule.NAME.*" options
+     *
+     * @param name    rule name
+     * @param options rule options
+     * @return rule
+     */
+    public static AlarmRule load(String name, Map<String, Object> options) {
+        String prefix = "rule." + name + ".";
+        String channel = getOption(options, prefix + "channel", null);
+        String value = getOption(options, prefix + "value", null);
+        if (channel == null || value == null) {
+            throw new IllegalArgumentException("Invalid alarm rule - " + name + "!");
+        }
+        return new AlarmRule(name, channel,
+                Type.parse(getOption(options, prefix + "type", "threshold")),
+                Comparison.parse(getOption(options, prefix + "op", ">")),
+                Double.parseDouble(value),
+                Long.parseLong(getOption(options, prefix + "duration", "0")),
+                Double.parseDouble(getOption(options, prefix + "hysteresis", "0")),
+                getOption(options, prefix + "severity", "warning"),
+                getOption(options, prefix + "device", null));
+    }
+
+    private static String getOption(Map<String, Object> options, String key, String defaultValue) {
+        Object option = options.get(key);
+        return (option == null) ? defaultValue : option.toString().trim();
+    }
+
+    /**
+     * Return true if the value crosses the limit
+     *
+     * @param observed observed value (or rate)
+     * @return true if the alarm condition holds
+     */
+    public boolean isRaised(double observed) {
+        return op.test(observed, value);
+    }
+
+    /**
+     * Return true if the value moved back past the limit and the hysteresis margin
+     *
+     * @param observed observed value (or rate)
+     * @return true if the alarm condition is cleared
+     */
+    public boolean isCleared(double observed) {
+        return !op.test(observed, op.isUpward() ? value - hysteresis : value + hysteresis);
+    }
+
+    /**
+     * Return true if the rule applies to a device
+     *
+     * @param deviceId device ID
+     * @return true if applies
+     */
+    public boolean appliesTo(String deviceId) {
+        return this.deviceId == null || this.deviceId.equals(deviceId);
+    }
+
+    /**
+     * Return the rule name
+     *
+     * @return rule name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the watched channel
+     *
+     * @return channel name
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Return the rule type
+     *
+     * @return rule type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Return the comparison with the limit
+     *
+     * @return comparison
+     */
+    public Comparison getOp() {
+        return op;
+    }
+
+    /**
+     * Return the limit
+     *
+     * @return limit
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Return the duration of sustained and rate rules
+     *
+     * @return duration in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Return the hysteresis margin
+     *
+     * @return margin
+     */
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * Return the severity of the alarm
+     *
+     * @return severity
+     */
+    public String getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Return the device ID the rule is limited to
+     *
+     * @return device ID (null for all devices)
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + type.name().toLowerCase() + " " + channel + " " + op + " " + value
+                + ((type == Type.THRESHOLD) ? "" : " over " + duration + " ms");
+    }
+
+    public enum Type {
+        THRESHOLD, SUSTAINED, RATE;
+
+        static Type parse(String type) {
+            try {
+                return valueOf(type.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown alarm rule type - " + type + "!");
+            }
+        }
+    }
+
+    public enum Comparison {
+        ABOVE(">", true), AT_OR_ABOVE(">=", true), BELOW("<", false), AT_OR_BELOW("<=", false);
+
+        private final String symbol;
+        private final boolean upward;
+
+        Comparison(String symbol, boolean upward) {
+            this.symbol = symbol;
+            this.upward = upward;
+        }
+
+        /**
+         * Compare a value with a limit
+         *
+         * @param observed observed value
+         * @param limit    limit
+         * @return true if the comparison holds
+         */
+        public boolean test(double observed, double limit) {
+            switch (this) {
+                case ABOVE:
+                    return observed > limit;
+                case AT_OR_ABOVE:
+                    return observed >= limit;
+                case BELOW:
+                    return observed < limit;
+                default:
+                    return observed <= limit;
+            }
+        }
+
+        /**
+         * Return true if the comparison holds for values above the limit
+         *
+         * @return true if upward
+         */
+        public boolean isUpward() {
+            return upward;
+        }
+
+        @Override
+        public String toString() {
+            return symbol;
+        }
+
+        static Comparison parse(String symbol) {
+            for (Comparison op : values()) {
+                if (op.symbol.equals(symbol)) return op;
+            }
+            throw new IllegalArgumentException("Unknown alarm rule comparison - " + symbol + "!");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+/**
+ * Incremental state of a rule for one device
+ * <p>
+ * Every sample updates the state in constant time (amortized for rate rules, where
+ * each sample enters and leaves the window once), so the cost of evaluation does not
+ * depend on how much history a rule covers. A state belongs to one device, whose
+ * messages are evaluated on one thread at a time.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+abstract class RuleState {
+    static final int NONE = 0;
+    static final int RAISED = 1;
+    static final int CLEARED = -1;
+
+    protected final AlarmRule rule;
+    protected boolean active = false;
+    protected double observed = Double.NaN;
+
+    RuleState(AlarmRule rule) {
+        this.rule = rule;
+    }
+
+    /**
+     * Create the state machine of a rule
+     *
+     * @param rule alarm rule
+     * @return initial state
+     */
+    static RuleState create(AlarmRule rule) {
+        switch (rule.getType()) {
+            case SUSTAINED:
+                return new Sustained(rule);
+            case RATE:
+                return new Rate(rule);
+            default:
+                return new Threshold(rule);
+        }
+    }
+
+    /**
+     * Evaluate a sample
+     *
+     * @param time  sample time (milliseconds)
+     * @param value sample value
+     * @return RAISED or CLEARED on a transition, NONE otherwise
+     */
+    abstract int update(long time, double value);
+
+    /**
+     * Raise or clear on the observed value (or rate)
+     */
+    protected int evaluate(double observed) {
+        this.observed = observed;
+        if (!active && rule.isRaised(observed)) {
+            active = true;
+            return RAISED;
+        }
+        if (active && rule.isCleared(observed)) {
+            active = false;
+            return CLEARED;
+        }
+        return NONE;
+    }
+
+    /**
+     * Value (or rate) which caused the last transition
+     */
+    double getObserved() {
+        return observed;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Raise as soon as a sample crosses the limit
+     */
+    static final class Threshold extends RuleState {
+        Threshold(AlarmRule rule) {
+            super(rule);
+        }
+
+        @Override
+        int update(long time, double value) {
+            return evaluate(value);
+        }
+    }
+
+    /**
+     * Raise once samples stay across the limit for the rule duration
+     */
+    static final class Sustained extends RuleState {
+        private long since = -1;
+
+        Sustained(AlarmRule rule) {
+            super(rule);
+        }
+
+        @Override
+        int update(long time, double value) {
+            observed = value;
+            if (active) {
+                if (!rule.isCleared(value)) return NONE;
+                active = false;
+                since = -1;
+                return CLEARED;
+            }
+            if (!rule.isRaised(value)) {
+                since = -1;
+                return NONE;
+            }
+            if (since < 0) since = time;
+            if (time - since < rule.getDuration()) return NONE;
+            active = true;
+            return RAISED;
+        }
+    }
+
+    /**
+     * Raise when the change per second over the rule duration crosses the limit
+     * <p>
+     * Samples of the last duration are kept in a primitive ring, with the oldest being
+     * the latest sample at or before the start of the duration. Rates are only
+     * evaluated once the ring covers the full duration; samples not newer than the
+     * last one are ignored.
+     */
+    static final class Rate extends RuleState {
+        private long[] times = new long[16];
+        private double[] values = new double[16];
+        private int head = 0;
+        private int count = 0;
+
+        Rate(AlarmRule rule) {
+            super(rule);
+        }
+
+        @Override
+        int update(long time, double value) {
+            if (count > 0 && time <= times[(head + count - 1) & (times.length - 1)]) return NONE;
+            if (count == times.length) grow();
+            int tail = (head + count++) & (times.length - 1);
+            times[tail] = time;
+            values[tail] = value;
+
+            // Drop the oldest while the next one still covers the duration
+            long duration = rule.getDuration();
+            while (count > 2 && time - times[(head + 1) & (times.length - 1)] >= duration) {
+                head = (head + 1) & (times.length - 1);
+                count--;
+            }
+
+            long span = time - times[head];
+            if (count < 2 || span < duration) return NONE;
+            return evaluate((value - values[head]) * 1000 / span);
+        }
+
+        private void grow() {
+            long[] newTimes = new long[times.length * 2];
+            double[] newValues = new double[values.length * 2];
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) & (times.length - 1);
+                newTimes[i] = times[index];
+                newValues[i] = values[index];
+            }
+            times = newTimes;
+            values = newValues;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class AlarmEngineTest {
+    private final TopicHandler topicHandler = new TopicHandler();
+    private final RecordingMiddleware middleware = new RecordingMiddleware();
+    private final AlarmEngine engine = new AlarmEngine();
+    private final String dataTopic = topicHandler.getDataTopic("project", "dongle", "monitor");
+
+    @Before
+    public void setUp() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("rules", "hr_high,spo2_low");
+        options.put("rule.hr_high.channel", "hr");
+        options.put("rule.hr_high.value", "120");
+        options.put("rule.hr_high.hysteresis", "5");
+        options.put("rule.hr_high.severity", "critical");
+        options.put("rule.spo2_low.channel", "spo2");
+        options.put("rule.spo2_low.op", "<");
+        options.put("rule.spo2_low.value", "90");
+        options.put("rule.spo2_low.device", "other");
+        engine.init(options);
+        engine.start(middleware, topicHandler, "project");
+    }
+
+    @Test
+    public void publishesRaisedAndClearedAlarmsOnAlarmTopic() {
+        engine.handleMessage(dataTopic, "{\"timestamp\":1000,\"hr\":130,\"spo2\":80}");
+        engine.handleMessage(dataTopic, "{\"timestamp\":2000,\"hr\":118}");
+        engine.handleMessage(dataTopic, "{\"timestamp\":3000,\"hr\":115}");
+
+        assertEquals(2, middleware.messages.size());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(topicHandler.getAlarmTopic("project", "dongle", "monitor"), middleware.topics.get(i));
+            assertEquals(2, middleware.qos.get(i).intValue());
+        }
+        Alarm raised = new Gson().fromJson(middleware.messages.get(0), Alarm.class);
+        assertEquals(Alarm.RAISED, raised.getState());
+        assertEquals("hr_high", raised.getRule());
+        assertEquals("critical", raised.getSeverity());
+        assertEquals("dongle", raised.getDongleId());
+        assertEquals("monitor", raised.getDeviceId());
+        assertEquals("hr", raised.getChannel());
+        assertEquals(130, raised.getValue(), 0);
+        assertEquals(120, raised.getLimit(), 0);
+        assertEquals(1000, raised.getSampleTime());
+
+        Alarm cleared = new Gson().fromJson(middleware.messages.get(1), Alarm.class);
+        assertEquals(Alarm.CLEARED, cleared.getState());
+        assertEquals(115, cleared.getValue(), 0);
+        assertEquals(3000, cleared.getSampleTime());
+
+        assertEquals(3, engine.getMessages());
+        assertEquals(4, engine.getSamples());
+        assertEquals(1, engine.getRaised());
+        assertEquals(1, engine.getCleared());
+        assertEquals(3, engine.getLatency().getCount());
+    }
+
+    @Test
+    public void keepsRuleStatesPerDevice() {
+        String otherTopic = topicHandler.getDataTopic("project", "dongle", "other");
+        engine.handleMessage(dataTopic, "{\"timestamp\":1000,\"hr\":130}");
+        engine.handleMessage(otherTopic, "{\"timestamp\":1000,\"hr\":130,\"spo2\":80}");
+        assertEquals(3, middleware.messages.size());
+
+        // Resetting a device clears its alarms without publishing
+        assertTrue(engine.reset("monitor"));
+        assertFalse(engine.reset("monitor"));
+        engine.handleMessage(dataTopic, "{\"timestamp\":2000,\"hr\":100}");
+        assertEquals(3, middleware.messages.size());
+        engine.handleMessage(dataTopic, "{\"timestamp\":3000,\"hr\":130}");
+        assertEquals(4, middleware.messages.size());
+    }
+
+    @Test
+    public void ignoresOtherTopicsAndCountsInvalidMessages() {
+        engine.handleMessage(topicHandler.getStatusTopic("project", "dongle"), "{\"hr\":130}");
+        engine.handleMessage("other/topic", "{\"hr\":130}");
+        assertEquals(0, engine.getMessages());
+
+        engine.handleMessage(dataTopic, "[130]".getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, engine.getErrors());
+        assertEquals(0, engine.getMessages());
+        assertTrue(middleware.messages.isEmpty());
+        assertTrue(engine.report().startsWith("rules: 2, devices: 1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidQos() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("alarm_qos", "3");
+        new AlarmEngine().init(options);
+    }
+
+    /**
+     * Middleware keeping published messages
+     */
+    private static class RecordingMiddleware implements IMiddleware {
+        private final List<String> topics = new ArrayList<>();
+        private final List<String> messages = new ArrayList<>();
+        private final List<Integer> qos = new ArrayList<>();
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void waitConnected() {
+        }
+
+        @Override
+        public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+        }
+
+        @Override
+        public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+            publish(topic, new String(message, StandardCharsets.UTF_8), options);
+        }
+
+        @Override
+        public void publish(String topic, String message, HashMap<String, Object> options) {
+            topics.add(topic);
+            messages.add(message);
+            qos.add((Integer) options.get("qos"));
+        }
+
+        @Override
+        public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void setCallback(IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void addDevice(DeviceInfo info) {
+        }
+
+        @Override
+        public void removeDevice(String deviceId) {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class AlarmRuleTest {
+    @Test
+    public void loadsListedRulesWithDefaults() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("rules", " hr_high, spo2_low ,");
+        options.put("rule.hr_high.channel", "hr");
+        options.put("rule.hr_high.value", "120");
+        options.put("rule.spo2_low.channel", "spo2");
+        options.put("rule.spo2_low.type", "sustained");
+        options.put("rule.spo2_low.op", "<=");
+        options.put("rule.spo2_low.value", "90");
+        options.put("rule.spo2_low.duration", "10000");
+        options.put("rule.spo2_low.hysteresis", "2");
+        options.put("rule.spo2_low.severity", "critical");
+        options.put("rule.spo2_low.device", "monitor-1");
+
+        List<AlarmRule> rules = AlarmRule.load(options);
+        assertEquals(2, rules.size());
+        AlarmRule hr = rules.get(0);
+        assertEquals("hr_high", hr.getName());
+        assertEquals(AlarmRule.Type.THRESHOLD, hr.getType());
+        assertEquals(AlarmRule.Comparison.ABOVE, hr.getOp());
+        assertEquals(120, hr.getValue(), 0);
+        assertEquals(0, hr.getDuration());
+        assertEquals(0, hr.getHysteresis(), 0);
+        assertEquals("warning", hr.getSeverity());
+        assertTrue(hr.appliesTo("any"));
+
+        AlarmRule spo2 = rules.get(1);
+        assertEquals(AlarmRule.Type.SUSTAINED, spo2.getType());
+        assertEquals(AlarmRule.Comparison.AT_OR_BELOW, spo2.getOp());
+        assertEquals(10000, spo2.getDuration());
+        assertEquals("critical", spo2.getSeverity());
+        assertTrue(spo2.appliesTo("monitor-1"));
+        assertFalse(spo2.appliesTo("monitor-2"));
+        assertTrue(spo2.isRaised(90));
+        assertFalse(spo2.isCleared(92));
+        assertTrue(spo2.isCleared(92.5));
+    }
+
+    @Test
+    public void loadsNoRulesWithoutList() {
+        assertTrue(AlarmRule.load(null).isEmpty());
+        assertTrue(AlarmRule.load(new HashMap<>()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleWithoutValue() {
+        HashMap<String, Object> options = rule("channel", "hr");
+        AlarmRule.load(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleWithoutChannel() {
+        AlarmRule.load(rule("value", "120"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownType() {
+        HashMap<String, Object> options = valid();
+        options.put("rule.test.type", "spike");
+        AlarmRule.load(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownComparison() {
+        HashMap<String, Object> options = valid();
+        options.put("rule.test.op", "==");
+        AlarmRule.load(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeDuration() {
+        HashMap<String, Object> options = valid();
+        options.put("rule.test.duration", "-1");
+        AlarmRule.load(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeHysteresis() {
+        HashMap<String, Object> options = valid();
+        options.put("rule.test.hysteresis", "-0.5");
+        AlarmRule.load(options);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsInvalidValue() {
+        HashMap<String, Object> options = valid();
+        options.put("rule.test.value", "high");
+        AlarmRule.load(options);
+    }
+
+    private static HashMap<String, Object> valid() {
+        HashMap<String, Object> options = rule("channel", "hr");
+        options.put("rule.test.value", "120");
+        return options;
+    }
+
+    private static HashMap<String, Object> rule(String key, String value) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("rules", "test");
+        options.put("rule.test." + key, value);
+        return options;
+    }
+}
@@ -0,0 +1,126 @@
+package edu.upenn.cis.precise.openicelite.coreapps.alarm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RuleStateTest {
+    @Test
+    public void thresholdRaisesAndClearsPastHysteresis() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.THRESHOLD, AlarmRule.Comparison.ABOVE, 0, 5));
+        assertEquals(RuleState.NONE, state.update(0, 100));
+        assertEquals(RuleState.RAISED, state.update(1, 101));
+        assertEquals(101, state.getObserved(), 0);
+        assertEquals(RuleState.NONE, state.update(2, 120));
+        // Back under the limit, but not past the hysteresis margin
+        assertEquals(RuleState.NONE, state.update(3, 96));
+        assertTrue(state.isActive());
+        assertEquals(RuleState.CLEARED, state.update(4, 95));
+        assertFalse(state.isActive());
+        assertEquals(RuleState.NONE, state.update(5, 100));
+    }
+
+    @Test
+    public void thresholdBelowClearsAboveLimitPlusHysteresis() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.THRESHOLD, AlarmRule.Comparison.AT_OR_BELOW, 0, 5));
+        assertEquals(RuleState.RAISED, state.update(0, 100));
+        assertEquals(RuleState.NONE, state.update(1, 105));
+        assertEquals(RuleState.CLEARED, state.update(2, 105.5));
+    }
+
+    @Test
+    public void sustainedRaisesAtDurationBoundary() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.SUSTAINED, AlarmRule.Comparison.ABOVE, 1000, 0));
+        assertEquals(RuleState.NONE, state.update(10000, 101));
+        assertEquals(RuleState.NONE, state.update(10999, 101));
+        assertEquals(RuleState.RAISED, state.update(11000, 101));
+        assertEquals(RuleState.NONE, state.update(11500, 150));
+        assertEquals(RuleState.CLEARED, state.update(12000, 100));
+    }
+
+    @Test
+    public void sustainedRestartsWhenValueDipsBack() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.SUSTAINED, AlarmRule.Comparison.ABOVE, 1000, 0));
+        assertEquals(RuleState.NONE, state.update(0, 101));
+        assertEquals(RuleState.NONE, state.update(500, 99));
+        assertEquals(RuleState.NONE, state.update(1200, 101));
+        assertEquals(RuleState.NONE, state.update(2199, 101));
+        assertEquals(RuleState.RAISED, state.update(2200, 101));
+    }
+
+    @Test
+    public void sustainedDoesNotRaiseOnOutOfOrderSamples() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.SUSTAINED, AlarmRule.Comparison.ABOVE, 1000, 0));
+        assertEquals(RuleState.NONE, state.update(5000, 101));
+        // An older sample never covers the duration
+        assertEquals(RuleState.NONE, state.update(3000, 101));
+        assertEquals(RuleState.NONE, state.update(5999, 101));
+        assertEquals(RuleState.RAISED, state.update(6000, 101));
+    }
+
+    @Test
+    public void sustainedClearsPastHysteresis() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.SUSTAINED, AlarmRule.Comparison.ABOVE, 0, 10));
+        assertEquals(RuleState.RAISED, state.update(0, 101));
+        assertEquals(RuleState.NONE, state.update(1, 91));
+        assertEquals(RuleState.CLEARED, state.update(2, 90));
+        assertEquals(RuleState.NONE, state.update(3, 95));
+    }
+
+    @Test
+    public void rateRaisesOnceWindowCoversDuration() {
+        // Rising by more than 10 per second over a second
+        RuleState state = RuleState.create(rule(AlarmRule.Type.RATE, AlarmRule.Comparison.ABOVE, 1000, 0));
+        assertEquals(RuleState.NONE, state.update(0, 0));
+        assertEquals(RuleState.NONE, state.update(500, 50));
+        assertEquals(RuleState.RAISED, state.update(1000, 20));
+        assertEquals(20, state.getObserved(), 1e-9);
+        assertEquals(RuleState.NONE, state.update(1400, 60));
+        // The oldest sample moves to the last one at or before 500 ms: (25 - 50) per second
+        assertEquals(RuleState.CLEARED, state.update(1500, 25));
+        assertEquals(-25, state.getObserved(), 1e-9);
+    }
+
+    @Test
+    public void rateIgnoresOutOfOrderAndDuplicateSamples() {
+        RuleState state = RuleState.create(rule(AlarmRule.Type.RATE, AlarmRule.Comparison.ABOVE, 1000, 0));
+        assertEquals(RuleState.NONE, state.update(0, 0));
+        assertEquals(RuleState.NONE, state.update(1000, 5));
+        assertEquals(RuleState.NONE, state.update(1000, 500));
+        assertEquals(RuleState.NONE, state.update(400, 500));
+        assertFalse(state.isActive());
+        assertEquals(RuleState.RAISED, state.update(1500, 500));
+    }
+
+    @Test
+    public void rateKeepsEverySampleOfDurationWhenRingGrows() {
+        // 100 samples per second rising by 1 per sample (100 per second)
+        RuleState state = RuleState.create(rule(AlarmRule.Type.RATE, AlarmRule.Comparison.ABOVE, 1000, 0));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("sample " + i, RuleState.NONE, state.update(i * 10, i));
+        }
+        assertEquals(RuleState.RAISED, state.update(1000, 100));
+        assertEquals(100, state.getObserved(), 1e-9);
+        for (int i = 101; i < 300; i++) {
+            assertEquals("sample " + i, RuleState.NONE, state.update(i * 10, i));
+            assertEquals(100, state.getObserved(), 1e-9);
+        }
+        // Flat from 2990 ms, until the rate over the last second is down to the limit
+        for (int i = 300; i < 389; i++) {
+            assertEquals("sample " + i, RuleState.NONE, state.update(i * 10, 299));
+        }
+        assertEquals(RuleState.CLEARED, state.update(3890, 299));
+        assertEquals(10, state.getObserved(), 1e-9);
+    }
+
+    /**
+     * Create a rule with a limit of 100 (a rate of 10 per second for rate rules)
+     */
+    private static AlarmRule rule(AlarmRule.Type type, AlarmRule.Comparison op, long duration, double hysteresis) {
+        double limit = (type == AlarmRule.Type.RATE) ? 10 : 100;
+        return new AlarmRule("test", "hr", type, op, limit, duration, hysteresis, "warning", null);
+    }
+}
@@ -0,0 +1,53 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.io.Reader;
+
+/**
+ * A reusable reader decoding UTF-8 straight from a buffer (no intermediate array or
+ * string of the whole payload)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class BufferReader extends Reader {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer input;
+    private boolean flushed;
+
+    /**
+     * Start reading a new payload
+     *
+     * @param input payload between position and limit (left unchanged)
+     * @return this reader
+     */
+    BufferReader reset(ByteBuffer input) {
+        this.input = input.duplicate();
+        this.flushed = false;
+        decoder.reset();
+        return this;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (length == 0) return 0;
+        CharBuffer output = CharBuffer.wrap(buffer, offset, length);
+        if (input.hasRemaining()) decoder.decode(input, output, true);
+        if (!input.hasRemaining() && !flushed && output.hasRemaining()) {
+            decoder.flush(output);
+            flushed = true;
+        }
+        int count = output.position() - offset;
+        return (count == 0) ? -1 : count;
+    }
+
+    @Override
+    public void close() {
+        input = null;
+    }
+}
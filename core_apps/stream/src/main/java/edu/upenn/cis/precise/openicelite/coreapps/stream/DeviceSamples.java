@@ -0,0 +1,104 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sample rings of all channels of one device
+ * <p>
+ * Channel names come from device messages, so the number of channels is capped: a
+ * device sending ever new names would otherwise allocate a ring for each of them.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DeviceSamples {
+    private final String deviceId;
+    private final int capacity;
+    private final boolean offHeap;
+    private final int maxChannels;
+    private final ConcurrentHashMap<String, SampleRing> channels = new ConcurrentHashMap<>();
+    private volatile DeviceInfo info;
+
+    DeviceSamples(String deviceId, int capacity, boolean offHeap, int maxChannels) {
+        this.deviceId = deviceId;
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.maxChannels = maxChannels;
+    }
+
+    /**
+     * Append a sample to a channel, creating its ring on first use unless the device
+     * already has the maximum number of channels (writer thread only)
+     *
+     * @param channel   channel name
+     * @param timestamp sample time (milliseconds)
+     * @param value     sample value
+     * @return true if appended, false if the channel was rejected
+     */
+    public boolean append(String channel, long timestamp, double value) {
+        SampleRing ring = channels.get(channel);
+        if (ring == null) {
+            if (channels.size() >= maxChannels) return false;
+            ring = channels.computeIfAbsent(channel, key -> new SampleRing(capacity, offHeap));
+        }
+        ring.append(timestamp, value);
+        return true;
+    }
+
+    /**
+     * Return the ring of a channel
+     *
+     * @param channel channel name
+     * @return ring (null if the channel has no sample yet)
+     */
+    public SampleRing getChannel(String channel) {
+        return channels.get(channel);
+    }
+
+    /**
+     * Return the names of all channels with samples
+     *
+     * @return channel names
+     */
+    public List<String> getChannels() {
+        return new ArrayList<>(channels.keySet());
+    }
+
+    /**
+     * Return the device ID
+     *
+     * @return device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Return the device information, if registered (see SampleStore.register)
+     *
+     * @return device information (may be null)
+     */
+    public DeviceInfo getDeviceInfo() {
+        return info;
+    }
+
+    void setDeviceInfo(DeviceInfo info) {
+        this.info = info;
+    }
+
+    /**
+     * Return the memory held by the samples of all channels
+     *
+     * @return size in bytes
+     */
+    public long getMemorySize() {
+        long size = 0;
+        for (SampleRing ring : channels.values()) {
+            size += ring.getMemorySize();
+        }
+        return size;
+    }
+}
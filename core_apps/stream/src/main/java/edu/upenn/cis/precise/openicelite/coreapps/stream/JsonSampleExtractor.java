@@ -0,0 +1,116 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Extract samples from JSON device messages with a streaming reader, without
+ * building a tree or boxing numbers
+ * <p>
+ * A message is a JSON object (see the synthetic driver):
+ * - "timestamp":   message time in milliseconds (default to the receive time)
+ * - "samples":     array of waveform samples, stored in the channel named by "type"
+ *                      (default to "samples") and spaced by 1 / "rate" seconds from
+ *                      the message time
+ * - any other number field is a channel of its own with one sample (e.g., "hr")
+ * Other fields are skipped. An extractor reuses its buffers and belongs to one
+ * thread (the middleware callback thread).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class JsonSampleExtractor {
+    private static final String TIMESTAMP_FIELD = "timestamp";
+    private static final String SAMPLES_FIELD = "samples";
+    private static final String TYPE_FIELD = "type";
+    private static final String RATE_FIELD = "rate";
+
+    private final BufferReader reader = new BufferReader();
+    private double[] samples = new double[256];
+    private String[] numericNames = new String[8];
+    private double[] numericValues = new double[8];
+
+    /**
+     * Receive extracted samples
+     */
+    @FunctionalInterface
+    public interface SampleSink {
+        /**
+         * Handle a sample
+         *
+         * @param channel   channel name
+         * @param timestamp sample time (milliseconds)
+         * @param value     sample value
+         */
+        void accept(String channel, long timestamp, double value);
+    }
+
+    /**
+     * Extract all samples of a message
+     *
+     * @param message JSON payload between position and limit (left unchanged)
+     * @param sink    receiver of the samples, in channel then time order
+     * @return number of samples
+     * @throws IOException if the message is not a JSON object
+     */
+    public int extract(ByteBuffer message, SampleSink sink) throws IOException {
+        long timestamp = -1;
+        String type = SAMPLES_FIELD;
+        double rate = 0;
+        int sampleCount = 0;
+        int numericCount = 0;
+
+        JsonReader json = new JsonReader(reader.reset(message));
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            JsonToken token = json.peek();
+            if (TIMESTAMP_FIELD.equals(name) && token == JsonToken.NUMBER) {
+                timestamp = json.nextLong();
+            } else if (TYPE_FIELD.equals(name) && token == JsonToken.STRING) {
+                type = json.nextString();
+            } else if (RATE_FIELD.equals(name) && token == JsonToken.NUMBER) {
+                rate = json.nextDouble();
+            } else if (SAMPLES_FIELD.equals(name) && token == JsonToken.BEGIN_ARRAY) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    if (json.peek() != JsonToken.NUMBER) {
+                        json.skipValue();
+                        continue;
+                    }
+                    if (sampleCount == samples.length) samples = grow(samples);
+                    samples[sampleCount++] = json.nextDouble();
+                }
+                json.endArray();
+            } else if (token == JsonToken.NUMBER) {
+                if (numericCount == numericNames.length) {
+                    numericNames = Arrays.copyOf(numericNames, numericCount * 2);
+                    numericValues = grow(numericValues);
+                }
+                numericNames[numericCount] = name;
+                numericValues[numericCount++] = json.nextDouble();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (timestamp < 0) timestamp = System.currentTimeMillis();
+        double interval = (rate > 0) ? 1000 / rate : 0;
+        for (int i = 0; i < sampleCount; i++) {
+            sink.accept(type, timestamp + (long) (i * interval), samples[i]);
+        }
+        for (int i = 0; i < numericCount; i++) {
+            sink.accept(numericNames[i], timestamp, numericValues[i]);
+            numericNames[i] = null;
+        }
+        return sampleCount + numericCount;
+    }
+
+    private static double[] grow(double[] array) {
+        return Arrays.copyOf(array, array.length * 2);
+    }
+}
@@ -0,0 +1,176 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Middleware callback extracting the samples of device data messages (see
+ * JsonSampleExtractor), the base of consumers such as SampleStore and StreamPipelines
+ * <p>
+ * Every callback thread has its own extraction state, which is also the sink of the
+ * samples of the message being handled, so nothing is shared or allocated per message.
+ * Messages of one device are expected on one callback thread at a time. Subclasses
+ * prepare the state for a message in begin and release it in end; messages on other
+ * than data topics are ignored, and byte array and string payloads are handled as
+ * buffers.
+ *
+ * @param <T> extraction state of a callback thread
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public abstract class SampleCallback<T extends SampleCallback.Extraction> implements IMiddlewareCallback {
+    private static final Logger logger = LogManager.getLogger(SampleCallback.class);
+
+    private final ThreadLocal<T> extractions = ThreadLocal.withInitial(this::createExtraction);
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile ITopicHandler topicHandler;
+
+    /**
+     * Sample callback constructor
+     *
+     * @param topicHandler topic handler of the middleware the callback is subscribed with
+     *                     (may be set later)
+     */
+    protected SampleCallback(ITopicHandler topicHandler) {
+        this.topicHandler = topicHandler;
+    }
+
+    /**
+     * Create the extraction state of a callback thread (once per thread)
+     *
+     * @return extraction state
+     */
+    protected abstract T createExtraction();
+
+    /**
+     * Prepare the extraction state for a data message
+     *
+     * @param extraction extraction state of the current thread
+     * @param topic      topic of the message
+     * @return true to extract the message, false to skip it
+     */
+    protected abstract boolean begin(T extraction, ParsedTopic topic);
+
+    /**
+     * Release the extraction state after a message begun is extracted, or failed to be
+     *
+     * @param extraction extraction state of the current thread
+     */
+    protected void end(T extraction) {
+        // Nothing to release by default
+    }
+
+    /**
+     * Count samples which do not come through the middleware, or take back extracted
+     * samples which were dropped (negative count)
+     *
+     * @param count number of samples
+     */
+    protected void addSamples(long count) {
+        samples.add(count);
+    }
+
+    /**
+     * Return the topic handler parsing topics of byte array and string messages
+     *
+     * @return topic handler
+     */
+    protected ITopicHandler getTopicHandler() {
+        return topicHandler;
+    }
+
+    /**
+     * Set the topic handler (before subscribing)
+     *
+     * @param topicHandler topic handler of the middleware the callback is subscribed with
+     */
+    protected void setTopicHandler(ITopicHandler topicHandler) {
+        this.topicHandler = topicHandler;
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    public void handleMessage(ParsedTopic topic, ByteBuffer message) {
+        if (topic == null || topic.getType() != ITopicHandler.TopicType.DATA || topic.getDeviceId() == null) return;
+        T extraction = extractions.get();
+        extraction.topic = topic;
+        if (!begin(extraction, topic)) {
+            extraction.topic = null;
+            return;
+        }
+        try {
+            samples.add(extraction.extractor.extract(message, extraction));
+            messages.increment();
+        } catch (Exception ex) {
+            errors.increment();
+            if (logger.isDebugEnabled()) logger.debug("Failed to extract samples from " + topic, ex);
+        } finally {
+            extraction.topic = null;
+            end(extraction);
+        }
+    }
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        handleMessage(topicHandler.parseTopic(topic), ByteBuffer.wrap(message));
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        handleMessage(topicHandler.parseTopic(topic), ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Return the number of extracted messages
+     *
+     * @return number of messages
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Return the number of extracted samples
+     *
+     * @return number of samples
+     */
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * Return the number of messages which could not be parsed
+     *
+     * @return number of errors
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Extraction state of a callback thread, also the sink of its samples
+     */
+    public abstract static class Extraction implements JsonSampleExtractor.SampleSink {
+        final JsonSampleExtractor extractor = new JsonSampleExtractor();
+        ParsedTopic topic;
+
+        /**
+         * Return the topic of the message being extracted
+         *
+         * @return topic (null between messages)
+         */
+        protected ParsedTopic getTopic() {
+            return topic;
+        }
+    }
+}
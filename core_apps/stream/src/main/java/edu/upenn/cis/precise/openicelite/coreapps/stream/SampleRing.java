@@ -0,0 +1,205 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Ring of the latest (timestamp, value) samples of one channel, in primitive arrays
+ * on or off the heap
+ * <p>
+ * Samples are numbered by a sequence which increases forever; the ring holds the
+ * latest "capacity" of them. There is one writer (the callback thread delivering the
+ * device data) and any number of readers: readers take windows by sequence or time
+ * and check afterwards that the writer has not overwritten them (see SampleWindow),
+ * like a sequence lock on the volatile head sequence.
+ * The oldest sample may be being overwritten by the next append at any time, so
+ * windows start one sample later (see getTail). Timestamps are expected to be
+ * non-decreasing.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SampleRing {
+    private final int capacity;
+    private final int mask;
+    private final boolean offHeap;
+    private final LongBuffer times;
+    private final DoubleBuffer values;
+    // Sequence of the next sample (written after the sample itself)
+    private volatile long head = 0;
+
+    /**
+     * Sample ring constructor
+     *
+     * @param capacity number of samples (rounded up to a power of two)
+     * @param offHeap  true to store samples in direct memory
+     */
+    public SampleRing(int capacity, boolean offHeap) {
+        if (capacity < 1 || capacity > (1 << 26)) throw new IllegalArgumentException("Invalid ring capacity!");
+        this.capacity = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.offHeap = offHeap;
+        this.times = allocate(this.capacity * Long.BYTES, offHeap).asLongBuffer();
+        this.values = allocate(this.capacity * Double.BYTES, offHeap).asDoubleBuffer();
+    }
+
+    private static ByteBuffer allocate(int size, boolean offHeap) {
+        return (offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Append a sample (writer thread only)
+     *
+     * @param timestamp sample time (milliseconds)
+     * @param value     sample value
+     */
+    public void append(long timestamp, double value) {
+        // The previous head must be visible before the slot is overwritten, or a
+        // reader could see the new sample together with a head which still holds the old:
+        // writes are not reordered before this volatile read, which follows the volatile
+        // write of the previous head
+        long sequence = head;
+        int index = (int) sequence & mask;
+        times.put(index, timestamp);
+        values.put(index, value);
+        head = sequence + 1;
+    }
+
+    /**
+     * Return the sequence of the next sample to be written
+     *
+     * @return head sequence
+     */
+    public long getHead() {
+        return head;
+    }
+
+    /**
+     * Return the sequence of the oldest sample safe to read (the sample before it is
+     * overwritten by the next append, which may be in progress)
+     *
+     * @return tail sequence
+     */
+    public long getTail() {
+        return tail(head);
+    }
+
+    private long tail(long end) {
+        return Math.max(0, end - capacity + 1);
+    }
+
+    /**
+     * Determine if a sample has neither been overwritten nor is being overwritten;
+     * readers call this after reading the sample, once their reads are ordered before
+     * it (see SampleWindow.isValid)
+     *
+     * @param sequence sample sequence
+     * @return true if the sample read so far is intact
+     */
+    boolean isHeld(long sequence) {
+        return head - capacity < sequence;
+    }
+
+    /**
+     * Return the timestamp of a sample (valid if the sequence is still held)
+     *
+     * @param sequence sample sequence
+     * @return timestamp
+     */
+    public long getTime(long sequence) {
+        return times.get((int) sequence & mask);
+    }
+
+    /**
+     * Return the value of a sample (valid if the sequence is still held)
+     *
+     * @param sequence sample sequence
+     * @return value
+     */
+    public double getValue(long sequence) {
+        return values.get((int) sequence & mask);
+    }
+
+    /**
+     * Return a view of the latest samples
+     *
+     * @param count maximum number of samples
+     * @return window of up to count samples
+     */
+    public SampleWindow latest(int count) {
+        long end = head;
+        long start = Math.max(tail(end), end - count);
+        return new SampleWindow(this, start, end);
+    }
+
+    /**
+     * Return a view of the samples with a timestamp within [from, to)
+     *
+     * @param from first timestamp (inclusive)
+     * @param to   last timestamp (exclusive)
+     * @return window of the samples held in the range
+     */
+    public SampleWindow range(long from, long to) {
+        long end = head;
+        long tail = tail(end);
+        return new SampleWindow(this, search(tail, end, from), search(tail, end, to));
+    }
+
+    /**
+     * Return a view of the samples of the last milliseconds, up to the latest sample
+     *
+     * @param duration window duration (milliseconds)
+     * @return window of the samples held in the duration
+     */
+    public SampleWindow last(long duration) {
+        long end = head;
+        if (end == 0) return new SampleWindow(this, 0, 0);
+        long latest = getTime(end - 1);
+        long tail = tail(end);
+        return new SampleWindow(this, search(tail, end, latest - duration + 1), end);
+    }
+
+    /**
+     * Return the first sequence within [low, high) with a timestamp not before the
+     * given time (high if none)
+     */
+    private long search(long low, long high, long time) {
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the number of samples held at most
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Determine if samples are stored in direct memory
+     *
+     * @return true if off-heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Return the memory held by the samples
+     *
+     * @return size in bytes
+     */
+    public long getMemorySize() {
+        return (long) capacity * (Long.BYTES + Double.BYTES);
+    }
+}
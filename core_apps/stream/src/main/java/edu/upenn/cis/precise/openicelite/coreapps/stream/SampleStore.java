@@ -0,0 +1,204 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keep the latest samples of every channel of every device for local analytics
+ * <p>
+ * Samples are stored per device ID and channel in primitive rings (off the heap by
+ * default), so holding the last seconds of hundreds of waveforms neither boxes a
+ * sample nor adds to GC work. Analytics read windows of the rings in place (see
+ * SampleRing and SampleWindow).
+ * <p>
+ * The store is a middleware callback: subscribe it to the data topics and it parses
+ * device messages straight from the delivered buffer (see SampleCallback).
+ * <p>
+ * Available options for initialization:
+ * - "capacity":            samples kept per channel, rounded up to a power of two
+ *                              (default to 4096)
+ * - "off_heap":            store samples in direct memory (default to true)
+ * - "max_channels":        channels kept per device, samples of further channels are
+ *                              rejected and counted (default to 64)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SampleStore extends SampleCallback<SampleStore.Ingest> {
+    private final ConcurrentHashMap<String, DeviceSamples> devices = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    // Overwritten-able configuration
+    private int capacity = 4096;
+    private boolean offHeap = true;
+    private int maxChannels = 64;
+
+    /**
+     * Sample store constructor
+     *
+     * @param topicHandler topic handler of the middleware the store is subscribed with
+     */
+    public SampleStore(ITopicHandler topicHandler) {
+        super(topicHandler);
+    }
+
+    /**
+     * Load store options (rings created before keep their capacity)
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("capacity")) {
+            capacity = Integer.parseInt(options.get("capacity").toString());
+        }
+        if (options.containsKey("off_heap")) {
+            offHeap = Boolean.parseBoolean(options.get("off_heap").toString());
+        }
+        if (options.containsKey("max_channels")) {
+            maxChannels = Integer.parseInt(options.get("max_channels").toString());
+        }
+        if (capacity < 1 || maxChannels < 1) throw new IllegalArgumentException("Invalid sample store options!");
+    }
+
+    /**
+     * Attach device information to the samples of a device (optional, devices are
+     * added on their first sample)
+     *
+     * @param info device information
+     */
+    public void register(DeviceInfo info) {
+        getOrCreate(info.getDeviceId()).setDeviceInfo(info);
+    }
+
+    /**
+     * Drop all samples of a device
+     *
+     * @param deviceId device ID
+     * @return true if removed, false if not found
+     */
+    public boolean remove(String deviceId) {
+        return devices.remove(deviceId) != null;
+    }
+
+    /**
+     * Return the samples of a device
+     *
+     * @param deviceId device ID
+     * @return device samples (null if unknown)
+     */
+    public DeviceSamples getDevice(String deviceId) {
+        return devices.get(deviceId);
+    }
+
+    /**
+     * Return the IDs of all devices with samples
+     *
+     * @return device IDs
+     */
+    public List<String> getDevices() {
+        return new ArrayList<>(devices.keySet());
+    }
+
+    /**
+     * Return the ring of a channel of a device
+     *
+     * @param deviceId device ID
+     * @param channel  channel name
+     * @return ring (null if unknown)
+     */
+    public SampleRing getChannel(String deviceId, String channel) {
+        DeviceSamples device = devices.get(deviceId);
+        return (device == null) ? null : device.getChannel(channel);
+    }
+
+    /**
+     * Append a sample (for data which does not come through the middleware)
+     *
+     * @param deviceId  device ID
+     * @param channel   channel name
+     * @param timestamp sample time (milliseconds)
+     * @param value     sample value
+     * @return true if appended, false if the channel was rejected
+     */
+    public boolean append(String deviceId, String channel, long timestamp, double value) {
+        if (getOrCreate(deviceId).append(channel, timestamp, value)) {
+            addSamples(1);
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    private DeviceSamples getOrCreate(String deviceId) {
+        DeviceSamples device = devices.get(deviceId);
+        if (device == null) {
+            device = devices.computeIfAbsent(deviceId, key -> new DeviceSamples(key, capacity, offHeap, maxChannels));
+        }
+        return device;
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    protected Ingest createExtraction() {
+        return new Ingest();
+    }
+
+    @Override
+    protected boolean begin(Ingest ingest, ParsedTopic topic) {
+        ingest.device = getOrCreate(topic.getDeviceId());
+        ingest.rejected = 0;
+        return true;
+    }
+
+    @Override
+    protected void end(Ingest ingest) {
+        ingest.device = null;
+        if (ingest.rejected > 0) {
+            rejected.add(ingest.rejected);
+            addSamples(-ingest.rejected);
+        }
+    }
+
+    /**
+     * Return the number of samples rejected for exceeding the channels of their device
+     *
+     * @return number of samples
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Return the memory held by the samples of all devices
+     *
+     * @return size in bytes
+     */
+    public long getMemorySize() {
+        long size = 0;
+        for (DeviceSamples device : devices.values()) {
+            size += device.getMemorySize();
+        }
+        return size;
+    }
+
+    /**
+     * Extraction state of a callback thread, also the sink of its samples
+     */
+    static class Ingest extends SampleCallback.Extraction {
+        private DeviceSamples device;
+        private int rejected;
+
+        @Override
+        public void accept(String channel, long timestamp, double value) {
+            if (!device.append(channel, timestamp, value)) rejected++;
+        }
+    }
+}
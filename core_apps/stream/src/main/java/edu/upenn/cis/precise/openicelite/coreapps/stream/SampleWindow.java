@@ -0,0 +1,171 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+/**
+ * A view of consecutive samples of a ring, read in place without copying
+ * <p>
+ * The writer keeps going while a window is read, so its oldest samples may be
+ * overwritten if the window is held for long (close to the ring capacity). Readers
+ * which need exact results check isValid() after reading, and take a new window (or
+ * copy the samples out) if it returns false.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SampleWindow {
+    private final SampleRing ring;
+    private final long start;
+    private final long end;
+    // Written before the head is read again on validation: reads are not reordered
+    // after a volatile write, so the samples read so far are checked against that head
+    private volatile boolean checked = false;
+
+    SampleWindow(SampleRing ring, long start, long end) {
+        this.ring = ring;
+        this.start = start;
+        this.end = Math.max(start, end);
+    }
+
+    /**
+     * Return the number of samples
+     *
+     * @return size
+     */
+    public int size() {
+        return (int) (end - start);
+    }
+
+    /**
+     * Determine if the window has no sample
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    /**
+     * Return the timestamp of the i-th sample (0 is the oldest)
+     *
+     * @param i sample index
+     * @return timestamp
+     */
+    public long getTime(int i) {
+        return ring.getTime(start + i);
+    }
+
+    /**
+     * Return the value of the i-th sample (0 is the oldest)
+     *
+     * @param i sample index
+     * @return value
+     */
+    public double getValue(int i) {
+        return ring.getValue(start + i);
+    }
+
+    /**
+     * Return the sequence of the first sample in the ring
+     *
+     * @return start sequence
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Return the sequence after the last sample in the ring
+     *
+     * @return end sequence
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Determine if no sample of this window has been overwritten so far (nor is being
+     * overwritten), i.e., ring.getHead() - capacity < start once all reads are done
+     *
+     * @return true if valid
+     */
+    public boolean isValid() {
+        checked = true;
+        return ring.isHeld(start);
+    }
+
+    /**
+     * Return the minimum of the values
+     *
+     * @return minimum (NaN if empty)
+     */
+    public double min() {
+        double min = Double.NaN;
+        for (long sequence = start; sequence < end; sequence++) {
+            double value = ring.getValue(sequence);
+            if (!(value >= min)) min = value;
+        }
+        return min;
+    }
+
+    /**
+     * Return the maximum of the values
+     *
+     * @return maximum (NaN if empty)
+     */
+    public double max() {
+        double max = Double.NaN;
+        for (long sequence = start; sequence < end; sequence++) {
+            double value = ring.getValue(sequence);
+            if (!(value <= max)) max = value;
+        }
+        return max;
+    }
+
+    /**
+     * Return the sum of the values
+     *
+     * @return sum (0 if empty)
+     */
+    public double sum() {
+        double sum = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            sum += ring.getValue(sequence);
+        }
+        return sum;
+    }
+
+    /**
+     * Return the mean of the values
+     *
+     * @return mean (NaN if empty)
+     */
+    public double mean() {
+        return isEmpty() ? Double.NaN : sum() / size();
+    }
+
+    /**
+     * Copy the values out (e.g., to keep them beyond the ring capacity)
+     *
+     * @param destination array of at least size() values
+     * @return number of copied values
+     */
+    public int copyValues(double[] destination) {
+        int count = size();
+        for (int i = 0; i < count; i++) {
+            destination[i] = ring.getValue(start + i);
+        }
+        return count;
+    }
+
+    /**
+     * Copy the timestamps out
+     *
+     * @param destination array of at least size() timestamps
+     * @return number of copied timestamps
+     */
+    public int copyTimes(long[] destination) {
+        int count = size();
+        for (int i = 0; i < count; i++) {
+            destination[i] = ring.getTime(start + i);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,17 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+/**
+ * Receive a stream of primitive samples (a stage of a pipeline)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@FunctionalInterface
+public interface ISampleConsumer {
+    /**
+     * Handle a sample
+     *
+     * @param time  sample time (milliseconds)
+     * @param value sample value
+     */
+    void accept(long time, double value);
+}
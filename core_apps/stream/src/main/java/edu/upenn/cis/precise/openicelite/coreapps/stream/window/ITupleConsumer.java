@@ -0,0 +1,18 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+/**
+ * Receive samples of several streams aligned to one time (see StreamJoin)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@FunctionalInterface
+public interface ITupleConsumer {
+    /**
+     * Handle a joined tuple
+     *
+     * @param time   time of the tuple (milliseconds)
+     * @param values one value per stream in stream order, NaN if a stream had no sample
+     *               close enough (reused, copy to keep)
+     */
+    void accept(long time, double[] values);
+}
@@ -0,0 +1,35 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+/**
+ * Aggregate of the samples of a sliding window, updated incrementally as samples
+ * enter and leave the window (see SlidingWindow)
+ * <p>
+ * Samples leave in the order they entered. Every sample gets an index from its window
+ * which increases by one per sample, so aggregates can recognize the sample leaving.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IWindowAggregate {
+    /**
+     * Add a sample entering the window
+     *
+     * @param index sample index
+     * @param time  sample time (milliseconds)
+     * @param value sample value
+     */
+    void add(long index, long time, double value);
+
+    /**
+     * Remove the oldest sample leaving the window
+     *
+     * @param index sample index
+     * @param time  sample time (milliseconds)
+     * @param value sample value
+     */
+    void evict(long index, long time, double value);
+
+    /**
+     * Remove all samples
+     */
+    void reset();
+}
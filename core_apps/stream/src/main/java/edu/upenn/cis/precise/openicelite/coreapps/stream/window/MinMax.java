@@ -0,0 +1,116 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+/**
+ * Minimum and maximum of a window with monotonic deques
+ * <p>
+ * Each deque only keeps samples which can still become the extreme (a sample is
+ * dropped once a newer one is at least as extreme), so every sample is pushed and
+ * popped at most once and both extremes are read in constant time.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MinMax implements IWindowAggregate {
+    private final Deque min = new Deque(true);
+    private final Deque max = new Deque(false);
+
+    @Override
+    public void add(long index, long time, double value) {
+        min.push(index, value);
+        max.push(index, value);
+    }
+
+    @Override
+    public void evict(long index, long time, double value) {
+        min.evict(index);
+        max.evict(index);
+    }
+
+    @Override
+    public void reset() {
+        min.clear();
+        max.clear();
+    }
+
+    /**
+     * Return the minimum of the window
+     *
+     * @return minimum (NaN if empty)
+     */
+    public double getMin() {
+        return min.first();
+    }
+
+    /**
+     * Return the maximum of the window
+     *
+     * @return maximum (NaN if empty)
+     */
+    public double getMax() {
+        return max.first();
+    }
+
+    /**
+     * Return the range of the window
+     *
+     * @return maximum - minimum (NaN if empty)
+     */
+    public double getRange() {
+        return max.first() - min.first();
+    }
+
+    /**
+     * Primitive ring deque of (index, value) in monotonic value order
+     */
+    private static final class Deque {
+        private final boolean ascending;
+        private long[] indices = new long[16];
+        private double[] values = new double[16];
+        private int head = 0;
+        private int count = 0;
+
+        private Deque(boolean ascending) {
+            this.ascending = ascending;
+        }
+
+        private void push(long index, double value) {
+            while (count > 0) {
+                double last = values[(head + count - 1) & (values.length - 1)];
+                if (ascending ? last < value : last > value) break;
+                count--;
+            }
+            if (count == values.length) grow();
+            int tail = (head + count++) & (values.length - 1);
+            indices[tail] = index;
+            values[tail] = value;
+        }
+
+        private void evict(long index) {
+            if (count > 0 && indices[head] == index) {
+                head = (head + 1) & (values.length - 1);
+                count--;
+            }
+        }
+
+        private double first() {
+            return (count == 0) ? Double.NaN : values[head];
+        }
+
+        private void clear() {
+            head = 0;
+            count = 0;
+        }
+
+        private void grow() {
+            long[] newIndices = new long[indices.length * 2];
+            double[] newValues = new double[values.length * 2];
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) & (values.length - 1);
+                newIndices[i] = indices[index];
+                newValues[i] = values[index];
+            }
+            indices = newIndices;
+            values = newValues;
+            head = 0;
+        }
+    }
+}
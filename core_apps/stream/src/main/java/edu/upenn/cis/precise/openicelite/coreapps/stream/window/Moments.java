@@ -0,0 +1,89 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+/**
+ * Count, sum, mean, and variance of a window
+ * <p>
+ * Mean and squared deviations are updated with Welford's method in both directions,
+ * so leaving samples are subtracted without the cancellation of running sums of
+ * squares.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class Moments implements IWindowAggregate {
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+    @Override
+    public void add(long index, long time, double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    @Override
+    public void evict(long index, long time, double value) {
+        if (count <= 1) {
+            reset();
+            return;
+        }
+        count--;
+        double delta = value - mean;
+        mean -= delta / count;
+        m2 -= delta * (value - mean);
+        if (m2 < 0) m2 = 0;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    /**
+     * Return the number of samples
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Return the sum of samples
+     *
+     * @return sum
+     */
+    public double getSum() {
+        return mean * count;
+    }
+
+    /**
+     * Return the mean of samples
+     *
+     * @return mean (NaN if empty)
+     */
+    public double getMean() {
+        return (count == 0) ? Double.NaN : mean;
+    }
+
+    /**
+     * Return the sample variance
+     *
+     * @return variance (NaN if less than two samples)
+     */
+    public double getVariance() {
+        return (count < 2) ? Double.NaN : m2 / (count - 1);
+    }
+
+    /**
+     * Return the sample standard deviation
+     *
+     * @return standard deviation (NaN if less than two samples)
+     */
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+}
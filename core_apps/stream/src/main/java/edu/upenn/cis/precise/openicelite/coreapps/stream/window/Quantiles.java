@@ -0,0 +1,104 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles of a window from a fixed-range histogram
+ * <p>
+ * Samples are counted in equal-width bins over [lower, upper) (samples out of range
+ * count in the first or last bin), kept in a Fenwick tree so that adding, removing,
+ * and looking up a quantile take O(log bins) regardless of the window size. Quantiles
+ * are returned as bin centers, within half a bin width of the exact value for samples
+ * in range.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class Quantiles implements IWindowAggregate {
+    private final double lower;
+    private final double width;
+    private final int bins;
+    private final int[] tree;
+    private long count = 0;
+
+    /**
+     * Quantiles constructor
+     *
+     * @param lower lower bound of the expected values
+     * @param upper upper bound of the expected values
+     * @param bins  number of bins (resolution)
+     */
+    public Quantiles(double lower, double upper, int bins) {
+        if (!(upper > lower) || bins < 1) throw new IllegalArgumentException("Invalid histogram range!");
+        this.lower = lower;
+        this.width = (upper - lower) / bins;
+        this.bins = bins;
+        this.tree = new int[bins + 1];
+    }
+
+    @Override
+    public void add(long index, long time, double value) {
+        update(bin(value), 1);
+        count++;
+    }
+
+    @Override
+    public void evict(long index, long time, double value) {
+        update(bin(value), -1);
+        count--;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(tree, 0);
+        count = 0;
+    }
+
+    /**
+     * Return an approximate quantile of the window
+     *
+     * @param quantile quantile between 0 and 1
+     * @return value (NaN if empty)
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0) return Double.NaN;
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        int position = 0;
+        for (int step = Integer.highestOneBit(bins); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= bins && tree[next] < rank) {
+                position = next;
+                rank -= tree[next];
+            }
+        }
+        return lower + (Math.min(position, bins - 1) + 0.5) * width;
+    }
+
+    /**
+     * Return the approximate median of the window
+     *
+     * @return median (NaN if empty)
+     */
+    public double getMedian() {
+        return getQuantile(0.5);
+    }
+
+    /**
+     * Return the number of samples
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    private int bin(double value) {
+        int bin = (int) Math.floor((value - lower) / width);
+        return (bin < 0) ? 0 : Math.min(bin, bins - 1);
+    }
+
+    private void update(int bin, int delta) {
+        for (int i = bin + 1; i <= bins; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+}
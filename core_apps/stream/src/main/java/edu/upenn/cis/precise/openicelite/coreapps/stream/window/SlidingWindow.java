@@ -0,0 +1,209 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Sliding window over a primitive sample stream, bounded by a number of samples
+ * and/or a duration
+ * <p>
+ * The window keeps its samples in primitive arrays and tells its aggregates about
+ * every sample entering and leaving, so aggregates are updated in constant time per
+ * sample instead of being recomputed over the window (compare SampleWindow). After
+ * each sample, the chosen results are passed downstream, so windows chain into
+ * pipelines, e.g., a moving average feeding the slope of a longer window:
+ * <p>
+ * SlidingWindow trend = SlidingWindow.time(60000);
+ * Slope slope = trend.aggregate(new Slope());
+ * SlidingWindow smooth = SlidingWindow.count(25);
+ * Moments moments = smooth.aggregate(new Moments());
+ * smooth.emit(moments::getMean, trend);
+ * <p>
+ * Time windows keep samples newer than the duration before the latest sample, and
+ * drop samples older than the latest one. NaN samples are dropped. A window is not
+ * thread-safe.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SlidingWindow implements ISampleConsumer {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxCount;
+    private final long duration;
+    private long[] times;
+    private double[] values;
+    private int head = 0;
+    private int count = 0;
+    private long nextIndex = 0;
+    private long dropped = 0;
+
+    private IWindowAggregate[] aggregates = new IWindowAggregate[0];
+    private DoubleSupplier[] results = new DoubleSupplier[0];
+    private ISampleConsumer[] outputs = new ISampleConsumer[0];
+
+    /**
+     * Sliding window constructor
+     *
+     * @param maxCount maximum number of samples (0 for no limit)
+     * @param duration maximum time span in milliseconds (0 for no limit)
+     */
+    public SlidingWindow(int maxCount, long duration) {
+        if (maxCount < 0 || duration < 0 || (maxCount == 0 && duration == 0)) {
+            throw new IllegalArgumentException("Invalid window size!");
+        }
+        this.maxCount = maxCount;
+        this.duration = duration;
+        int capacity = INITIAL_CAPACITY;
+        if (maxCount > 0) {
+            capacity = Integer.highestOneBit(Math.max(maxCount, 2) - 1) << 1;
+        }
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Return a window of the last samples
+     *
+     * @param count number of samples
+     * @return window
+     */
+    public static SlidingWindow count(int count) {
+        if (count < 1) throw new IllegalArgumentException("Invalid window size!");
+        return new SlidingWindow(count, 0);
+    }
+
+    /**
+     * Return a window of the samples of the last duration
+     *
+     * @param duration time span in milliseconds
+     * @return window
+     */
+    public static SlidingWindow time(long duration) {
+        if (duration < 1) throw new IllegalArgumentException("Invalid window size!");
+        return new SlidingWindow(0, duration);
+    }
+
+    /**
+     * Attach an aggregate to the window (before the first sample)
+     *
+     * @param aggregate aggregate
+     * @param <T>       aggregate type
+     * @return the aggregate
+     */
+    public <T extends IWindowAggregate> T aggregate(T aggregate) {
+        aggregates = Arrays.copyOf(aggregates, aggregates.length + 1);
+        aggregates[aggregates.length - 1] = aggregate;
+        return aggregate;
+    }
+
+    /**
+     * Pass a result downstream after each sample, timed as the sample
+     *
+     * @param result     result to pass, e.g., moments::getMean
+     * @param downstream next stage
+     * @return this window
+     */
+    public SlidingWindow emit(DoubleSupplier result, ISampleConsumer downstream) {
+        results = Arrays.copyOf(results, results.length + 1);
+        results[results.length - 1] = result;
+        outputs = Arrays.copyOf(outputs, outputs.length + 1);
+        outputs[outputs.length - 1] = downstream;
+        return this;
+    }
+
+    @Override
+    public void accept(long time, double value) {
+        if (Double.isNaN(value) || (duration > 0 && count > 0 && time < getNewestTime())) {
+            dropped++;
+            return;
+        }
+        if (maxCount > 0 && count == maxCount) evict();
+        if (count == times.length) grow();
+
+        int tail = (head + count++) & (times.length - 1);
+        times[tail] = time;
+        values[tail] = value;
+        long index = nextIndex++;
+        for (IWindowAggregate aggregate : aggregates) {
+            aggregate.add(index, time, value);
+        }
+        if (duration > 0) {
+            while (times[head] <= time - duration) evict();
+        }
+
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i].accept(time, results[i].getAsDouble());
+        }
+    }
+
+    private void evict() {
+        long index = nextIndex - count;
+        long time = times[head];
+        double value = values[head];
+        head = (head + 1) & (times.length - 1);
+        count--;
+        for (IWindowAggregate aggregate : aggregates) {
+            aggregate.evict(index, time, value);
+        }
+    }
+
+    private void grow() {
+        long[] newTimes = new long[times.length * 2];
+        double[] newValues = new double[values.length * 2];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) & (times.length - 1);
+            newTimes[i] = times[index];
+            newValues[i] = values[index];
+        }
+        times = newTimes;
+        values = newValues;
+        head = 0;
+    }
+
+    /**
+     * Remove all samples (and reset aggregates, not downstream stages)
+     */
+    public void reset() {
+        head = 0;
+        count = 0;
+        for (IWindowAggregate aggregate : aggregates) {
+            aggregate.reset();
+        }
+    }
+
+    /**
+     * Return the number of samples in the window
+     *
+     * @return size
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return the time of the oldest sample
+     *
+     * @return time in milliseconds (-1 if empty)
+     */
+    public long getOldestTime() {
+        return (count == 0) ? -1 : times[head];
+    }
+
+    /**
+     * Return the time of the latest sample
+     *
+     * @return time in milliseconds (-1 if empty)
+     */
+    public long getNewestTime() {
+        return (count == 0) ? -1 : times[(head + count - 1) & (times.length - 1)];
+    }
+
+    /**
+     * Return the number of dropped samples (NaN or out of order)
+     *
+     * @return number of samples
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,74 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+/**
+ * Trend of a window as the least-squares slope of value over time, per second
+ * <p>
+ * Means and co-moments of time and value are updated with Welford's method in both
+ * directions. Times are taken relative to the first sample of the window so that
+ * epoch milliseconds do not cost precision.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class Slope implements IWindowAggregate {
+    private long origin = 0;
+    private long count = 0;
+    private double meanTime = 0;
+    private double meanValue = 0;
+    private double timeM2 = 0;
+    private double coM2 = 0;
+
+    @Override
+    public void add(long index, long time, double value) {
+        if (count == 0) origin = time;
+        double t = (time - origin) / 1000.0;
+        count++;
+        double deltaTime = t - meanTime;
+        meanTime += deltaTime / count;
+        meanValue += (value - meanValue) / count;
+        timeM2 += deltaTime * (t - meanTime);
+        coM2 += deltaTime * (value - meanValue);
+    }
+
+    @Override
+    public void evict(long index, long time, double value) {
+        if (count <= 1) {
+            reset();
+            return;
+        }
+        double t = (time - origin) / 1000.0;
+        count--;
+        double deltaTime = t - meanTime;
+        meanTime -= deltaTime / count;
+        meanValue -= (value - meanValue) / count;
+        timeM2 -= deltaTime * (t - meanTime);
+        coM2 -= deltaTime * (value - meanValue);
+        if (timeM2 < 0) timeM2 = 0;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        meanTime = 0;
+        meanValue = 0;
+        timeM2 = 0;
+        coM2 = 0;
+    }
+
+    /**
+     * Return the slope of the window
+     *
+     * @return change of value per second (NaN if samples do not span any time)
+     */
+    public double getSlope() {
+        return (timeM2 > 0) ? coM2 / timeM2 : Double.NaN;
+    }
+
+    /**
+     * Return the number of samples
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,360 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Align samples of several streams (e.g., HR of a monitor, SpO2 of an oximeter, and
+ * rate of a pump) by source time and emit them as tuples
+ * <p>
+ * Stream 0 drives the join: every one of its samples is emitted with the sample of
+ * each other stream closest in time within the tolerance (NaN if there is none).
+ * Every stream has a watermark, its latest sample time minus the allowed lateness,
+ * promising that no older sample is still expected from it. A tuple at time t is
+ * emitted as soon as the watermark of stream 0 has passed t and every other stream's
+ * watermark has passed t + tolerance (no closer sample can arrive), or the stream is
+ * idle.
+ * <p>
+ * Memory is bounded by the capacity of each stream buffer. A stream which stalls is
+ * considered idle after the idle timeout (by arrival time) and no longer holds back
+ * the join. If stream 0 still has a full buffer of pending samples, the oldest is
+ * emitted with what is available. If another stream's buffer is full, its oldest
+ * sample is dropped. Samples behind their stream's watermark are counted as late;
+ * they are still used if a tuple is pending for them, and dropped otherwise.
+ * <p>
+ * Streams are fed from any thread through input(i), e.g., by StreamPipelines from the
+ * data topics of different devices. Tuples are emitted on the feeding thread while
+ * holding the join lock. If all streams may stall, call poll() periodically to flush
+ * tuples held by idle streams.
+ * <p>
+ * Available options for initialization:
+ * - "tolerance":           maximum time difference in milliseconds between joined
+ *                              samples (default to 500)
+ * - "lateness":            how far in milliseconds samples of a stream may arrive out
+ *                              of order (default to 0)
+ * - "idle_timeout":        milliseconds without arrivals after which a stream no longer
+ *                              holds back the join (default to 5000)
+ * - "capacity":            maximum buffered samples per stream (default to 1024)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class StreamJoin {
+    private final Buffer[] streams;
+    private final ISampleConsumer[] inputs;
+    private final ITupleConsumer output;
+    private final double[] tuple;
+    private long lastEmitted = Long.MIN_VALUE;
+    private long emitted = 0;
+    private long forced = 0;
+
+    // Overwritten-able configuration
+    private long tolerance = 500;
+    private long lateness = 0;
+    private long idleTimeout = 5000;
+    private int capacity = 1024;
+
+    /**
+     * Stream join constructor
+     *
+     * @param streams number of joined streams (stream 0 drives the join)
+     * @param output  receiver of joined tuples
+     */
+    public StreamJoin(int streams, ITupleConsumer output) {
+        if (streams < 1 || output == null) throw new IllegalArgumentException("Invalid join settings!");
+        this.streams = new Buffer[streams];
+        this.inputs = new ISampleConsumer[streams];
+        this.output = output;
+        this.tuple = new double[streams];
+        for (int i = 0; i < streams; i++) {
+            final int stream = i;
+            inputs[i] = (time, value) -> accept(stream, time, value);
+        }
+        allocate();
+    }
+
+    /**
+     * Load join options (before the first sample)
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("tolerance")) {
+            tolerance = Long.parseLong(options.get("tolerance").toString());
+        }
+        if (options.containsKey("lateness")) {
+            lateness = Long.parseLong(options.get("lateness").toString());
+        }
+        if (options.containsKey("idle_timeout")) {
+            idleTimeout = Long.parseLong(options.get("idle_timeout").toString());
+        }
+        if (options.containsKey("capacity")) {
+            capacity = Integer.parseInt(options.get("capacity").toString());
+        }
+        if (tolerance < 0 || lateness < 0 || idleTimeout < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid join options!");
+        }
+        allocate();
+    }
+
+    private synchronized void allocate() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new Buffer(capacity, now);
+        }
+    }
+
+    /**
+     * Return the input of a stream
+     *
+     * @param stream stream index
+     * @return input accepting the samples of the stream
+     */
+    public ISampleConsumer input(int stream) {
+        return inputs[stream];
+    }
+
+    /**
+     * Add a sample of a stream and emit the tuples it allows
+     *
+     * @param stream stream index
+     * @param time   source time of the sample (milliseconds)
+     * @param value  sample value
+     */
+    public synchronized void accept(int stream, long time, double value) {
+        long now = System.currentTimeMillis();
+        Buffer buffer = streams[stream];
+        buffer.lastArrival = now;
+        if (time < buffer.getWatermark(lateness)) buffer.late++;
+        if (time > buffer.maxTime) buffer.maxTime = time;
+
+        // Drop samples no pending or future tuple can use
+        long oldest = (stream == 0) ? lastEmitted : lastEmitted - tolerance;
+        if (lastEmitted != Long.MIN_VALUE && time < oldest) {
+            buffer.dropped++;
+            return;
+        }
+        if (buffer.count == buffer.times.length) {
+            if (stream == 0) {
+                emit(true);
+                if (time < lastEmitted) {
+                    buffer.dropped++;
+                    return;
+                }
+            } else {
+                buffer.removeFirst();
+                buffer.dropped++;
+            }
+        }
+        buffer.insert(time, value);
+        drain(now);
+    }
+
+    /**
+     * Emit tuples held back by streams which became idle
+     */
+    public synchronized void poll() {
+        drain(System.currentTimeMillis());
+    }
+
+    private void drain(long now) {
+        Buffer primary = streams[0];
+        while (primary.count > 0) {
+            long time = primary.getTime(0);
+            if (primary.getWatermark(lateness) < time) return;
+            for (int i = 1; i < streams.length; i++) {
+                Buffer buffer = streams[i];
+                if (buffer.getWatermark(lateness) < time + tolerance
+                        && now - buffer.lastArrival < idleTimeout) {
+                    return;
+                }
+            }
+            emit(false);
+        }
+    }
+
+    /**
+     * Emit the oldest sample of stream 0 with the closest sample of each other stream
+     */
+    private void emit(boolean force) {
+        Buffer primary = streams[0];
+        long time = primary.getTime(0);
+        tuple[0] = primary.getValue(0);
+        primary.removeFirst();
+        for (int i = 1; i < streams.length; i++) {
+            Buffer buffer = streams[i];
+            buffer.removeBefore(time - tolerance);
+            int index = buffer.closest(time);
+            if (index < 0 || Math.abs(buffer.getTime(index) - time) > tolerance) {
+                tuple[i] = Double.NaN;
+                buffer.missing++;
+            } else {
+                tuple[i] = buffer.getValue(index);
+            }
+        }
+        lastEmitted = time;
+        emitted++;
+        if (force) forced++;
+        output.accept(time, tuple);
+    }
+
+    /**
+     * Return the watermark of a stream
+     *
+     * @param stream stream index
+     * @return watermark in milliseconds (Long.MIN_VALUE before the first sample)
+     */
+    public synchronized long getWatermark(int stream) {
+        return streams[stream].getWatermark(lateness);
+    }
+
+    /**
+     * Return the number of buffered samples of a stream
+     *
+     * @param stream stream index
+     * @return number of samples
+     */
+    public synchronized int getBuffered(int stream) {
+        return streams[stream].count;
+    }
+
+    /**
+     * Return the number of samples of a stream which arrived behind its watermark
+     *
+     * @param stream stream index
+     * @return number of samples
+     */
+    public synchronized long getLate(int stream) {
+        return streams[stream].late;
+    }
+
+    /**
+     * Return the number of samples of a stream dropped for being too late or for
+     * lack of buffer space
+     *
+     * @param stream stream index
+     * @return number of samples
+     */
+    public synchronized long getDropped(int stream) {
+        return streams[stream].dropped;
+    }
+
+    /**
+     * Return the number of tuples emitted without a sample of a stream
+     *
+     * @param stream stream index
+     * @return number of tuples
+     */
+    public synchronized long getMissing(int stream) {
+        return streams[stream].missing;
+    }
+
+    /**
+     * Return the number of emitted tuples
+     *
+     * @return number of tuples
+     */
+    public synchronized long getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * Return the number of tuples emitted early because stream 0 filled its buffer
+     *
+     * @return number of tuples
+     */
+    public synchronized long getForced() {
+        return forced;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long[] late = new long[streams.length];
+        long[] missing = new long[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            late[i] = streams[i].late;
+            missing[i] = streams[i].missing;
+        }
+        return "emitted: " + emitted + ", forced: " + forced + ", late: " + Arrays.toString(late)
+                + ", missing: " + Arrays.toString(missing);
+    }
+
+    /**
+     * Samples of one stream in time order, in a primitive ring
+     */
+    private static final class Buffer {
+        private final long[] times;
+        private final double[] values;
+        private final int mask;
+        private int head = 0;
+        private int count = 0;
+        private long maxTime = Long.MIN_VALUE;
+        private long lastArrival;
+        private long late = 0;
+        private long dropped = 0;
+        private long missing = 0;
+
+        private Buffer(int capacity, long now) {
+            int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+            this.times = new long[size];
+            this.values = new double[size];
+            this.mask = size - 1;
+            this.lastArrival = now;
+        }
+
+        private long getWatermark(long lateness) {
+            return (maxTime == Long.MIN_VALUE) ? Long.MIN_VALUE : maxTime - lateness;
+        }
+
+        private long getTime(int i) {
+            return times[(head + i) & mask];
+        }
+
+        private double getValue(int i) {
+            return values[(head + i) & mask];
+        }
+
+        /**
+         * Insert in time order (appending unless the sample is out of order)
+         */
+        private void insert(long time, double value) {
+            int i = count++;
+            while (i > 0 && getTime(i - 1) > time) {
+                times[(head + i) & mask] = getTime(i - 1);
+                values[(head + i) & mask] = getValue(i - 1);
+                i--;
+            }
+            times[(head + i) & mask] = time;
+            values[(head + i) & mask] = value;
+        }
+
+        private void removeFirst() {
+            head = (head + 1) & mask;
+            count--;
+        }
+
+        private void removeBefore(long time) {
+            while (count > 0 && times[head] < time) removeFirst();
+        }
+
+        /**
+         * Return the index of the sample closest to a time (-1 if empty)
+         */
+        private int closest(long time) {
+            if (count == 0) return -1;
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getTime(middle) < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low == count) return count - 1;
+            if (low > 0 && time - getTime(low - 1) <= getTime(low) - time) return low - 1;
+            return low;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import edu.upenn.cis.precise.openicelite.coreapps.stream.SampleCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Feed device data from the middleware into windowed pipelines, one pipeline per
+ * device and channel
+ * <p>
+ * A factory is registered per channel and called on the first sample of each device
+ * to build its pipeline (windows are stateful, so devices never share one). Samples
+ * are parsed straight from the delivered buffer (see SampleCallback) and pushed
+ * into the pipeline without boxing. The last stage of a pipeline is where results
+ * leave it (e.g., publishing or writing to a SampleStore).
+ * <p>
+ * Factories are registered before subscribing; channels without a factory are
+ * ignored, without keeping anything for them.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class StreamPipelines extends SampleCallback<StreamPipelines.Ingest> {
+    private static final ISampleConsumer IGNORED = (time, value) -> { };
+
+    private final ConcurrentHashMap<String, Factory> factories = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, HashMap<String, ISampleConsumer>> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Build the pipeline of a channel of a device
+     */
+    @FunctionalInterface
+    public interface Factory {
+        /**
+         * Create a pipeline
+         *
+         * @param deviceId device ID
+         * @param channel  channel name
+         * @return first stage of the pipeline
+         */
+        ISampleConsumer create(String deviceId, String channel);
+    }
+
+    /**
+     * Stream pipelines constructor
+     *
+     * @param topicHandler topic handler of the middleware the pipelines are subscribed with
+     */
+    public StreamPipelines(ITopicHandler topicHandler) {
+        super(topicHandler);
+    }
+
+    /**
+     * Register the pipeline factory of a channel
+     *
+     * @param channel channel name
+     * @param factory pipeline factory
+     */
+    public void register(String channel, Factory factory) {
+        factories.put(channel, factory);
+    }
+
+    /**
+     * Drop the pipelines of a device
+     *
+     * @param deviceId device ID
+     * @return true if removed, false if not found
+     */
+    public boolean remove(String deviceId) {
+        return devices.remove(deviceId) != null;
+    }
+
+    /**
+     * Push a sample into the pipeline of a device (for data which does not come
+     * through the middleware)
+     *
+     * @param deviceId  device ID
+     * @param channel   channel name
+     * @param timestamp sample time (milliseconds)
+     * @param value     sample value
+     */
+    public void accept(String deviceId, String channel, long timestamp, double value) {
+        getPipeline(getDevice(deviceId), deviceId, channel).accept(timestamp, value);
+        addSamples(1);
+    }
+
+    private HashMap<String, ISampleConsumer> getDevice(String deviceId) {
+        HashMap<String, ISampleConsumer> pipelines = devices.get(deviceId);
+        if (pipelines == null) {
+            pipelines = devices.computeIfAbsent(deviceId, key -> new HashMap<>());
+        }
+        return pipelines;
+    }
+
+    private ISampleConsumer getPipeline(HashMap<String, ISampleConsumer> pipelines, String deviceId,
+                                        String channel) {
+        ISampleConsumer pipeline = pipelines.get(channel);
+        if (pipeline == null) {
+            // Unregistered channels are not cached, or every name a device sends would be kept
+            Factory factory = factories.get(channel);
+            if (factory == null) return IGNORED;
+            pipeline = factory.create(deviceId, channel);
+            if (pipeline == null) pipeline = IGNORED;
+            pipelines.put(channel, pipeline);
+        }
+        return pipeline;
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    protected Ingest createExtraction() {
+        return new Ingest();
+    }
+
+    @Override
+    protected boolean begin(Ingest ingest, ParsedTopic topic) {
+        ingest.pipelines = getDevice(topic.getDeviceId());
+        return true;
+    }
+
+    @Override
+    protected void end(Ingest ingest) {
+        ingest.pipelines = null;
+    }
+
+    /**
+     * Extraction state of a callback thread, also the sink of its samples
+     */
+    class Ingest extends SampleCallback.Extraction {
+        private HashMap<String, ISampleConsumer> pipelines;
+
+        @Override
+        public void accept(String channel, long timestamp, double value) {
+            getPipeline(pipelines, getTopic().getDeviceId(), channel).accept(timestamp, value);
+        }
+    }
+}
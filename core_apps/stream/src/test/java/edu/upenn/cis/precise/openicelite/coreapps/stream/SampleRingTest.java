@@ -0,0 +1,110 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SampleRingTest {
+    @Test
+    public void windowsSkipSlotBeingOverwritten() {
+        SampleRing ring = filled(8, 8);
+        assertEquals(1, ring.getTail());
+
+        SampleWindow window = ring.latest(100);
+        assertEquals(7, window.size());
+        assertEquals(1, window.getStart());
+        assertEquals(1.0, window.getValue(0), 0);
+        assertTrue(window.isValid());
+
+        // The next append overwrites sample 0 and the one after it sample 1
+        ring.append(8, 8);
+        assertFalse(window.isValid());
+        assertTrue(ring.latest(100).isValid());
+    }
+
+    @Test
+    public void windowAtOldestSlotIsInvalid() {
+        SampleRing ring = filled(8, 8);
+        // Sample 0 is still in its slot, but the next append may be overwriting it
+        assertFalse(new SampleWindow(ring, 0, 8).isValid());
+        assertTrue(new SampleWindow(ring, 1, 8).isValid());
+        assertTrue(new SampleWindow(filled(8, 7), 0, 7).isValid());
+    }
+
+    @Test
+    public void rangeAndLastStartAtTail() {
+        SampleRing ring = filled(8, 20);
+        assertEquals(13, ring.range(0, 15).getStart());
+        assertEquals(15, ring.range(0, 15).getEnd());
+        assertEquals(17, ring.range(17, 100).getStart());
+        assertEquals(13, ring.last(1000).getStart());
+        assertEquals(17, ring.last(3).getStart());
+        assertEquals(20, ring.last(3).getEnd());
+        assertTrue(ring.last(1000).isValid());
+    }
+
+    @Test(timeout = 30000)
+    public void readsNoTornSamplesWhileWriterLapsRing() throws Exception {
+        SampleRing ring = new SampleRing(64, true);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            long sequence = 0;
+            while (running.get()) {
+                ring.append(sequence, sequence);
+                sequence++;
+                if ((sequence & 0xFF) == 0) Thread.yield();
+            }
+        });
+        writer.start();
+
+        int valid = 0;
+        int lapped = 0;
+        double[] values = new double[ring.getCapacity()];
+        long[] times = new long[ring.getCapacity()];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        try {
+            while ((valid < 1000 || lapped < 100) && System.nanoTime() - deadline < 0) {
+                SampleWindow window = ring.latest(ring.getCapacity());
+                int half = window.size() / 2;
+                for (int i = 0; i < half; i++) {
+                    values[i] = window.getValue(i);
+                    times[i] = window.getTime(i);
+                }
+                // Let the writer lap the ring in the middle of the read
+                if ((valid + lapped) % 2 == 0) Thread.yield();
+                for (int i = half; i < window.size(); i++) {
+                    values[i] = window.getValue(i);
+                    times[i] = window.getTime(i);
+                }
+                if (window.isValid()) {
+                    for (int i = 0; i < window.size(); i++) {
+                        assertEquals(window.getStart() + i, times[i]);
+                        assertEquals(window.getStart() + i, values[i], 0);
+                    }
+                    valid++;
+                } else {
+                    lapped++;
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertTrue("Valid reads: " + valid, valid > 0);
+        assertTrue("Lapped reads: " + lapped, lapped > 0);
+    }
+
+    private static SampleRing filled(int capacity, int count) {
+        SampleRing ring = new SampleRing(capacity, false);
+        for (int i = 0; i < count; i++) {
+            ring.append(i, i);
+        }
+        return ring;
+    }
+}
@@ -0,0 +1,80 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SampleStoreTest {
+    @Test
+    public void storesSamplesOfMessages() {
+        SampleStore store = store(64);
+        store.handleMessage(topic("pump"), json("{\"timestamp\": 1000, \"hr\": 72, \"spo2\": 98}"));
+        store.handleMessage(topic("pump"), json("{\"timestamp\": 2000, \"hr\": 74, \"spo2\": 97}"));
+
+        assertEquals(2, store.getMessages());
+        assertEquals(4, store.getSamples());
+        assertEquals(0, store.getRejected());
+        SampleWindow window = store.getChannel("pump", "hr").latest(10);
+        assertEquals(2, window.size());
+        assertEquals(74, window.getValue(1), 0);
+        assertEquals(2000, window.getTime(1));
+    }
+
+    @Test
+    public void rejectsChannelsBeyondLimit() {
+        SampleStore store = store(2);
+        store.handleMessage(topic("pump"), json("{\"timestamp\": 1000, \"a\": 1, \"b\": 2, \"c\": 3}"));
+        assertEquals(2, store.getDevice("pump").getChannels().size());
+        assertEquals(2, store.getSamples());
+        assertEquals(1, store.getRejected());
+
+        // Known channels are still stored, new ones are still rejected
+        store.handleMessage(topic("pump"), json("{\"timestamp\": 2000, \"a\": 4, \"b\": 5, \"d\": 6}"));
+        assertEquals(4, store.getSamples());
+        assertEquals(2, store.getRejected());
+        assertEquals(2, store.getChannel("pump", "a").latest(10).size());
+        assertNull(store.getChannel("pump", "d"));
+
+        assertFalse(store.append("pump", "e", 3000, 7));
+        assertTrue(store.append("pump", "a", 3000, 7));
+        assertEquals(3, store.getRejected());
+
+        // The limit is per device
+        store.handleMessage(topic("monitor"), json("{\"timestamp\": 1000, \"c\": 3, \"d\": 6}"));
+        assertEquals(2, store.getDevice("monitor").getChannels().size());
+        assertEquals(3, store.getRejected());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesInvalidChannelLimit() {
+        store(0);
+    }
+
+    private static SampleStore store(int maxChannels) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("capacity", 16);
+        options.put("off_heap", false);
+        options.put("max_channels", maxChannels);
+        SampleStore store = new SampleStore(null);
+        store.init(options);
+        return store;
+    }
+
+    private static ParsedTopic topic(String deviceId) {
+        return new ParsedTopic("data/" + deviceId, ITopicHandler.TopicType.DATA, "DEFAULT", "dongle", deviceId);
+    }
+
+    private static ByteBuffer json(String message) {
+        return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,64 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MinMaxTest {
+    @Test
+    public void matchesScanOfSlidingWindow() {
+        Random random = new Random(9);
+        for (int size : new int[]{1, 2, 7, 100}) {
+            SlidingWindow window = SlidingWindow.count(size);
+            MinMax minMax = window.aggregate(new MinMax());
+            double[] values = new double[5000];
+            for (int i = 0; i < values.length; i++) {
+                // Few distinct values, so ties are common
+                values[i] = random.nextInt(20);
+                window.accept(i, values[i]);
+
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int j = Math.max(0, i - size + 1); j <= i; j++) {
+                    min = Math.min(min, values[j]);
+                    max = Math.max(max, values[j]);
+                }
+                assertEquals("Window " + size + ", sample " + i, min, minMax.getMin(), 0);
+                assertEquals("Window " + size + ", sample " + i, max, minMax.getMax(), 0);
+                assertEquals(max - min, minMax.getRange(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void growsForMonotonicStreams() {
+        // A decreasing stream keeps every sample in the minimum deque
+        SlidingWindow window = SlidingWindow.count(1000);
+        MinMax minMax = window.aggregate(new MinMax());
+        for (int i = 0; i < 3000; i++) {
+            window.accept(i, -i);
+            assertEquals(-i, minMax.getMin(), 0);
+            assertEquals(-Math.max(0, i - 999), minMax.getMax(), 0);
+        }
+    }
+
+    @Test
+    public void resetEmptiesWindow() {
+        MinMax minMax = new MinMax();
+        assertTrue(Double.isNaN(minMax.getMin()));
+        minMax.add(0, 0, 3);
+        minMax.add(1, 1, 1);
+        assertEquals(1, minMax.getMin(), 0);
+        assertEquals(3, minMax.getMax(), 0);
+        minMax.reset();
+        assertTrue(Double.isNaN(minMax.getMax()));
+        assertTrue(Double.isNaN(minMax.getRange()));
+        minMax.add(2, 2, 5);
+        assertEquals(5, minMax.getMin(), 0);
+    }
+}
@@ -0,0 +1,70 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MomentsTest {
+    @Test
+    public void matchesTwoPassMomentsOfSlidingWindow() {
+        Random random = new Random(5);
+        SlidingWindow window = SlidingWindow.count(50);
+        Moments moments = window.aggregate(new Moments());
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Large offset with small spread: running sums of squares would lose every digit
+            values[i] = 1e9 + random.nextGaussian() * ((i < 5000) ? 1 : 100);
+            window.accept(i, values[i]);
+
+            int start = Math.max(0, i - 49);
+            double mean = 0;
+            for (int j = start; j <= i; j++) mean += values[j];
+            mean /= (i - start + 1);
+            assertEquals(i - start + 1, moments.getCount());
+            assertEquals(mean, moments.getMean(), 1e-4);
+            if (i - start > 0) {
+                double squares = 0;
+                for (int j = start; j <= i; j++) squares += (values[j] - mean) * (values[j] - mean);
+                double variance = squares / (i - start);
+                assertEquals("Sample " + i, variance, moments.getVariance(), variance * 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void reportsEmptyAndSingleSample() {
+        Moments moments = new Moments();
+        assertEquals(0, moments.getCount());
+        assertTrue(Double.isNaN(moments.getMean()));
+        assertEquals(0, moments.getSum(), 0);
+
+        moments.add(0, 0, 4);
+        assertEquals(4, moments.getMean(), 0);
+        assertTrue(Double.isNaN(moments.getVariance()));
+
+        moments.add(1, 1, 8);
+        assertEquals(12, moments.getSum(), 1e-12);
+        assertEquals(8, moments.getVariance(), 1e-12);
+        assertEquals(Math.sqrt(8), moments.getStdDev(), 1e-12);
+
+        moments.evict(0, 0, 4);
+        moments.evict(1, 1, 8);
+        assertEquals(0, moments.getCount());
+        assertTrue(Double.isNaN(moments.getMean()));
+    }
+
+    @Test
+    public void neverReportsNegativeVariance() {
+        Moments moments = new Moments();
+        for (int i = 0; i < 1000; i++) {
+            moments.add(i, i, 0.1 * (i % 3));
+            if (i >= 2) moments.evict(i - 2, i - 2, 0.1 * ((i - 2) % 3));
+            if (i >= 1) assertTrue(moments.getVariance() >= 0);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class QuantilesTest {
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.9, 0.99, 1};
+
+    @Test
+    public void staysWithinHalfBinOfExactQuantiles() {
+        Random random = new Random(13);
+        for (int bins : new int[]{1, 10, 100, 1000}) {
+            SlidingWindow window = SlidingWindow.count(200);
+            Quantiles quantiles = window.aggregate(new Quantiles(0, 200, bins));
+            double halfWidth = 100.0 / bins;
+            double[] values = new double[3000];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = 100 + random.nextGaussian() * 30;
+                if (values[i] < 0 || values[i] >= 200) values[i] = 100;
+                window.accept(i, values[i]);
+
+                int start = Math.max(0, i - 199);
+                double[] sorted = Arrays.copyOfRange(values, start, i + 1);
+                Arrays.sort(sorted);
+                assertEquals(sorted.length, quantiles.getCount());
+                for (double quantile : QUANTILES) {
+                    int rank = Math.max(1, (int) Math.ceil(quantile * sorted.length));
+                    assertEquals("Bins " + bins + ", quantile " + quantile, sorted[rank - 1],
+                            quantiles.getQuantile(quantile), halfWidth + 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void countsOutOfRangeSamplesInEdgeBins() {
+        Quantiles quantiles = new Quantiles(0, 10, 10);
+        quantiles.add(0, 0, -50);
+        quantiles.add(1, 1, 1000);
+        quantiles.add(2, 2, 5.2);
+        assertEquals(0.5, quantiles.getQuantile(0), 1e-12);
+        assertEquals(5.5, quantiles.getMedian(), 1e-12);
+        assertEquals(9.5, quantiles.getQuantile(1), 1e-12);
+
+        quantiles.evict(0, 0, -50);
+        assertEquals(5.5, quantiles.getQuantile(0), 1e-12);
+        quantiles.reset();
+        assertEquals(0, quantiles.getCount());
+        assertTrue(Double.isNaN(quantiles.getMedian()));
+    }
+
+    @Test
+    public void handlesBinCountsOtherThanPowersOfTwo() {
+        Quantiles quantiles = new Quantiles(0, 7, 7);
+        for (int i = 0; i < 7; i++) {
+            quantiles.add(i, i, i);
+        }
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i + 0.5, quantiles.getQuantile((i + 1) / 7.0), 1e-12);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidRange() {
+        for (double[] range : new double[][]{{1, 1, 10}, {2, 1, 10}, {0, 1, 0}, {0, Double.NaN, 10}}) {
+            try {
+                new Quantiles(range[0], range[1], (int) range[2]);
+                fail("Expected " + Arrays.toString(range) + " to be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SlidingWindowTest {
+    @Test
+    public void keepsLastSamplesOfCountWindow() {
+        SlidingWindow window = SlidingWindow.count(3);
+        Moments moments = window.aggregate(new Moments());
+        for (int i = 1; i <= 5; i++) {
+            window.accept(i, i);
+        }
+        assertEquals(3, window.size());
+        assertEquals(3, window.getOldestTime());
+        assertEquals(5, window.getNewestTime());
+        assertEquals(12, moments.getSum(), 1e-12);
+    }
+
+    @Test
+    public void keepsSamplesNewerThanDurationOfTimeWindow() {
+        SlidingWindow window = SlidingWindow.time(1000);
+        Moments moments = window.aggregate(new Moments());
+        window.accept(0, 1);
+        window.accept(500, 2);
+        window.accept(999, 3);
+        assertEquals(3, window.size());
+        window.accept(1000, 4);
+        assertEquals(3, window.size());
+        assertEquals(500, window.getOldestTime());
+        assertEquals(9, moments.getSum(), 1e-12);
+
+        // A gap longer than the duration empties the window but for the new sample
+        window.accept(5000, 5);
+        assertEquals(1, window.size());
+        assertEquals(5, moments.getMean(), 0);
+    }
+
+    @Test
+    public void boundsByCountAndDuration() {
+        SlidingWindow window = new SlidingWindow(4, 100);
+        for (int i = 0; i < 10; i++) {
+            window.accept(i * 10, i);
+        }
+        assertEquals(4, window.size());
+        window.accept(200, 0);
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    public void growsTimeWindowBeyondInitialCapacity() {
+        SlidingWindow window = SlidingWindow.time(100000);
+        MinMax minMax = window.aggregate(new MinMax());
+        for (int i = 0; i < 1000; i++) {
+            window.accept(i, i);
+        }
+        assertEquals(1000, window.size());
+        assertEquals(0, window.getOldestTime());
+        assertEquals(0, minMax.getMin(), 0);
+        assertEquals(999, minMax.getMax(), 0);
+    }
+
+    @Test
+    public void dropsNaNAndOutOfOrderSamples() {
+        SlidingWindow window = SlidingWindow.time(1000);
+        Moments moments = window.aggregate(new Moments());
+        window.accept(100, 1);
+        window.accept(200, Double.NaN);
+        window.accept(50, 2);
+        window.accept(200, 3);
+        assertEquals(2, window.size());
+        assertEquals(2, window.getDropped());
+        assertEquals(2, moments.getMean(), 0);
+
+        // Count windows do not care about order
+        SlidingWindow count = SlidingWindow.count(2);
+        count.accept(100, 1);
+        count.accept(50, 2);
+        assertEquals(2, count.size());
+        assertEquals(0, count.getDropped());
+    }
+
+    @Test
+    public void emitsResultsDownstream() {
+        List<Double> averages = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        SlidingWindow smooth = SlidingWindow.count(2);
+        Moments moments = smooth.aggregate(new Moments());
+        SlidingWindow trend = SlidingWindow.count(10);
+        Slope slope = trend.aggregate(new Slope());
+        smooth.emit(moments::getMean, trend).emit(moments::getMean, (time, value) -> {
+            times.add(time);
+            averages.add(value);
+        });
+
+        for (int i = 0; i < 5; i++) {
+            smooth.accept(i * 1000L, i * 2);
+        }
+        assertEquals(5, averages.size());
+        assertEquals(0, averages.get(0), 0);
+        assertEquals(7, averages.get(4), 1e-12);
+        assertEquals(4000, (long) times.get(4));
+        // Least squares over averages 0, 1, 3, 5, 7 one second apart
+        assertEquals(5, trend.size());
+        assertEquals(1.8, slope.getSlope(), 1e-9);
+    }
+
+    @Test
+    public void resetClearsSamplesAndAggregates() {
+        SlidingWindow window = SlidingWindow.count(4);
+        Moments moments = window.aggregate(new Moments());
+        MinMax minMax = window.aggregate(new MinMax());
+        for (int i = 0; i < 6; i++) {
+            window.accept(i, i);
+        }
+        window.reset();
+        assertEquals(0, window.size());
+        assertEquals(-1, window.getOldestTime());
+        assertEquals(0, moments.getCount());
+        assertTrue(Double.isNaN(minMax.getMax()));
+
+        for (int i = 0; i < 6; i++) {
+            window.accept(10 + i, -i);
+        }
+        assertEquals(4, moments.getCount());
+        assertEquals(-5, minMax.getMin(), 0);
+        assertEquals(-2, minMax.getMax(), 0);
+    }
+
+    @Test
+    public void rejectsInvalidSizes() {
+        Runnable[] invalid = {
+                () -> new SlidingWindow(0, 0),
+                () -> new SlidingWindow(-1, 100),
+                () -> new SlidingWindow(10, -1),
+                () -> SlidingWindow.count(0),
+                () -> SlidingWindow.time(0)
+        };
+        for (Runnable constructor : invalid) {
+            try {
+                constructor.run();
+                fail("Expected an invalid window size");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SlopeTest {
+    private static final long EPOCH = 1500000000000L;
+
+    @Test
+    public void findsSlopeOfLinearTrendAtEpochTimes() {
+        SlidingWindow window = SlidingWindow.time(10000);
+        Slope slope = window.aggregate(new Slope());
+        for (int i = 0; i < 1000; i++) {
+            long time = EPOCH + i * 250L;
+            // 3 per second
+            window.accept(time, 40 + 3 * (time - EPOCH) / 1000.0);
+            if (i > 0) assertEquals("Sample " + i, 3, slope.getSlope(), 1e-6);
+        }
+        assertEquals(40, slope.getCount());
+    }
+
+    @Test
+    public void matchesLeastSquaresOfSlidingWindow() {
+        Random random = new Random(17);
+        SlidingWindow window = SlidingWindow.count(30);
+        Slope slope = window.aggregate(new Slope());
+        long[] times = new long[3000];
+        double[] values = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = EPOCH + i * 100L + random.nextInt(50);
+            values[i] = Math.sin(i / 100.0) * 50 + random.nextGaussian();
+            window.accept(times[i], values[i]);
+
+            int start = Math.max(0, i - 29);
+            if (i - start < 1) continue;
+            double meanTime = 0;
+            double meanValue = 0;
+            for (int j = start; j <= i; j++) {
+                meanTime += (times[j] - EPOCH) / 1000.0;
+                meanValue += values[j];
+            }
+            meanTime /= (i - start + 1);
+            meanValue /= (i - start + 1);
+            double sxx = 0;
+            double sxy = 0;
+            for (int j = start; j <= i; j++) {
+                double t = (times[j] - EPOCH) / 1000.0 - meanTime;
+                sxx += t * t;
+                sxy += t * (values[j] - meanValue);
+            }
+            double expected = sxy / sxx;
+            assertEquals("Sample " + i, expected, slope.getSlope(), Math.abs(expected) * 1e-6 + 1e-6);
+        }
+    }
+
+    @Test
+    public void isUndefinedWithoutTimeSpan() {
+        Slope slope = new Slope();
+        assertTrue(Double.isNaN(slope.getSlope()));
+        slope.add(0, EPOCH, 1);
+        slope.add(1, EPOCH, 5);
+        assertTrue(Double.isNaN(slope.getSlope()));
+        slope.add(2, EPOCH + 1000, 9);
+        assertFalse(Double.isNaN(slope.getSlope()));
+        slope.reset();
+        assertEquals(0, slope.getCount());
+        assertTrue(Double.isNaN(slope.getSlope()));
+    }
+}
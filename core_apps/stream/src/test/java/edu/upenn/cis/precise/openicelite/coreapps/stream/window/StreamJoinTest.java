@@ -0,0 +1,237 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class StreamJoinTest {
+    @Test
+    public void holdsTupleUntilEveryWatermarkPassesTolerance() {
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(2, tuples, 100, 0, 5000, 1024);
+        assertEquals(Long.MIN_VALUE, join.getWatermark(1));
+
+        join.accept(0, 1000, 1);
+        assertEquals(1000, join.getWatermark(0));
+        join.accept(1, 1050, 5);
+        // A closer sample of stream 1 may still come up to 1100
+        assertEquals(0, tuples.size());
+        join.accept(1, 1100, 6);
+        assertEquals(1, tuples.size());
+        assertEquals(1000, tuples.time(0));
+        assertArrayEquals(new double[]{1, 5}, tuples.values(0), 0);
+        assertEquals(0, join.getBuffered(0));
+    }
+
+    @Test
+    public void waitsForLatenessAndJoinsOutOfOrderSamples() {
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(2, tuples, 100, 200, 5000, 1024);
+        join.accept(0, 1000, 1);
+        join.accept(0, 1200, 2);
+        join.accept(1, 1150, 10);
+        assertEquals(950, join.getWatermark(1));
+        // Out of order, but within the lateness
+        join.accept(1, 990, 20);
+        assertEquals(0, tuples.size());
+
+        join.accept(1, 1300, 30);
+        assertEquals(1, tuples.size());
+        assertArrayEquals(new double[]{1, 20}, tuples.values(0), 0);
+        assertEquals(0, join.getLate(1));
+        // The primary watermark (1000) holds back the sample at 1200
+        assertEquals(1, join.getBuffered(0));
+
+        // Behind the watermark and older than any pending tuple can use
+        join.accept(1, 800, 40);
+        assertEquals(1, join.getLate(1));
+        assertEquals(1, join.getDropped(1));
+    }
+
+    @Test
+    public void usesLateSampleForPendingTuple() {
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(2, tuples, 100, 0, 5000, 1024);
+        join.accept(0, 1000, 1);
+        join.accept(1, 1200, 5);
+        assertEquals(1, tuples.size());
+
+        join.accept(0, 2000, 2);
+        join.accept(1, 1950, 6);
+        join.accept(1, 1900, 7);
+        assertEquals(1, join.getLate(1));
+        assertEquals(0, join.getDropped(1));
+        join.accept(1, 2100, 8);
+        assertEquals(2, tuples.size());
+        assertArrayEquals(new double[]{2, 6}, tuples.values(1), 0);
+    }
+
+    @Test
+    public void emitsNaNWithoutSampleWithinTolerance() {
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(3, tuples, 50, 0, 5000, 1024);
+        join.accept(0, 1000, 1);
+        join.accept(1, 900, 2);
+        join.accept(1, 1200, 3);
+        join.accept(2, 1040, 4);
+        join.accept(2, 1060, 5);
+        assertEquals(1, tuples.size());
+        assertArrayEquals(new double[]{1, Double.NaN, 4}, tuples.values(0), 0);
+        assertEquals(1, join.getMissing(1));
+        assertEquals(0, join.getMissing(2));
+    }
+
+    @Test(timeout = 10000)
+    public void stopsWaitingForIdleStream() throws Exception {
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(2, tuples, 100, 0, 50, 1024);
+        join.accept(0, 1000, 1);
+        join.poll();
+        assertEquals(0, tuples.size());
+
+        Thread.sleep(100);
+        join.poll();
+        assertEquals(1, tuples.size());
+        assertArrayEquals(new double[]{1, Double.NaN}, tuples.values(0), 0);
+
+        // Arrivals make the stream active again
+        join.accept(1, 1500, 2);
+        join.accept(0, 2000, 3);
+        assertEquals(1, tuples.size());
+    }
+
+    @Test
+    public void boundsBuffersOfStalledStreams() {
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(2, tuples, 100, 0, 60000, 2);
+        join.accept(0, 1000, 1);
+        join.accept(0, 2000, 2);
+        join.accept(0, 3000, 3);
+        // Stream 0 was full: its oldest sample is emitted with what is available
+        assertEquals(1, join.getForced());
+        assertEquals(1, tuples.size());
+        assertEquals(1000, tuples.time(0));
+        assertEquals(2, join.getBuffered(0));
+
+        join.accept(1, 1900, 4);
+        join.accept(1, 1950, 5);
+        join.accept(1, 1990, 6);
+        // Stream 1 was full: its oldest sample is dropped
+        assertEquals(1, join.getDropped(1));
+        assertEquals(2, join.getBuffered(1));
+    }
+
+    @Test
+    public void matchesClosestSamplesOfShuffledStreams() {
+        Random random = new Random(21);
+        long[] periods = {100, 70, 130};
+        long tolerance = 50;
+        long lateness = 200;
+        // Arrivals: [arrival order key, stream, time], delayed by up to the lateness
+        List<long[]> arrivals = new ArrayList<>();
+        List<List<Long>> times = new ArrayList<>();
+        for (int stream = 0; stream < periods.length; stream++) {
+            times.add(new ArrayList<>());
+            for (long time = 0; time < 100000; time += periods[stream]) {
+                // Gaps, so that some tuples miss a stream
+                if (stream > 0 && random.nextInt(10) == 0) continue;
+                times.get(stream).add(time);
+                arrivals.add(new long[]{time + random.nextInt((int) lateness + 1), stream, time});
+            }
+        }
+        arrivals.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        Tuples tuples = new Tuples();
+        StreamJoin join = join(3, tuples, tolerance, lateness, 60000, 1024);
+        for (long[] arrival : arrivals) {
+            join.accept((int) arrival[1], arrival[2], arrival[2]);
+        }
+
+        assertTrue(tuples.size() > times.get(0).size() - 10);
+        for (int i = 0; i < tuples.size(); i++) {
+            long time = tuples.time(i);
+            assertEquals((long) times.get(0).get(i), time);
+            for (int stream = 1; stream < periods.length; stream++) {
+                double expected = closest(times.get(stream), time, tolerance);
+                assertEquals("Tuple " + time + ", stream " + stream, expected, tuples.values(i)[stream], 0);
+            }
+        }
+        for (int stream = 0; stream < periods.length; stream++) {
+            assertEquals(0, join.getLate(stream));
+        }
+        assertEquals(0, join.getForced());
+    }
+
+    @Test
+    public void rejectsInvalidOptions() {
+        for (String key : new String[]{"tolerance", "lateness", "idle_timeout", "capacity"}) {
+            HashMap<String, Object> options = new HashMap<>();
+            options.put(key, (key.equals("idle_timeout") || key.equals("capacity")) ? "0" : "-1");
+            try {
+                new StreamJoin(2, new Tuples()).init(options);
+                fail("Expected " + options + " to be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Closest time to a tuple time within the tolerance (the earlier on ties)
+     */
+    private static double closest(List<Long> times, long time, long tolerance) {
+        double best = Double.NaN;
+        for (long candidate : times) {
+            if (Math.abs(candidate - time) > tolerance) continue;
+            if (Double.isNaN(best) || Math.abs(candidate - time) < Math.abs(best - time)) best = candidate;
+        }
+        return best;
+    }
+
+    private static StreamJoin join(int streams, ITupleConsumer output, long tolerance, long lateness,
+                                   long idleTimeout, int capacity) {
+        StreamJoin join = new StreamJoin(streams, output);
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("tolerance", tolerance);
+        options.put("lateness", lateness);
+        options.put("idle_timeout", idleTimeout);
+        options.put("capacity", capacity);
+        join.init(options);
+        return join;
+    }
+
+    /**
+     * Tuple consumer keeping a copy of every tuple
+     */
+    private static class Tuples implements ITupleConsumer {
+        private final List<Long> times = new ArrayList<>();
+        private final List<double[]> values = new ArrayList<>();
+
+        @Override
+        public void accept(long time, double[] tuple) {
+            times.add(time);
+            values.add(Arrays.copyOf(tuple, tuple.length));
+        }
+
+        private int size() {
+            return times.size();
+        }
+
+        private long time(int i) {
+            return times.get(i);
+        }
+
+        private double[] values(int i) {
+            return values.get(i);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package edu.upenn.cis.precise.openicelite.coreapps.stream.window;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class StreamPipelinesTest {
+    @Test
+    public void feedsPipelinePerDeviceAndChannel() {
+        StreamPipelines pipelines = new StreamPipelines(null);
+        List<String> created = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        pipelines.register("hr", (deviceId, channel) -> {
+            created.add(deviceId + "/" + channel);
+            return (time, value) -> values.add(value);
+        });
+
+        pipelines.handleMessage(topic("pump"), json("{\"timestamp\": 1000, \"hr\": 72, \"spo2\": 98}"));
+        pipelines.handleMessage(topic("pump"), json("{\"timestamp\": 2000, \"hr\": 74}"));
+        pipelines.handleMessage(topic("monitor"), json("{\"timestamp\": 2000, \"hr\": 60}"));
+        pipelines.handleMessage(topic("monitor"), json("not json"));
+
+        assertEquals(3, pipelines.getMessages());
+        assertEquals(4, pipelines.getSamples());
+        assertEquals(1, pipelines.getErrors());
+        assertEquals(2, created.size());
+        assertTrue(created.contains("pump/hr"));
+        assertTrue(created.contains("monitor/hr"));
+        assertEquals(3, values.size());
+    }
+
+    @Test
+    public void picksUpChannelsRegisteredAfterTheirFirstSample() {
+        StreamPipelines pipelines = new StreamPipelines(null);
+        List<Double> values = new ArrayList<>();
+        pipelines.handleMessage(topic("pump"), json("{\"timestamp\": 1000, \"spo2\": 98}"));
+
+        // Unregistered channels are not remembered as ignored
+        pipelines.register("spo2", (deviceId, channel) -> (time, value) -> values.add(value));
+        pipelines.handleMessage(topic("pump"), json("{\"timestamp\": 2000, \"spo2\": 97}"));
+        pipelines.accept("pump", "spo2", 3000, 96);
+        assertEquals(2, values.size());
+        assertEquals(96, values.get(1), 0);
+    }
+
+    @Test
+    public void ignoresOtherTopics() {
+        StreamPipelines pipelines = new StreamPipelines(null);
+        pipelines.register("hr", (deviceId, channel) -> (time, value) -> fail("Not a data message"));
+        pipelines.handleMessage(new ParsedTopic("status/dongle", ITopicHandler.TopicType.STATUS, "DEFAULT",
+                "dongle", null), json("{\"hr\": 72}"));
+        assertEquals(0, pipelines.getMessages());
+    }
+
+    private static ParsedTopic topic(String deviceId) {
+        return new ParsedTopic("data/" + deviceId, ITopicHandler.TopicType.DATA, "DEFAULT", "dongle", deviceId);
+    }
+
+    private static ByteBuffer json(String message) {
+        return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+    }
+}
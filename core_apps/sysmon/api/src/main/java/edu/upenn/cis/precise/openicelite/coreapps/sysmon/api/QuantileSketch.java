@@ -0,0 +1,328 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.api;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Mergeable quantile sketch with relative-error guarantees (DDSketch)
+ * <p>
+ * Positive values are counted in logarithmic buckets of ratio gamma = (1 + a) / (1 - a),
+ * so any quantile is returned within relative accuracy a of the exact value. Sketches
+ * with the same accuracy merge exactly by adding bucket counts, which is how per-dongle
+ * sketches are combined into fleet-wide percentiles without shipping raw samples.
+ * <p>
+ * Values smaller than the smallest indexable value (including 0 and negatives) are
+ * counted in a zero bucket. Once more than maxBuckets buckets are in use, the lowest
+ * buckets are collapsed so that accuracy is only lost for the lowest quantiles.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+    private final double accuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final double minIndexable;
+    private final int maxBuckets;
+
+    // Dense bucket counts for indexes [offset, offset + counts.length)
+    private long[] counts = new long[0];
+    private int offset = 0;
+    // Lowest and highest index of non-empty buckets (empty range if no bucket is used)
+    private int minIndex = Integer.MAX_VALUE;
+    private int maxIndex = Integer.MIN_VALUE;
+    private long zeroCount = 0;
+    private long count = 0;
+    private double sum = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * Quantile sketch constructor
+     *
+     * @param accuracy   relative accuracy (0 < accuracy < 1)
+     * @param maxBuckets maximum number of buckets before collapsing lowest ones
+     */
+    public QuantileSketch(double accuracy, int maxBuckets) {
+        if (accuracy <= 0 || accuracy >= 1 || maxBuckets < 1) {
+            throw new IllegalArgumentException("Invalid sketch parameters: accuracy=" + accuracy +
+                    ", maxBuckets=" + maxBuckets);
+        }
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+        this.minIndexable = Double.MIN_NORMAL * gamma;
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Add a value
+     *
+     * @param value value to add
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Add a value multiple times
+     *
+     * @param value value to add
+     * @param times number of occurrences (ignored if not positive)
+     */
+    public void add(double value, long times) {
+        if (times <= 0 || Double.isNaN(value)) return;
+        if (value < minIndexable) {
+            zeroCount += times;
+        } else {
+            int index = index(value);
+            ensureRange(index, index);
+            counts[index - offset] += times;
+            if (index < minIndex) minIndex = index;
+            if (index > maxIndex) maxIndex = index;
+            collapse();
+        }
+        count += times;
+        sum += value * times;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Merge another sketch into this sketch
+     *
+     * @param other sketch with the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        if (other.accuracy != accuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches with different accuracy (" +
+                    accuracy + " vs " + other.accuracy + ")");
+        }
+        if (other.count == 0) return;
+
+        if (other.minIndex <= other.maxIndex) {
+            ensureRange(other.minIndex, other.maxIndex);
+            for (int index = other.minIndex; index <= other.maxIndex; index++) {
+                counts[index - offset] += other.counts[index - other.offset];
+            }
+            if (other.minIndex < minIndex) minIndex = other.minIndex;
+            if (other.maxIndex > maxIndex) maxIndex = other.maxIndex;
+            collapse();
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /**
+     * Return the estimated value at a quantile
+     *
+     * @param quantile quantile between 0 and 1
+     * @return estimated value (NaN if the sketch is empty)
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0 || quantile < 0 || quantile > 1) return Double.NaN;
+        long rank = (long) (quantile * (count - 1));
+        long seen = zeroCount;
+        if (seen > rank) return Math.min(min, 0);
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return Math.max(min, Math.min(max, value(offset + i)));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Determine if no value was added
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Create an independent copy of this sketch
+     *
+     * @return copy
+     */
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(accuracy, maxBuckets);
+        copy.merge(this);
+        return copy;
+    }
+
+    // ** Encoding ** //
+
+    /**
+     * Write this sketch in a compact form (only the non-empty bucket range is written,
+     * with counts as variable-length integers)
+     *
+     * @param output destination
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeDouble(accuracy);
+        writeVarLong(output, maxBuckets);
+        writeVarLong(output, count);
+        if (count == 0) return;
+        writeVarLong(output, zeroCount);
+        output.writeDouble(sum);
+        output.writeDouble(min);
+        output.writeDouble(max);
+
+        if (minIndex > maxIndex) {
+            output.writeInt(0);
+            writeVarLong(output, 0);
+            return;
+        }
+        output.writeInt(minIndex);
+        writeVarLong(output, maxIndex - minIndex + 1);
+        for (int index = minIndex; index <= maxIndex; index++) {
+            writeVarLong(output, counts[index - offset]);
+        }
+    }
+
+    /**
+     * Read a sketch written with write()
+     *
+     * @param input source
+     * @return the sketch
+     * @throws IOException if reading fails or the data is invalid
+     */
+    public static QuantileSketch read(DataInput input) throws IOException {
+        double accuracy = input.readDouble();
+        int maxBuckets = (int) readVarLong(input);
+        QuantileSketch sketch;
+        try {
+            sketch = new QuantileSketch(accuracy, maxBuckets);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid sketch - " + ex.getMessage());
+        }
+        sketch.count = readVarLong(input);
+        if (sketch.count == 0) return sketch;
+        sketch.zeroCount = readVarLong(input);
+        sketch.sum = input.readDouble();
+        sketch.min = input.readDouble();
+        sketch.max = input.readDouble();
+        sketch.offset = input.readInt();
+        long length = readVarLong(input);
+        if (length < 0 || length > maxBuckets) {
+            throw new IOException("Invalid sketch - " + length + " buckets");
+        }
+        sketch.counts = new long[(int) length];
+        for (int i = 0; i < length; i++) {
+            sketch.counts[i] = readVarLong(input);
+            if (sketch.counts[i] != 0) {
+                sketch.minIndex = Math.min(sketch.minIndex, sketch.offset + i);
+                sketch.maxIndex = sketch.offset + i;
+            }
+        }
+        return sketch;
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Invalid variable-length integer");
+    }
+
+    // ** Buckets ** //
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Grow bucket array so that indexes [low, high] are available
+     */
+    private void ensureRange(int low, int high) {
+        if (counts.length == 0) {
+            counts = new long[Math.max(high - low + 1, 16)];
+            offset = low;
+            return;
+        }
+        int newLow = Math.min(low, offset);
+        int newHigh = Math.max(high, offset + counts.length - 1);
+        if (newLow == offset && newHigh == offset + counts.length - 1) return;
+
+        // Grow with some slack to amortize copies
+        int length = newHigh - newLow + 1;
+        int slack = Math.max(length / 4, 8);
+        if (newLow < offset) newLow -= slack;
+        if (newHigh > offset + counts.length - 1) newHigh += slack;
+        long[] grown = new long[newHigh - newLow + 1];
+        System.arraycopy(counts, 0, grown, offset - newLow, counts.length);
+        counts = grown;
+        offset = newLow;
+    }
+
+    /**
+     * Collapse lowest buckets into one if more than maxBuckets buckets are in use
+     * (checked after every add and merge), then trim the array to the kept range
+     */
+    private void collapse() {
+        if (maxIndex - minIndex < maxBuckets) return;
+
+        int keep = maxIndex - maxBuckets + 1;
+        long collapsed = 0;
+        for (int index = minIndex; index < keep; index++) {
+            collapsed += counts[index - offset];
+        }
+        long[] trimmed = new long[maxBuckets];
+        System.arraycopy(counts, keep - offset, trimmed, 0, maxBuckets);
+        trimmed[0] += collapsed;
+        counts = trimmed;
+        offset = keep;
+        minIndex = keep;
+    }
+}
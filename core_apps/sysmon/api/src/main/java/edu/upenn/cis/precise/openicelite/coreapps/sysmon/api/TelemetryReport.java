@@ -0,0 +1,162 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runtime telemetry of a dongle over one report interval
+ * <p>
+ * Gauges are point-in-time values (e.g., heap used, thread count, queue depth);
+ * sketches summarize every sample of the interval (e.g., GC pauses, publish latency)
+ * and can be merged across dongles. Reports are exchanged in a compact binary form
+ * (see encode/decode).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class TelemetryReport {
+    // Standard gauges
+    public static final String HEAP_USED = "heap_used";
+    public static final String HEAP_MAX = "heap_max";
+    public static final String THREADS = "threads";
+    public static final String PROCESS_CPU = "process_cpu";
+    public static final String LOAD_AVERAGE = "load_average";
+    public static final String IN_FLIGHT = "in_flight";
+    public static final String QUEUE_DEPTH = "queue_depth";
+
+    // Standard sketches (milliseconds)
+    public static final String GC_PAUSE = "gc_pause";
+    public static final String PUBLISH_LATENCY = "publish_latency";
+    public static final String ACK_LATENCY = "ack_latency";
+
+    private static final byte VERSION = 1;
+
+    private final String dongleId;
+    private final long timestamp;
+    private final long interval;
+    private final Map<String, Double> gauges = new LinkedHashMap<>();
+    private final Map<String, QuantileSketch> sketches = new LinkedHashMap<>();
+
+    /**
+     * Telemetry report constructor
+     *
+     * @param dongleId  reporting dongle ID
+     * @param timestamp end of the report interval (milliseconds since epoch)
+     * @param interval  length of the report interval (milliseconds)
+     */
+    public TelemetryReport(String dongleId, long timestamp, long interval) {
+        this.dongleId = dongleId;
+        this.timestamp = timestamp;
+        this.interval = interval;
+    }
+
+    public String getDongleId() {
+        return dongleId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void putGauge(String name, double value) {
+        gauges.put(name, value);
+    }
+
+    public void putSketch(String name, QuantileSketch sketch) {
+        sketches.put(name, sketch);
+    }
+
+    /**
+     * Return a gauge value
+     *
+     * @param name gauge name
+     * @return value, or NaN if not reported
+     */
+    public double getGauge(String name) {
+        Double value = gauges.get(name);
+        return (value == null) ? Double.NaN : value;
+    }
+
+    /**
+     * Return a sketch
+     *
+     * @param name sketch name
+     * @return sketch, or null if not reported
+     */
+    public QuantileSketch getSketch(String name) {
+        return sketches.get(name);
+    }
+
+    public Map<String, Double> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    public Map<String, QuantileSketch> getSketches() {
+        return Collections.unmodifiableMap(sketches);
+    }
+
+    /**
+     * Encode this report into its binary form
+     *
+     * @return encoded report
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(VERSION);
+            output.writeUTF(dongleId);
+            output.writeLong(timestamp);
+            output.writeLong(interval);
+            output.writeShort(gauges.size());
+            for (Map.Entry<String, Double> gauge : gauges.entrySet()) {
+                output.writeUTF(gauge.getKey());
+                output.writeDouble(gauge.getValue());
+            }
+            output.writeShort(sketches.size());
+            for (Map.Entry<String, QuantileSketch> sketch : sketches.entrySet()) {
+                output.writeUTF(sketch.getKey());
+                sketch.getValue().write(output);
+            }
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // Not expected with an in-memory stream
+            throw new IllegalStateException("Failed to encode telemetry report", ex);
+        }
+    }
+
+    /**
+     * Decode a report from its binary form
+     *
+     * @param message encoded report
+     * @return the report
+     * @throws IOException if the message is not a valid report
+     */
+    public static TelemetryReport decode(byte[] message) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported telemetry report version: " + version);
+        }
+        TelemetryReport report = new TelemetryReport(input.readUTF(), input.readLong(), input.readLong());
+        int gauges = input.readUnsignedShort();
+        for (int i = 0; i < gauges; i++) {
+            report.putGauge(input.readUTF(), input.readDouble());
+        }
+        int sketches = input.readUnsignedShort();
+        for (int i = 0; i < sketches; i++) {
+            report.putSketch(input.readUTF(), QuantileSketch.read(input));
+        }
+        return report;
+    }
+}
@@ -0,0 +1,196 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.api;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class QuantileSketchTest {
+    private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.99, 0.999, 1};
+
+    @Test
+    public void estimatesQuantilesWithinRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch();
+        int n = 10000;
+        for (int i = 1; i <= n; i++) {
+            sketch.add(i);
+        }
+        assertEquals(n, sketch.getCount());
+        assertEquals(n * (n + 1) / 2.0, sketch.getSum(), 0);
+        assertEquals(1, sketch.getMin(), 0);
+        assertEquals(n, sketch.getMax(), 0);
+        for (double q : QUANTILES) {
+            double exact = 1 + (long) (q * (n - 1));
+            assertEquals("q" + q, exact, sketch.getQuantile(q), exact * sketch.getAccuracy());
+        }
+    }
+
+    @Test
+    public void emptySketchHasNoQuantiles() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        assertTrue(Double.isNaN(sketch.getMin()));
+        assertTrue(Double.isNaN(sketch.getMax()));
+    }
+
+    @Test
+    public void countsZeroAndNegativeValuesInZeroBucket() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(-5);
+        sketch.add(0);
+        sketch.add(Double.NaN);
+        sketch.add(10, 2);
+        assertEquals(4, sketch.getCount());
+        assertEquals(-5, sketch.getQuantile(0), 0);
+        assertEquals(-5, sketch.getQuantile(0.3), 0);
+        assertEquals(10, sketch.getQuantile(1), 10 * sketch.getAccuracy());
+    }
+
+    @Test
+    public void mergeMatchesSingleSketch() {
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch low = new QuantileSketch();
+        QuantileSketch high = new QuantileSketch();
+        for (int i = 0; i < 5000; i++) {
+            double value = 0.5 + i * 0.37;
+            all.add(value);
+            (i % 3 == 0 ? high : low).add(value);
+        }
+        // Disjoint ranges, so merging must grow the bucket array on both sides
+        for (int i = 1; i <= 100; i++) {
+            all.add(1e6 * i);
+            high.add(1e6 * i);
+            all.add(1e-3 * i);
+            low.add(1e-3 * i);
+        }
+
+        QuantileSketch merged = low.copy();
+        merged.merge(high);
+        assertSame(all, merged);
+
+        merged = high.copy();
+        merged.merge(low);
+        assertSame(all, merged);
+
+        // Merging an empty sketch changes nothing
+        merged.merge(new QuantileSketch());
+        assertSame(all, merged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeRejectsDifferentAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01, 128);
+        QuantileSketch other = new QuantileSketch(0.02, 128);
+        other.add(1);
+        sketch.merge(other);
+    }
+
+    @Test
+    public void collapsesLowestBucketsOnly() {
+        QuantileSketch sketch = new QuantileSketch(0.01, 64);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(Math.pow(10, -6 + i * 12.0 / 1000));
+        }
+        assertEquals(1000, sketch.getCount());
+        // High quantiles keep their accuracy
+        double exact = Math.pow(10, -6 + (long) (0.99 * 999) * 12.0 / 1000);
+        assertEquals(exact, sketch.getQuantile(0.99), exact * sketch.getAccuracy());
+        assertEquals(1e6 * Math.pow(10, -12.0 / 1000), sketch.getMax(), 1e-3);
+    }
+
+    @Test
+    public void roundTripsThroughEncoding() throws IOException {
+        QuantileSketch sketch = new QuantileSketch(0.02, 512);
+        for (int i = 0; i < 3000; i++) {
+            sketch.add((i * 7919) % 1000 + 0.25);
+        }
+        sketch.add(0, 5);
+        QuantileSketch decoded = roundTrip(sketch);
+        assertSame(sketch, decoded);
+        assertEquals(0.02, decoded.getAccuracy(), 0);
+
+        // Decoded sketches remain mergeable
+        decoded.merge(sketch);
+        assertEquals(2 * sketch.getCount(), decoded.getCount());
+    }
+
+    @Test
+    public void roundTripsSketchesAtBucketLimit() throws IOException {
+        QuantileSketch low = adjacentBuckets(0, 16);
+        QuantileSketch decoded = roundTrip(low);
+        assertSame(low, decoded);
+        double gamma = (1 + low.getAccuracy()) / (1 - low.getAccuracy());
+        assertEquals(Math.pow(gamma, 14.5), decoded.getQuantile(1), Math.pow(gamma, 14.5) * low.getAccuracy());
+
+        // Merged ranges are collapsed too
+        QuantileSketch merged = adjacentBuckets(8, 16);
+        merged.merge(low);
+        decoded = roundTrip(merged);
+        assertSame(merged, decoded);
+        assertEquals(32, decoded.getCount());
+    }
+
+    @Test
+    public void roundTripsEmptyAndZeroOnlySketches() throws IOException {
+        assertTrue(roundTrip(new QuantileSketch()).isEmpty());
+
+        QuantileSketch zeros = new QuantileSketch();
+        zeros.add(0, 3);
+        QuantileSketch decoded = roundTrip(zeros);
+        assertEquals(3, decoded.getCount());
+        assertEquals(0, decoded.getQuantile(0.5), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidEncoding() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeDouble(2.0);
+        output.writeByte(16);
+        output.writeByte(0);
+        QuantileSketch.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Create a sketch of at most 10 buckets with one value in each of count adjacent buckets
+     */
+    private static QuantileSketch adjacentBuckets(int first, int count) {
+        QuantileSketch sketch = new QuantileSketch(0.01, 10);
+        double gamma = (1 + sketch.getAccuracy()) / (1 - sketch.getAccuracy());
+        for (int i = first; i < first + count; i++) {
+            sketch.add(Math.pow(gamma, i - 0.5));
+        }
+        return sketch;
+    }
+
+    private static QuantileSketch roundTrip(QuantileSketch sketch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        QuantileSketch decoded = QuantileSketch.read(input);
+        assertEquals(0, input.available());
+        return decoded;
+    }
+
+    /**
+     * Check that two sketches have the same summary and quantiles
+     */
+    static void assertSame(QuantileSketch expected, QuantileSketch actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSum(), actual.getSum(), Math.abs(expected.getSum()) * 1e-12);
+        assertEquals(expected.getMin(), actual.getMin(), 0);
+        assertEquals(expected.getMax(), actual.getMax(), 0);
+        for (double q : QUANTILES) {
+            assertEquals("q" + q, expected.getQuantile(q), actual.getQuantile(q), 0);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.api;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class TelemetryReportTest {
+    private static final String DONGLE_ID = "5c0e1a7d-93b2-4f61-a8d4-2e7f90c3b615";
+
+    @Test
+    public void roundTripsGaugesAndSketches() throws IOException {
+        TelemetryReport report = new TelemetryReport(DONGLE_ID, 1700000000000L, 30000);
+        report.putGauge(TelemetryReport.HEAP_USED, 123456789);
+        report.putGauge(TelemetryReport.PROCESS_CPU, 0.42);
+        report.putGauge(TelemetryReport.LOAD_AVERAGE, Double.NaN);
+        QuantileSketch pauses = new QuantileSketch();
+        for (int i = 1; i <= 200; i++) {
+            pauses.add(i * 0.1);
+        }
+        report.putSketch(TelemetryReport.GC_PAUSE, pauses);
+        report.putSketch(TelemetryReport.ACK_LATENCY, new QuantileSketch());
+
+        TelemetryReport decoded = TelemetryReport.decode(report.encode());
+        assertEquals(DONGLE_ID, decoded.getDongleId());
+        assertEquals(1700000000000L, decoded.getTimestamp());
+        assertEquals(30000, decoded.getInterval());
+        // Insertion order is kept
+        assertEquals(new ArrayList<>(report.getGauges().keySet()), new ArrayList<>(decoded.getGauges().keySet()));
+        assertEquals(Arrays.asList(TelemetryReport.GC_PAUSE, TelemetryReport.ACK_LATENCY),
+                new ArrayList<>(decoded.getSketches().keySet()));
+        assertEquals(123456789, decoded.getGauge(TelemetryReport.HEAP_USED), 0);
+        assertEquals(0.42, decoded.getGauge(TelemetryReport.PROCESS_CPU), 0);
+        assertTrue(Double.isNaN(decoded.getGauge(TelemetryReport.LOAD_AVERAGE)));
+        assertTrue(Double.isNaN(decoded.getGauge(TelemetryReport.THREADS)));
+        assertNull(decoded.getSketch(TelemetryReport.PUBLISH_LATENCY));
+        assertTrue(decoded.getSketch(TelemetryReport.ACK_LATENCY).isEmpty());
+        QuantileSketchTest.assertSame(pauses, decoded.getSketch(TelemetryReport.GC_PAUSE));
+    }
+
+    @Test
+    public void decodedSketchesMergeAcrossDongles() throws IOException {
+        QuantileSketch fleet = new QuantileSketch();
+        QuantileSketch expected = new QuantileSketch();
+        for (int d = 0; d < 3; d++) {
+            TelemetryReport report = new TelemetryReport("dongle-" + d, 0, 1000);
+            QuantileSketch latency = new QuantileSketch();
+            for (int i = 0; i < 100; i++) {
+                latency.add(d * 10 + i * 0.5 + 1);
+                expected.add(d * 10 + i * 0.5 + 1);
+            }
+            report.putSketch(TelemetryReport.PUBLISH_LATENCY, latency);
+            fleet.merge(TelemetryReport.decode(report.encode()).getSketch(TelemetryReport.PUBLISH_LATENCY));
+        }
+        QuantileSketchTest.assertSame(expected, fleet);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        byte[] encoded = new TelemetryReport(DONGLE_ID, 0, 0).encode();
+        encoded[0] = 99;
+        TelemetryReport.decode(encoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedReport() throws IOException {
+        TelemetryReport report = new TelemetryReport(DONGLE_ID, 0, 0);
+        report.putGauge(TelemetryReport.THREADS, 12);
+        byte[] encoded = report.encode();
+        TelemetryReport.decode(Arrays.copyOf(encoded, encoded.length - 3));
+    }
+}
@@ -0,0 +1,327 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.core;
+
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.QuantileSketch;
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.TelemetryReport;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ShutdownHook;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Aggregate runtime telemetry of all dongles into fleet-wide percentiles
+ * <p>
+ * The aggregator keeps the last few reports of every dongle. Sketches of a dongle
+ * are merged over that window, and fleet-wide sketches merge the windows of every
+ * dongle, so percentiles are exact up to sketch accuracy while no raw sample is
+ * shipped. Dongles can be ranked by any quantile of any sketch to find outliers
+ * (e.g., the dongle with the slowest p99 publish latency). Sketches which cannot be
+ * merged (a different accuracy, e.g., from a dongle with another sysmon_accuracy) are
+ * skipped and counted instead.
+ * <p>
+ * Available options for initialization:
+ * - "sysmon_window":       number of reports kept per dongle (default to 6)
+ * - "sysmon_stale":        seconds after which a silent dongle is dropped (default to 60)
+ * - "sysmon_report":       interval in seconds to log fleet report when running as an
+ *                              application (default to 60)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SysmonAggregator implements IMiddlewareCallback {
+    private static final String PROPERTIES_FILE_NAME = "sysmon.properties";
+    private static final String UUID = java.util.UUID.randomUUID().toString();
+
+    private static final Logger logger = LogManager.getLogger(SysmonAggregator.class);
+
+    private final HashMap<String, ArrayDeque<TelemetryReport>> reports = new HashMap<>();
+    private final HashMap<String, Long> lastSeen = new HashMap<>();
+    private long skipped = 0;
+
+    // Overwritten-able configuration
+    private int window = 6;
+    private long staleTimeout = 60 * 1000;
+    private int reportInterval = 60;
+
+    public static void main(String[] args) {
+        logger.info("Starting Sysmon Aggregator...");
+
+        // Load configuration
+        ClassLoader loader = SysmonAggregator.class.getClassLoader();
+        URL propResource = loader.getResource(PROPERTIES_FILE_NAME);
+        File propFile = new File("./" + PROPERTIES_FILE_NAME);
+
+        String clientName = "Sysmon-" + UUID;
+        String projectName = "DEFAULT";
+        HashMap<String, Object> options = new HashMap<>();
+
+        if (propFile.isFile() || propResource != null) {
+            logger.info("Loading configuration from " +
+                    (propFile.isFile() ? "./" : "default ") + PROPERTIES_FILE_NAME + "...");
+            try (InputStream input = (propFile.isFile() ?
+                    new FileInputStream("./" + PROPERTIES_FILE_NAME) :
+                    loader.getResourceAsStream(PROPERTIES_FILE_NAME))) {
+                Properties properties = new Properties();
+                properties.load(input);
+                Enumeration<?> p = properties.propertyNames();
+                while (p.hasMoreElements()) {
+                    String key = (String) p.nextElement();
+                    options.put(key, properties.getProperty(key));
+                }
+                if (options.containsKey("project_name")) {
+                    projectName = (String) options.get("project_name");
+                }
+            } catch (Exception ex) {
+                logger.error("Failed to load configuration!", ex);
+                System.exit(-1);
+            }
+        } else {
+            logger.info("Cannot find configuration file - " + PROPERTIES_FILE_NAME + ", using defaults");
+        }
+
+        SysmonAggregator aggregator = new SysmonAggregator();
+        aggregator.init(options);
+
+        IMiddleware middleware = new Dongle(clientName);
+        middleware.init(options);
+        middleware.connect(null, null, null);
+        Runtime.getRuntime().addShutdownHook(new ShutdownHook(middleware));
+        aggregator.start(middleware, new TopicHandler(), projectName);
+
+        while (true) {
+            try {
+                Thread.sleep(aggregator.reportInterval * 1000L);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            try {
+                logger.info("Fleet telemetry:\n" + aggregator.report());
+            } catch (Exception ex) {
+                logger.error("Failed to report fleet telemetry", ex);
+            }
+        }
+    }
+
+    /**
+     * Load aggregator options
+     *
+     * @param options initializing options
+     */
+    public void init(Map<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("sysmon_window")) {
+            window = Integer.parseInt(options.get("sysmon_window").toString());
+        }
+        if (options.containsKey("sysmon_stale")) {
+            staleTimeout = Long.parseLong(options.get("sysmon_stale").toString()) * 1000;
+        }
+        if (options.containsKey("sysmon_report")) {
+            reportInterval = Integer.parseInt(options.get("sysmon_report").toString());
+        }
+    }
+
+    /**
+     * Subscribe to telemetry of all dongles of a project
+     *
+     * @param middleware   connected middleware
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     */
+    public void start(IMiddleware middleware, ITopicHandler topicHandler, String projectName) {
+        middleware.waitConnected();
+        middleware.subscribe(topicHandler.getSysmonBaseTopic(projectName), null, this);
+    }
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        try {
+            add(TelemetryReport.decode(message));
+        } catch (Exception ex) {
+            logger.warn("Invalid telemetry report from " + topic + " - " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        logger.warn("Unexpected text message on telemetry topic " + topic);
+    }
+
+    /**
+     * Add a telemetry report to the window of its dongle
+     *
+     * @param report telemetry report
+     */
+    public synchronized void add(TelemetryReport report) {
+        ArrayDeque<TelemetryReport> history = reports.get(report.getDongleId());
+        if (history == null) {
+            history = new ArrayDeque<>(window);
+            reports.put(report.getDongleId(), history);
+        }
+        history.addLast(report);
+        while (history.size() > window) history.removeFirst();
+        lastSeen.put(report.getDongleId(), System.currentTimeMillis());
+    }
+
+    /**
+     * Return IDs of dongles which reported recently
+     *
+     * @return list of dongle IDs
+     */
+    public synchronized List<String> getDongleIds() {
+        expire();
+        List<String> ids = new ArrayList<>(reports.keySet());
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * Return the latest report of a dongle
+     *
+     * @param dongleId dongle ID
+     * @return latest report, or null if unknown
+     */
+    public synchronized TelemetryReport getLatest(String dongleId) {
+        ArrayDeque<TelemetryReport> history = reports.get(dongleId);
+        return (history == null) ? null : history.peekLast();
+    }
+
+    /**
+     * Return a sketch of a dongle merged over its report window
+     *
+     * @param dongleId dongle ID
+     * @param name     sketch name
+     * @return merged sketch, or null if never reported
+     */
+    public synchronized QuantileSketch getDongleSketch(String dongleId, String name) {
+        ArrayDeque<TelemetryReport> history = reports.get(dongleId);
+        if (history == null) return null;
+        QuantileSketch merged = null;
+        for (TelemetryReport report : history) {
+            QuantileSketch sketch = report.getSketch(name);
+            if (sketch == null) continue;
+            if (merged == null) {
+                merged = sketch.copy();
+            } else {
+                merge(merged, sketch);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Return a sketch merged over all dongles
+     *
+     * @param name sketch name
+     * @return merged sketch, or null if no dongle reported it
+     */
+    public synchronized QuantileSketch getFleetSketch(String name) {
+        expire();
+        QuantileSketch merged = null;
+        for (String dongleId : reports.keySet()) {
+            QuantileSketch sketch = getDongleSketch(dongleId, name);
+            if (sketch == null) continue;
+            if (merged == null) {
+                merged = sketch;
+            } else {
+                merge(merged, sketch);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Return the number of sketches skipped because they could not be merged
+     *
+     * @return number of sketches
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Rank dongles by a quantile of a sketch, highest first
+     *
+     * @param name     sketch name
+     * @param quantile quantile between 0 and 1
+     * @param limit    maximum number of dongles returned
+     * @return dongle IDs with their quantile values
+     */
+    public synchronized List<Map.Entry<String, Double>> getTop(String name, double quantile, int limit) {
+        expire();
+        List<Map.Entry<String, Double>> ranking = new ArrayList<>();
+        for (String dongleId : reports.keySet()) {
+            QuantileSketch sketch = getDongleSketch(dongleId, name);
+            if (sketch == null || sketch.isEmpty()) continue;
+            ranking.add(new AbstractMap.SimpleImmutableEntry<>(dongleId, sketch.getQuantile(quantile)));
+        }
+        ranking.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+        return ranking.size() > limit ? new ArrayList<>(ranking.subList(0, limit)) : ranking;
+    }
+
+    /**
+     * Format fleet-wide percentiles and the slowest dongles as a human readable report
+     *
+     * @return report
+     */
+    public synchronized String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("dongles: ").append(getDongleIds().size());
+        String[] names = {TelemetryReport.PUBLISH_LATENCY, TelemetryReport.ACK_LATENCY,
+                TelemetryReport.GC_PAUSE};
+        for (String name : names) {
+            QuantileSketch fleet = getFleetSketch(name);
+            if (fleet == null || fleet.isEmpty()) continue;
+            builder.append('\n').append(name).append(" (ms): count=").append(fleet.getCount())
+                    .append(String.format(", p50=%.3f, p90=%.3f, p99=%.3f, max=%.3f",
+                            fleet.getQuantile(0.5), fleet.getQuantile(0.9),
+                            fleet.getQuantile(0.99), fleet.getMax()));
+            for (Map.Entry<String, Double> entry : getTop(name, 0.99, 3)) {
+                builder.append(String.format("%n  p99 %.3f - %s", entry.getValue(), entry.getKey()));
+            }
+        }
+        if (skipped > 0) builder.append("\nskipped sketches: ").append(skipped);
+        return builder.toString();
+    }
+
+    /**
+     * Merge a sketch into the sketch merged so far, or skip it if they are not
+     * compatible
+     */
+    private void merge(QuantileSketch merged, QuantileSketch sketch) {
+        try {
+            merged.merge(sketch);
+        } catch (IllegalArgumentException ex) {
+            skipped++;
+            logger.debug("Skipping sketch - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Drop dongles which have not reported within the stale timeout (by local arrival
+     * time, so dongle clocks do not matter)
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        lastSeen.entrySet().removeIf(entry -> {
+            if (now - entry.getValue() <= staleTimeout) return false;
+            reports.remove(entry.getKey());
+            return true;
+        });
+    }
+}
@@ -0,0 +1,253 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.core;
+
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.QuantileSketch;
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.TelemetryReport;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.DongleV5;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Periodically publish runtime telemetry of a dongle to its sysmon topic
+ * <p>
+ * Each report carries gauges (heap, threads, CPU, in-flight messages and any
+ * registered gauge such as middleware queue depths) and quantile sketches of every
+ * GC pause and publish/acknowledgment latency observed during the interval. Latencies
+ * are exported from the middleware metrics histograms (bucket midpoints, so within the
+ * histogram accuracy) without keeping raw samples.
+ * <p>
+ * The driver host starts a reporter for its dongle when "sysmon" is set to true in
+ * driver_host.properties; other applications create one with their middleware and
+ * its metrics (see getMetrics) and call start().
+ * <p>
+ * Available options for initialization:
+ * - "sysmon_interval":     report interval in seconds (default to 10)
+ * - "sysmon_accuracy":     relative accuracy of quantile sketches (default to 0.01)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SysmonReporter {
+    private static final Logger logger = LogManager.getLogger(SysmonReporter.class);
+
+    private final IMiddleware middleware;
+    private final String topic;
+    private final String dongleId;
+    private final MiddlewareMetrics metrics;
+    private final Map<String, DoubleSupplier> gauges = new LinkedHashMap<>();
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    // Overwritten-able configuration
+    private int interval = 10;
+    private double accuracy = QuantileSketch.DEFAULT_ACCURACY;
+
+    // Interval state
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener gcListener = this::handleGcNotification;
+    private QuantileSketch gcPauses;
+    private long[] lastPublish;
+    private long[] lastAck;
+    private long lastReport = System.currentTimeMillis();
+    private Thread reporter;
+
+    /**
+     * Sysmon reporter constructor
+     *
+     * @param middleware   connected middleware to publish telemetry
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     * @param dongleId     dongle ID
+     * @param metrics      middleware metrics (null if not available)
+     */
+    public SysmonReporter(IMiddleware middleware, ITopicHandler topicHandler, String projectName,
+                          String dongleId, MiddlewareMetrics metrics) {
+        this.middleware = middleware;
+        this.topic = topicHandler.getSysmonTopic(projectName, dongleId);
+        this.dongleId = dongleId;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Return the metrics of a middleware if it keeps any
+     *
+     * @param middleware middleware
+     * @return middleware metrics, or null if not available
+     */
+    public static MiddlewareMetrics getMetrics(IMiddleware middleware) {
+        if (middleware instanceof Dongle) return ((Dongle) middleware).getMetrics();
+        if (middleware instanceof DongleV5) return ((DongleV5) middleware).getMetrics();
+        return null;
+    }
+
+    /**
+     * Load reporter options
+     *
+     * @param options initializing options
+     */
+    public void init(Map<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("sysmon_interval")) {
+            interval = Integer.parseInt(options.get("sysmon_interval").toString());
+        }
+        if (options.containsKey("sysmon_accuracy")) {
+            accuracy = Double.parseDouble(options.get("sysmon_accuracy").toString());
+        }
+    }
+
+    /**
+     * Register an additional gauge sampled at every report (e.g., a middleware queue
+     * depth)
+     *
+     * @param name  gauge name
+     * @param gauge gauge supplier
+     */
+    public synchronized void addGauge(String name, DoubleSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Start listening to GC events and publishing reports
+     */
+    public synchronized void start() {
+        if (isRunning.getAndSet(true)) return;
+        gcPauses = new QuantileSketch(accuracy, QuantileSketch.DEFAULT_MAX_BUCKETS);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(gcListener, null, null);
+                emitters.add(emitter);
+            }
+        }
+        if (metrics != null) {
+            lastPublish = metrics.getPublishHistogram().getBucketCounts(null);
+            lastAck = metrics.getAckHistogram().getBucketCounts(null);
+        }
+        lastReport = System.currentTimeMillis();
+
+        reporter = new Thread(() -> {
+            while (isRunning.get()) {
+                try {
+                    Thread.sleep(interval * 1000L);
+                    if (middleware.isConnected()) {
+                        middleware.publish(topic, collect().encode(), null);
+                    }
+                } catch (InterruptedException ex) {
+                    // ignore
+                } catch (Exception ex) {
+                    logger.warn("Failed to publish telemetry", ex);
+                }
+            }
+        }, "SysmonReporter-" + dongleId);
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /**
+     * Stop publishing reports
+     */
+    public synchronized void stop() {
+        if (!isRunning.getAndSet(false)) return;
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(gcListener);
+            } catch (Exception ex) {
+                // ignore
+            }
+        }
+        emitters.clear();
+        if (reporter != null) reporter.interrupt();
+    }
+
+    /**
+     * Collect telemetry since the previous report and start a new interval
+     *
+     * @return telemetry report
+     */
+    public synchronized TelemetryReport collect() {
+        long now = System.currentTimeMillis();
+        TelemetryReport report = new TelemetryReport(dongleId, now, now - lastReport);
+        lastReport = now;
+
+        // JVM gauges
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        report.putGauge(TelemetryReport.HEAP_USED, heap.getUsed());
+        report.putGauge(TelemetryReport.HEAP_MAX, heap.getMax());
+        report.putGauge(TelemetryReport.THREADS, ManagementFactory.getThreadMXBean().getThreadCount());
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        report.putGauge(TelemetryReport.LOAD_AVERAGE, os.getSystemLoadAverage());
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            report.putGauge(TelemetryReport.PROCESS_CPU,
+                    ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad());
+        }
+
+        // Middleware gauges and latencies
+        if (metrics != null) {
+            report.putGauge(TelemetryReport.IN_FLIGHT, metrics.getInFlight());
+            lastPublish = export(metrics.getPublishHistogram(), lastPublish, report,
+                    TelemetryReport.PUBLISH_LATENCY);
+            lastAck = export(metrics.getAckHistogram(), lastAck, report, TelemetryReport.ACK_LATENCY);
+        }
+        for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            try {
+                report.putGauge(gauge.getKey(), gauge.getValue().getAsDouble());
+            } catch (Exception ex) {
+                logger.warn("Failed to sample gauge " + gauge.getKey(), ex);
+            }
+        }
+
+        // GC pauses
+        synchronized (gcListener) {
+            report.putSketch(TelemetryReport.GC_PAUSE, gcPauses);
+            gcPauses = new QuantileSketch(accuracy, QuantileSketch.DEFAULT_MAX_BUCKETS);
+        }
+        return report;
+    }
+
+    /**
+     * Add samples recorded in a histogram since the previous copy of its counts to a
+     * sketch (in milliseconds)
+     *
+     * @return current counts, to be used as previous counts for the next report
+     */
+    private long[] export(LatencyHistogram histogram, long[] previous, TelemetryReport report, String name) {
+        long[] current = histogram.getBucketCounts(null);
+        QuantileSketch sketch = new QuantileSketch(accuracy, QuantileSketch.DEFAULT_MAX_BUCKETS);
+        for (int i = 0; i < current.length; i++) {
+            long delta = current[i] - (previous == null ? 0 : previous[i]);
+            if (delta > 0) sketch.add(LatencyHistogram.getBucketValue(i) / 1e6, delta);
+        }
+        report.putSketch(name, sketch);
+        return current;
+    }
+
+    private void handleGcNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        synchronized (gcListener) {
+            gcPauses.add(info.getGcInfo().getDuration());
+        }
+    }
+}
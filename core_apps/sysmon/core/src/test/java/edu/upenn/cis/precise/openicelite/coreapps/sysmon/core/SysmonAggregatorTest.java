@@ -0,0 +1,110 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.core;
+
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.QuantileSketch;
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.TelemetryReport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SysmonAggregatorTest {
+    private final SysmonAggregator aggregator = new SysmonAggregator();
+
+    @Test
+    public void mergesSketchesOverWindowOfEachDongle() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("sysmon_window", "2");
+        aggregator.init(options);
+        aggregator.add(report("dongle-1", 1, QuantileSketch.DEFAULT_ACCURACY, 1000));
+        aggregator.add(report("dongle-1", 2, QuantileSketch.DEFAULT_ACCURACY, 10));
+        aggregator.add(report("dongle-1", 3, QuantileSketch.DEFAULT_ACCURACY, 20));
+
+        // The first report fell out of the window
+        QuantileSketch sketch = aggregator.getDongleSketch("dongle-1", TelemetryReport.PUBLISH_LATENCY);
+        assertEquals(2, sketch.getCount());
+        assertEquals(20, sketch.getMax(), 0);
+        assertEquals(3, aggregator.getLatest("dongle-1").getTimestamp());
+        assertNull(aggregator.getDongleSketch("dongle-2", TelemetryReport.PUBLISH_LATENCY));
+        assertNull(aggregator.getDongleSketch("dongle-1", TelemetryReport.ACK_LATENCY));
+    }
+
+    @Test
+    public void mergesFleetWithoutChangingDongleWindows() {
+        aggregator.add(report("dongle-1", 1, QuantileSketch.DEFAULT_ACCURACY, 10, 20));
+        aggregator.add(report("dongle-2", 1, QuantileSketch.DEFAULT_ACCURACY, 30));
+
+        QuantileSketch fleet = aggregator.getFleetSketch(TelemetryReport.PUBLISH_LATENCY);
+        assertEquals(3, fleet.getCount());
+        assertEquals(10, fleet.getMin(), 0);
+        assertEquals(30, fleet.getMax(), 0);
+        assertEquals(Arrays.asList("dongle-1", "dongle-2"), aggregator.getDongleIds());
+        assertEquals(2, aggregator.getDongleSketch("dongle-1", TelemetryReport.PUBLISH_LATENCY).getCount());
+        assertEquals(1, aggregator.getLatest("dongle-2").getSketch(TelemetryReport.PUBLISH_LATENCY).getCount());
+    }
+
+    @Test
+    public void ranksDonglesByQuantile() {
+        aggregator.add(report("dongle-1", 1, QuantileSketch.DEFAULT_ACCURACY, 5));
+        aggregator.add(report("dongle-2", 1, QuantileSketch.DEFAULT_ACCURACY, 50));
+        aggregator.add(report("dongle-3", 1, QuantileSketch.DEFAULT_ACCURACY, 500));
+
+        List<Map.Entry<String, Double>> top = aggregator.getTop(TelemetryReport.PUBLISH_LATENCY, 0.99, 2);
+        assertEquals(2, top.size());
+        assertEquals("dongle-3", top.get(0).getKey());
+        assertEquals(500, top.get(0).getValue(), 500 * QuantileSketch.DEFAULT_ACCURACY);
+        assertEquals("dongle-2", top.get(1).getKey());
+    }
+
+    @Test
+    public void skipsSketchesWithDifferentAccuracy() {
+        aggregator.add(report("dongle-1", 1, 0.01, 10));
+        aggregator.add(report("dongle-1", 2, 0.02, 20));
+        aggregator.add(report("dongle-2", 1, 0.02, 30));
+
+        assertEquals(1, aggregator.getDongleSketch("dongle-1", TelemetryReport.PUBLISH_LATENCY).getCount());
+        assertEquals(1, aggregator.getFleetSketch(TelemetryReport.PUBLISH_LATENCY).getCount());
+        String report = aggregator.report();
+        assertTrue(report, report.startsWith("dongles: 2"));
+        assertTrue(report, report.contains("skipped sketches"));
+        assertTrue(aggregator.getSkipped() > 0);
+    }
+
+    @Test
+    public void dropsStaleDongles() throws Exception {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("sysmon_stale", "0");
+        aggregator.init(options);
+        aggregator.add(report("dongle-1", 1, QuantileSketch.DEFAULT_ACCURACY, 10));
+        Thread.sleep(5);
+        assertTrue(aggregator.getDongleIds().isEmpty());
+        assertNull(aggregator.getFleetSketch(TelemetryReport.PUBLISH_LATENCY));
+        assertNull(aggregator.getLatest("dongle-1"));
+    }
+
+    @Test
+    public void decodesReportsAndIgnoresInvalidMessages() {
+        aggregator.handleMessage("sysmon/dongle-1", report("dongle-1", 1, 0.01, 10).encode());
+        aggregator.handleMessage("sysmon/dongle-2", new byte[]{9, 9, 9});
+        aggregator.handleMessage("sysmon/dongle-3", "text");
+        assertEquals(Arrays.asList("dongle-1"), aggregator.getDongleIds());
+        assertEquals(1, aggregator.getFleetSketch(TelemetryReport.PUBLISH_LATENCY).getCount());
+    }
+
+    private static TelemetryReport report(String dongleId, long timestamp, double accuracy, double... latencies) {
+        TelemetryReport report = new TelemetryReport(dongleId, timestamp, 1000);
+        QuantileSketch sketch = new QuantileSketch(accuracy, QuantileSketch.DEFAULT_MAX_BUCKETS);
+        for (double latency : latencies) {
+            sketch.add(latency);
+        }
+        report.putSketch(TelemetryReport.PUBLISH_LATENCY, sketch);
+        return report;
+    }
+}
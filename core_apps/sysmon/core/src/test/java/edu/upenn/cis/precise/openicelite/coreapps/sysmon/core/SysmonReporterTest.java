@@ -0,0 +1,47 @@
+package edu.upenn.cis.precise.openicelite.coreapps.sysmon.core;
+
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.TelemetryReport;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SysmonReporterTest {
+    @Test
+    public void collectsGaugesAndLatenciesOfInterval() throws Exception {
+        MiddlewareMetrics metrics = new MiddlewareMetrics();
+        SysmonReporter reporter = new SysmonReporter(null, new TopicHandler(), "project", "dongle", metrics);
+        reporter.addGauge(TelemetryReport.QUEUE_DEPTH, () -> 7);
+        metrics.getPublishHistogram().record(1000000);
+        reporter.start();
+        try {
+            metrics.getPublishHistogram().record(2000000);
+
+            TelemetryReport report = TelemetryReport.decode(reporter.collect().encode());
+            assertEquals("dongle", report.getDongleId());
+            assertEquals(7, report.getGauge(TelemetryReport.QUEUE_DEPTH), 0);
+            assertTrue(report.getGauge(TelemetryReport.HEAP_USED) > 0);
+            assertNotNull(report.getSketch(TelemetryReport.GC_PAUSE));
+            // Only latencies recorded since the start are reported
+            assertEquals(1, report.getSketch(TelemetryReport.PUBLISH_LATENCY).getCount());
+            assertEquals(2, report.getSketch(TelemetryReport.PUBLISH_LATENCY).getMax(), 0.2);
+
+            report = reporter.collect();
+            assertTrue(report.getSketch(TelemetryReport.PUBLISH_LATENCY).isEmpty());
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void findsMetricsOfMqttDongles() {
+        assertNotNull(SysmonReporter.getMetrics(new Dongle("dongle")));
+        assertNull(SysmonReporter.getMetrics(null));
+    }
+}
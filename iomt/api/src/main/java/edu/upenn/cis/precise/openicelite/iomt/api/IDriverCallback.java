@@ -1,5 +1,7 @@
 package edu.upenn.cis.precise.openicelite.iomt.api;
 
+import java.nio.ByteBuffer;
+
 /**
  * Allow an application to be notified when asynchronous events
  * (data arrives, error happens, etc.) occur
@@ -20,4 +22,21 @@ public interface IDriverCallback {
      * @param message data to be handled
      */
     void handleMessage(String message);
+
+    /**
+     * Handle new data from driver as a buffer
+     * <p>
+     * The data lies between the position and the limit of the buffer, which may be a
+     * pooled or direct buffer owned by the driver. It is only valid until this method
+     * returns and must not be modified: implementations which keep the data must copy
+     * it. By default, the data is copied into a new array and handed to
+     * handleMessage(byte[]).
+     *
+     * @param message data to be handled
+     */
+    default void handleMessage(ByteBuffer message) {
+        byte[] data = new byte[message.remaining()];
+        message.duplicate().get(data);
+        handleMessage(data);
+    }
 }
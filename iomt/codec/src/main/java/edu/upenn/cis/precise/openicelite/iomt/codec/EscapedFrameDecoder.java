@@ -0,0 +1,197 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decode frames separated by a flag byte, with flag and escape bytes escaped in the
+ * content (SLIP, HDLC-style byte stuffing)
+ * <p>
+ * Bytes are unescaped into the decoder buffer as they arrive, copying runs without
+ * special bytes in bulk, so every byte is looked at once. Empty frames (consecutive
+ * flags) are ignored; an oversized frame or an escape followed by a flag (abort
+ * sequence) drops the frame up to the next flag. Checksums (e.g., the HDLC FCS) are
+ * left in the frame for the handler to verify.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class EscapedFrameDecoder extends FrameDecoder {
+    private static final int CHUNK_SIZE = 4096;
+
+    private final byte flag;
+    private final byte escape;
+    private final byte[] unescape;
+    private final byte[] frame;
+    private final ByteBuffer view;
+    private byte[] chunk = null;
+    private int length = 0;
+    private boolean escaped = false;
+    private boolean discarding = false;
+
+    /**
+     * Escaped frame decoder constructor
+     *
+     * @param flag           byte separating frames
+     * @param escape         byte escaping the next byte
+     * @param unescape       table of the original byte (index) of each escaped byte
+     * @param maxFrameLength frames longer than this (in bytes, unescaped) are discarded
+     */
+    public EscapedFrameDecoder(byte flag, byte escape, byte[] unescape, int maxFrameLength) {
+        super(maxFrameLength);
+        if (flag == escape || unescape == null || unescape.length != 256) {
+            throw new IllegalArgumentException("Invalid escape settings!");
+        }
+        this.flag = flag;
+        this.escape = escape;
+        this.unescape = unescape.clone();
+        this.frame = new byte[maxFrameLength];
+        this.view = ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Return a SLIP (RFC 1055) decoder: END 0xC0, ESC 0xDB, ESC_END 0xDC, ESC_ESC 0xDD
+     *
+     * @param maxFrameLength frames longer than this (in bytes, unescaped) are discarded
+     * @return decoder
+     */
+    public static EscapedFrameDecoder slip(int maxFrameLength) {
+        byte[] table = identity();
+        table[0xDC] = (byte) 0xC0;
+        table[0xDD] = (byte) 0xDB;
+        return new EscapedFrameDecoder((byte) 0xC0, (byte) 0xDB, table, maxFrameLength);
+    }
+
+    /**
+     * Return an HDLC-style (RFC 1662) decoder: flag 0x7E, escape 0x7D, escaped bytes
+     * XOR 0x20
+     *
+     * @param maxFrameLength frames longer than this (in bytes, unescaped) are discarded
+     * @return decoder
+     */
+    public static EscapedFrameDecoder hdlc(int maxFrameLength) {
+        byte[] table = new byte[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) (i ^ 0x20);
+        }
+        return new EscapedFrameDecoder((byte) 0x7E, (byte) 0x7D, table, maxFrameLength);
+    }
+
+    private static byte[] identity() {
+        byte[] table = new byte[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) i;
+        }
+        return table;
+    }
+
+    @Override
+    public int decode(ByteBuffer input, IFrameHandler handler) {
+        long before = frames;
+        if (input.hasArray()) {
+            int offset = input.arrayOffset();
+            process(input.array(), offset + input.position(), offset + input.limit(), handler);
+            input.position(input.limit());
+        } else {
+            // Direct buffers are read in chunks
+            if (chunk == null) chunk = new byte[CHUNK_SIZE];
+            while (input.hasRemaining()) {
+                int count = Math.min(input.remaining(), chunk.length);
+                input.get(chunk, 0, count);
+                process(chunk, 0, count, handler);
+            }
+        }
+        return (int) (frames - before);
+    }
+
+    private void process(byte[] source, int from, int to, IFrameHandler handler) {
+        int index = from;
+        while (index < to) {
+            if (escaped) {
+                escaped = false;
+                byte value = source[index++];
+                if (value == flag) {
+                    // Abort sequence
+                    if (!discarding) {
+                        errors++;
+                        discardedBytes += length;
+                    }
+                    length = 0;
+                    discarding = false;
+                } else {
+                    append(unescape[value & 0xFF]);
+                }
+                continue;
+            }
+
+            // Copy the run up to the next special byte at once
+            int next = index;
+            while (next < to && source[next] != flag && source[next] != escape) {
+                next++;
+            }
+            append(source, index, next - index);
+            if (next == to) break;
+            if (source[next] == flag) {
+                endFrame(handler);
+            } else {
+                escaped = true;
+            }
+            index = next + 1;
+        }
+    }
+
+    private void append(byte value) {
+        if (discarding) {
+            discardedBytes++;
+        } else if (length == frame.length) {
+            drop(1);
+        } else {
+            frame[length++] = value;
+        }
+    }
+
+    private void append(byte[] source, int from, int count) {
+        if (count == 0) return;
+        if (discarding) {
+            discardedBytes += count;
+        } else if (length + count > frame.length) {
+            drop(count);
+        } else {
+            System.arraycopy(source, from, frame, length, count);
+            length += count;
+        }
+    }
+
+    /**
+     * Drop the oversized frame up to the next flag
+     */
+    private void drop(int count) {
+        errors++;
+        discardedBytes += length + count;
+        length = 0;
+        discarding = true;
+    }
+
+    private void endFrame(IFrameHandler handler) {
+        int count = length;
+        length = 0;
+        if (discarding) {
+            discarding = false;
+        } else if (count > 0) {
+            view.clear();
+            view.limit(count);
+            frames++;
+            handler.handleFrame(view);
+        }
+    }
+
+    @Override
+    public void reset() {
+        length = 0;
+        escaped = false;
+        discarding = false;
+    }
+
+    @Override
+    public int getBuffered() {
+        return length;
+    }
+}
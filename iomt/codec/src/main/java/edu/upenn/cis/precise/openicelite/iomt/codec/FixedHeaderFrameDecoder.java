@@ -0,0 +1,90 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decode frames starting with a sync pattern and a fixed-size header
+ * <p>
+ * The body length is told by the header (e.g., from a message type), or is fixed
+ * for fixed-size frames. Bytes before the sync pattern are skipped, and a frame with
+ * an invalid or oversized body length skips one byte so that decoding resumes at
+ * the next sync pattern.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class FixedHeaderFrameDecoder extends HeaderFrameDecoder {
+    private final byte[] sync;
+    private final int headerLength;
+    private final BodyLength bodyLength;
+
+    /**
+     * Tell the body length of a frame from its header
+     */
+    @FunctionalInterface
+    public interface BodyLength {
+        /**
+         * Return the body length of a frame
+         *
+         * @param data   bytes of the stream (use absolute get)
+         * @param offset index of the first header byte (the sync pattern)
+         * @return body length in bytes, or -1 if the header is invalid
+         */
+        int bodyLength(ByteBuffer data, int offset);
+    }
+
+    /**
+     * Fixed header frame decoder constructor
+     *
+     * @param sync           sync pattern at the start of every frame (may be empty)
+     * @param headerLength   header length, including the sync pattern
+     * @param bodyLength     body length told by the header
+     * @param maxFrameLength frames longer than this (in bytes, including header) are discarded
+     */
+    public FixedHeaderFrameDecoder(byte[] sync, int headerLength, BodyLength bodyLength, int maxFrameLength) {
+        super(maxFrameLength);
+        if (sync == null || headerLength < Math.max(sync.length, 1) || headerLength > maxFrameLength ||
+                bodyLength == null) {
+            throw new IllegalArgumentException("Invalid fixed header settings!");
+        }
+        this.sync = sync.clone();
+        this.headerLength = headerLength;
+        this.bodyLength = bodyLength;
+    }
+
+    /**
+     * Fixed-size frame decoder constructor
+     *
+     * @param sync        sync pattern at the start of every frame (may be empty)
+     * @param frameLength frame length, including the sync pattern
+     */
+    public FixedHeaderFrameDecoder(byte[] sync, int frameLength) {
+        this(sync, frameLength, (data, offset) -> 0, frameLength);
+    }
+
+    @Override
+    protected long scan(ByteBuffer data, int start, int end) {
+        int available = end - start;
+        for (int i = 0; i < sync.length; i++) {
+            if (i >= available) return 0;
+            if (data.get(start + i) != sync[i]) return -skipToSync(data, start, end);
+        }
+        if (available < headerLength) return 0;
+        int body = bodyLength.bodyLength(data, start);
+        long length = (long) headerLength + body;
+        if (body < 0 || length > maxFrameLength) {
+            errors++;
+            return (sync.length > 0 || body < 0) ? -1 : -length;
+        }
+        return (available < length) ? 0 : length;
+    }
+
+    /**
+     * Return the distance to the next possible start of the sync pattern
+     */
+    private int skipToSync(ByteBuffer data, int start, int end) {
+        for (int index = start + 1; index < end; index++) {
+            if (data.get(index) == sync[0]) return index - start;
+        }
+        return end - start;
+    }
+}
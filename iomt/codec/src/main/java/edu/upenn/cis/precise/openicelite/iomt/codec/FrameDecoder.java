@@ -0,0 +1,104 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Split a byte stream (e.g., chunks returned by IDriver.readBytes) into frames
+ * <p>
+ * Decoders keep the state of a partial frame between calls, so chunks can be fed as
+ * they are read, whatever their boundaries. A decoder belongs to one stream and is
+ * not thread-safe.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public abstract class FrameDecoder {
+    protected final int maxFrameLength;
+
+    // Stats
+    protected long frames = 0;
+    protected long discardedBytes = 0;
+    protected long errors = 0;
+
+    /**
+     * Frame decoder constructor
+     *
+     * @param maxFrameLength frames longer than this (in bytes) are discarded
+     */
+    protected FrameDecoder(int maxFrameLength) {
+        if (maxFrameLength < 1) throw new IllegalArgumentException("Invalid maximum frame length!");
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Consume all remaining bytes of the input and emit the frames they complete
+     *
+     * @param input   bytes between position and limit (the position is moved to the limit)
+     * @param handler receiver of completed frames
+     * @return number of emitted frames
+     */
+    public abstract int decode(ByteBuffer input, IFrameHandler handler);
+
+    /**
+     * Consume bytes from an array and emit the frames they complete
+     *
+     * @param input   bytes read from the stream
+     * @param offset  offset of the first byte
+     * @param length  number of bytes
+     * @param handler receiver of completed frames
+     * @return number of emitted frames
+     */
+    public int decode(byte[] input, int offset, int length, IFrameHandler handler) {
+        return decode(ByteBuffer.wrap(input, offset, length), handler);
+    }
+
+    /**
+     * Consume bytes from an array and emit the frames they complete
+     *
+     * @param input   bytes read from the stream (may be null)
+     * @param handler receiver of completed frames
+     * @return number of emitted frames
+     */
+    public int decode(byte[] input, IFrameHandler handler) {
+        if (input == null || input.length == 0) return 0;
+        return decode(ByteBuffer.wrap(input), handler);
+    }
+
+    /**
+     * Drop any partial frame (e.g., after reconnecting to the device)
+     */
+    public abstract void reset();
+
+    /**
+     * Return the number of bytes held for a partial frame
+     *
+     * @return buffered bytes
+     */
+    public abstract int getBuffered();
+
+    /**
+     * Return the number of emitted frames
+     *
+     * @return number of frames
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Return the number of bytes skipped (garbage, oversized or malformed frames)
+     *
+     * @return number of bytes
+     */
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    /**
+     * Return the number of oversized or malformed frames
+     *
+     * @return number of errors
+     */
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,138 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base of decoders which can tell the length of a frame from its first bytes
+ * <p>
+ * While nothing is buffered, frames are emitted straight from the input without
+ * copying, and only the trailing partial frame (if any) is copied into the decoder
+ * buffer. Once a partial frame is buffered, input is appended to it and frames are
+ * emitted from the buffer, which is compacted (moving the partial frame only) when
+ * the input does not fit behind it. Frames are never scanned twice: subclasses look
+ * at a frame header once enough bytes have arrived.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public abstract class HeaderFrameDecoder extends FrameDecoder {
+    private static final int MIN_CAPACITY = 4096;
+
+    private final byte[] data;
+    private final ByteBuffer view;
+    private int readIndex = 0;
+    private int writeIndex = 0;
+    // Bytes still to be skipped (may span several inputs)
+    private long skip = 0;
+
+    /**
+     * Header frame decoder constructor
+     *
+     * @param maxFrameLength frames longer than this (in bytes, including header) are discarded
+     */
+    protected HeaderFrameDecoder(int maxFrameLength) {
+        super(maxFrameLength);
+        this.data = new byte[Math.max(maxFrameLength, MIN_CAPACITY)];
+        this.view = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Look at the bytes at the start of a frame
+     *
+     * @param data  bytes to look at (use absolute get, the position is undefined)
+     * @param start index of the first byte of the frame
+     * @param end   index after the last available byte
+     * @return frame length if complete, 0 if more bytes are needed, or the negated
+     * number of bytes to skip (garbage or a malformed frame, may exceed the
+     * available bytes)
+     */
+    protected abstract long scan(ByteBuffer data, int start, int end);
+
+    /**
+     * Emit a complete frame (the whole frame by default)
+     *
+     * @param frame   view to set up and hand to the handler
+     * @param start   index of the first byte of the frame
+     * @param length  frame length
+     * @param handler receiver of completed frames
+     */
+    protected void emit(ByteBuffer frame, int start, int length, IFrameHandler handler) {
+        frame.clear();
+        frame.position(start);
+        frame.limit(start + length);
+        handler.handleFrame(frame);
+    }
+
+    @Override
+    public int decode(ByteBuffer input, IFrameHandler handler) {
+        long before = frames;
+        if (readIndex == writeIndex && input.hasRemaining()) {
+            // Nothing buffered: emit frames straight from the input
+            readIndex = writeIndex = 0;
+            int start = input.position();
+            input.position(start + process(input.duplicate(), start, input.limit(), handler));
+        }
+        while (input.hasRemaining()) {
+            if (data.length - writeIndex < input.remaining() && readIndex > 0) compact();
+            int length = Math.min(input.remaining(), data.length - writeIndex);
+            if (length == 0) {
+                // Cannot happen with a consistent scan, but never spin on a full buffer
+                errors++;
+                discardedBytes += writeIndex - readIndex;
+                readIndex = writeIndex = 0;
+                continue;
+            }
+            input.get(data, writeIndex, length);
+            writeIndex += length;
+            readIndex += process(view, readIndex, writeIndex, handler);
+            if (readIndex == writeIndex) readIndex = writeIndex = 0;
+        }
+        return (int) (frames - before);
+    }
+
+    /**
+     * Emit all complete frames of a range
+     *
+     * @return number of consumed bytes
+     */
+    private int process(ByteBuffer buffer, int start, int end, IFrameHandler handler) {
+        int index = start;
+        while (index < end) {
+            if (skip > 0) {
+                int length = (int) Math.min(skip, end - index);
+                skip -= length;
+                discardedBytes += length;
+                index += length;
+                continue;
+            }
+            // Emitted frames narrow the view
+            buffer.clear();
+            long length = scan(buffer, index, end);
+            if (length == 0) break;
+            if (length < 0) {
+                skip = -length;
+                continue;
+            }
+            emit(buffer, index, (int) length, handler);
+            frames++;
+            index += (int) length;
+        }
+        return index - start;
+    }
+
+    private void compact() {
+        System.arraycopy(data, readIndex, data, 0, writeIndex - readIndex);
+        writeIndex -= readIndex;
+        readIndex = 0;
+    }
+
+    @Override
+    public void reset() {
+        readIndex = writeIndex = 0;
+        skip = 0;
+    }
+
+    @Override
+    public int getBuffered() {
+        return writeIndex - readIndex;
+    }
+}
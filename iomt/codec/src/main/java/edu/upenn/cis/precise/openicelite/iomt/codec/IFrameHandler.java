@@ -0,0 +1,26 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receive frames completed by a frame decoder
+ * <p>
+ * Drivers can forward frames straight to their callback with
+ * callback::handleMessage (see IDriverCallback.handleMessage(ByteBuffer)).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@FunctionalInterface
+public interface IFrameHandler {
+    /**
+     * Handle a completed frame
+     * <p>
+     * The frame lies between the position and the limit of the buffer, which is a
+     * view into the input or the decoder's own buffer: it is only valid until this
+     * method returns and must not be modified. Implementations which keep the frame
+     * must copy it.
+     *
+     * @param frame frame content
+     */
+    void handleFrame(ByteBuffer frame);
+}
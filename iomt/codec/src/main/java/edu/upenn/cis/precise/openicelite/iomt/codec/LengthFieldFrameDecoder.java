@@ -0,0 +1,83 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decode frames carrying their length in a header field
+ * <p>
+ * The frame length is lengthOffset + lengthSize + (field value) + lengthAdjustment,
+ * e.g., a 2-byte big-endian length of the body right at the start is
+ * (0, 2, BIG_ENDIAN, 0, 2) when only the body should be emitted. A negative frame
+ * length (the stream is out of sync) skips one byte at a time; an oversized frame is
+ * skipped whole.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LengthFieldFrameDecoder extends HeaderFrameDecoder {
+    private final int lengthOffset;
+    private final int lengthSize;
+    private final ByteOrder order;
+    private final int lengthAdjustment;
+    private final int strip;
+
+    /**
+     * Length field frame decoder constructor
+     *
+     * @param lengthOffset     offset of the length field in the frame
+     * @param lengthSize       size of the length field (1, 2, 3 or 4 bytes, unsigned)
+     * @param order            byte order of the length field
+     * @param lengthAdjustment value added to the field to get the number of bytes
+     *                         following the field (e.g., minus the size of a trailer
+     *                         counted in the field)
+     * @param strip            number of bytes to strip from the start of emitted frames
+     * @param maxFrameLength   frames longer than this (in bytes, including header) are discarded
+     */
+    public LengthFieldFrameDecoder(int lengthOffset, int lengthSize, ByteOrder order, int lengthAdjustment,
+                                   int strip, int maxFrameLength) {
+        super(maxFrameLength);
+        if (lengthOffset < 0 || lengthSize < 1 || lengthSize > 4 || strip < 0 || order == null) {
+            throw new IllegalArgumentException("Invalid length field settings!");
+        }
+        this.lengthOffset = lengthOffset;
+        this.lengthSize = lengthSize;
+        this.order = order;
+        this.lengthAdjustment = lengthAdjustment;
+        this.strip = strip;
+    }
+
+    @Override
+    protected long scan(ByteBuffer data, int start, int end) {
+        int headerLength = lengthOffset + lengthSize;
+        if (end - start < headerLength) return 0;
+        long length = (long) headerLength + readLength(data, start + lengthOffset) + lengthAdjustment;
+        if (length < headerLength || length < strip) {
+            errors++;
+            return -1;
+        }
+        if (length > maxFrameLength) {
+            errors++;
+            return -length;
+        }
+        return (end - start < length) ? 0 : length;
+    }
+
+    @Override
+    protected void emit(ByteBuffer frame, int start, int length, IFrameHandler handler) {
+        super.emit(frame, start + strip, length - strip, handler);
+    }
+
+    private long readLength(ByteBuffer data, int index) {
+        long value = 0;
+        if (order == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < lengthSize; i++) {
+                value = (value << 8) | (data.get(index + i) & 0xFF);
+            }
+        } else {
+            for (int i = lengthSize - 1; i >= 0; i--) {
+                value = (value << 8) | (data.get(index + i) & 0xFF);
+            }
+        }
+        return value;
+    }
+}
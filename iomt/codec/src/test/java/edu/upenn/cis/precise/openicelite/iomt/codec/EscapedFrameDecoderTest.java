@@ -0,0 +1,155 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.upenn.cis.precise.openicelite.iomt.codec.FrameCollector.bytes;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class EscapedFrameDecoderTest {
+    private static final int END = 0xC0;
+    private static final int ESC = 0xDB;
+
+    @Test
+    public void unescapesSlipFrames() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(END, 1, ESC, 0xDC, 2, ESC, 0xDD, END), collector));
+        assertArrayEquals(bytes(1, END, 2, ESC), collector.frames.get(0));
+    }
+
+    @Test
+    public void unescapesHdlcFrames() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.hdlc(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(0x7E, 1, 0x7D, 0x5E, 0x7D, 0x5D, 0x7D, 0x31, 0x7E), collector));
+        assertArrayEquals(bytes(1, 0x7E, 0x7D, 0x11), collector.frames.get(0));
+    }
+
+    @Test
+    public void ignoresEmptyFrames() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(END, END, END, 5, END, END), collector));
+        assertArrayEquals(bytes(5), collector.frames.get(0));
+        assertEquals(0, decoder.getErrors());
+    }
+
+    @Test
+    public void keepsEscapeSplitAcrossInputs() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(0, decoder.decode(bytes(END, 1, ESC), collector));
+        assertEquals(1, decoder.getBuffered());
+        assertEquals(1, decoder.decode(bytes(0xDC, END), collector));
+        assertArrayEquals(bytes(1, END), collector.frames.get(0));
+    }
+
+    @Test
+    public void dropsFrameOnAbortSequence() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(1, 2, ESC, END, 3, END), collector));
+        assertArrayEquals(bytes(3), collector.frames.get(0));
+        assertEquals(1, decoder.getErrors());
+        assertEquals(2, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void dropsOversizedFrameUpToNextFlag() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(4);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(0, decoder.decode(bytes(1, 2, 3), collector));
+        assertEquals(0, decoder.decode(bytes(4, 5, ESC, 0xDC, 6), collector));
+        assertEquals(0, decoder.getBuffered());
+        assertEquals(1, decoder.decode(bytes(END, 7, 8, 9, 10, END), collector));
+        assertArrayEquals(bytes(7, 8, 9, 10), collector.frames.get(0));
+        assertEquals(1, decoder.getErrors());
+        assertEquals(7, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void resetDropsPartialFrame() {
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(64);
+        FrameCollector collector = new FrameCollector();
+        decoder.decode(bytes(1, 2, ESC), collector);
+        decoder.reset();
+        assertEquals(0, decoder.getBuffered());
+        assertEquals(1, decoder.decode(bytes(0xDC, END), collector));
+        // The escape was dropped with the partial frame
+        assertArrayEquals(bytes(0xDC), collector.frames.get(0));
+    }
+
+    @Test
+    public void decodesHeapAndDirectInputsAlike() {
+        Random random = new Random(3);
+        List<byte[]> frames = new ArrayList<>();
+        byte[] stream = slipStream(random, 2000, frames);
+
+        for (int maxChunk : new int[]{1, 7, 100, stream.length}) {
+            EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(256);
+            FrameCollector collector = new FrameCollector();
+            assertEquals(frames.size(), FrameCollector.feedInChunks(decoder, stream, maxChunk, random, collector));
+            assertFrames(frames, collector.frames);
+        }
+
+        // Direct buffers larger than the decoder's chunk
+        EscapedFrameDecoder decoder = EscapedFrameDecoder.slip(256);
+        FrameCollector collector = new FrameCollector();
+        ByteBuffer direct = ByteBuffer.allocateDirect(stream.length);
+        direct.put(stream).flip();
+        assertEquals(frames.size(), decoder.decode(direct, collector));
+        assertFalse(direct.hasRemaining());
+        assertFrames(frames, collector.frames);
+        assertEquals(0, decoder.getErrors());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFlagEqualToEscape() {
+        new EscapedFrameDecoder((byte) END, (byte) END, new byte[256], 64);
+    }
+
+    /**
+     * SLIP-encode random frames rich in special bytes
+     */
+    private static byte[] slipStream(Random random, int count, List<byte[]> frames) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(END);
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[1 + random.nextInt(200)];
+            for (int j = 0; j < frame.length; j++) {
+                int kind = random.nextInt(8);
+                frame[j] = (byte) ((kind == 0) ? END : (kind == 1) ? ESC : random.nextInt(256));
+            }
+            frames.add(frame);
+            for (byte value : frame) {
+                if ((value & 0xFF) == END) {
+                    stream.write(ESC);
+                    stream.write(0xDC);
+                } else if ((value & 0xFF) == ESC) {
+                    stream.write(ESC);
+                    stream.write(0xDD);
+                } else {
+                    stream.write(value);
+                }
+            }
+            stream.write(END);
+        }
+        return stream.toByteArray();
+    }
+
+    private static void assertFrames(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("Frame " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
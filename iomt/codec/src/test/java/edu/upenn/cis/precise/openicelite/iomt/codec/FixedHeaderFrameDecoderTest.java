@@ -0,0 +1,117 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.upenn.cis.precise.openicelite.iomt.codec.FrameCollector.bytes;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class FixedHeaderFrameDecoderTest {
+    private static final byte[] SYNC = bytes(0xAA, 0x55);
+
+    @Test
+    public void skipsGarbageBeforeSync() {
+        FixedHeaderFrameDecoder decoder = typedDecoder(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(1, 2, 3, 0xAA, 0x55, 1, 'x', 'y'), collector));
+        assertArrayEquals(bytes(0xAA, 0x55, 1, 'x', 'y'), collector.frames.get(0));
+        assertEquals(3, decoder.getDiscardedBytes());
+        assertEquals(0, decoder.getErrors());
+    }
+
+    @Test
+    public void resyncsAfterFalseSync() {
+        FixedHeaderFrameDecoder decoder = typedDecoder(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(0xAA, 0, 0xAA, 0x55, 2, 'a', 'b', 'c', 'd'), collector));
+        assertArrayEquals(bytes(0xAA, 0x55, 2, 'a', 'b', 'c', 'd'), collector.frames.get(0));
+        assertEquals(2, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void resyncsAfterInvalidHeader() {
+        FixedHeaderFrameDecoder decoder = typedDecoder(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(0xAA, 0x55, 9, 0xAA, 0x55, 1, 'x', 'y'), collector));
+        assertArrayEquals(bytes(0xAA, 0x55, 1, 'x', 'y'), collector.frames.get(0));
+        assertEquals(1, decoder.getErrors());
+        assertEquals(3, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void resyncsAfterOversizedBody() {
+        // Type 2 frames (7 bytes) are too long
+        FixedHeaderFrameDecoder decoder = typedDecoder(6);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(0xAA, 0x55, 2, 'a', 'b', 'c', 'd', 0xAA, 0x55, 1, 'x', 'y'),
+                collector));
+        assertArrayEquals(bytes(0xAA, 0x55, 1, 'x', 'y'), collector.frames.get(0));
+        assertEquals(1, decoder.getErrors());
+        assertEquals(7, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void splitsFixedSizeFrames() {
+        FixedHeaderFrameDecoder decoder = new FixedHeaderFrameDecoder(new byte[0], 4);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(2, decoder.decode(bytes(1, 2, 3, 4, 5, 6, 7, 8, 9), collector));
+        assertArrayEquals(bytes(1, 2, 3, 4), collector.frames.get(0));
+        assertArrayEquals(bytes(5, 6, 7, 8), collector.frames.get(1));
+        assertEquals(1, decoder.getBuffered());
+        assertEquals(1, decoder.decode(bytes(10, 11, 12), collector));
+        assertArrayEquals(bytes(9, 10, 11, 12), collector.frames.get(2));
+    }
+
+    @Test
+    public void reassemblesFramesSplitAcrossInputs() {
+        Random random = new Random(11);
+        List<byte[]> frames = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++) {
+            int type = 1 + random.nextInt(2);
+            byte[] frame = new byte[3 + type * 2];
+            random.nextBytes(frame);
+            frame[0] = SYNC[0];
+            frame[1] = SYNC[1];
+            frame[2] = (byte) type;
+            frames.add(frame);
+            stream.write(frame, 0, frame.length);
+        }
+
+        for (int maxChunk : new int[]{1, 2, 9, 4096}) {
+            FixedHeaderFrameDecoder decoder = typedDecoder(64);
+            FrameCollector collector = new FrameCollector();
+            assertEquals(frames.size(),
+                    FrameCollector.feedInChunks(decoder, stream.toByteArray(), maxChunk, random, collector));
+            for (int i = 0; i < frames.size(); i++) {
+                assertArrayEquals("Frame " + i + " in chunks of " + maxChunk, frames.get(i), collector.frames.get(i));
+            }
+            assertEquals(0, decoder.getDiscardedBytes());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHeaderShorterThanSync() {
+        new FixedHeaderFrameDecoder(SYNC, 1, (data, offset) -> 0, 64);
+    }
+
+    /**
+     * Sync pattern, then a type byte telling the body length (1: 2 bytes, 2: 4 bytes)
+     */
+    private static FixedHeaderFrameDecoder typedDecoder(int maxFrameLength) {
+        return new FixedHeaderFrameDecoder(SYNC, 3, FixedHeaderFrameDecoderTest::bodyLength, maxFrameLength);
+    }
+
+    private static int bodyLength(ByteBuffer data, int offset) {
+        int type = data.get(offset + 2);
+        return (type == 1 || type == 2) ? type * 2 : -1;
+    }
+}
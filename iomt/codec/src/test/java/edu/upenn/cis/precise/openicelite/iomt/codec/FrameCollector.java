@@ -0,0 +1,49 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Frame handler keeping a copy of every frame, as handlers which keep frames must
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class FrameCollector implements IFrameHandler {
+    final List<byte[]> frames = new ArrayList<>();
+    // Buffer of the last frame (to tell views of the input from copies)
+    ByteBuffer lastBuffer = null;
+
+    @Override
+    public void handleFrame(ByteBuffer frame) {
+        byte[] copy = new byte[frame.remaining()];
+        frame.duplicate().get(copy);
+        frames.add(copy);
+        lastBuffer = frame;
+    }
+
+    /**
+     * Feed a stream to a decoder in chunks of random sizes
+     *
+     * @return number of emitted frames
+     */
+    static int feedInChunks(FrameDecoder decoder, byte[] stream, int maxChunk, Random random, IFrameHandler handler) {
+        int count = 0;
+        int offset = 0;
+        while (offset < stream.length) {
+            int length = Math.min(stream.length - offset, 1 + random.nextInt(maxChunk));
+            count += decoder.decode(stream, offset, length, handler);
+            offset += length;
+        }
+        return count;
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,143 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.upenn.cis.precise.openicelite.iomt.codec.FrameCollector.bytes;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LengthFieldFrameDecoderTest {
+    @Test
+    public void emitsFramesOfOneInputWithoutCopying() {
+        LengthFieldFrameDecoder decoder = bodyDecoder(64);
+        FrameCollector collector = new FrameCollector();
+        byte[] input = bytes(0, 3, 'a', 'b', 'c', 0, 1, 'x');
+
+        assertEquals(2, decoder.decode(input, collector));
+        assertArrayEquals(bytes('a', 'b', 'c'), collector.frames.get(0));
+        assertArrayEquals(bytes('x'), collector.frames.get(1));
+        // Nothing was buffered, so the frame is a view of the input
+        assertSame(input, collector.lastBuffer.array());
+        assertEquals(0, decoder.getBuffered());
+        assertEquals(2, decoder.getFrames());
+    }
+
+    @Test
+    public void reassemblesFramesSplitAcrossInputs() {
+        Random random = new Random(7);
+        List<byte[]> bodies = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            byte[] body = new byte[random.nextInt(300)];
+            random.nextBytes(body);
+            bodies.add(body);
+            stream.write(body.length >> 8);
+            stream.write(body.length);
+            stream.write(body, 0, body.length);
+        }
+
+        for (int maxChunk : new int[]{1, 3, 64, 5000}) {
+            LengthFieldFrameDecoder decoder = bodyDecoder(1024);
+            FrameCollector collector = new FrameCollector();
+            assertEquals(bodies.size(),
+                    FrameCollector.feedInChunks(decoder, stream.toByteArray(), maxChunk, random, collector));
+            for (int i = 0; i < bodies.size(); i++) {
+                assertArrayEquals("Frame " + i + " in chunks of " + maxChunk, bodies.get(i), collector.frames.get(i));
+            }
+            assertEquals(0, decoder.getBuffered());
+            assertEquals(0, decoder.getErrors());
+        }
+    }
+
+    @Test
+    public void buffersPartialFrameUntilReset() {
+        LengthFieldFrameDecoder decoder = bodyDecoder(64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(0, decoder.decode(bytes(0, 5, 1, 2), collector));
+        assertEquals(4, decoder.getBuffered());
+
+        decoder.reset();
+        assertEquals(0, decoder.getBuffered());
+        assertEquals(1, decoder.decode(bytes(0, 2, 3, 4), collector));
+        assertArrayEquals(bytes(3, 4), collector.frames.get(0));
+    }
+
+    @Test
+    public void skipsOversizedFrameAcrossInputs() {
+        LengthFieldFrameDecoder decoder = bodyDecoder(16);
+        FrameCollector collector = new FrameCollector();
+        byte[] stream = new byte[2 + 100 + 3];
+        stream[1] = 100;
+        stream[103] = 1;
+        stream[104] = 'z';
+
+        assertEquals(1, FrameCollector.feedInChunks(decoder, stream, 10, new Random(1), collector));
+        assertArrayEquals(bytes('z'), collector.frames.get(0));
+        assertEquals(1, decoder.getErrors());
+        assertEquals(102, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void readsLittleEndianFieldWithOffsetAndAdjustment() {
+        // Type byte, then the length of the whole frame (little-endian), then the body
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 2, ByteOrder.LITTLE_ENDIAN, -3, 3, 64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(2, decoder.decode(bytes(0x10, 6, 0, 'a', 'b', 'c', 0x11, 4, 0, 'd'), collector));
+        assertArrayEquals(bytes('a', 'b', 'c'), collector.frames.get(0));
+        assertArrayEquals(bytes('d'), collector.frames.get(1));
+    }
+
+    @Test
+    public void readsThreeByteField() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 3, ByteOrder.BIG_ENDIAN, 0, 3, 1 << 17);
+        FrameCollector collector = new FrameCollector();
+        byte[] stream = new byte[3 + 70000];
+        stream[0] = 0x01;
+        stream[1] = 0x11;
+        stream[2] = 0x70;
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(stream), collector));
+        assertEquals(70000, collector.frames.get(0).length);
+    }
+
+    @Test
+    public void skipsOneByteOnNegativeLength() {
+        // Frame length is the field value minus 4, so a field below 5 is out of sync
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 1, ByteOrder.BIG_ENDIAN, -5, 0, 64);
+        FrameCollector collector = new FrameCollector();
+        assertEquals(1, decoder.decode(bytes(2, 8, 1, 2, 3), collector));
+        assertArrayEquals(bytes(8, 1, 2, 3), collector.frames.get(0));
+        assertEquals(1, decoder.getErrors());
+        assertEquals(1, decoder.getDiscardedBytes());
+    }
+
+    @Test
+    public void movesInputPositionToLimit() {
+        LengthFieldFrameDecoder decoder = bodyDecoder(64);
+        ByteBuffer input = ByteBuffer.wrap(bytes(9, 0, 1, 'a', 0, 3, 'b'));
+        input.position(1);
+        assertEquals(1, decoder.decode(input, new FrameCollector()));
+        assertEquals(input.limit(), input.position());
+        assertEquals(3, decoder.getBuffered());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLengthSize() {
+        new LengthFieldFrameDecoder(0, 5, ByteOrder.BIG_ENDIAN, 0, 0, 64);
+    }
+
+    /**
+     * 2-byte big-endian body length, only the body is emitted
+     */
+    private static LengthFieldFrameDecoder bodyDecoder(int maxFrameLength) {
+        return new LengthFieldFrameDecoder(0, 2, ByteOrder.BIG_ENDIAN, 0, 2, maxFrameLength);
+    }
+}
@@ -0,0 +1,556 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import edu.upenn.cis.precise.openicelite.connman.api.ConnectionState;
+import edu.upenn.cis.precise.openicelite.connman.api.IConnectionManager;
+import edu.upenn.cis.precise.openicelite.connman.core.ConnectionManager;
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.api.TelemetryReport;
+import edu.upenn.cis.precise.openicelite.coreapps.sysmon.core.SysmonReporter;
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.host.command.CommandDispatcher;
+import edu.upenn.cis.precise.openicelite.middleware.api.IGracefulShutdown;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ShutdownHook;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Host drivers on a dongle and pump their data into a middleware
+ * <p>
+ * Every driver gets its own bounded queue, filled by the driver's callback thread
+ * and drained by a publisher thread which calls publishId on the middleware. A slow
+ * middleware therefore fills queues instead of stalling device readers, and the
+ * overflow policy decides what is lost when a queue is full.
+ * <p>
+ * Drivers are connected by a connection manager: addDriver returns right away, all
+ * drivers connect in parallel (each bounded by the connect timeout), and connected
+ * drivers are probed and reconnected with backoff when unhealthy. Devices are
+ * registered with the middleware (addDevice) when their driver is added, with their
+ * connection state in the "connection" attribute (see ConnectionManager).
+ * <p>
+ * Drivers which only support pulling data (read/readBytes) can be added with the
+ * "poll" driver option instead: they are connected when added, then polled by a small
+ * shared thread pool at an interval adapted to their data rate, and the data of each
+ * poll is queued with a single publisher wake-up (see PolledDriver).
+ * <p>
+ * Applications send commands to devices over the Command channel of the dongle's
+ * client topic once startCommands is called. Commands bypass the data queues: they
+ * are written to drivers by a dedicated thread, earliest deadline first, and
+ * acknowledged to the sender (see CommandDispatcher and CommandClient).
+ * <p>
+ * Per-driver counters, rates and queue occupancy are available through getDrivers(),
+ * JMX (type=DriverHost, name=device ID) and a periodic log line.
+ * <p>
+ * Available options for initialization:
+ * - "queue_size":          default queue capacity per driver (default to 1024)
+ * - "overflow":            default overflow policy: drop_newest, drop_oldest or block
+ *                              (default to drop_oldest)
+ * - "publisher_threads":   number of publisher threads (default to 1)
+ * - "stats_interval":      interval in seconds to update rates and log stats (default to 30)
+ * - "poll_threads":        number of threads polling pull-based drivers (default to 1)
+ * - "command_queue":       maximum number of commands waiting to be written (default to 64)
+ * - "command_ack_qos":     MQTT QoS of command acks (default to 1)
+ * - "command_dedup_time":  milliseconds command IDs are remembered to detect
+ *                              redeliveries (default to 60000)
+ * - "connect_timeout", "backoff_*", "probe_*", "idle_timeout": connection manager
+ *                              options (see ConnectionManager)
+ * <p>
+ * When running as an application, drivers are listed in driver_host.properties:
+ * - "middleware_class":    IMiddleware implementation with a (String dongleId) constructor
+ *                              (default to the MQTT Dongle)
+ * - "dongle_id":           dongle UUID (will be randomized if not provided)
+ * - "topic_handler_class": ITopicHandler implementation of the middleware
+ *                              (default to the MQTT TopicHandler)
+ * - "commands":            accept commands for hosted devices (default to true)
+ * - "sysmon":              publish runtime telemetry of the dongle to its sysmon topic
+ *                              (default to false, see SysmonReporter for sysmon_* options)
+ * - "drivers":             driver names, separated with comma
+ * - "driver.NAME.class":   (required) IDriver implementation with a no-argument constructor
+ * - "driver.NAME.address": address passed to connect
+ * - "driver.NAME.device_id", "driver.NAME.device_type": device information
+ * - "driver.NAME.queue_size", "driver.NAME.overflow": queue settings of this driver
+ * - "driver.NAME.poll":    poll the driver instead of subscribing to it (default to false)
+ * - "driver.NAME.poll_*":  polling settings of this driver (see PolledDriver)
+ * - "driver.NAME.*":       any other key is passed to the driver as an option
+ * All other keys are passed to the host and the middleware as options.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DriverHost implements IGracefulShutdown {
+    private static final String PROPERTIES_FILE_NAME = "driver_host.properties";
+    private static final String DEFAULT_MIDDLEWARE = "edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle";
+    private static final String DEFAULT_TOPIC_HANDLER =
+            "edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler";
+    private static final String DRIVER_PREFIX = "driver.";
+
+    private static final Logger logger = LogManager.getLogger(DriverHost.class);
+
+    private final IMiddleware middleware;
+    private final ConnectionManager connections;
+    private final CopyOnWriteArrayList<HostedDriver> drivers = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, PolledDriver> polled = new ConcurrentHashMap<>();
+    private Publisher[] publishers;
+    private ScheduledThreadPoolExecutor poller;
+    private volatile CommandDispatcher commands;
+    private Thread statsThread;
+    private volatile boolean running = false;
+
+    // Overwritten-able configuration
+    private int queueSize = 1024;
+    private OverflowPolicy overflow = OverflowPolicy.DROP_OLDEST;
+    private int publisherThreads = 1;
+    private int statsInterval = 30;
+    private int pollThreads = 1;
+    private int commandQueue = 64;
+    private int commandAckQos = 1;
+    private long commandDedupTime = 60000;
+
+    public static void main(String[] args) {
+        logger.info("Starting Driver Host...");
+
+        // Load configuration
+        ClassLoader loader = DriverHost.class.getClassLoader();
+        URL propResource = loader.getResource(PROPERTIES_FILE_NAME);
+        File propFile = new File("./" + PROPERTIES_FILE_NAME);
+        Properties properties = new Properties();
+
+        if (propFile.isFile() || propResource != null) {
+            logger.info("Loading configuration from " +
+                    (propFile.isFile() ? "./" : "default ") + PROPERTIES_FILE_NAME + "...");
+            try (InputStream input = (propFile.isFile() ?
+                    new FileInputStream("./" + PROPERTIES_FILE_NAME) :
+                    loader.getResourceAsStream(PROPERTIES_FILE_NAME))) {
+                properties.load(input);
+            } catch (Exception ex) {
+                logger.error("Failed to load configuration!", ex);
+                System.exit(-1);
+            }
+        } else {
+            logger.error("Cannot find configuration file - " + PROPERTIES_FILE_NAME + "!");
+            System.exit(-1);
+        }
+
+        HashMap<String, Object> options = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(DRIVER_PREFIX)) options.put(key, properties.getProperty(key));
+        }
+
+        DriverHost host = null;
+        try {
+            String dongleId = properties.getProperty("dongle_id", UUID.randomUUID().toString());
+            String middlewareClass = properties.getProperty("middleware_class", DEFAULT_MIDDLEWARE);
+            IMiddleware middleware = (IMiddleware) Class.forName(middlewareClass)
+                    .getConstructor(String.class).newInstance(dongleId);
+            logger.info("-- Dongle ID     : " + dongleId);
+            logger.info("-- Middleware    : " + middlewareClass);
+            middleware.init(options);
+            middleware.connect(null, null, null);
+            Runtime.getRuntime().addShutdownHook(new ShutdownHook(middleware));
+
+            host = new DriverHost(middleware);
+            host.init(options);
+            host.start();
+            Runtime.getRuntime().addShutdownHook(new ShutdownHook(host));
+            ITopicHandler topicHandler = (ITopicHandler) Class.forName(
+                    properties.getProperty("topic_handler_class", DEFAULT_TOPIC_HANDLER))
+                    .getConstructor().newInstance();
+            String projectName = properties.getProperty("project_name", "DEFAULT");
+            if (Boolean.parseBoolean(properties.getProperty("commands", "true"))) {
+                host.startCommands(topicHandler, projectName, dongleId);
+            }
+            if (Boolean.parseBoolean(properties.getProperty("sysmon", "false"))) {
+                startSysmon(host, topicHandler, projectName, dongleId, options);
+            }
+
+            for (String name : properties.getProperty("drivers", "").split(",")) {
+                if (name.trim().isEmpty()) continue;
+                addDriver(host, name.trim(), properties);
+            }
+        } catch (Exception ex) {
+            logger.error("Failed to start driver host!", ex);
+            if (host != null) host.close();
+            System.exit(-1);
+        }
+    }
+
+    private static void startSysmon(DriverHost host, ITopicHandler topicHandler, String projectName,
+                                     String dongleId, HashMap<String, Object> options) {
+        SysmonReporter reporter = new SysmonReporter(host.middleware, topicHandler, projectName, dongleId,
+                SysmonReporter.getMetrics(host.middleware));
+        reporter.init(options);
+        reporter.addGauge(TelemetryReport.QUEUE_DEPTH, () -> {
+            int depth = 0;
+            for (HostedDriver driver : host.getDrivers()) {
+                depth += driver.getQueueSize();
+            }
+            return depth;
+        });
+        reporter.start();
+        logger.info("Publishing telemetry on " + topicHandler.getSysmonTopic(projectName, dongleId));
+    }
+
+    private static void addDriver(DriverHost host, String name, Properties properties) {
+        String prefix = DRIVER_PREFIX + name + ".";
+        HashMap<String, Object> driverOptions = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                driverOptions.put(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+        Object className = driverOptions.remove("class");
+        if (className == null) throw new IllegalArgumentException("No class for driver " + name);
+        Object address = driverOptions.remove("address");
+        host.addDriver(className.toString(), (address == null) ? null : address.toString(), driverOptions);
+    }
+
+    /**
+     * Driver host constructor
+     *
+     * @param middleware connected (or connecting) middleware to publish to
+     */
+    public DriverHost(IMiddleware middleware) {
+        this.middleware = middleware;
+        this.connections = new ConnectionManager(middleware);
+    }
+
+    /**
+     * Load host options
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("queue_size")) {
+            queueSize = Integer.parseInt(options.get("queue_size").toString());
+        }
+        if (options.containsKey("overflow")) {
+            overflow = OverflowPolicy.parse(options.get("overflow").toString());
+        }
+        if (options.containsKey("publisher_threads")) {
+            publisherThreads = Integer.parseInt(options.get("publisher_threads").toString());
+        }
+        if (options.containsKey("stats_interval")) {
+            statsInterval = Integer.parseInt(options.get("stats_interval").toString());
+        }
+        if (options.containsKey("poll_threads")) {
+            pollThreads = Integer.parseInt(options.get("poll_threads").toString());
+        }
+        if (options.containsKey("command_queue")) {
+            commandQueue = Integer.parseInt(options.get("command_queue").toString());
+        }
+        if (options.containsKey("command_ack_qos")) {
+            commandAckQos = Integer.parseInt(options.get("command_ack_qos").toString());
+        }
+        if (options.containsKey("command_dedup_time")) {
+            commandDedupTime = Long.parseLong(options.get("command_dedup_time").toString());
+        }
+        if (queueSize < 1 || publisherThreads < 1 || statsInterval < 1 || pollThreads < 1
+                || commandQueue < 1 || commandAckQos < 0 || commandAckQos > 2 || commandDedupTime < 0) {
+            throw new IllegalArgumentException("Invalid driver host options!");
+        }
+        connections.init(options);
+    }
+
+    /**
+     * Start publisher threads, pollers, the connection manager and periodic stats
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        publishers = new Publisher[publisherThreads];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = new Publisher("DriverHost-Publisher-" + i);
+            publishers[i].start();
+        }
+        AtomicInteger count = new AtomicInteger();
+        poller = new ScheduledThreadPoolExecutor(pollThreads, r -> {
+            Thread thread = new Thread(r, "DriverHost-Poller-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.setRemoveOnCancelPolicy(true);
+        connections.start();
+        statsThread = new Thread(this::reportStats, "DriverHost-Stats");
+        statsThread.setDaemon(true);
+        statsThread.start();
+    }
+
+    /**
+     * Accept commands for hosted devices on the Command channel of the dongle
+     *
+     * @param topicHandler topic handler of the middleware
+     * @param projectName  project name
+     * @param dongleId     dongle ID of the middleware
+     */
+    public synchronized void startCommands(ITopicHandler topicHandler, String projectName, String dongleId) {
+        if (!running) throw new IllegalArgumentException("Driver host is not started!");
+        if (commands != null) return;
+        commands = new CommandDispatcher(middleware, topicHandler, projectName, dongleId, this::findDriver,
+                commandQueue, commandAckQos, commandDedupTime);
+        middleware.waitConnected();
+        commands.start();
+        logger.info("Accepting commands on " + commands.getCommandTopic());
+    }
+
+    private IDriver findDriver(String deviceId) {
+        HostedDriver hosted = getDriver(deviceId);
+        return (hosted == null) ? null : hosted.getDriver();
+    }
+
+    /**
+     * Load a driver by class name, then add it (see addDriver(IDriver, ...))
+     *
+     * @param className     IDriver implementation with a no-argument constructor
+     * @param address       device address passed to connect
+     * @param driverOptions driver options, including "device_id", "device_type",
+     *                      "queue_size", "overflow" and "poll"
+     * @return hosted driver
+     */
+    public HostedDriver addDriver(String className, String address, HashMap<String, Object> driverOptions) {
+        IDriver driver;
+        try {
+            driver = (IDriver) Class.forName(className).getConstructor().newInstance();
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Failed to load driver " + className + " - " + ex.getMessage());
+        }
+        return addDriver(driver, address, driverOptions);
+    }
+
+    /**
+     * Initialize a driver, register its device with the middleware and hand it to the
+     * connection manager, which subscribes the hosted driver once connected (polled
+     * drivers are connected and started right away)
+     *
+     * @param driver        driver instance
+     * @param address       device address passed to connect
+     * @param driverOptions driver options, including "device_id", "device_type",
+     *                      "queue_size", "overflow" and "poll"
+     * @return hosted driver
+     */
+    public synchronized HostedDriver addDriver(IDriver driver, String address,
+                                               HashMap<String, Object> driverOptions) {
+        if (!running) throw new IllegalArgumentException("Driver host is not started!");
+        HashMap<String, Object> options = (driverOptions != null) ? driverOptions : new HashMap<>();
+
+        // Device information
+        DeviceInfo info = driver.getDeviceInfo();
+        if (info == null) info = new DeviceInfo(UUID.randomUUID().toString());
+        if (options.containsKey("device_id")) info.setDeviceId(options.get("device_id").toString());
+        if (options.containsKey("device_type")) info.setDeviceType(options.get("device_type").toString());
+        if (info.getDeviceId() == null) info.setDeviceId(UUID.randomUUID().toString());
+        driver.setDeviceInfo(info);
+        for (HostedDriver hosted : drivers) {
+            if (hosted.getDeviceId().equals(info.getDeviceId())) {
+                throw new IllegalArgumentException("Duplicated device ID - " + info.getDeviceId());
+            }
+        }
+
+        // Queue
+        int size = options.containsKey("queue_size") ?
+                Integer.parseInt(options.get("queue_size").toString()) : queueSize;
+        OverflowPolicy policy = options.containsKey("overflow") ?
+                OverflowPolicy.parse(options.get("overflow").toString()) : overflow;
+        Publisher publisher = publishers[0];
+        for (Publisher candidate : publishers) {
+            if (candidate.size() < publisher.size()) publisher = candidate;
+        }
+        HostedDriver hosted = new HostedDriver(driver, middleware, size, policy, publisher);
+        boolean poll = options.containsKey("poll") && Boolean.parseBoolean(options.get("poll").toString());
+        PolledDriver polledDriver = poll ? new PolledDriver(hosted, options, poller) : null;
+
+        logger.info("Adding driver " + hosted.getDriverClass() + " for device " + info.getDeviceId() +
+                " (queue " + hosted.getQueueCapacity() + ", " + policy.name().toLowerCase() + ")...");
+        driver.init(options);
+        publisher.add(hosted);
+        drivers.add(hosted);
+        hosted.register();
+        if (polledDriver != null) {
+            middleware.addDevice(info);
+            driver.connect(address, info.getDeviceId(), options);
+            polled.put(info.getDeviceId(), polledDriver);
+            polledDriver.start();
+        } else {
+            connections.add(driver, address, options, hosted);
+        }
+        return hosted;
+    }
+
+    /**
+     * Stop a driver, publish what is left in its queue and unregister its device
+     *
+     * @param deviceId device ID of the driver
+     * @return true if removed, false if not found
+     */
+    public synchronized boolean removeDriver(String deviceId) {
+        HostedDriver hosted = null;
+        for (HostedDriver candidate : drivers) {
+            if (candidate.getDeviceId().equals(deviceId)) hosted = candidate;
+        }
+        if (hosted == null) return false;
+
+        logger.info("Removing driver of device " + deviceId + "...");
+        hosted.stop();
+        PolledDriver polledDriver = polled.remove(deviceId);
+        if (polledDriver != null) {
+            polledDriver.stop();
+            try {
+                hosted.getDriver().unsubscribe();
+                hosted.getDriver().disconnect();
+                hosted.getDriver().close();
+            } catch (Exception ex) {
+                logger.warn("Failed to close driver of device " + deviceId, ex);
+            }
+        } else {
+            // Disconnects and closes the driver, its device is unregistered below
+            connections.remove(deviceId, false);
+        }
+        // The driver no longer produces, so its queue can be flushed from here, while
+        // the device is still known to the middleware
+        hosted.getPublisher().remove(hosted);
+        while (hosted.drain(Integer.MAX_VALUE) > 0) {
+            Thread.yield();
+        }
+        middleware.removeDevice(deviceId);
+        drivers.remove(hosted);
+        hosted.unregister();
+        return true;
+    }
+
+    /**
+     * Return all hosted drivers
+     *
+     * @return hosted drivers
+     */
+    public List<HostedDriver> getDrivers() {
+        return new ArrayList<>(drivers);
+    }
+
+    /**
+     * Return the hosted driver of a device
+     *
+     * @param deviceId device ID
+     * @return hosted driver (null if not found)
+     */
+    public HostedDriver getDriver(String deviceId) {
+        for (HostedDriver hosted : drivers) {
+            if (hosted.getDeviceId().equals(deviceId)) return hosted;
+        }
+        return null;
+    }
+
+    /**
+     * Return the connection manager of the (non-polled) drivers
+     *
+     * @return connection manager
+     */
+    public IConnectionManager getConnections() {
+        return connections;
+    }
+
+    /**
+     * Return the command dispatcher
+     *
+     * @return command dispatcher (null if commands are not started)
+     */
+    public CommandDispatcher getCommands() {
+        return commands;
+    }
+
+    /**
+     * Format stats of all drivers, one per line
+     *
+     * @return report
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        for (HostedDriver hosted : drivers) {
+            if (builder.length() > 0) builder.append('\n');
+            builder.append(hosted);
+            PolledDriver polledDriver = polled.get(hosted.getDeviceId());
+            ConnectionState state = connections.getState(hosted.getDeviceId());
+            if (polledDriver != null) {
+                builder.append(", polled every ").append(polledDriver.getInterval()).append(" ms");
+            } else if (state != null) {
+                builder.append(", ").append(state.name().toLowerCase());
+            }
+        }
+        CommandDispatcher dispatcher = commands;
+        if (dispatcher != null) {
+            if (builder.length() > 0) builder.append('\n');
+            builder.append(dispatcher);
+        }
+        return builder.toString();
+    }
+
+    private void reportStats() {
+        while (running) {
+            try {
+                Thread.sleep(statsInterval * 1000L);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            for (HostedDriver hosted : drivers) hosted.updateRates();
+            if (!drivers.isEmpty() || commands != null) logger.info("Driver stats:\n" + report());
+        }
+    }
+
+    /**
+     * Stop all drivers (the middleware is left connected); managed drivers are
+     * disconnected and closed by the connection manager so that they are not
+     * reconnected
+     */
+    @Override
+    public void disconnect() {
+        for (HostedDriver hosted : drivers) {
+            hosted.stop();
+            PolledDriver polledDriver = polled.get(hosted.getDeviceId());
+            if (polledDriver == null) continue;
+            polledDriver.stop();
+            try {
+                hosted.getDriver().unsubscribe();
+                hosted.getDriver().disconnect();
+            } catch (Exception ex) {
+                logger.warn("Failed to disconnect driver of device " + hosted.getDeviceId(), ex);
+            }
+        }
+        connections.close();
+    }
+
+    /**
+     * Remove all drivers, then stop publisher threads (the middleware is not closed)
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) return;
+        if (commands != null) {
+            commands.stop();
+            commands = null;
+        }
+        for (HostedDriver hosted : drivers) {
+            removeDriver(hosted.getDeviceId());
+        }
+        connections.close();
+        running = false;
+        if (statsThread != null) statsThread.interrupt();
+        poller.shutdownNow();
+        for (Publisher publisher : publishers) {
+            publisher.stop();
+        }
+    }
+}
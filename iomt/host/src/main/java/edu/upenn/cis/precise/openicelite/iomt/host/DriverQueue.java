@@ -0,0 +1,110 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded single-producer, single-consumer queue of driver messages with their
+ * enqueue times
+ * <p>
+ * The producer publishes a slot by advancing the tail after writing it. The consumer
+ * claims a slot with a CAS on the head, which lets the producer evict the oldest
+ * message with the same CAS when the queue is full (a consumer losing the race
+ * simply retries). Slots are not cleared after being consumed, so up to capacity
+ * old messages stay reachable until overwritten.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class DriverQueue {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Object> messages;
+    private final long[] times;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Queue constructor
+     *
+     * @param size minimum capacity (rounded up to a power of two)
+     */
+    DriverQueue(int size) {
+        if (size < 1) throw new IllegalArgumentException("Invalid queue size - " + size);
+        this.capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        this.mask = capacity - 1;
+        this.messages = new AtomicReferenceArray<>(capacity);
+        this.times = new long[capacity];
+    }
+
+    /**
+     * Offer a message (producer thread only)
+     *
+     * @param message message (byte array or string)
+     * @param time    enqueue time (System.nanoTime())
+     * @return true if offered, false if the queue is full
+     */
+    boolean offer(Object message, long time) {
+        long position = tail.get();
+        if (position - head.get() >= capacity) return false;
+        int index = (int) position & mask;
+        times[index] = time;
+        messages.lazySet(index, message);
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * Discard the oldest message to make room (producer thread only)
+     *
+     * @return true if a message was discarded, false if the consumer took it first
+     */
+    boolean evict() {
+        long position = head.get();
+        return position < tail.get() && head.compareAndSet(position, position + 1);
+    }
+
+    /**
+     * Drain available messages to a handler (consumer thread only)
+     *
+     * @param handler the handler to receive messages
+     * @param limit   maximum number of messages to drain
+     * @return number of drained messages
+     */
+    int drain(Handler handler, int limit) {
+        int count = 0;
+        while (count < limit) {
+            long position = head.get();
+            if (position >= tail.get()) break;
+            int index = (int) position & mask;
+            Object message = messages.get(index);
+            long time = times[index];
+            // Lost to an eviction, the slot may already hold a newer message
+            if (!head.compareAndSet(position, position + 1)) continue;
+            count++;
+            handler.handle(message, time);
+        }
+        return count;
+    }
+
+    /**
+     * Return approximate number of messages waiting in the queue
+     *
+     * @return number of pending messages
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Consumer of drained messages
+     */
+    interface Handler {
+        void handle(Object message, long time);
+    }
+}
@@ -0,0 +1,41 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencySnapshot;
+
+/**
+ * JMX view of a hosted driver
+ * <p>
+ * Counters are cumulative since the driver was added; rates are messages per second
+ * over the last stats interval; queue delay (enqueue to publish) is in nanoseconds.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface DriverStatsMXBean {
+    String getDeviceId();
+
+    String getDriverClass();
+
+    String getOverflowPolicy();
+
+    long getReceived();
+
+    long getPublished();
+
+    long getDropped();
+
+    long getPublishFailures();
+
+    long getBlockedMillis();
+
+    int getQueueSize();
+
+    int getQueueCapacity();
+
+    int getQueueHighWater();
+
+    double getReceiveRate();
+
+    double getPublishRate();
+
+    LatencySnapshot getQueueDelay();
+}
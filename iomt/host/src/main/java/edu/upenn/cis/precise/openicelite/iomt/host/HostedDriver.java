@@ -0,0 +1,348 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencySnapshot;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A driver running in a DriverHost, with its queue into the publisher stage
+ * <p>
+ * The driver's callback thread is the only producer of the queue and one publisher
+ * thread is its only consumer, so the driver never waits on the middleware unless
+ * the overflow policy is BLOCK.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class HostedDriver implements IDriverCallback, DriverStatsMXBean {
+    private static final Logger logger = LogManager.getLogger(HostedDriver.class);
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final IDriver driver;
+    private final IMiddleware middleware;
+    private final String deviceId;
+    private final DriverQueue queue;
+    private final OverflowPolicy policy;
+    private final Publisher publisher;
+    private volatile boolean running = true;
+
+    // Producer side
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile int highWater = 0;
+
+    // Consumer side
+    private final LongAdder published = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LatencyHistogram queueDelay = new LatencyHistogram();
+    private final DriverQueue.Handler handler = this::publish;
+    private final Object drainLock = new Object();
+
+    // Rates (updated by the stats thread of the host)
+    private long lastReceived = 0;
+    private long lastPublished = 0;
+    private long lastSample = System.nanoTime();
+    private volatile double receiveRate = 0;
+    private volatile double publishRate = 0;
+
+    private ObjectName objectName;
+
+    /**
+     * Hosted driver constructor
+     *
+     * @param driver     initialized driver
+     * @param middleware middleware to publish to
+     * @param queueSize  capacity of the queue to the publisher stage
+     * @param policy     overflow policy of the queue
+     * @param publisher  publisher thread draining the queue
+     */
+    HostedDriver(IDriver driver, IMiddleware middleware, int queueSize, OverflowPolicy policy,
+                 Publisher publisher) {
+        this.driver = driver;
+        this.middleware = middleware;
+        this.deviceId = driver.getDeviceInfo().getDeviceId();
+        this.queue = new DriverQueue(queueSize);
+        this.policy = policy;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Handle new data from driver as a byte array
+     *
+     * @param message data to be handled
+     */
+    @Override
+    public void handleMessage(byte[] message) {
+        enqueue(message);
+    }
+
+    /**
+     * Handle new data from driver as a string
+     *
+     * @param message data to be handled
+     */
+    @Override
+    public void handleMessage(String message) {
+        enqueue(message);
+    }
+
+    /**
+     * Handle new data from driver as a buffer, copied once into the queued message
+     * (not at all if the drop_newest policy drops it)
+     *
+     * @param message data to be handled (only valid during the call)
+     */
+    @Override
+    public void handleMessage(ByteBuffer message) {
+        if (policy == OverflowPolicy.DROP_NEWEST && queue.size() >= queue.capacity()) {
+            received.increment();
+            dropped.increment();
+            return;
+        }
+        byte[] data = new byte[message.remaining()];
+        message.duplicate().get(data);
+        enqueue(data);
+    }
+
+    /**
+     * Handle data read in one poll, waking the publisher once for the whole batch
+     * (poller thread only)
+     *
+     * @param batch messages (String or byte[])
+     * @param count number of messages in the batch
+     */
+    void handleBatch(Object[] batch, int count) {
+        for (int i = 0; i < count; i++) {
+            offer(batch[i]);
+        }
+        if (count > 0) publisher.wake();
+    }
+
+    private void enqueue(Object message) {
+        offer(message);
+        publisher.wake();
+    }
+
+    private void offer(Object message) {
+        received.increment();
+        long now = System.nanoTime();
+        if (!queue.offer(message, now)) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    dropped.increment();
+                    return;
+                case DROP_OLDEST:
+                    do {
+                        if (queue.evict()) dropped.increment();
+                    } while (!queue.offer(message, now));
+                    break;
+                default:
+                    do {
+                        if (!running) {
+                            dropped.increment();
+                            return;
+                        }
+                        publisher.wake();
+                        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    } while (!queue.offer(message, now));
+                    blockedNanos.add(System.nanoTime() - now);
+            }
+        }
+        int size = queue.size();
+        if (size > highWater) highWater = size;
+    }
+
+    /**
+     * Publish queued messages (publisher thread, or the host flushing a removed driver)
+     * <p>
+     * Drains are serialized, so a flush waits for a batch the publisher thread may still
+     * be publishing and messages go out in order. The lock is uncontended otherwise.
+     *
+     * @param limit maximum number of messages to publish
+     * @return number of published messages
+     */
+    int drain(int limit) {
+        synchronized (drainLock) {
+            return queue.drain(handler, limit);
+        }
+    }
+
+    private void publish(Object message, long time) {
+        queueDelay.recordSince(time);
+        try {
+            if (message instanceof byte[]) {
+                middleware.publishId(deviceId, (byte[]) message, null);
+            } else {
+                middleware.publishId(deviceId, (String) message, null);
+            }
+            published.increment();
+        } catch (Exception ex) {
+            publishFailures.increment();
+            logger.error("Failed to publish message of " + deviceId, ex);
+        }
+    }
+
+    /**
+     * Update rates over the time since the previous update (stats thread only)
+     */
+    void updateRates() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSample) / 1e9;
+        if (seconds <= 0) return;
+        long currentReceived = received.sum();
+        long currentPublished = published.sum();
+        receiveRate = (currentReceived - lastReceived) / seconds;
+        publishRate = (currentPublished - lastPublished) / seconds;
+        lastReceived = currentReceived;
+        lastPublished = currentPublished;
+        lastSample = now;
+    }
+
+    /**
+     * Release a producer blocked on a full queue (its message is dropped)
+     */
+    void stop() {
+        running = false;
+    }
+
+    // ** JMX ** //
+
+    /**
+     * Register this driver as a platform MXBean (failures are logged and ignored)
+     */
+    synchronized void register() {
+        if (objectName != null) return;
+        try {
+            ObjectName candidate = new ObjectName(MiddlewareMetrics.DOMAIN + ":type=DriverHost,name=" +
+                    ObjectName.quote(deviceId));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(candidate)) server.unregisterMBean(candidate);
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+        } catch (Exception ex) {
+            logger.warn("Failed to register driver MXBean for " + deviceId, ex);
+        }
+    }
+
+    /**
+     * Unregister this driver from the platform MBean server if registered
+     */
+    synchronized void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception ex) {
+            logger.warn("Failed to unregister driver MXBean " + objectName, ex);
+        }
+        objectName = null;
+    }
+
+    // ** Pull API ** //
+
+    /**
+     * Return the hosted driver
+     *
+     * @return driver
+     */
+    public IDriver getDriver() {
+        return driver;
+    }
+
+    Publisher getPublisher() {
+        return publisher;
+    }
+
+    @Override
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public String getDriverClass() {
+        return driver.getClass().getName();
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return policy.name();
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getPublished() {
+        return published.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getPublishFailures() {
+        return publishFailures.sum();
+    }
+
+    @Override
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    @Override
+    public int getQueueHighWater() {
+        return highWater;
+    }
+
+    @Override
+    public double getReceiveRate() {
+        return receiveRate;
+    }
+
+    @Override
+    public double getPublishRate() {
+        return publishRate;
+    }
+
+    @Override
+    public LatencySnapshot getQueueDelay() {
+        return queueDelay.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s): in %.1f/s, out %.1f/s, received=%d, published=%d, dropped=%d, " +
+                        "failures=%d, blocked=%dms, queue=%d/%d (high %d), delay p99=%.3fms",
+                deviceId, getDriverClass(), receiveRate, publishRate, getReceived(), getPublished(),
+                getDropped(), getPublishFailures(), getBlockedMillis(), getQueueSize(), getQueueCapacity(),
+                highWater, queueDelay.snapshot().getP99() / 1e6);
+    }
+}
@@ -0,0 +1,35 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+/**
+ * What a driver queue does with a new message when it is full
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the new message (driver is never delayed, latest data may be lost)
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest queued message (driver is never delayed, freshest data is kept)
+     */
+    DROP_OLDEST,
+    /**
+     * Wait for free space (nothing is lost, but the driver thread is stalled)
+     */
+    BLOCK;
+
+    /**
+     * Parse policy from its name
+     *
+     * @param name policy name (case insensitive, e.g., drop_oldest)
+     * @return policy
+     */
+    public static OverflowPolicy parse(String name) {
+        try {
+            return OverflowPolicy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown overflow policy - " + name);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pull-based driver polled by the shared scheduler of a DriverHost
+ * <p>
+ * Every poll reads until the device has nothing more (null or empty) or the batch
+ * is full, then queues the batch with a single wake-up of the publisher (messages are
+ * still published one by one, as the middleware has no batch publish). The next
+ * poll is scheduled from a smoothed estimate of the device data rate, so that each
+ * poll is expected to find about "poll_coalesce" messages: chatty devices are polled
+ * often, idle ones back off towards the maximum interval. A full batch is followed
+ * by an immediate poll to catch up.
+ * <p>
+ * Reads should not block for long (use the driver's read timeout if it has one), as
+ * they run on the small thread pool shared by all polled drivers.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class PolledDriver implements Runnable {
+    private static final Logger logger = LogManager.getLogger(PolledDriver.class);
+
+    // Weight of the latest poll in the rate estimate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final HostedDriver hosted;
+    private final IDriver driver;
+    private final HashMap<String, Object> options;
+    private final ScheduledExecutorService scheduler;
+    private final boolean binary;
+    private final long minInterval;
+    private final long maxInterval;
+    private final double coalesce;
+    private final Object[] batch;
+
+    // Guarded by this
+    private boolean running = true;
+    private ScheduledFuture<?> next;
+    private long lastPoll = System.nanoTime();
+    private double rate = -1;
+    private int failures = 0;
+    private volatile long interval;
+
+    /**
+     * Polled driver constructor
+     * <p>
+     * Available driver options:
+     * - "poll_binary":         read with readBytes instead of read (default to false)
+     * - "poll_min_interval":   minimum interval in milliseconds between polls (default to 10)
+     * - "poll_max_interval":   maximum interval in milliseconds between polls (default to 1000)
+     * - "poll_batch":          maximum number of reads per poll (default to 64)
+     * - "poll_coalesce":       expected number of messages per poll (default to 1)
+     *
+     * @param hosted    hosted driver to hand data to
+     * @param options   driver options, also passed to read
+     * @param scheduler scheduler running the polls
+     */
+    PolledDriver(HostedDriver hosted, HashMap<String, Object> options, ScheduledExecutorService scheduler) {
+        this.hosted = hosted;
+        this.driver = hosted.getDriver();
+        this.options = options;
+        this.scheduler = scheduler;
+        this.binary = options.containsKey("poll_binary") &&
+                Boolean.parseBoolean(options.get("poll_binary").toString());
+        this.minInterval = options.containsKey("poll_min_interval") ?
+                Long.parseLong(options.get("poll_min_interval").toString()) : 10;
+        this.maxInterval = options.containsKey("poll_max_interval") ?
+                Long.parseLong(options.get("poll_max_interval").toString()) : 1000;
+        int batchSize = options.containsKey("poll_batch") ?
+                Integer.parseInt(options.get("poll_batch").toString()) : 64;
+        this.coalesce = options.containsKey("poll_coalesce") ?
+                Double.parseDouble(options.get("poll_coalesce").toString()) : 1;
+        if (minInterval < 1 || maxInterval < minInterval || batchSize < 1 || coalesce <= 0) {
+            throw new IllegalArgumentException("Invalid polling options for device " + hosted.getDeviceId());
+        }
+        this.batch = new Object[batchSize];
+        this.interval = minInterval;
+    }
+
+    synchronized void start() {
+        next = scheduler.schedule(this, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling; once returned, no poll is running and none will be
+     */
+    synchronized void stop() {
+        running = false;
+        if (next != null) next.cancel(false);
+    }
+
+    /**
+     * Return the current interval between polls
+     *
+     * @return interval in milliseconds
+     */
+    long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public synchronized void run() {
+        if (!running) return;
+        int count = 0;
+        boolean failed = false;
+        try {
+            while (count < batch.length) {
+                Object message = binary ? driver.readBytes(options) : driver.read(options);
+                if (isEmpty(message)) break;
+                batch[count++] = message;
+            }
+            failures = 0;
+        } catch (Exception ex) {
+            // Log the first failure of a streak only, the device may be gone for a while
+            if (failures++ == 0) logger.warn("Failed to poll device " + hosted.getDeviceId(), ex);
+            failed = true;
+        }
+        hosted.handleBatch(batch, count);
+        for (int i = 0; i < count; i++) {
+            batch[i] = null;
+        }
+
+        long delay = failed ? maxInterval : adapt(count, System.nanoTime());
+        if (running) next = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Update the rate estimate and return the delay before the next poll
+     *
+     * @param count number of messages read by the poll
+     * @param now   time of the poll (System.nanoTime())
+     * @return delay in milliseconds
+     */
+    long adapt(int count, long now) {
+        double seconds = Math.max(now - lastPoll, 1) / 1e9;
+        lastPoll = now;
+        double current = count / seconds;
+        rate = (rate < 0) ? current : rate + RATE_SMOOTHING * (current - rate);
+
+        if (count == batch.length) {
+            // More is probably waiting
+            interval = minInterval;
+            return 0;
+        }
+        long target = (rate > 0) ? (long) (coalesce * 1000 / rate) : maxInterval;
+        interval = Math.max(minInterval, Math.min(maxInterval, target));
+        return interval;
+    }
+
+    private static boolean isEmpty(Object message) {
+        if (message == null) return true;
+        if (message instanceof byte[]) return ((byte[]) message).length == 0;
+        return ((String) message).isEmpty();
+    }
+}
@@ -0,0 +1,114 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A publisher thread draining the queues of its drivers into the middleware
+ * <p>
+ * Queues are drained round-robin with a bounded batch per queue, so a chatty driver
+ * cannot starve the others. The thread spins for a short while when all queues are
+ * empty before parking, and drivers unpark it when they enqueue.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class Publisher {
+    private static final Logger logger = LogManager.getLogger(Publisher.class);
+
+    private static final int DRAIN_LIMIT = 64;
+    private static final int SPIN_TRIES = 1000;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final CopyOnWriteArrayList<HostedDriver> drivers = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean parked = false;
+
+    /**
+     * Publisher constructor
+     *
+     * @param name thread name
+     */
+    Publisher(String name) {
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop after publishing what is left in the queues
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void add(HostedDriver driver) {
+        drivers.add(driver);
+    }
+
+    void remove(HostedDriver driver) {
+        drivers.remove(driver);
+    }
+
+    int size() {
+        return drivers.size();
+    }
+
+    /**
+     * Unpark the thread if it is parked (called by drivers after enqueuing)
+     */
+    void wake() {
+        if (parked) LockSupport.unpark(thread);
+    }
+
+    private int drainAll() {
+        int count = 0;
+        for (HostedDriver driver : drivers) {
+            count += driver.drain(DRAIN_LIMIT);
+        }
+        return count;
+    }
+
+    private boolean isEmpty() {
+        for (HostedDriver driver : drivers) {
+            if (driver.getQueueSize() > 0) return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        int idle = 0;
+        while (running) {
+            if (drainAll() > 0) {
+                idle = 0;
+            } else if (idle < SPIN_TRIES) {
+                idle++;
+            } else {
+                parked = true;
+                // Re-check after announcing so that a concurrent enqueue is not missed
+                if (isEmpty() && running) LockSupport.parkNanos(this, PARK_NANOS);
+                parked = false;
+            }
+        }
+        // Flush what is left
+        while (drainAll() > 0) {
+            Thread.yield();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publisher " + thread.getName() + " is exiting...");
+        }
+    }
+}
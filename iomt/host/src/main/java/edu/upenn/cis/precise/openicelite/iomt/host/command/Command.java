@@ -0,0 +1,200 @@
+package edu.upenn.cis.precise.openicelite.iomt.host.command;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command from an application to a device, written to the device by the driver
+ * host of its dongle
+ * <p>
+ * Commands are published to the Command channel of the dongle's client topic and
+ * acknowledged on the CommandAck channel of the sender (see CommandAck), the same way
+ * as clock pings (see ClockSync). The correlation ID is unique per sender. The timeout
+ * is relative so that the clocks of sender and dongle do not have to agree: a dongle
+ * drops commands which wait longer than the timeout after arrival, while the sender
+ * gives up once the timeout has passed since sending. Commands are exchanged in a
+ * compact binary form (see encode/decode).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class Command {
+    public static final String COMMAND_CHANNEL = "Command";
+    public static final String ACK_CHANNEL = "CommandAck";
+
+    private static final byte VERSION = 1;
+    // Longest timeout (about 146 years), so that deadlines still compare by difference
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+
+    private final long id;
+    private final String replyTo;
+    private final String deviceId;
+    private final long timeout;
+    private final boolean text;
+    private final byte[] payload;
+
+    // Set by the receiving dongle
+    private long arrivalNanos = 0;
+
+    /**
+     * Command constructor
+     *
+     * @param id       correlation ID (unique per sender)
+     * @param replyTo  client name of the sender
+     * @param deviceId target device ID
+     * @param timeout  timeout in milliseconds
+     * @param text     true to write the payload as a string, false as bytes
+     * @param payload  message written to the device
+     */
+    public Command(long id, String replyTo, String deviceId, long timeout, boolean text, byte[] payload) {
+        this.id = id;
+        this.replyTo = replyTo;
+        this.deviceId = deviceId;
+        this.timeout = timeout;
+        this.text = text;
+        this.payload = payload;
+    }
+
+    /**
+     * Return the correlation ID
+     *
+     * @return correlation ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Return the client name of the sender
+     *
+     * @return client name
+     */
+    public String getReplyTo() {
+        return replyTo;
+    }
+
+    /**
+     * Return the target device ID
+     *
+     * @return device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Return the timeout
+     *
+     * @return timeout in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Determine if the payload is written to the device as a string
+     *
+     * @return true if text, false if bytes
+     */
+    public boolean isText() {
+        return text;
+    }
+
+    /**
+     * Return the message written to the device
+     *
+     * @return payload as a byte array
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Return the message written to the device as a string
+     *
+     * @return payload as a string
+     */
+    public String getPayloadString() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    long getArrivalNanos() {
+        return arrivalNanos;
+    }
+
+    void setArrivalNanos(long arrivalNanos) {
+        this.arrivalNanos = arrivalNanos;
+    }
+
+    /**
+     * Return the System.nanoTime() after which the command is dropped by the dongle
+     * (compare by difference, as System.nanoTime() may wrap around)
+     *
+     * @return deadline
+     */
+    long getDeadlineNanos() {
+        long timeoutNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout)), MAX_TIMEOUT_NANOS);
+        return arrivalNanos + timeoutNanos;
+    }
+
+    /**
+     * Encode this command into its binary form
+     *
+     * @return encoded command
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + payload.length);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(VERSION);
+            output.writeLong(id);
+            output.writeUTF(replyTo);
+            output.writeUTF(deviceId);
+            output.writeLong(timeout);
+            output.writeBoolean(text);
+            output.writeInt(payload.length);
+            output.write(payload);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // Not expected with an in-memory stream
+            throw new IllegalStateException("Failed to encode command", ex);
+        }
+    }
+
+    /**
+     * Decode a command from its binary form
+     *
+     * @param message encoded command
+     * @return the command
+     * @throws IOException if the message is not a valid command
+     */
+    public static Command decode(byte[] message) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported command version: " + version);
+        }
+        long id = input.readLong();
+        String replyTo = input.readUTF();
+        String deviceId = input.readUTF();
+        long timeout = input.readLong();
+        boolean text = input.readBoolean();
+        int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("Invalid command payload length: " + length);
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        return new Command(id, replyTo, deviceId, timeout, text, payload);
+    }
+
+    @Override
+    public String toString() {
+        return "command " + id + " from " + replyTo + " to " + deviceId + " (" + payload.length + " bytes)";
+    }
+}
@@ -0,0 +1,208 @@
+package edu.upenn.cis.precise.openicelite.iomt.host.command;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Acknowledgment of a command, with the time the dongle spent on it
+ * <p>
+ * Acks are sent by the dongle once the command is written to the device or dropped.
+ * TIMEOUT is never sent: the sender completes commands with it when no ack arrives
+ * in time.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class CommandAck {
+    private static final byte VERSION = 1;
+
+    private final long id;
+    private final String deviceId;
+    private final Status status;
+    private final long queueMicros;
+    private final long writeMicros;
+    private final String message;
+
+    // Set by the sender
+    private long roundTripMicros = -1;
+
+    /**
+     * Command acknowledgment constructor
+     *
+     * @param id          correlation ID of the command
+     * @param deviceId    target device ID
+     * @param status      outcome
+     * @param queueMicros time the command waited on the dongle (microseconds)
+     * @param writeMicros time spent writing to the device (microseconds)
+     * @param message     error message (empty if none)
+     */
+    public CommandAck(long id, String deviceId, Status status, long queueMicros, long writeMicros,
+                      String message) {
+        this.id = id;
+        this.deviceId = deviceId;
+        this.status = status;
+        this.queueMicros = queueMicros;
+        this.writeMicros = writeMicros;
+        this.message = (message == null) ? "" : message;
+    }
+
+    /**
+     * Return the correlation ID of the command
+     *
+     * @return correlation ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Return the target device ID
+     *
+     * @return device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Return the outcome of the command
+     *
+     * @return status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Determine if the command was written to the device
+     *
+     * @return true if written
+     */
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    /**
+     * Return the time the command waited on the dongle before being written
+     *
+     * @return time in microseconds
+     */
+    public long getQueueMicros() {
+        return queueMicros;
+    }
+
+    /**
+     * Return the time spent writing to the device
+     *
+     * @return time in microseconds
+     */
+    public long getWriteMicros() {
+        return writeMicros;
+    }
+
+    /**
+     * Return the error message
+     *
+     * @return error message (empty if none)
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Return the time from sending the command to receiving this ack (on the sender)
+     *
+     * @return time in microseconds (-1 if unknown)
+     */
+    public long getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
+    void setRoundTripMicros(long roundTripMicros) {
+        this.roundTripMicros = roundTripMicros;
+    }
+
+    /**
+     * Encode this ack into its binary form
+     *
+     * @return encoded ack
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(VERSION);
+            output.writeLong(id);
+            output.writeUTF(deviceId);
+            output.writeByte(status.ordinal());
+            output.writeLong(queueMicros);
+            output.writeLong(writeMicros);
+            output.writeUTF(message);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // Not expected with an in-memory stream
+            throw new IllegalStateException("Failed to encode command ack", ex);
+        }
+    }
+
+    /**
+     * Decode an ack from its binary form
+     *
+     * @param message encoded ack
+     * @return the ack
+     * @throws IOException if the message is not a valid ack
+     */
+    public static CommandAck decode(byte[] message) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported command ack version: " + version);
+        }
+        long id = input.readLong();
+        String deviceId = input.readUTF();
+        int status = input.readUnsignedByte();
+        if (status >= Status.values().length) {
+            throw new IOException("Unknown command status: " + status);
+        }
+        return new CommandAck(id, deviceId, Status.values()[status], input.readLong(), input.readLong(),
+                input.readUTF());
+    }
+
+    @Override
+    public String toString() {
+        return "ack " + id + " from " + deviceId + ": " + status
+                + (message.isEmpty() ? "" : " - " + message)
+                + " (queue " + queueMicros + " us, write " + writeMicros + " us"
+                + ((roundTripMicros < 0) ? ")" : ", round trip " + roundTripMicros + " us)");
+    }
+
+    public enum Status {
+        /**
+         * Written to the device
+         */
+        OK,
+        /**
+         * Dropped by the dongle after waiting longer than the timeout
+         */
+        EXPIRED,
+        /**
+         * Dropped by the dongle because its command queue is full
+         */
+        REJECTED,
+        /**
+         * No driver for the device on the dongle
+         */
+        UNKNOWN_DEVICE,
+        /**
+         * The driver is not connected or failed to write
+         */
+        FAILED,
+        /**
+         * No ack received in time (set by the sender)
+         */
+        TIMEOUT
+    }
+}
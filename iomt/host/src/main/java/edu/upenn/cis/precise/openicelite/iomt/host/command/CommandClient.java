@@ -0,0 +1,293 @@
+package edu.upenn.cis.precise.openicelite.iomt.host.command;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send commands to devices on other dongles and wait for their acks (see Command)
+ * <p>
+ * Every command gets a correlation ID (counting up from a random value) and a timeout. The returned future completes
+ * with the ack of the dongle, or with a TIMEOUT ack if none arrives in time (acks
+ * arriving later are counted and ignored). Round-trip times from sending to the ack
+ * are recorded in a latency histogram. Futures complete on the middleware callback
+ * thread or the timer thread, so long work should be moved off them (e.g.,
+ * thenAcceptAsync).
+ * <p>
+ * Available options for initialization:
+ * - "command_timeout":     default timeout in milliseconds (default to 1000)
+ * - "command_qos":         MQTT QoS of commands (default to 1)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class CommandClient implements IMiddlewareCallback {
+    private static final Logger logger = LogManager.getLogger(CommandClient.class);
+
+    private final IMiddleware middleware;
+    private final ITopicHandler topicHandler;
+    private final String projectName;
+    private final String clientName;
+    private final HashMap<String, Object> publishOptions = new HashMap<>();
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    // IDs start at a random value, so a restarted client does not reuse the IDs
+    // of its previous session still remembered by dispatchers
+    private final AtomicLong nextId = new AtomicLong(ThreadLocalRandom.current().nextLong());
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private ScheduledThreadPoolExecutor timer;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder lateAcks = new LongAdder();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+
+    // Overwritten-able configuration
+    private long timeout = 1000;
+    private int qos = 1;
+
+    /**
+     * Command client constructor
+     *
+     * @param middleware   connected middleware
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     * @param clientName   name of this client (acks are sent to its client topic)
+     */
+    public CommandClient(IMiddleware middleware, ITopicHandler topicHandler,
+                         String projectName, String clientName) {
+        this.middleware = middleware;
+        this.topicHandler = topicHandler;
+        this.projectName = projectName;
+        this.clientName = clientName;
+    }
+
+    /**
+     * Load client options
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("command_timeout")) {
+            timeout = Long.parseLong(options.get("command_timeout").toString());
+        }
+        if (options.containsKey("command_qos")) {
+            qos = Integer.parseInt(options.get("command_qos").toString());
+        }
+        if (timeout < 1 || qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("Invalid command client options!");
+        }
+    }
+
+    /**
+     * Subscribe to acks and start the timeout timer
+     */
+    public void start() {
+        if (isRunning.getAndSet(true)) return;
+        publishOptions.put("qos", qos);
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "CommandClient-" + clientName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        middleware.subscribe(topicHandler.getClientTopic(projectName, clientName, Command.ACK_CHANNEL),
+                null, this);
+    }
+
+    /**
+     * Unsubscribe from acks and complete pending commands with TIMEOUT
+     */
+    public void stop() {
+        if (!isRunning.getAndSet(false)) return;
+        middleware.unsubscribe(topicHandler.getClientTopic(projectName, clientName, Command.ACK_CHANNEL));
+        timer.shutdownNow();
+        for (Pending command : pending.values()) {
+            expire(command.id);
+        }
+    }
+
+    /**
+     * Send a command with the default timeout
+     *
+     * @param dongleId dongle hosting the device
+     * @param deviceId target device ID
+     * @param message  message written to the device as a string
+     * @return future ack
+     */
+    public CompletableFuture<CommandAck> send(String dongleId, String deviceId, String message) {
+        return send(dongleId, deviceId, true, message.getBytes(StandardCharsets.UTF_8), timeout);
+    }
+
+    /**
+     * Send a command with the default timeout
+     *
+     * @param dongleId dongle hosting the device
+     * @param deviceId target device ID
+     * @param message  message written to the device as bytes
+     * @return future ack
+     */
+    public CompletableFuture<CommandAck> send(String dongleId, String deviceId, byte[] message) {
+        return send(dongleId, deviceId, false, message, timeout);
+    }
+
+    /**
+     * Send a command
+     *
+     * @param dongleId dongle hosting the device
+     * @param deviceId target device ID
+     * @param text     true to write the message as a string, false as bytes
+     * @param message  message written to the device
+     * @param timeout  timeout in milliseconds
+     * @return future ack
+     */
+    public CompletableFuture<CommandAck> send(String dongleId, String deviceId, boolean text,
+                                              byte[] message, long timeout) {
+        if (!isRunning.get()) throw new IllegalArgumentException("Command client is not started!");
+        String topic = topicHandler.getClientTopic(projectName, dongleId, Command.COMMAND_CHANNEL);
+        if (topic == null || deviceId == null) throw new IllegalArgumentException("Invalid command target!");
+
+        long id = nextId.getAndIncrement();
+        Pending command = new Pending(id, deviceId, System.nanoTime());
+        pending.put(id, command);
+        command.timeout = timer.schedule(() -> expire(id), timeout, TimeUnit.MILLISECONDS);
+        sent.increment();
+        try {
+            middleware.publish(topic, new Command(id, clientName, deviceId, timeout, text, message).encode(),
+                    publishOptions);
+        } catch (Exception ex) {
+            logger.error("Failed to send command to " + deviceId, ex);
+            if (pending.remove(id) != null) {
+                command.timeout.cancel(false);
+                command.future.complete(new CommandAck(id, deviceId, CommandAck.Status.FAILED, 0, 0,
+                        "Failed to publish - " + ex.getMessage()));
+            }
+        }
+        return command.future;
+    }
+
+    private void expire(long id) {
+        Pending command = pending.remove(id);
+        if (command == null) return;
+        timedOut.increment();
+        CommandAck ack = new CommandAck(id, command.deviceId, CommandAck.Status.TIMEOUT, 0, 0, "No ack received");
+        ack.setRoundTripMicros(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - command.start));
+        command.future.complete(ack);
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        long now = System.nanoTime();
+        CommandAck ack;
+        try {
+            ack = CommandAck.decode(message);
+        } catch (Exception ex) {
+            logger.warn("Invalid command ack on " + topic + " - " + ex.getMessage());
+            return;
+        }
+        Pending command = pending.remove(ack.getId());
+        if (command == null) {
+            lateAcks.increment();
+            return;
+        }
+        command.timeout.cancel(false);
+        roundTrip.record(now - command.start);
+        ack.setRoundTripMicros(TimeUnit.NANOSECONDS.toMicros(now - command.start));
+        acked.increment();
+        command.future.complete(ack);
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        handleMessage(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Return the number of sent commands
+     *
+     * @return number of commands
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * Return the number of commands acknowledged in time
+     *
+     * @return number of commands
+     */
+    public long getAcked() {
+        return acked.sum();
+    }
+
+    /**
+     * Return the number of commands without an ack in time
+     *
+     * @return number of commands
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Return the number of acks received after their command timed out
+     *
+     * @return number of acks
+     */
+    public long getLateAcks() {
+        return lateAcks.sum();
+    }
+
+    /**
+     * Return the number of commands waiting for an ack
+     *
+     * @return number of commands
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Return the histogram of round-trip times of acknowledged commands
+     *
+     * @return latency histogram (nanoseconds)
+     */
+    public LatencyHistogram getRoundTrip() {
+        return roundTrip;
+    }
+
+    /**
+     * A command waiting for its ack
+     */
+    private static class Pending {
+        private final long id;
+        private final String deviceId;
+        private final long start;
+        private final CompletableFuture<CommandAck> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+
+        private Pending(long id, String deviceId, long start) {
+            this.id = id;
+            this.deviceId = deviceId;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package edu.upenn.cis.precise.openicelite.iomt.host.command;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Write commands received on the Command channel of a dongle to its drivers and
+ * acknowledge them (see Command and CommandAck)
+ * <p>
+ * Commands take their own path through the dongle: the middleware callback only
+ * decodes and queues them, and a dedicated thread at maximum priority writes them to
+ * the drivers, earliest deadline first. Neither step shares a queue or a thread with
+ * device data, so a backlog of data never delays a command. Commands which waited
+ * past their timeout are dropped instead of written late, and acks are published
+ * directly, at QoS 1 by default.
+ * <p>
+ * Commands arrive at QoS 1, so the same command may be delivered more than once. The
+ * latest command IDs of each sender are remembered with their acks for the dedup
+ * time: a command seen before is not written again, its ack is re-sent instead (or it
+ * is ignored while the original is still queued, as its ack will follow). Senders start
+ * their IDs at a random value (see CommandClient), and IDs older than the dedup time
+ * are forgotten, so a restarted sender reusing an ID gets its command written.
+ * <p>
+ * The time commands wait for the dispatcher thread and the time spent in
+ * IDriver.write are recorded in latency histograms.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class CommandDispatcher implements IMiddlewareCallback {
+    private static final Logger logger = LogManager.getLogger(CommandDispatcher.class);
+
+    private static final long POLL_MILLIS = 100;
+    private static final int RECENT_IDS = 1024;
+    private static final int MAX_SENDERS = 256;
+    // Earliest deadline first (deadlines are System.nanoTime() values)
+    static final Comparator<Command> BY_DEADLINE =
+            (a, b) -> Long.compare(a.getDeadlineNanos() - b.getDeadlineNanos(), 0);
+
+    private final IMiddleware middleware;
+    private final ITopicHandler topicHandler;
+    private final String projectName;
+    private final String dongleId;
+    private final Function<String, IDriver> drivers;
+    private final int capacity;
+    private final long dedupNanos;
+    private final HashMap<String, Object> ackOptions = new HashMap<>();
+    private final PriorityBlockingQueue<Command> queue = new PriorityBlockingQueue<>(16, BY_DEADLINE);
+    // Latest command IDs per sender with their arrival time and encoded ack
+    private final LinkedHashMap<String, RecentIds> recent = new LinkedHashMap<String, RecentIds>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RecentIds> eldest) {
+            return size() > MAX_SENDERS;
+        }
+    };
+    private final AtomicInteger queued = new AtomicInteger();
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LatencyHistogram queueDelay = new LatencyHistogram();
+    private final LatencyHistogram writeTime = new LatencyHistogram();
+
+    /**
+     * Command dispatcher constructor
+     *
+     * @param middleware   middleware of the dongle
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     * @param dongleId     dongle ID (commands are received on its client topic)
+     * @param drivers      driver of a device ID (null if not hosted)
+     * @param capacity     maximum number of queued commands
+     * @param ackQos       MQTT QoS of acks
+     * @param dedupTime    milliseconds command IDs are remembered to detect redeliveries
+     */
+    public CommandDispatcher(IMiddleware middleware, ITopicHandler topicHandler, String projectName,
+                             String dongleId, Function<String, IDriver> drivers, int capacity, int ackQos,
+                             long dedupTime) {
+        if (capacity < 1) throw new IllegalArgumentException("Invalid command queue size!");
+        if (dedupTime < 0) throw new IllegalArgumentException("Invalid command dedup time!");
+        this.middleware = middleware;
+        this.topicHandler = topicHandler;
+        this.projectName = projectName;
+        this.dongleId = dongleId;
+        this.drivers = drivers;
+        this.capacity = capacity;
+        this.ackOptions.put("qos", ackQos);
+        this.dedupNanos = TimeUnit.MILLISECONDS.toNanos(dedupTime);
+    }
+
+    /**
+     * Start the dispatcher thread and subscribe to the Command channel of the dongle
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "DriverHost-Commands");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+        middleware.subscribe(getCommandTopic(), null, this);
+    }
+
+    /**
+     * Unsubscribe and stop the dispatcher thread (queued commands are dropped)
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        middleware.unsubscribe(getCommandTopic());
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the topic commands are received on
+     *
+     * @return topic name
+     */
+    public String getCommandTopic() {
+        return topicHandler.getClientTopic(projectName, dongleId, Command.COMMAND_CHANNEL);
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        long now = System.nanoTime();
+        Command command;
+        try {
+            command = Command.decode(message);
+        } catch (Exception ex) {
+            invalid.increment();
+            logger.warn("Invalid command on " + topic + " - " + ex.getMessage());
+            return;
+        }
+        received.increment();
+        command.setArrivalNanos(now);
+        if (isDuplicate(command, now)) return;
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            rejected.increment();
+            acknowledge(command, CommandAck.Status.REJECTED, 0, 0, "Command queue is full");
+            return;
+        }
+        queue.offer(command);
+    }
+
+    /**
+     * Remember the ID of a new command, or re-send the ack of a command seen before
+     */
+    private boolean isDuplicate(Command command, long now) {
+        byte[] ack;
+        synchronized (recent) {
+            RecentIds ids = recent.computeIfAbsent(command.getReplyTo(), sender -> new RecentIds());
+            ids.expire(now, dedupNanos);
+            RecentId seen = ids.get(command.getId());
+            if (seen == null) {
+                if (dedupNanos > 0) ids.put(command.getId(), new RecentId(now));
+                return false;
+            }
+            ack = seen.ack;
+        }
+        duplicates.increment();
+        logger.debug("Duplicate " + command + (ack == null ? " still queued" : " - resending ack"));
+        if (ack != null) publishAck(command, ack);
+        return true;
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        handleMessage(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void run() {
+        while (running) {
+            Command command;
+            try {
+                command = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (command == null) continue;
+            queued.decrementAndGet();
+            dispatch(command);
+        }
+    }
+
+    private void dispatch(Command command) {
+        long start = System.nanoTime();
+        long waited = start - command.getArrivalNanos();
+        queueDelay.record(waited);
+        if (start - command.getDeadlineNanos() > 0) {
+            expired.increment();
+            acknowledge(command, CommandAck.Status.EXPIRED, waited, 0, "Waited " +
+                    TimeUnit.NANOSECONDS.toMillis(waited) + " ms");
+            return;
+        }
+
+        IDriver driver = drivers.apply(command.getDeviceId());
+        if (driver == null) {
+            failed.increment();
+            acknowledge(command, CommandAck.Status.UNKNOWN_DEVICE, waited, 0, "");
+            return;
+        }
+        if (!driver.isConnected()) {
+            failed.increment();
+            acknowledge(command, CommandAck.Status.FAILED, waited, 0, "Device is not connected");
+            return;
+        }
+        try {
+            if (command.isText()) {
+                driver.write(command.getPayloadString());
+            } else {
+                driver.write(command.getPayload());
+            }
+        } catch (Exception ex) {
+            long elapsed = System.nanoTime() - start;
+            writeTime.record(elapsed);
+            failed.increment();
+            logger.warn("Failed to write " + command, ex);
+            acknowledge(command, CommandAck.Status.FAILED, waited, elapsed, String.valueOf(ex.getMessage()));
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        writeTime.record(elapsed);
+        written.increment();
+        acknowledge(command, CommandAck.Status.OK, waited, elapsed, "");
+    }
+
+    private void acknowledge(Command command, CommandAck.Status status, long waitedNanos, long writeNanos,
+                             String message) {
+        CommandAck ack = new CommandAck(command.getId(), command.getDeviceId(), status,
+                TimeUnit.NANOSECONDS.toMicros(waitedNanos), TimeUnit.NANOSECONDS.toMicros(writeNanos), message);
+        byte[] encoded = ack.encode();
+        synchronized (recent) {
+            RecentIds ids = recent.get(command.getReplyTo());
+            RecentId seen = (ids == null) ? null : ids.get(command.getId());
+            if (seen != null) seen.ack = encoded;
+        }
+        publishAck(command, encoded);
+    }
+
+    private void publishAck(Command command, byte[] ack) {
+        String topic = topicHandler.getClientTopic(projectName, command.getReplyTo(), Command.ACK_CHANNEL);
+        if (topic == null) return;
+        try {
+            middleware.publish(topic, ack, ackOptions);
+        } catch (Exception ex) {
+            logger.error("Failed to acknowledge " + command, ex);
+        }
+    }
+
+    /**
+     * Return the number of received commands
+     *
+     * @return number of commands
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * Return the number of commands written to devices
+     *
+     * @return number of commands
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Return the number of commands dropped after their timeout
+     *
+     * @return number of commands
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * Return the number of commands rejected because the queue was full
+     *
+     * @return number of commands
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Return the number of commands for unknown or failed devices
+     *
+     * @return number of commands
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Return the number of commands received again and not written again
+     *
+     * @return number of commands
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Return the histogram of the time commands waited for the dispatcher thread
+     *
+     * @return latency histogram (nanoseconds)
+     */
+    public LatencyHistogram getQueueDelay() {
+        return queueDelay;
+    }
+
+    /**
+     * Return the histogram of the time spent writing commands to devices
+     *
+     * @return latency histogram (nanoseconds)
+     */
+    public LatencyHistogram getWriteTime() {
+        return writeTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("commands: received=%d, written=%d, expired=%d, rejected=%d, failed=%d, " +
+                        "invalid=%d, duplicates=%d, queue p99=%.3fms, write p99=%.3fms",
+                getReceived(), getWritten(), getExpired(), getRejected(), getFailed(), invalid.sum(), getDuplicates(),
+                queueDelay.snapshot().getP99() / 1e6, writeTime.snapshot().getP99() / 1e6);
+    }
+
+    /**
+     * Latest command IDs of a sender, in arrival order
+     */
+    private static final class RecentIds extends LinkedHashMap<Long, RecentId> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RecentId> eldest) {
+            return size() > RECENT_IDS;
+        }
+
+        /**
+         * Forget IDs which arrived more than the dedup time ago
+         */
+        private void expire(long now, long dedupNanos) {
+            Iterator<RecentId> iterator = values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().nanos < dedupNanos) break;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Arrival time of a command ID and its encoded ack (null while queued)
+     */
+    private static final class RecentId {
+        private final long nanos;
+        private byte[] ack;
+
+        private RecentId(long nanos) {
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import edu.upenn.cis.precise.openicelite.connman.api.ConnectionState;
+import edu.upenn.cis.precise.openicelite.connman.core.ConnectionManager;
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DriverHostTest {
+    private final RecordingMiddleware middleware = new RecordingMiddleware();
+    private DriverHost host;
+
+    @Before
+    public void setUp() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("connect_timeout", 5);
+        options.put("stats_interval", 60);
+        host = new DriverHost(middleware);
+        host.init(options);
+        host.start();
+    }
+
+    @After
+    public void tearDown() {
+        host.close();
+    }
+
+    @Test(timeout = 30000)
+    public void bootsDriversInParallelThroughConnectionManager() throws Exception {
+        List<SlowDriver> drivers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            SlowDriver driver = new SlowDriver(500);
+            host.addDriver(driver, null, options("device_id", "boot-" + i));
+            drivers.add(driver);
+        }
+        // addDriver does not wait for the device
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+        assertNotEquals(ConnectionState.CONNECTED, host.getConnections().getState("boot-0"));
+
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+        // Connecting one after another would take 2 seconds
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+        for (int i = 0; i < drivers.size(); i++) {
+            assertNotNull(drivers.get(i).callback);
+            assertEquals("connected",
+                    middleware.devices.get("boot-" + i).getAttribute(ConnectionManager.CONNECTION_ATTRIBUTE));
+        }
+        assertTrue(host.report().contains("connected"));
+    }
+
+    @Test(timeout = 30000)
+    public void publishesDataOfManagedDriver() throws Exception {
+        SlowDriver driver = new SlowDriver(0);
+        HostedDriver hosted = host.addDriver(driver, null, options("device_id", "data"));
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+
+        driver.callback.handleMessage("sample");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hosted.getPublished() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, hosted.getPublished());
+        assertEquals("data=sample", middleware.published.get(0));
+    }
+
+    @Test(timeout = 30000)
+    public void copiesBufferDataOfDriver() throws Exception {
+        SlowDriver driver = new SlowDriver(0);
+        HostedDriver hosted = host.addDriver(driver, null, options("device_id", "buffer"));
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+
+        // The driver reuses its buffer right after each call
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (String sample : new String[]{"first", "second"}) {
+            buffer.clear();
+            buffer.put(sample.getBytes(StandardCharsets.UTF_8)).flip();
+            driver.callback.handleMessage(buffer);
+        }
+        buffer.clear();
+        buffer.put(new byte[16]);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hosted.getPublished() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Arrays.asList("buffer=first", "buffer=second"), middleware.published);
+    }
+
+    @Test(timeout = 30000)
+    public void dropsNewestBufferWithoutCopying() throws Exception {
+        SlowDriver driver = new SlowDriver(0);
+        HashMap<String, Object> options = options("device_id", "full");
+        options.put("queue_size", 2);
+        options.put("overflow", "drop_newest");
+        HostedDriver hosted = host.addDriver(driver, null, options);
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+        middleware.blocked = true;
+
+        try {
+            // One message is held by the blocked publisher, two fill the queue
+            for (int i = 0; i < 10; i++) {
+                driver.callback.handleMessage(ByteBuffer.wrap(new byte[]{(byte) i}));
+                Thread.sleep(10);
+            }
+            assertEquals(10, hosted.getReceived());
+            assertEquals(7, hosted.getDropped());
+        } finally {
+            middleware.blocked = false;
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void publishesSyntheticDriverBuffers() throws Exception {
+        HashMap<String, Object> options = options("device_id", "synthetic");
+        options.put("speed", 100);
+        options.put("buffer_seconds", 2);
+        HostedDriver hosted = host.addDriver("edu.upenn.cis.precise.openicelite.iomt.synthetic.SyntheticDriver",
+                null, options);
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (hosted.getPublished() < 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(hosted.getPublished() >= 50);
+        for (String message : middleware.published) {
+            assertTrue(message, message.startsWith("synthetic={\"timestamp\":"));
+            assertTrue(message, message.endsWith("}"));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void removeDriverDisconnectsAndUnregistersDevice() throws Exception {
+        SlowDriver driver = new SlowDriver(0);
+        host.addDriver(driver, null, options("device_id", "removed"));
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+
+        assertTrue(host.removeDriver("removed"));
+        assertTrue(driver.closed);
+        assertFalse(driver.isConnected());
+        assertNull(host.getConnections().getState("removed"));
+        assertFalse(middleware.devices.containsKey("removed"));
+        assertNull(host.getDriver("removed"));
+    }
+
+    @Test(timeout = 30000)
+    public void removeDriverFlushesQueueBeforeUnregisteringDevice() throws Exception {
+        SlowDriver driver = new SlowDriver(0);
+        HostedDriver hosted = host.addDriver(driver, null, options("device_id", "flushed"));
+        assertTrue(host.getConnections().awaitConnected(10, TimeUnit.SECONDS));
+        middleware.blocked = true;
+
+        Thread remover;
+        try {
+            // One message is held by the blocked publisher, the others wait in the queue
+            for (int i = 0; i < 3; i++) {
+                driver.callback.handleMessage(ByteBuffer.wrap(new byte[]{(byte) ('a' + i)}));
+            }
+            remover = new Thread(() -> host.removeDriver("flushed"));
+            remover.start();
+            Thread.sleep(50);
+        } finally {
+            middleware.blocked = false;
+        }
+        remover.join(10000);
+        assertFalse(remover.isAlive());
+
+        assertEquals(3, hosted.getPublished());
+        assertEquals(Arrays.asList("flushed=a", "flushed=b", "flushed=c"), middleware.published);
+        assertTrue(middleware.unknown.isEmpty());
+        assertFalse(middleware.devices.containsKey("flushed"));
+    }
+
+    private static HashMap<String, Object> options(String key, Object value) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put(key, value);
+        return options;
+    }
+
+    /**
+     * Driver taking the given time to connect
+     */
+    private static class SlowDriver implements IDriver {
+        private final long connectMillis;
+        private DeviceInfo info;
+        private volatile boolean connected = false;
+        private volatile boolean closed = false;
+        private volatile IDriverCallback callback;
+
+        private SlowDriver(long connectMillis) {
+            this.connectMillis = connectMillis;
+        }
+
+        @Override
+        public void setDeviceInfo(DeviceInfo info) {
+            this.info = info;
+        }
+
+        @Override
+        public DeviceInfo getDeviceInfo() {
+            return info;
+        }
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+            try {
+                Thread.sleep(connectMillis);
+                connected = true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public String read(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public byte[] readBytes(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public void write(String message) {
+        }
+
+        @Override
+        public void write(byte[] message) {
+        }
+
+        @Override
+        public void subscribe(HashMap<String, Object> options, IDriverCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void unsubscribe() {
+            callback = null;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void setCallback(IDriverCallback callback) {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Middleware keeping registered devices and published messages
+     */
+    private static class RecordingMiddleware implements IMiddleware {
+        private final Map<String, DeviceInfo> devices = new ConcurrentHashMap<>();
+        private final List<String> published = new CopyOnWriteArrayList<>();
+        private final List<String> unknown = new CopyOnWriteArrayList<>();
+        private volatile boolean blocked = false;
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void waitConnected() {
+        }
+
+        @Override
+        public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+        }
+
+        @Override
+        public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publish(String topic, String message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+            while (blocked) {
+                Thread.yield();
+            }
+            if (!devices.containsKey(deviceId)) unknown.add(deviceId);
+            published.add(deviceId + "=" + new String(message, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+            published.add(deviceId + "=" + message);
+        }
+
+        @Override
+        public void setCallback(IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void addDevice(DeviceInfo info) {
+            devices.put(info.getDeviceId(), info);
+        }
+
+        @Override
+        public void removeDevice(String deviceId) {
+            devices.remove(deviceId);
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
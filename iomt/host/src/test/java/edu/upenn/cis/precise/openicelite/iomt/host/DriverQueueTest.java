@@ -0,0 +1,141 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DriverQueueTest {
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(1, new DriverQueue(1).capacity());
+        assertEquals(4, new DriverQueue(3).capacity());
+        assertEquals(8, new DriverQueue(8).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesInvalidSize() {
+        new DriverQueue(0);
+    }
+
+    @Test
+    public void drainsInOfferedOrderWithTimes() {
+        DriverQueue queue = new DriverQueue(4);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer("m" + i, 100 + i));
+        }
+        assertEquals(3, queue.size());
+
+        List<Object> messages = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        assertEquals(2, queue.drain((message, time) -> {
+            messages.add(message);
+            times.add(time);
+        }, 2));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.drain((message, time) -> {
+            messages.add(message);
+            times.add(time);
+        }, 10));
+        assertEquals(list("m0", "m1", "m2"), messages);
+        assertEquals(list(100L, 101L, 102L), times);
+        assertEquals(0, queue.drain((message, time) -> fail("Queue should be empty"), 10));
+    }
+
+    @Test
+    public void dropsNewestWhenFull() {
+        DriverQueue queue = new DriverQueue(2);
+        assertTrue(queue.offer("m0", 0));
+        assertTrue(queue.offer("m1", 1));
+        assertFalse(queue.offer("m2", 2));
+        assertEquals(2, queue.size());
+
+        List<Object> messages = new ArrayList<>();
+        queue.drain((message, time) -> messages.add(message), 10);
+        assertEquals(list("m0", "m1"), messages);
+
+        // Room again once drained
+        assertTrue(queue.offer("m3", 3));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void evictsOldestWhenFull() {
+        DriverQueue queue = new DriverQueue(2);
+        assertFalse(queue.evict());
+        int evicted = 0;
+        for (int i = 0; i < 5; i++) {
+            while (!queue.offer("m" + i, i)) {
+                if (queue.evict()) evicted++;
+            }
+        }
+        assertEquals(3, evicted);
+        assertEquals(2, queue.size());
+
+        List<Object> messages = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        queue.drain((message, time) -> {
+            messages.add(message);
+            times.add(time);
+        }, 10);
+        assertEquals(list("m3", "m4"), messages);
+        assertEquals(list(3L, 4L), times);
+        assertFalse(queue.evict());
+    }
+
+    @Test(timeout = 30000)
+    public void evictsConcurrentlyWithConsumer() throws Exception {
+        int count = 200000;
+        DriverQueue queue = new DriverQueue(8);
+        long[] evicted = new long[1];
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        Thread producer = new Thread(() -> {
+            for (long i = 0; i < count; i++) {
+                // Same as the drop-oldest policy, the consumer may take the oldest first
+                while (!queue.offer(i, i)) {
+                    if (queue.evict()) evicted[0]++;
+                }
+            }
+            done.set(true);
+        });
+
+        List<Long> consumed = new ArrayList<>();
+        long[] last = new long[]{-1};
+        boolean[] ordered = new boolean[]{true};
+        DriverQueue.Handler handler = (message, time) -> {
+            long sequence = (Long) message;
+            // Each message at most once, in order, and with its own time
+            if (sequence <= last[0] || sequence != time) ordered[0] = false;
+            last[0] = sequence;
+            consumed.add(sequence);
+        };
+
+        producer.start();
+        while (!done.get()) {
+            if (queue.drain(handler, 4) == 0) Thread.yield();
+        }
+        producer.join();
+        queue.drain(handler, Integer.MAX_VALUE);
+
+        assertTrue(ordered[0]);
+        assertEquals(count, consumed.size() + evicted[0]);
+        assertEquals(count - 1, (long) consumed.get(consumed.size() - 1));
+        assertEquals(0, queue.size());
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values) {
+        List<T> list = new ArrayList<>();
+        for (T value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,237 @@
+package edu.upenn.cis.precise.openicelite.iomt.host;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class PolledDriverTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final RecordingScheduler scheduler = new RecordingScheduler();
+    private final PulledDriver driver = new PulledDriver();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void convergesOnIntervalForCoalescedMessages() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("poll_coalesce", "5");
+        PolledDriver polled = polled(options);
+
+        // 100 messages per second, 5 found by each poll every 50 ms
+        long now = System.nanoTime();
+        polled.adapt(0, now);
+        for (int i = 0; i < 40; i++) {
+            now += 50 * MILLIS;
+            polled.adapt(5, now);
+        }
+        assertEquals(50, polled.getInterval(), 1);
+
+        // The device slows down to 20 messages per second
+        for (int i = 0; i < 40; i++) {
+            now += 50 * MILLIS;
+            polled.adapt(1, now);
+        }
+        assertEquals(250, polled.getInterval(), 1);
+    }
+
+    @Test
+    public void clampsIntervalToOptions() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("poll_min_interval", "20");
+        options.put("poll_max_interval", "200");
+        PolledDriver polled = polled(options);
+
+        long now = System.nanoTime();
+        polled.adapt(0, now);
+        // 10000 messages per second would need a poll every 0.1 ms
+        for (int i = 0; i < 10; i++) {
+            now += MILLIS;
+            assertEquals(20, polled.adapt(10, now));
+        }
+        // 1 message per second would need a poll every second
+        for (int i = 0; i < 40; i++) {
+            now += 1000 * MILLIS;
+            polled.adapt(1, now);
+        }
+        assertEquals(200, polled.getInterval());
+    }
+
+    @Test
+    public void pollsAgainRightAfterFullBatch() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("poll_batch", "4");
+        PolledDriver polled = polled(options);
+        driver.available = 10;
+
+        polled.run();
+        assertEquals(4, driver.reads);
+        assertEquals(0, scheduler.delays.get(0).longValue());
+        polled.run();
+        assertEquals(0, scheduler.delays.get(1).longValue());
+
+        // The last two messages do not fill a batch
+        polled.run();
+        assertEquals(11, driver.reads);
+        assertTrue(scheduler.delays.get(2) > 0);
+        assertEquals(10, scheduler.hosted.getReceived());
+    }
+
+    @Test
+    public void backsOffWhenIdle() throws Exception {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("poll_max_interval", "500");
+        PolledDriver polled = polled(options);
+
+        long now = System.nanoTime();
+        polled.adapt(0, now);
+        for (int i = 0; i < 10; i++) {
+            now += 10 * MILLIS;
+            polled.adapt(1, now);
+        }
+        assertEquals(10, polled.getInterval());
+
+        long previous = polled.getInterval();
+        for (int i = 0; i < 30; i++) {
+            now += polled.getInterval() * MILLIS;
+            long interval = polled.adapt(0, now);
+            assertTrue(interval >= previous);
+            previous = interval;
+        }
+        assertEquals(500, polled.getInterval());
+
+        // Polls finding nothing are scheduled at the adapted interval
+        polled.run();
+        assertEquals(500, scheduler.delays.get(0).longValue());
+    }
+
+    @Test
+    public void backsOffToMaximumIntervalOnFailure() {
+        PolledDriver polled = polled(new HashMap<>());
+        driver.failing = true;
+        polled.run();
+        assertEquals(1000, scheduler.delays.get(0).longValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaximumBelowMinimum() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("poll_min_interval", "100");
+        options.put("poll_max_interval", "50");
+        polled(options);
+    }
+
+    private PolledDriver polled(HashMap<String, Object> options) {
+        scheduler.hosted = new HostedDriver(driver, null, 64, OverflowPolicy.DROP_OLDEST, new Publisher("test"));
+        return new PolledDriver(scheduler.hosted, options, scheduler);
+    }
+
+    /**
+     * Scheduler keeping the requested delays instead of running polls
+     */
+    private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+        private final List<Long> delays = new ArrayList<>();
+        private HostedDriver hosted;
+
+        RecordingScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            return super.schedule(command, 1, TimeUnit.DAYS);
+        }
+    }
+
+    /**
+     * Driver returning the available number of messages, then null
+     */
+    private static class PulledDriver implements IDriver {
+        private int available = 0;
+        private int reads = 0;
+        private boolean failing = false;
+
+        @Override
+        public void setDeviceInfo(DeviceInfo info) {
+        }
+
+        @Override
+        public DeviceInfo getDeviceInfo() {
+            return new DeviceInfo("pulled");
+        }
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public String read(HashMap<String, Object> options) {
+            if (failing) throw new IllegalStateException("Device is gone");
+            reads++;
+            if (available == 0) return null;
+            available--;
+            return "sample";
+        }
+
+        @Override
+        public byte[] readBytes(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public void write(String message) {
+        }
+
+        @Override
+        public void write(byte[] message) {
+        }
+
+        @Override
+        public void subscribe(HashMap<String, Object> options, IDriverCallback callback) {
+        }
+
+        @Override
+        public void unsubscribe() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void setCallback(IDriverCallback callback) {
+        }
+    }
+}
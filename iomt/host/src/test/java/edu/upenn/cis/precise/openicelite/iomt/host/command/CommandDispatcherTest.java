@@ -0,0 +1,423 @@
+package edu.upenn.cis.precise.openicelite.iomt.host.command;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class CommandDispatcherTest {
+    private final RecordingMiddleware middleware = new RecordingMiddleware();
+    private final RecordingDriver driver = new RecordingDriver();
+    private final CommandDispatcher dispatcher = new CommandDispatcher(middleware, new SimpleTopicHandler(),
+            "project", "dongle", id -> "pump".equals(id) ? driver : null, 2048, 1, 60000);
+
+    @After
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void resendsAckOfRedeliveredCommand() throws Exception {
+        dispatcher.start();
+        byte[] message = command(7, "app", 5000).encode();
+        dispatcher.handleMessage("topic", message);
+        await(() -> middleware.acks.size() == 1);
+
+        dispatcher.handleMessage("topic", message);
+        await(() -> middleware.acks.size() == 2);
+        assertEquals(1, driver.writes.size());
+        assertEquals(1, dispatcher.getWritten());
+        assertEquals(1, dispatcher.getDuplicates());
+        assertEquals("project/app/CommandAck", middleware.topics.get(1));
+        assertArrayEquals(middleware.acks.get(0), middleware.acks.get(1));
+        assertEquals(CommandAck.Status.OK, CommandAck.decode(middleware.acks.get(1)).getStatus());
+    }
+
+    @Test(timeout = 10000)
+    public void ignoresCommandRedeliveredWhileQueued() throws Exception {
+        byte[] message = command(7, "app", 5000).encode();
+        dispatcher.handleMessage("topic", message);
+        dispatcher.handleMessage("topic", message);
+        assertEquals(1, dispatcher.getDuplicates());
+        assertTrue(middleware.acks.isEmpty());
+
+        dispatcher.start();
+        await(() -> middleware.acks.size() == 1);
+        Thread.sleep(200);
+        assertEquals(1, driver.writes.size());
+        assertEquals(1, middleware.acks.size());
+    }
+
+    @Test(timeout = 10000)
+    public void keepsCommandIdsPerSender() throws Exception {
+        dispatcher.start();
+        dispatcher.handleMessage("topic", command(1, "app-1", 5000).encode());
+        dispatcher.handleMessage("topic", command(1, "app-2", 5000).encode());
+        await(() -> middleware.acks.size() == 2);
+        assertEquals(2, driver.writes.size());
+        assertEquals(0, dispatcher.getDuplicates());
+    }
+
+    @Test(timeout = 30000)
+    public void forgetsOldestCommandIds() throws Exception {
+        dispatcher.start();
+        for (int id = 0; id <= 1024; id++) {
+            dispatcher.handleMessage("topic", command(id, "app", 60000).encode());
+        }
+        await(() -> middleware.acks.size() == 1025);
+        // Command 0 is no longer remembered, command 1024 is
+        dispatcher.handleMessage("topic", command(0, "app", 60000).encode());
+        dispatcher.handleMessage("topic", command(1024, "app", 60000).encode());
+        await(() -> middleware.acks.size() == 1027);
+        assertEquals(1026, driver.writes.size());
+        assertEquals(1, dispatcher.getDuplicates());
+    }
+
+    @Test(timeout = 10000)
+    public void writesCommandsOfRestartedClient() throws Exception {
+        dispatcher.start();
+        for (int session = 0; session < 2; session++) {
+            // Same client name in every session, as for an application started again
+            RecordingMiddleware clientMiddleware = new RecordingMiddleware();
+            CommandClient client = new CommandClient(clientMiddleware, new SimpleTopicHandler(), "project", "app");
+            client.start();
+            client.send("dongle", "pump", "rate=" + session);
+            client.stop();
+            assertEquals("project/dongle/Command", clientMiddleware.topics.get(0));
+            dispatcher.handleMessage(clientMiddleware.topics.get(0), clientMiddleware.acks.get(0));
+        }
+        await(() -> middleware.acks.size() == 2);
+        assertEquals(0, dispatcher.getDuplicates());
+        assertEquals("rate=0", driver.writes.get(0));
+        assertEquals("rate=1", driver.writes.get(1));
+    }
+
+    @Test(timeout = 10000)
+    public void forgetsCommandIdsAfterDedupTime() throws Exception {
+        CommandDispatcher shortDedup = new CommandDispatcher(middleware, new SimpleTopicHandler(),
+                "project", "dongle", id -> "pump".equals(id) ? driver : null, 2048, 1, 50);
+        try {
+            shortDedup.start();
+            byte[] message = command(7, "app", 5000).encode();
+            shortDedup.handleMessage("topic", message);
+            shortDedup.handleMessage("topic", message);
+            await(() -> middleware.acks.size() == 1);
+            assertEquals(1, shortDedup.getDuplicates());
+
+            Thread.sleep(100);
+            shortDedup.handleMessage("topic", message);
+            await(() -> middleware.acks.size() == 2);
+            assertEquals(1, shortDedup.getDuplicates());
+            assertEquals(2, driver.writes.size());
+        } finally {
+            shortDedup.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void writesCommandsWithLargeTimeouts() throws Exception {
+        dispatcher.start();
+        dispatcher.handleMessage("topic", command(1, "app", Long.MAX_VALUE).encode());
+        dispatcher.handleMessage("topic", command(2, "app", Long.MAX_VALUE / 1000).encode());
+        await(() -> middleware.acks.size() == 2);
+        assertEquals(0, dispatcher.getExpired());
+        assertEquals(2, driver.writes.size());
+    }
+
+    @Test(timeout = 10000)
+    public void expiresCommandsWaitingPastTimeout() throws Exception {
+        dispatcher.handleMessage("topic", command(1, "app", 1).encode());
+        Thread.sleep(50);
+        dispatcher.start();
+        await(() -> middleware.acks.size() == 1);
+        assertEquals(CommandAck.Status.EXPIRED, CommandAck.decode(middleware.acks.get(0)).getStatus());
+        assertTrue(driver.writes.isEmpty());
+    }
+
+    @Test
+    public void comparesDeadlinesAcrossNanoTimeWrapAround() {
+        Command first = command(1, "app", 0);
+        first.setArrivalNanos(Long.MAX_VALUE - 10);
+        // Deadline past Long.MAX_VALUE, wrapping around to a negative value
+        Command second = command(2, "app", 1);
+        second.setArrivalNanos(Long.MAX_VALUE - 5);
+        Command third = command(3, "app", Long.MAX_VALUE);
+        third.setArrivalNanos(Long.MIN_VALUE + 5);
+
+        assertTrue(second.getDeadlineNanos() < 0);
+        assertTrue(third.getDeadlineNanos() - third.getArrivalNanos() > 0);
+
+        PriorityBlockingQueue<Command> queue = new PriorityBlockingQueue<>(4, CommandDispatcher.BY_DEADLINE);
+        queue.add(third);
+        queue.add(second);
+        queue.add(first);
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertSame(third, queue.poll());
+    }
+
+    @Test
+    public void treatsNegativeTimeoutAsZero() {
+        Command command = command(1, "app", -5);
+        command.setArrivalNanos(100);
+        assertEquals(100, command.getDeadlineNanos());
+    }
+
+    private static Command command(long id, String replyTo, long timeout) {
+        return new Command(id, replyTo, "pump", timeout, true, ("rate=" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Driver keeping written messages
+     */
+    private static class RecordingDriver implements IDriver {
+        private final List<String> writes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void setDeviceInfo(DeviceInfo info) {
+        }
+
+        @Override
+        public DeviceInfo getDeviceInfo() {
+            return null;
+        }
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public String read(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public byte[] readBytes(HashMap<String, Object> options) {
+            return null;
+        }
+
+        @Override
+        public void write(String message) {
+            writes.add(message);
+        }
+
+        @Override
+        public void write(byte[] message) {
+            writes.add(new String(message, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void subscribe(HashMap<String, Object> options, IDriverCallback callback) {
+        }
+
+        @Override
+        public void unsubscribe() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void setCallback(IDriverCallback callback) {
+        }
+    }
+
+    /**
+     * Middleware keeping published acks
+     */
+    private static class RecordingMiddleware implements IMiddleware {
+        private final List<String> topics = new CopyOnWriteArrayList<>();
+        private final List<byte[]> acks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void waitConnected() {
+        }
+
+        @Override
+        public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+        }
+
+        @Override
+        public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+            topics.add(topic);
+            acks.add(message);
+        }
+
+        @Override
+        public void publish(String topic, String message, HashMap<String, Object> options) {
+            publish(topic, message.getBytes(StandardCharsets.UTF_8), options);
+        }
+
+        @Override
+        public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void setCallback(IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void addDevice(DeviceInfo info) {
+        }
+
+        @Override
+        public void removeDevice(String deviceId) {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Topic handler joining the parts of client topics with slashes
+     */
+    private static class SimpleTopicHandler implements ITopicHandler {
+        @Override
+        public String getOnlineTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getClientBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getClientTopic(String projectName, String clientName) {
+            return projectName + "/" + clientName;
+        }
+
+        @Override
+        public String getClientTopic(String projectName, String clientName, String channel) {
+            return projectName + "/" + clientName + "/" + channel;
+        }
+
+        @Override
+        public String getStatusBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getStatusTopic(String projectName, String dongleId) {
+            return null;
+        }
+
+        @Override
+        public String getDataBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getDataTopic(String projectName, String dongleId, String deviceId) {
+            return null;
+        }
+
+        @Override
+        public String getSysmonBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getSysmonTopic(String projectName, String dongleId) {
+            return null;
+        }
+
+        @Override
+        public String getAlarmBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getAlarmTopic(String projectName, String dongleId, String deviceId) {
+            return null;
+        }
+
+        @Override
+        public TopicType getTopicType(String topic) {
+            return null;
+        }
+
+        @Override
+        public String[] getTopicInfo(String topic) {
+            return null;
+        }
+
+        @Override
+        public String getProjectName(String topic) {
+            return null;
+        }
+
+        @Override
+        public String getDongleId(String topic) {
+            return null;
+        }
+
+        @Override
+        public String getDeviceId(String topic) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package edu.upenn.cis.precise.openicelite.iomt.synthetic;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+/**
+ * Record messages of any driver to a capture file, to be replayed by SyntheticDriver
+ * <p>
+ * A capture file is UTF-8 text with one message per line:
+ * - "time TAB t TAB message":  text message (single line)
+ * - "time TAB b TAB base64":   binary message, or text spanning several lines
+ * where time is the arrival time in milliseconds. Lines starting with # are ignored.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class CaptureRecorder implements IDriverCallback, Closeable {
+    static final String COMMENT = "#";
+    static final String TEXT = "t";
+    static final String BINARY = "b";
+
+    private static final Logger logger = LogManager.getLogger(CaptureRecorder.class);
+
+    private final BufferedWriter writer;
+
+    /**
+     * Recorder constructor (overwrites existing file)
+     *
+     * @param file capture file
+     * @throws IOException if the file cannot be created
+     */
+    public CaptureRecorder(Path file) throws IOException {
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handle new data from driver as a byte array
+     *
+     * @param message data to be handled
+     */
+    @Override
+    public void handleMessage(byte[] message) {
+        write(BINARY, Base64.getEncoder().encodeToString(message));
+    }
+
+    /**
+     * Handle new data from driver as a string
+     *
+     * @param message data to be handled
+     */
+    @Override
+    public void handleMessage(String message) {
+        if (message.indexOf('\n') >= 0 || message.indexOf('\r') >= 0) {
+            handleMessage(message.getBytes(StandardCharsets.UTF_8));
+        } else {
+            write(TEXT, message);
+        }
+    }
+
+    private synchronized void write(String kind, String message) {
+        try {
+            writer.write(Long.toString(System.currentTimeMillis()));
+            writer.write('\t');
+            writer.write(kind);
+            writer.write('\t');
+            writer.write(message);
+            writer.newLine();
+        } catch (IOException ex) {
+            logger.error("Failed to record message", ex);
+        }
+    }
+
+    /**
+     * Flush and close the capture file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
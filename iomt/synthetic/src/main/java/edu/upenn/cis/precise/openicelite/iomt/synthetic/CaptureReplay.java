@@ -0,0 +1,126 @@
+package edu.upenn.cis.precise.openicelite.iomt.synthetic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay a capture file (see CaptureRecorder) with its original timing
+ * <p>
+ * The whole capture is loaded in memory before replay starts, so reading the file
+ * never delays delivery. Messages are delivered as recorded (timestamps inside
+ * messages are not rewritten).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class CaptureReplay implements FrameSource {
+    private final byte[][] messages;
+    private final long[] offsets;
+    private final long loopNanos;
+    private final boolean repeat;
+    private final Pacer pacer;
+    private int next = 0;
+    private long loop = 0;
+
+    /**
+     * Replay constructor
+     *
+     * @param file   capture file
+     * @param speed  replay speed relative to recorded time
+     * @param repeat restart from the beginning once the capture is exhausted
+     * @throws IOException if the capture cannot be read
+     */
+    CaptureReplay(Path file, double speed, boolean repeat) throws IOException {
+        List<byte[]> messageList = new ArrayList<>();
+        List<Long> timeList = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith(CaptureRecorder.COMMENT)) continue;
+                String[] tokens = line.split("\t", 3);
+                if (tokens.length != 3) {
+                    throw new IOException("Invalid capture line " + lineNumber + " in " + file);
+                }
+                try {
+                    timeList.add(Long.parseLong(tokens[0]));
+                    if (CaptureRecorder.TEXT.equals(tokens[1])) {
+                        messageList.add(tokens[2].getBytes(StandardCharsets.UTF_8));
+                    } else if (CaptureRecorder.BINARY.equals(tokens[1])) {
+                        messageList.add(Base64.getDecoder().decode(tokens[2]));
+                    } else {
+                        throw new IOException("Unknown message kind at line " + lineNumber + " in " + file);
+                    }
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("Invalid capture line " + lineNumber + " in " + file, ex);
+                }
+            }
+        }
+        if (messageList.isEmpty()) throw new IOException("Empty capture file " + file);
+
+        messages = messageList.toArray(new byte[0][]);
+        offsets = new long[timeList.size()];
+        long first = timeList.get(0);
+        for (int i = 0; i < offsets.length; i++) {
+            // Clamp clock steps backward in the capture
+            long offset = TimeUnit.MILLISECONDS.toNanos(timeList.get(i) - first);
+            offsets[i] = (i > 0) ? Math.max(offsets[i - 1], offset) : 0;
+        }
+        // Keep the average message spacing between the last and the first message of a loop
+        long spacing = (offsets.length > 1) ? offsets[offsets.length - 1] / (offsets.length - 1) : 0;
+        loopNanos = offsets[offsets.length - 1] + Math.max(spacing, 1);
+        this.repeat = repeat;
+        this.pacer = new Pacer(speed);
+    }
+
+    @Override
+    public synchronized byte[] next() throws InterruptedException {
+        int current = await();
+        return (current < 0) ? null : messages[current].clone();
+    }
+
+    @Override
+    public synchronized ByteBuffer nextBuffer() throws InterruptedException {
+        int current = await();
+        return (current < 0) ? null : ByteBuffer.wrap(messages[current]).asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized void reset() {
+        next = 0;
+        loop = 0;
+        pacer.reset();
+    }
+
+    /**
+     * Wait until the next message is due and move past it
+     *
+     * @return index of the due message, or -1 if the capture is exhausted
+     */
+    private int await() throws InterruptedException {
+        if (next == messages.length) {
+            if (!repeat) return -1;
+            next = 0;
+            loop++;
+        }
+        pacer.await(loop * loopNanos + offsets[next]);
+        return next++;
+    }
+
+    /**
+     * Return the number of messages in the capture
+     *
+     * @return number of messages
+     */
+    int size() {
+        return messages.length;
+    }
+}
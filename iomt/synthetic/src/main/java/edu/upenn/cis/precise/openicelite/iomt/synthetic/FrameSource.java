@@ -0,0 +1,34 @@
+package edu.upenn.cis.precise.openicelite.iomt.synthetic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Paced source of device messages
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+interface FrameSource {
+    /**
+     * Block until the next message is due, then return it
+     *
+     * @return next message as a byte array, or null if the source is exhausted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    byte[] next() throws InterruptedException;
+
+    /**
+     * Block until the next message is due, then return it without copying
+     * <p>
+     * The buffer is owned by the source: it is only valid until the next call and
+     * must not be modified (see IDriverCallback.handleMessage(ByteBuffer)).
+     *
+     * @return next message as a buffer, or null if the source is exhausted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    ByteBuffer nextBuffer() throws InterruptedException;
+
+    /**
+     * Restart pacing from now (e.g., after the source was idle)
+     */
+    void reset();
+}
@@ -0,0 +1,49 @@
+package edu.upenn.cis.precise.openicelite.iomt.synthetic;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wait for offsets on a timeline running at a multiple of real time
+ * <p>
+ * Offsets are measured from the origin, not from the previous wait, so delays of
+ * the consumer do not accumulate: late messages are released back to back until
+ * the source is on schedule again.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class Pacer {
+    private final double speed;
+    private long origin;
+
+    /**
+     * Pacer constructor
+     *
+     * @param speed timeline speed relative to real time (e.g., 10 for 10x)
+     */
+    Pacer(double speed) {
+        this.speed = speed;
+        reset();
+    }
+
+    /**
+     * Restart the timeline from now
+     */
+    void reset() {
+        origin = System.nanoTime();
+    }
+
+    /**
+     * Block until an offset of the timeline is reached
+     *
+     * @param offsetNanos offset from the origin of the timeline (at 1x)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void await(long offsetNanos) throws InterruptedException {
+        long due = origin + (long) (offsetNanos / speed);
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package edu.upenn.cis.precise.openicelite.iomt.synthetic;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriver;
+import edu.upenn.cis.precise.openicelite.iomt.api.IDriverCallback;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Driver of a synthetic patient monitor, for benchmarking and replay without devices
+ * <p>
+ * In generate mode, the driver produces ECG and pleth waveforms together with heart
+ * rate, SpO2 and respiratory rate numerics (see WaveformGenerator). In replay mode,
+ * it replays a capture file recorded by CaptureRecorder. Either way, all messages
+ * are prepared before delivery starts, so the driver itself is never the bottleneck.
+ * <p>
+ * Messages are delivered as buffers to the callback from a dedicated thread once
+ * subscribed (see IDriverCallback.handleMessage(ByteBuffer): the buffer is reused
+ * for the next message), or returned as byte arrays by blocking reads otherwise. A
+ * slow callback delays later messages, which are then delivered back to back to
+ * catch up.
+ * <p>
+ * Available options for initialization:
+ * - "mode":                generate or replay (default to generate)
+ * - "capture_file":        capture file to replay (default to the connect address)
+ * - "speed":               delivery speed relative to real time, 1 - 100 (default to 1)
+ * - "repeat":              restart replay once the capture is exhausted (default to true)
+ * - "waveforms":           enabled messages, separated with comma
+ *                              (default to ecg,pleth,numeric)
+ * - "heart_rate":          heart rate in beats per minute (default to 72)
+ * - "resp_rate":           respiratory rate in breaths per minute (default to 16)
+ * - "spo2":                SpO2 in percent (default to 97)
+ * - "ecg_rate":            ECG sample rate in Hz (default to 250)
+ * - "pleth_rate":          pleth sample rate in Hz (default to 125)
+ * - "frame_interval":      milliseconds of waveform per message (default to 40)
+ * - "numeric_interval":    milliseconds between numeric messages (default to 1000)
+ * - "buffer_seconds":      length of the pre-generated loop in seconds (default to 60)
+ * - "seed":                random seed for noise (default to 0)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SyntheticDriver implements IDriver {
+    private static final Logger logger = LogManager.getLogger(SyntheticDriver.class);
+
+    private static final double MIN_SPEED = 1;
+    private static final double MAX_SPEED = 100;
+
+    private DeviceInfo info;
+
+    // Overwritten-able configuration
+    private boolean replay = false;
+    private String captureFile = null;
+    private double speed = 1;
+    private boolean repeat = true;
+    private final WaveformGenerator.Settings settings = new WaveformGenerator.Settings();
+
+    // Running objects
+    private volatile FrameSource source;
+    private volatile IDriverCallback callback;
+    private Thread deliverer;
+
+    /**
+     * Driver constructor (with a random device ID)
+     */
+    public SyntheticDriver() {
+        info = new DeviceInfo(UUID.randomUUID().toString());
+        info.setDeviceType("Synthetic");
+    }
+
+    /**
+     * Configure device with attributes (e.g., device ID, type)
+     *
+     * @param info attributes as a DeviceInfo object
+     */
+    @Override
+    public void setDeviceInfo(DeviceInfo info) {
+        this.info = info;
+    }
+
+    /**
+     * Return device information
+     *
+     * @return attributes as a DeviceInfo object
+     */
+    @Override
+    public DeviceInfo getDeviceInfo() {
+        return info;
+    }
+
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("mode")) {
+            String mode = options.get("mode").toString();
+            if ("replay".equalsIgnoreCase(mode)) {
+                replay = true;
+            } else if ("generate".equalsIgnoreCase(mode)) {
+                replay = false;
+            } else {
+                throw new IllegalArgumentException("Unknown mode - " + mode);
+            }
+        }
+        if (options.containsKey("capture_file")) {
+            captureFile = options.get("capture_file").toString();
+        }
+        if (options.containsKey("speed")) {
+            speed = Double.parseDouble(options.get("speed").toString());
+            if (speed < MIN_SPEED || speed > MAX_SPEED) {
+                throw new IllegalArgumentException("Speed must be between " + MIN_SPEED + " and " +
+                        MAX_SPEED + " - " + speed);
+            }
+        }
+        if (options.containsKey("repeat")) {
+            repeat = Boolean.parseBoolean(options.get("repeat").toString());
+        }
+        if (options.containsKey("waveforms")) {
+            settings.ecg = false;
+            settings.pleth = false;
+            settings.numeric = false;
+            for (String waveform : options.get("waveforms").toString().split(",")) {
+                switch (waveform.trim().toLowerCase()) {
+                    case WaveformGenerator.ECG:
+                        settings.ecg = true;
+                        break;
+                    case WaveformGenerator.PLETH:
+                        settings.pleth = true;
+                        break;
+                    case WaveformGenerator.NUMERIC:
+                        settings.numeric = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown waveform - " + waveform);
+                }
+            }
+        }
+        if (options.containsKey("heart_rate")) {
+            settings.heartRate = Double.parseDouble(options.get("heart_rate").toString());
+        }
+        if (options.containsKey("resp_rate")) {
+            settings.respRate = Double.parseDouble(options.get("resp_rate").toString());
+        }
+        if (options.containsKey("spo2")) {
+            settings.spo2 = Integer.parseInt(options.get("spo2").toString());
+        }
+        if (options.containsKey("ecg_rate")) {
+            settings.ecgRate = Integer.parseInt(options.get("ecg_rate").toString());
+        }
+        if (options.containsKey("pleth_rate")) {
+            settings.plethRate = Integer.parseInt(options.get("pleth_rate").toString());
+        }
+        if (options.containsKey("frame_interval")) {
+            settings.frameInterval = Integer.parseInt(options.get("frame_interval").toString());
+        }
+        if (options.containsKey("numeric_interval")) {
+            settings.numericInterval = Integer.parseInt(options.get("numeric_interval").toString());
+        }
+        if (options.containsKey("buffer_seconds")) {
+            settings.bufferSeconds = Integer.parseInt(options.get("buffer_seconds").toString());
+        }
+        if (options.containsKey("seed")) {
+            settings.seed = Long.parseLong(options.get("seed").toString());
+        }
+        if (settings.heartRate <= 0 || settings.respRate <= 0 || settings.ecgRate <= 0 ||
+                settings.plethRate <= 0 || settings.frameInterval <= 0 || settings.numericInterval <= 0 ||
+                settings.bufferSeconds <= 0) {
+            throw new IllegalArgumentException("Rates and intervals must be positive!");
+        }
+    }
+
+    /**
+     * Prepare all messages (generated waveforms or loaded capture)
+     * <p>
+     * In replay mode, the address is used as capture file if "capture_file" is not set.
+     *
+     * @param address capture file to replay (ignored in generate mode)
+     * @param name    identified client name (ignored)
+     * @param options additional connecting options (ignored)
+     */
+    @Override
+    public void connect(String address, String name, HashMap<String, Object> options) {
+        if (source != null) return;
+        try {
+            if (replay) {
+                String file = (captureFile != null) ? captureFile : address;
+                if (file == null) throw new IllegalArgumentException("No capture file to replay!");
+                CaptureReplay capture = new CaptureReplay(Paths.get(file), speed, repeat);
+                logger.info("Loaded " + capture.size() + " messages from " + file);
+                source = capture;
+            } else {
+                WaveformGenerator generator = new WaveformGenerator(settings, speed);
+                logger.info("Generated " + generator.size() + " messages for " + info.getDeviceId());
+                source = generator;
+            }
+        } catch (Exception ex) {
+            logger.error("Failed to prepare synthetic device " + info.getDeviceId(), ex);
+        }
+    }
+
+    /**
+     * Blocking read the next message (paced as if the device were sending it)
+     *
+     * @param options additional options
+     * @return a message as string, or null if not connected or exhausted
+     */
+    @Override
+    public String read(HashMap<String, Object> options) {
+        byte[] message = readBytes(options);
+        return (message == null) ? null : new String(message);
+    }
+
+    /**
+     * Blocking read the next message (paced as if the device were sending it)
+     *
+     * @param options additional options
+     * @return a message as byte array, or null if not connected or exhausted
+     */
+    @Override
+    public byte[] readBytes(HashMap<String, Object> options) {
+        FrameSource current = source;
+        if (current == null) return null;
+        try {
+            return current.next();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Synthetic devices accept no commands, message is discarded
+     *
+     * @param message a message as string
+     */
+    @Override
+    public void write(String message) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Discarding command to synthetic device: " + message);
+        }
+    }
+
+    /**
+     * Synthetic devices accept no commands, message is discarded
+     *
+     * @param message a message as byte array
+     */
+    @Override
+    public void write(byte[] message) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Discarding " + message.length + " bytes command to synthetic device");
+        }
+    }
+
+    /**
+     * Start delivering messages to the callback
+     *
+     * @param options  additional options
+     * @param callback the class to callback for related events
+     */
+    @Override
+    public synchronized void subscribe(HashMap<String, Object> options, IDriverCallback callback) {
+        setCallback(callback);
+        if (source == null) {
+            logger.warn("Cannot subscribe - synthetic device " + info.getDeviceId() + " is not connected");
+            return;
+        }
+        if (deliverer != null) return;
+        source.reset();
+        deliverer = new Thread(this::deliver, "synthetic-" + info.getDeviceId());
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    /**
+     * Stop delivering messages to the callback
+     */
+    @Override
+    public synchronized void unsubscribe() {
+        if (deliverer == null) return;
+        deliverer.interrupt();
+        try {
+            deliverer.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        deliverer = null;
+    }
+
+    /**
+     * Stop delivering messages
+     */
+    @Override
+    public void disconnect() {
+        unsubscribe();
+    }
+
+    /**
+     * Close and release all associated resource
+     */
+    @Override
+    public void close() {
+        disconnect();
+        source = null;
+    }
+
+    /**
+     * Determine if client is currently connect to a device
+     *
+     * @return true if messages are prepared, false otherwise.
+     */
+    @Override
+    public boolean isConnected() {
+        return source != null;
+    }
+
+    /**
+     * Set the callback listener to use for events that happen asynchronously
+     *
+     * @param callback the class to callback for related events
+     */
+    @Override
+    public void setCallback(IDriverCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+    }
+
+    private void deliver() {
+        FrameSource current = source;
+        while (current != null && !Thread.currentThread().isInterrupted()) {
+            ByteBuffer message;
+            try {
+                message = current.nextBuffer();
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (message == null) {
+                logger.info("Capture exhausted for synthetic device " + info.getDeviceId());
+                break;
+            }
+            try {
+                IDriverCallback target = callback;
+                if (target != null) target.handleMessage(message);
+            } catch (Exception ex) {
+                logger.error("Failed to handle synthetic message", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package edu.upenn.cis.precise.openicelite.iomt.synthetic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-generated ECG, pleth and numeric messages played in a loop
+ * <p>
+ * The whole loop is rendered to JSON once, so delivering a message only copies
+ * its bytes (into a reused buffer for nextBuffer) and patches the timestamp in place. The loop holds a whole number of
+ * heart beats and breaths (rates are adjusted slightly if needed), so waveforms
+ * are continuous across loop boundaries.
+ * <p>
+ * Messages (timestamp is the delivery time in milliseconds):
+ * - {"timestamp":...,"type":"ecg","lead":"II","rate":250,"unit":"uV","samples":[...]}
+ * - {"timestamp":...,"type":"pleth","rate":125,"samples":[...]}
+ * - {"timestamp":...,"type":"numeric","hr":72,"spo2":97,"rr":16}
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class WaveformGenerator implements FrameSource {
+    static final String ECG = "ecg";
+    static final String PLETH = "pleth";
+    static final String NUMERIC = "numeric";
+
+    private static final int TIMESTAMP_DIGITS = 13;
+    private static final String TIMESTAMP_PLACEHOLDER = "{\"timestamp\":0000000000000";
+    // Pulse transit time from R wave to pleth upstroke (milliseconds)
+    private static final double PULSE_TRANSIT = 250;
+    // PQRST waves as (phase of beat, amplitude in uV, width in phase)
+    private static final double[][] ECG_WAVES = {
+            {0.20, 150, 0.025},
+            {0.35, -120, 0.010},
+            {0.37, 1200, 0.010},
+            {0.39, -250, 0.010},
+            {0.65, 300, 0.040}
+    };
+
+    private final byte[][] templates;
+    private final long[] offsets;
+    private final long loopNanos;
+    private final Pacer pacer;
+    private final ByteBuffer buffer;
+    private int next = 0;
+    private long loop = 0;
+
+    /**
+     * Generator constructor
+     *
+     * @param settings generation settings
+     * @param speed    delivery speed relative to real time
+     */
+    WaveformGenerator(Settings settings, double speed) {
+        int frames = (int) Math.max(1, Math.round(settings.bufferSeconds * 1000.0 / settings.frameInterval));
+        double loopMs = (double) frames * settings.frameInterval;
+        double beatMs = loopMs / Math.max(1, Math.round(loopMs / 60000 * settings.heartRate));
+        double breathMs = loopMs / Math.max(1, Math.round(loopMs / 60000 * settings.respRate));
+        int ticksPerNumeric = (int) Math.max(1, Math.round((double) settings.numericInterval / settings.frameInterval));
+        Random random = new Random(settings.seed);
+
+        int[] ecg = settings.ecg ? renderEcg(loopMs, settings.ecgRate, beatMs, breathMs, random) : null;
+        int[] pleth = settings.pleth ? renderPleth(loopMs, settings.plethRate, beatMs, breathMs, random) : null;
+
+        List<byte[]> templateList = new ArrayList<>();
+        List<Long> offsetList = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            long offset = TimeUnit.MILLISECONDS.toNanos((long) i * settings.frameInterval);
+            if (ecg != null) {
+                templateList.add(waveformFrame("\"type\":\"ecg\",\"lead\":\"II\",\"rate\":" + settings.ecgRate +
+                        ",\"unit\":\"uV\"", ecg, i, frames));
+                offsetList.add(offset);
+            }
+            if (pleth != null) {
+                templateList.add(waveformFrame("\"type\":\"pleth\",\"rate\":" + settings.plethRate,
+                        pleth, i, frames));
+                offsetList.add(offset);
+            }
+            if (settings.numeric && i % ticksPerNumeric == 0) {
+                int hr = (int) Math.round(60000 / beatMs) + random.nextInt(3) - 1;
+                int spo2 = Math.min(100, settings.spo2 + random.nextInt(3) - 1);
+                int rr = (int) Math.round(60000 / breathMs);
+                templateList.add((TIMESTAMP_PLACEHOLDER + ",\"type\":\"numeric\",\"hr\":" + hr +
+                        ",\"spo2\":" + spo2 + ",\"rr\":" + rr + "}").getBytes(StandardCharsets.UTF_8));
+                offsetList.add(offset);
+            }
+        }
+        if (templateList.isEmpty()) {
+            throw new IllegalArgumentException("No waveform or numeric enabled!");
+        }
+
+        templates = templateList.toArray(new byte[0][]);
+        int maxLength = 0;
+        for (byte[] template : templates) maxLength = Math.max(maxLength, template.length);
+        buffer = ByteBuffer.allocate(maxLength);
+        offsets = new long[offsetList.size()];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = offsetList.get(i);
+        loopNanos = TimeUnit.MILLISECONDS.toNanos((long) frames * settings.frameInterval);
+        pacer = new Pacer(speed);
+    }
+
+    @Override
+    public synchronized byte[] next() throws InterruptedException {
+        byte[] message = templates[await()].clone();
+        stamp(message, System.currentTimeMillis());
+        return message;
+    }
+
+    @Override
+    public synchronized ByteBuffer nextBuffer() throws InterruptedException {
+        byte[] template = templates[await()];
+        buffer.clear();
+        buffer.put(template);
+        stamp(buffer.array(), System.currentTimeMillis());
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public synchronized void reset() {
+        next = 0;
+        loop = 0;
+        pacer.reset();
+    }
+
+    /**
+     * Return the number of pre-generated messages in one loop
+     *
+     * @return number of messages
+     */
+    int size() {
+        return templates.length;
+    }
+
+    /**
+     * Wait until the next message is due and move past it
+     *
+     * @return index of the due message
+     */
+    private int await() throws InterruptedException {
+        int current = next;
+        pacer.await(loop * loopNanos + offsets[current]);
+        if (++next == templates.length) {
+            next = 0;
+            loop++;
+        }
+        return current;
+    }
+
+    /**
+     * Write the timestamp into the placeholder of a copied template
+     */
+    private static void stamp(byte[] message, long timestamp) {
+        int end = TIMESTAMP_PLACEHOLDER.length();
+        for (int i = end - 1; i >= end - TIMESTAMP_DIGITS; i--) {
+            message[i] = (byte) ('0' + (timestamp % 10));
+            timestamp /= 10;
+        }
+    }
+
+    private static byte[] waveformFrame(String header, int[] samples, int frame, int frames) {
+        int from = (int) ((long) frame * samples.length / frames);
+        int to = (int) ((long) (frame + 1) * samples.length / frames);
+        StringBuilder builder = new StringBuilder(TIMESTAMP_PLACEHOLDER.length() + header.length() + (to - from) * 5);
+        builder.append(TIMESTAMP_PLACEHOLDER).append(',').append(header).append(",\"samples\":[");
+        for (int i = from; i < to; i++) {
+            if (i > from) builder.append(',');
+            builder.append(samples[i]);
+        }
+        builder.append("]}");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Render ECG (lead II, microvolts) as a sum of Gaussian PQRST waves with
+     * respiratory baseline wander and noise
+     */
+    private static int[] renderEcg(double loopMs, int rate, double beatMs, double breathMs, Random random) {
+        int[] samples = new int[(int) Math.round(loopMs * rate / 1000)];
+        for (int i = 0; i < samples.length; i++) {
+            double t = i * loopMs / samples.length;
+            double phase = (t % beatMs) / beatMs;
+            double value = 40 * Math.sin(2 * Math.PI * t / breathMs) + 8 * random.nextGaussian();
+            for (double[] wave : ECG_WAVES) {
+                double d = (phase - wave[0]) / wave[2];
+                value += wave[1] * Math.exp(-0.5 * d * d);
+            }
+            samples[i] = (int) Math.round(value);
+        }
+        return samples;
+    }
+
+    /**
+     * Render plethysmogram (0 - 1000) as systolic peak and dicrotic wave delayed by
+     * pulse transit time, amplitude modulated by respiration
+     */
+    private static int[] renderPleth(double loopMs, int rate, double beatMs, double breathMs, Random random) {
+        int[] samples = new int[(int) Math.round(loopMs * rate / 1000)];
+        for (int i = 0; i < samples.length; i++) {
+            double t = i * loopMs / samples.length;
+            double phase = (((t - PULSE_TRANSIT) % beatMs) + beatMs) % beatMs / beatMs;
+            double systolic = (phase - 0.25) / 0.08;
+            double dicrotic = (phase - 0.55) / 0.10;
+            double pulse = Math.exp(-0.5 * systolic * systolic) + 0.4 * Math.exp(-0.5 * dicrotic * dicrotic);
+            double modulation = 1 + 0.05 * Math.sin(2 * Math.PI * t / breathMs);
+            double value = 100 + 800 * pulse * modulation + 3 * random.nextGaussian();
+            samples[i] = (int) Math.max(0, Math.min(1000, Math.round(value)));
+        }
+        return samples;
+    }
+
+    /**
+     * Generation settings
+     */
+    static class Settings {
+        double heartRate = 72;
+        double respRate = 16;
+        int spo2 = 97;
+        int ecgRate = 250;
+        int plethRate = 125;
+        int frameInterval = 40;
+        int numericInterval = 1000;
+        int bufferSeconds = 60;
+        long seed = 0;
+        boolean ecg = true;
+        boolean pleth = true;
+        boolean numeric = true;
+    }
+}
@@ -0,0 +1,150 @@
+package edu.upenn.cis.precise.openicelite.iomt.codec;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode a 1 MB stream of frames fed in chunks of a given size, as read from a
+ * serial port or a socket (one operation is the whole stream, so MB/s = 1e6 / time)
+ * <p>
+ * "naiveLengthField" is the usual hand-written framing for comparison: chunks are
+ * appended to a ByteArrayOutputStream and the stream is rescanned from the start
+ * after every chunk.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameDecoderBenchmark {
+    private static final int STREAM_SIZE = 1024 * 1024;
+    private static final byte[] SYNC = {(byte) 0xA5, 0x5A};
+    private static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    @Param({"64", "4096"})
+    public int chunkSize;
+
+    @Param({"32", "512"})
+    public int frameSize;
+
+    private byte[] lengthStream;
+    private byte[] fixedStream;
+    private byte[] slipStream;
+    private byte[] hdlcStream;
+
+    private LengthFieldFrameDecoder lengthDecoder;
+    private FixedHeaderFrameDecoder fixedDecoder;
+    private EscapedFrameDecoder slipDecoder;
+    private EscapedFrameDecoder hdlcDecoder;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ByteArrayOutputStream length = new ByteArrayOutputStream();
+        ByteArrayOutputStream fixed = new ByteArrayOutputStream();
+        ByteArrayOutputStream slip = new ByteArrayOutputStream();
+        ByteArrayOutputStream hdlc = new ByteArrayOutputStream();
+        byte[] body = new byte[frameSize];
+        while (length.size() < STREAM_SIZE) {
+            random.nextBytes(body);
+            // 2-byte big-endian body length
+            length.write(frameSize >>> 8);
+            length.write(frameSize);
+            length.write(body, 0, body.length);
+            // Sync, type, 2-byte body length
+            fixed.write(SYNC, 0, SYNC.length);
+            fixed.write(1);
+            fixed.write(frameSize >>> 8);
+            fixed.write(frameSize);
+            fixed.write(body, 0, body.length);
+            escape(slip, body, 0xC0, 0xDB, new int[]{0xC0, 0xDB}, new int[]{0xDC, 0xDD});
+            escape(hdlc, body, 0x7E, 0x7D, new int[]{0x7E, 0x7D}, new int[]{0x5E, 0x5D});
+        }
+        lengthStream = length.toByteArray();
+        fixedStream = fixed.toByteArray();
+        slipStream = slip.toByteArray();
+        hdlcStream = hdlc.toByteArray();
+
+        lengthDecoder = new LengthFieldFrameDecoder(0, 2, ByteOrder.BIG_ENDIAN, 0, 2, MAX_FRAME_LENGTH);
+        fixedDecoder = new FixedHeaderFrameDecoder(SYNC, 5,
+                (data, offset) -> ((data.get(offset + 3) & 0xFF) << 8) | (data.get(offset + 4) & 0xFF),
+                MAX_FRAME_LENGTH);
+        slipDecoder = EscapedFrameDecoder.slip(MAX_FRAME_LENGTH);
+        hdlcDecoder = EscapedFrameDecoder.hdlc(MAX_FRAME_LENGTH);
+    }
+
+    private static void escape(ByteArrayOutputStream out, byte[] body, int flag, int escape,
+                               int[] special, int[] escaped) {
+        for (byte value : body) {
+            int b = value & 0xFF;
+            if (b == special[0]) {
+                out.write(escape);
+                out.write(escaped[0]);
+            } else if (b == special[1]) {
+                out.write(escape);
+                out.write(escaped[1]);
+            } else {
+                out.write(b);
+            }
+        }
+        out.write(flag);
+    }
+
+    private int feed(FrameDecoder decoder, byte[] stream, Blackhole blackhole) {
+        int frames = 0;
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            frames += decoder.decode(stream, offset, Math.min(chunkSize, stream.length - offset),
+                    frame -> blackhole.consume(frame.get(frame.position())));
+        }
+        return frames;
+    }
+
+    @Benchmark
+    public int lengthField(Blackhole blackhole) {
+        return feed(lengthDecoder, lengthStream, blackhole);
+    }
+
+    @Benchmark
+    public int fixedHeader(Blackhole blackhole) {
+        return feed(fixedDecoder, fixedStream, blackhole);
+    }
+
+    @Benchmark
+    public int slip(Blackhole blackhole) {
+        return feed(slipDecoder, slipStream, blackhole);
+    }
+
+    @Benchmark
+    public int hdlc(Blackhole blackhole) {
+        return feed(hdlcDecoder, hdlcStream, blackhole);
+    }
+
+    @Benchmark
+    public int naiveLengthField(Blackhole blackhole) {
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        int frames = 0;
+        for (int offset = 0; offset < lengthStream.length; offset += chunkSize) {
+            pending.write(lengthStream, offset, Math.min(chunkSize, lengthStream.length - offset));
+            byte[] data = pending.toByteArray();
+            int index = 0;
+            while (data.length - index >= 2) {
+                int length = ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+                if (data.length - index - 2 < length) break;
+                byte[] frame = new byte[length];
+                System.arraycopy(data, index + 2, frame, 0, length);
+                blackhole.consume(frame);
+                frames++;
+                index += 2 + length;
+            }
+            pending.reset();
+            pending.write(data, index, data.length - index);
+        }
+        return frames;
+    }
+}
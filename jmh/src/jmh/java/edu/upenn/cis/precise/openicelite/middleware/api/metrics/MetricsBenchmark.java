@@ -0,0 +1,38 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording metrics on hot paths (expected to allocate nothing, see the gc
+ * profiler output), single-threaded and contended
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final MiddlewareMetrics metrics = new MiddlewareMetrics();
+    private long value = 0;
+
+    @Benchmark
+    public void recordHistogram() {
+        histogram.record((value++ & 0xFFFFF) * 100);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordHistogramContended() {
+        histogram.record(12345);
+    }
+
+    @Benchmark
+    public void recordPublishAndAck() {
+        long start = System.nanoTime();
+        metrics.recordPublish(256, start);
+        metrics.recordAck(start);
+    }
+}
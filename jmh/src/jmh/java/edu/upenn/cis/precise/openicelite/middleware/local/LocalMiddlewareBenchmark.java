@@ -0,0 +1,64 @@
+package edu.upenn.cis.precise.openicelite.middleware.local;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-way latency of the in-process middleware: publish a message and wait until the
+ * subscriber's dispatcher thread has delivered it
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LocalMiddlewareBenchmark {
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final byte[] payload = new byte[256];
+    private LocalMiddleware publisher;
+    private LocalMiddleware subscriber;
+    private long published = 0;
+
+    @Setup
+    public void setup() {
+        publisher = new LocalMiddleware("benchmark-publisher");
+        publisher.init(null);
+        publisher.connect("benchmark", null, null);
+        subscriber = new LocalMiddleware("benchmark-subscriber");
+        subscriber.init(null);
+        subscriber.connect("benchmark", null, null);
+        subscriber.subscribe("PRECISE/OpenICElite/DEFAULT/Data/#", null, new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.close();
+        subscriber.close();
+    }
+
+    @Benchmark
+    public long publishAndDeliver() {
+        publisher.publishId(DEVICE_ID, payload, null);
+        published++;
+        while (delivered.get() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+}
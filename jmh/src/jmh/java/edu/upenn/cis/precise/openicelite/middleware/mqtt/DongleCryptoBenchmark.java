@@ -0,0 +1,52 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-GCM encryption and decryption of messages by Dongle (including metrics
+ * recording around them)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DongleCryptoBenchmark {
+    @Param({"64", "512", "4096"})
+    public int size;
+
+    private Dongle dongle;
+    private byte[] plainText;
+    private byte[] cipherText;
+
+    @Setup
+    public void setup() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("aes_key", "benchmark-secret-key");
+        dongle = new Dongle("benchmark-dongle");
+        dongle.init(options);
+
+        plainText = new byte[size];
+        new Random(42).nextBytes(plainText);
+        cipherText = dongle.encryptMessage(plainText);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dongle.getMetrics().unregister();
+    }
+
+    @Benchmark
+    public byte[] encryptMessage() {
+        return dongle.encryptMessage(plainText);
+    }
+
+    @Benchmark
+    public byte[] decryptMessage() {
+        return dongle.decryptMessage(cipherText);
+    }
+}
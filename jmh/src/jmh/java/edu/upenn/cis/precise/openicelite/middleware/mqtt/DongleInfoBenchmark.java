@@ -0,0 +1,49 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of DongleInfo done by the Map Manager pinger on every report
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DongleInfoBenchmark {
+    @Param({"1", "8", "64"})
+    public int devices;
+
+    private final Gson gson = new Gson();
+    private DongleInfo info;
+    private String json;
+
+    @Setup
+    public void setup() {
+        info = new DongleInfo("6f1c1e2a-3b7d-4c55-9e0f-2d8a7b9c1e34");
+        for (int i = 0; i < devices; i++) {
+            DeviceInfo device = new DeviceInfo(String.format("a41d9c70-52b8-4f3e-8d26-%012d", i));
+            device.setDeviceType("Capnostream");
+            device.setAttribute("port", "/dev/ttyUSB" + i);
+            device.setAttribute("baud_rate", "115200");
+            info.addDevice(device);
+        }
+        json = gson.toJson(info);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return gson.toJson(info);
+    }
+
+    @Benchmark
+    public DongleInfo fromJson() {
+        return gson.fromJson(json, DongleInfo.class);
+    }
+}
@@ -0,0 +1,103 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-row versus batched inserts into an encrypted H2 database with the LoggerH2
+ * schema (every operation inserts "rows" rows)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoggerH2Benchmark {
+    private static final String TABLE = "BENCHMARK";
+    private static final String MESSAGE = "{\"timestamp\":1530000000000,\"etco2\":38,\"fico2\":0," +
+            "\"rr\":16,\"spo2\":98,\"pr\":72}";
+
+    @Param({"1", "10", "100"})
+    public int rows;
+
+    private Path dbDir;
+    private LoggerH2 log;
+    private Connection connection;
+    private PreparedStatement statement;
+
+    @Setup
+    public void setup() throws Exception {
+        dbDir = Files.createTempDirectory("logger-h2-benchmark");
+        log = new LoggerH2("benchmark", dbDir.toString(), TABLE, "sa", "password", "encryption",
+                new HashMap<>());
+        log.init(true);
+        connection = log.getConnection();
+        statement = log.prepareStatement(connection, TABLE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() throws SQLException {
+        try (Statement stat = connection.createStatement()) {
+            stat.execute("TRUNCATE TABLE `" + TABLE + "`;");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        Files.walk(dbDir)
+                .sorted(Comparator.reverseOrder())
+                .forEach(path -> path.toFile().delete());
+    }
+
+    /**
+     * One execute (and implicit commit) per row, as LoggerH2 does today
+     */
+    @Benchmark
+    public void insertSingle() throws SQLException {
+        for (int i = 0; i < rows; i++) {
+            bind(i);
+            statement.execute();
+        }
+    }
+
+    /**
+     * All rows in one JDBC batch and one transaction
+     */
+    @Benchmark
+    public int[] insertBatched() throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < rows; i++) {
+                bind(i);
+                statement.addBatch();
+            }
+            int[] result = statement.executeBatch();
+            connection.commit();
+            return result;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void bind(int i) throws SQLException {
+        statement.setString(1, "6f1c1e2a-3b7d-4c55-9e0f-2d8a7b9c1e34");
+        statement.setString(2, "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82");
+        statement.setString(3, MESSAGE);
+        statement.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+        statement.setNull(5, Types.TIMESTAMP);
+        statement.setLong(6, i);
+    }
+}
@@ -0,0 +1,96 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.tools.loadtest.EmbeddedBroker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-way latency and throughput of the MQTT middleware through a loopback broker:
+ * publish messages and wait until the subscribing Dongle has delivered them (same
+ * shape as LocalMiddlewareBenchmark, for comparison with the in-process bus)
+ * <p>
+ * Messages are published at QoS 1: the broker may drop QoS 0 messages, which would
+ * leave the benchmark waiting forever.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MqttLoopbackBenchmark {
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+    private static final int PORT = 18830;
+    private static final int BATCH = 100;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final byte[] payload = new byte[256];
+    private EmbeddedBroker broker;
+    private Dongle publisher;
+    private Dongle subscriber;
+    private long published = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new EmbeddedBroker(PORT, 65536);
+        broker.start();
+
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("broker", broker.getAddress());
+        options.put("brokers", broker.getAddress());
+        options.put("qos", 1);
+        options.put("max_in_flight", 1000);
+        publisher = new Dongle(UUID.randomUUID().toString());
+        publisher.init(options);
+        publisher.connect(null, null, null);
+        subscriber = new Dongle(UUID.randomUUID().toString());
+        subscriber.init(options);
+        subscriber.connect(null, null, null);
+        subscriber.subscribe("PRECISE/OpenICElite/DEFAULT/Data/#", null, new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.close();
+        subscriber.close();
+        broker.stop();
+    }
+
+    @Benchmark
+    public long publishAndDeliver() {
+        publisher.publishId(DEVICE_ID, payload, null);
+        published++;
+        while (delivered.get() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long publishBatchAndDeliver() {
+        for (int i = 0; i < BATCH; i++) {
+            publisher.publishId(DEVICE_ID, payload, null);
+        }
+        published += BATCH;
+        while (delivered.get() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+}
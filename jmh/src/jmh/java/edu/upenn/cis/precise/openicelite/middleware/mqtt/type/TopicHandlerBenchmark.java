@@ -0,0 +1,53 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.type;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Topic construction and parsing done for every published and logged message
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TopicHandlerBenchmark {
+    private static final String PROJECT = "DEFAULT";
+    private static final String DONGLE_ID = "6f1c1e2a-3b7d-4c55-9e0f-2d8a7b9c1e34";
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+
+    private final TopicHandler topicHandler = new TopicHandler();
+    private String dataTopic;
+
+    @Setup
+    public void setup() {
+        dataTopic = topicHandler.getDataTopic(PROJECT, DONGLE_ID, DEVICE_ID);
+    }
+
+    @Benchmark
+    public String getDataTopic() {
+        return topicHandler.getDataTopic(PROJECT, DONGLE_ID, DEVICE_ID);
+    }
+
+    @Benchmark
+    public ITopicHandler.TopicType getTopicType() {
+        return topicHandler.getTopicType(dataTopic);
+    }
+
+    @Benchmark
+    public String[] getTopicInfo() {
+        return topicHandler.getTopicInfo(dataTopic);
+    }
+
+    /**
+     * What LoggerH2 does for every data message
+     */
+    @Benchmark
+    public String[] getTopicTypeAndInfo() {
+        if (topicHandler.getTopicType(dataTopic) != ITopicHandler.TopicType.DATA) return null;
+        return topicHandler.getTopicInfo(dataTopic);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.upenn.cis.precise.openicelite.middleware.peer;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput of the peer middleware between two peers over loopback TCP:
+ * publish messages and wait until the subscribing peer has delivered them (same shape
+ * as MqttLoopbackBenchmark, for comparison with the broker path)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PeerMiddlewareBenchmark {
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+    private static final int BATCH = 100;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final byte[] payload = new byte[256];
+    private PeerMiddleware publisher;
+    private PeerMiddleware subscriber;
+    private long published = 0;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("listen_address", "127.0.0.1");
+        options.put("listen_port", 0);
+        subscriber = new PeerMiddleware("benchmark-subscriber");
+        subscriber.init(options);
+        subscriber.subscribe("PRECISE/OpenICElite/DEFAULT/Data/#", null, new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+        });
+        subscriber.connect(null, null, null);
+
+        options.put("peers", "127.0.0.1:" + subscriber.getListenPort());
+        publisher = new PeerMiddleware("benchmark-publisher");
+        publisher.init(options);
+        publisher.connect(null, null, null);
+
+        // Wait until the subscription has been advertised to the publisher
+        while (delivered.get() == 0) {
+            publisher.publishId(DEVICE_ID, payload, null);
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        published = delivered.get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.close();
+        subscriber.close();
+    }
+
+    @Benchmark
+    public long publishAndDeliver() {
+        publisher.publishId(DEVICE_ID, payload, null);
+        published++;
+        while (delivered.get() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long publishBatchAndDeliver() {
+        for (int i = 0; i < BATCH; i++) {
+            publisher.publishId(DEVICE_ID, payload, null);
+        }
+        published += BATCH;
+        while (delivered.get() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+}
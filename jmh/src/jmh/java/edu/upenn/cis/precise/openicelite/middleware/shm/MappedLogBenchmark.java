@@ -0,0 +1,56 @@
+package edu.upenn.cis.precise.openicelite.middleware.shm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append and read back a record through the shared memory-mapped log (including the
+ * CAS reservation and volatile commit taken by producers)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MappedLogBenchmark {
+    @Param({"64", "1024"})
+    public int size;
+
+    private final byte[] topic = "PRECISE/OpenICElite/DEFAULT/Data/dongle/device".getBytes(StandardCharsets.UTF_8);
+    private byte[] payload;
+    private Path file;
+    private MappedLog log;
+    private MappedLog.Reader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new byte[size];
+        file = Files.createTempFile("mapped-log-benchmark", ".log");
+        Files.delete(file);
+        log = MappedLog.open(file, 16 * 1024 * 1024);
+        reader = log.newReader();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        log.append(topic, payload, MappedLog.KIND_BYTES);
+    }
+
+    @Benchmark
+    public byte[] appendAndRead() throws IOException {
+        log.append(topic, payload, MappedLog.KIND_BYTES);
+        reader.next();
+        return reader.getPayload();
+    }
+}
@@ -0,0 +1,75 @@
+package edu.upenn.cis.precise.openicelite.middleware.shm;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-way latency of the shared memory middleware: publish a message and wait until
+ * the subscriber's thread has delivered it (same shape as MqttLoopbackBenchmark, for
+ * comparison with the MQTT path)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SharedMemoryMiddlewareBenchmark {
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final byte[] payload = new byte[256];
+    private Path file;
+    private SharedMemoryMiddleware publisher;
+    private SharedMemoryMiddleware subscriber;
+    private long published = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("shm-benchmark", ".log");
+        Files.delete(file);
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("log_file", file.toString());
+        publisher = new SharedMemoryMiddleware("benchmark-publisher");
+        publisher.init(options);
+        publisher.connect(null, null, null);
+        subscriber = new SharedMemoryMiddleware("benchmark-subscriber");
+        subscriber.init(options);
+        subscriber.connect(null, null, null);
+        subscriber.subscribe("PRECISE/OpenICElite/DEFAULT/Data/#", null, new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                delivered.lazySet(delivered.get() + 1);
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        publisher.close();
+        subscriber.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long publishAndDeliver() {
+        publisher.publishId(DEVICE_ID, payload, null);
+        published++;
+        while (delivered.get() < published) {
+            Thread.yield();
+        }
+        return published;
+    }
+}
@@ -0,0 +1,39 @@
+package edu.upenn.cis.precise.openicelite.middleware.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for middleware implementations delivering messages to callbacks
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public final class CallbackSupport {
+    // Resolved once per callback class
+    private static final ClassValue<Boolean> BUFFER_AWARE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("handleMessage", ParsedTopic.class, ByteBuffer.class)
+                        .getDeclaringClass() != IMiddlewareCallback.class;
+            } catch (NoSuchMethodException ex) {
+                return false;
+            }
+        }
+    };
+
+    private CallbackSupport() {
+
+    }
+
+    /**
+     * Determine if a callback overrides handleMessage(ParsedTopic, ByteBuffer), in
+     * which case the middleware should deliver buffers to it; other callbacks receive
+     * arrays as before, without the extra copy of the default method
+     *
+     * @param callback middleware callback
+     * @return true if the callback handles buffers itself
+     */
+    public static boolean isBufferAware(IMiddlewareCallback callback) {
+        return callback != null && BUFFER_AWARE.get(callback.getClass());
+    }
+}
@@ -1,5 +1,7 @@
 package edu.upenn.cis.precise.openicelite.middleware.api;
 
+import java.nio.ByteBuffer;
+
 /**
  * Allow an application to be notified when asynchronous events
  * (message arrives, connection lost, etc.) occur
@@ -22,4 +24,25 @@ public interface IMiddlewareCallback {
      * @param message the payload as a string
      */
     void handleMessage(String topic, String message);
+
+    /**
+     * Handle new message from middleware as a buffer, with the topic already parsed
+     * <p>
+     * The payload lies between the position and the limit of the buffer, which may
+     * point into a buffer owned by the middleware (e.g., the received packet or a
+     * pooled decryption buffer). It is only valid until this method returns and must
+     * not be modified: implementations which keep the payload must copy it.
+     * <p>
+     * Middleware only use this method for callbacks which override it (see
+     * CallbackSupport.isBufferAware). By default, the payload is copied into a new
+     * array and handed to handleMessage(String, byte[]).
+     *
+     * @param topic   the parsed topic the message was delivered from
+     * @param message the payload as a buffer
+     */
+    default void handleMessage(ParsedTopic topic, ByteBuffer message) {
+        byte[] payload = new byte[message.remaining()];
+        message.duplicate().get(payload);
+        handleMessage(topic.getTopic(), payload);
+    }
 }
@@ -32,6 +32,17 @@ public interface ITopicHandler {
      */
     String getClientTopic(String projectName, String clientName);
 
+    /**
+     * Return a channel under the topic of corresponding client (e.g., for control
+     * messages addressed to that client)
+     *
+     * @param projectName project name
+     * @param clientName  client name
+     * @param channel     channel name
+     * @return corresponding topic name
+     */
+    String getClientTopic(String projectName, String clientName, String channel);
+
     /**
      * Return root topic for all statues (should be used by MapManager to subscribe to
      * all status topics)
@@ -68,6 +79,43 @@ public interface ITopicHandler {
      */
     String getDataTopic(String projectName, String dongleId, String deviceId);
 
+    /**
+     * Return root topic for all runtime telemetry (should be used by sysmon aggregator
+     * to subscribe to all telemetry topics)
+     *
+     * @param projectName project name
+     * @return corresponding topic name
+     */
+    String getSysmonBaseTopic(String projectName);
+
+    /**
+     * Return runtime telemetry topic based on project name, dongle ID
+     *
+     * @param projectName project name
+     * @param dongleId    dongle ID
+     * @return corresponding topic name
+     */
+    String getSysmonTopic(String projectName, String dongleId);
+
+    /**
+     * Return root topic for all alarms (should be used by alarm consumers to subscribe
+     * to all alarm topics)
+     *
+     * @param projectName project name
+     * @return corresponding topic name
+     */
+    String getAlarmBaseTopic(String projectName);
+
+    /**
+     * Return alarm topic of a device based on project name, dongle ID, and device ID
+     *
+     * @param projectName project name
+     * @param dongleId    dongle ID of the device
+     * @param deviceId    device ID
+     * @return corresponding topic name
+     */
+    String getAlarmTopic(String projectName, String dongleId, String deviceId);
+
     /**
      * Return topic type from published topic
      *
@@ -109,7 +157,20 @@ public interface ITopicHandler {
      */
     String getDeviceId(String topic);
 
+    /**
+     * Split a published topic into its parts at once
+     *
+     * @param topic topic name
+     * @return parsed topic (null if the topic is null)
+     */
+    default ParsedTopic parseTopic(String topic) {
+        if (topic == null) return null;
+        String[] info = getTopicInfo(topic);
+        if (info == null) return new ParsedTopic(topic, getTopicType(topic), null, null, null);
+        return new ParsedTopic(topic, getTopicType(topic), info[0], info[1], info[2]);
+    }
+
     public enum TopicType {
-        DATA, STATUS, CLIENT
+        DATA, STATUS, CLIENT, SYSMON, ALARM
     }
 }
@@ -0,0 +1,86 @@
+package edu.upenn.cis.precise.openicelite.middleware.api;
+
+/**
+ * A published topic split into its parts once, so that callbacks do not have to
+ * parse it again (see ITopicHandler.parseTopic)
+ * <p>
+ * Parts which do not apply to the topic (e.g., the device ID of a status topic) or
+ * which cannot be recognized are null.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public final class ParsedTopic {
+    private final String topic;
+    private final ITopicHandler.TopicType type;
+    private final String projectName;
+    private final String dongleId;
+    private final String deviceId;
+
+    /**
+     * Parsed topic constructor
+     *
+     * @param topic       full topic name
+     * @param type        topic type (null if unknown)
+     * @param projectName project name
+     * @param dongleId    dongle ID (client name for client topics)
+     * @param deviceId    device ID (channel for client topics)
+     */
+    public ParsedTopic(String topic, ITopicHandler.TopicType type, String projectName,
+                       String dongleId, String deviceId) {
+        this.topic = topic;
+        this.type = type;
+        this.projectName = projectName;
+        this.dongleId = dongleId;
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Return the full topic name
+     *
+     * @return topic name
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Return the topic type
+     *
+     * @return topic type (null if unknown)
+     */
+    public ITopicHandler.TopicType getType() {
+        return type;
+    }
+
+    /**
+     * Return the project name
+     *
+     * @return project name
+     */
+    public String getProjectName() {
+        return projectName;
+    }
+
+    /**
+     * Return the dongle ID (client name for client topics)
+     *
+     * @return dongle ID
+     */
+    public String getDongleId() {
+        return dongleId;
+    }
+
+    /**
+     * Return the device ID (channel for client topics)
+     *
+     * @return device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public String toString() {
+        return topic;
+    }
+}
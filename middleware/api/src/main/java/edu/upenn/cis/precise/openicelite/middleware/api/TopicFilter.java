@@ -0,0 +1,92 @@
+package edu.upenn.cis.precise.openicelite.middleware.api;
+
+/**
+ * MQTT-style topic filter with single-level ("+") and multi-level ("#") wildcards
+ * <p>
+ * Filter levels are split once on construction, so matching a topic does not
+ * allocate.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public final class TopicFilter {
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    private final String filter;
+    private final String[] levels;
+
+    public TopicFilter(String filter) {
+        if (filter == null || filter.isEmpty()) throw new IllegalArgumentException("Invalid topic filter");
+        this.filter = filter;
+        this.levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length - 1; i++) {
+            if (MULTI_LEVEL.equals(levels[i])) {
+                throw new IllegalArgumentException("Multi-level wildcard must be the last level - " + filter);
+            }
+        }
+    }
+
+    /**
+     * Return the filter as a string
+     *
+     * @return the filter
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * Determine if a filter contains any wildcard
+     *
+     * @return true if the filter has wildcards, false if it matches a single topic
+     */
+    public boolean hasWildcard() {
+        for (String level : levels) {
+            if (SINGLE_LEVEL.equals(level) || MULTI_LEVEL.equals(level)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determine if a published topic matches this filter
+     *
+     * @param topic topic name
+     * @return true if matched, false otherwise
+     */
+    public boolean matches(String topic) {
+        if (topic == null) return false;
+
+        int length = topic.length();
+        int pos = 0;
+        for (String level : levels) {
+            if (MULTI_LEVEL.equals(level)) return true;
+            if (pos > length) return false;
+
+            int end = topic.indexOf('/', pos);
+            if (end < 0) end = length;
+            if (!SINGLE_LEVEL.equals(level)) {
+                if (end - pos != level.length() || !topic.regionMatches(pos, level, 0, level.length())) {
+                    return false;
+                }
+            }
+            pos = end + 1;
+        }
+        return pos > length;
+    }
+
+    /**
+     * Determine if a published topic matches a filter
+     *
+     * @param filter topic filter (may include wildcards)
+     * @param topic  topic name
+     * @return true if matched, false otherwise
+     */
+    public static boolean matches(String filter, String topic) {
+        return new TopicFilter(filter).matches(topic);
+    }
+
+    @Override
+    public String toString() {
+        return filter;
+    }
+}
@@ -0,0 +1,157 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets
+ * <p>
+ * Values (nanoseconds) are counted in buckets whose width doubles every 16 buckets,
+ * which bounds the relative error of a reported percentile to about 6% over the
+ * whole long range. Recording is a few atomic increments on preallocated arrays and
+ * never allocates, so it is safe to use on hot paths from any number of threads.
+ * <p>
+ * Counts are cumulative since creation; consumers compute rates from deltas between
+ * snapshots.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS + 1) << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value
+     *
+     * @param nanos value in nanoseconds (negative values are recorded as 0)
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets.getAndIncrement(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Record the time elapsed since a start time taken from System.nanoTime()
+     *
+     * @param startNanos start time
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Take a consistent-enough snapshot of the histogram (concurrent recordings may
+     * be partially included)
+     *
+     * @return snapshot with count, mean, percentiles and max in nanoseconds
+     */
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long maxValue = max.get();
+        long mean = (total == 0) ? 0 : sum.sum() / total;
+        return new LatencySnapshot(total, mean,
+                percentile(counts, total, 0.50, maxValue),
+                percentile(counts, total, 0.90, maxValue),
+                percentile(counts, total, 0.99, maxValue),
+                percentile(counts, total, 0.999, maxValue),
+                maxValue);
+    }
+
+    /**
+     * Copy current bucket counts (e.g., to export samples recorded since a previous copy)
+     *
+     * @param counts destination array of getBucketCount() length, or null to allocate one
+     * @return bucket counts
+     */
+    public long[] getBucketCounts(long[] counts) {
+        if (counts == null || counts.length != BUCKETS) counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    public static int getBucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * Return a representative value of a bucket (its midpoint)
+     *
+     * @param index bucket index
+     * @return value in nanoseconds
+     */
+    public static long getBucketValue(int index) {
+        long lower = lowerBound(index);
+        return lower + (upperBound(index) - lower) / 2;
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long maxValue) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Map a non-negative value to its bucket
+     *
+     * @param value value to map
+     * @return bucket index
+     */
+    static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    /**
+     * Return the smallest value mapped to a bucket
+     *
+     * @param index bucket index
+     * @return lower bound (inclusive)
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        return (long) ((index & (SUB_COUNT - 1)) + SUB_COUNT) << shift;
+    }
+
+    /**
+     * Return the largest value mapped to a bucket
+     *
+     * @param index bucket index
+     * @return upper bound (inclusive)
+     */
+    static long upperBound(int index) {
+        return (index + 1 >= BUCKETS) ? Long.MAX_VALUE : lowerBound(index + 1) - 1;
+    }
+}
@@ -0,0 +1,265 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for a middleware instance
+ * <p>
+ * Recording methods are meant for hot paths: counters are striped adders and
+ * histograms are lock-free, so nothing is allocated or locked while recording.
+ * Values can be pulled directly through the getters (pull API) or through JMX once
+ * the instance is registered, under the domain "edu.upenn.cis.precise.openicelite".
+ * <p>
+ * Acknowledgment latency is measured from the start time the client attaches to the
+ * delivery token of each message (its user context), so an acknowledgment that
+ * completes before the publish call returns is still counted. QoS 0 messages are
+ * acknowledged once handed to the network.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MiddlewareMetrics implements MiddlewareMetricsMXBean {
+    private static final Logger logger = LogManager.getLogger(MiddlewareMetrics.class);
+
+    public static final String DOMAIN = "edu.upenn.cis.precise.openicelite";
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder publishedBytes = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder connectionsLost = new LongAdder();
+
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private final LatencyHistogram callbackLatency = new LatencyHistogram();
+    private final LatencyHistogram encryptLatency = new LatencyHistogram();
+    private final LatencyHistogram decryptLatency = new LatencyHistogram();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+
+    private ObjectName objectName;
+
+    // ** Recording ** //
+
+    /**
+     * Record a message handed to the client for delivery
+     *
+     * @param bytes      payload size on the wire
+     * @param startNanos time the publish call started (System.nanoTime())
+     */
+    public void recordPublish(int bytes, long startNanos) {
+        published.increment();
+        publishedBytes.add(bytes);
+        inFlight.increment();
+        publishLatency.recordSince(startNanos);
+    }
+
+    public void recordPublishFailure() {
+        publishFailures.increment();
+    }
+
+    /**
+     * Record a completed delivery (acknowledged by the broker for QoS 1 and 2)
+     * <p>
+     * May be called before recordPublish of the same message when the acknowledgment
+     * arrives before the publish call returns.
+     *
+     * @param startNanos time the publish call started, attached to the delivery token
+     *                   (0 if unknown)
+     */
+    public void recordAck(long startNanos) {
+        inFlight.decrement();
+        if (startNanos != 0) ackLatency.recordSince(startNanos);
+    }
+
+    /**
+     * Record an arrived message
+     *
+     * @param bytes payload size on the wire
+     */
+    public void recordReceive(int bytes) {
+        received.increment();
+        receivedBytes.add(bytes);
+    }
+
+    public void recordDuplicate() {
+        duplicates.increment();
+    }
+
+    public void recordCallback(long startNanos) {
+        callbackLatency.recordSince(startNanos);
+    }
+
+    public void recordEncrypt(long startNanos) {
+        encryptLatency.recordSince(startNanos);
+    }
+
+    public void recordDecrypt(long startNanos) {
+        decryptLatency.recordSince(startNanos);
+    }
+
+    public void recordConnect(long startNanos) {
+        connects.increment();
+        connectLatency.recordSince(startNanos);
+    }
+
+    public void recordConnectFailure() {
+        connectFailures.increment();
+    }
+
+    public void recordConnectionLost() {
+        connectionsLost.increment();
+    }
+
+    // ** JMX ** //
+
+    /**
+     * Register this instance as a platform MXBean (failures are logged and ignored)
+     *
+     * @param type middleware type (e.g., Dongle)
+     * @param name instance name (e.g., dongle ID)
+     */
+    public synchronized void register(String type, String name) {
+        if (objectName != null) return;
+        try {
+            ObjectName candidate = new ObjectName(DOMAIN + ":type=" + ObjectName.quote(type) +
+                    ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(candidate)) server.unregisterMBean(candidate);
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+        } catch (Exception ex) {
+            logger.warn("Failed to register metrics MXBean for " + name, ex);
+        }
+    }
+
+    /**
+     * Unregister this instance from the platform MBean server if registered
+     */
+    public synchronized void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception ex) {
+            logger.warn("Failed to unregister metrics MXBean " + objectName, ex);
+        }
+        objectName = null;
+    }
+
+    // ** Pull API ** //
+
+    @Override
+    public long getPublished() {
+        return published.sum();
+    }
+
+    @Override
+    public long getPublishedBytes() {
+        return publishedBytes.sum();
+    }
+
+    @Override
+    public long getPublishFailures() {
+        return publishFailures.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return Math.max(0, inFlight.sum());
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+
+    @Override
+    public long getConnectionsLost() {
+        return connectionsLost.sum();
+    }
+
+    @Override
+    public LatencySnapshot getPublishLatency() {
+        return publishLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getAckLatency() {
+        return ackLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getCallbackLatency() {
+        return callbackLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getEncryptLatency() {
+        return encryptLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDecryptLatency() {
+        return decryptLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getConnectLatency() {
+        return connectLatency.snapshot();
+    }
+
+    /**
+     * Return the underlying publish latency histogram (e.g., to export its samples)
+     *
+     * @return publish latency histogram
+     */
+    public LatencyHistogram getPublishHistogram() {
+        return publishLatency;
+    }
+
+    /**
+     * Return the underlying acknowledgment latency histogram
+     *
+     * @return acknowledgment latency histogram
+     */
+    public LatencyHistogram getAckHistogram() {
+        return ackLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "published=" + getPublished() + ", inFlight=" + getInFlight() +
+                ", received=" + getReceived() + ", connects=" + getConnects() +
+                ", connectionsLost=" + getConnectionsLost() + ", publishLatency={" +
+                getPublishLatency() + "}, ackLatency={" + getAckLatency() + "}";
+    }
+}
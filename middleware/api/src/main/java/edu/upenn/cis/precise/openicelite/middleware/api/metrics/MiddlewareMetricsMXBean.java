@@ -0,0 +1,43 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.metrics;
+
+/**
+ * JMX view of middleware metrics
+ * <p>
+ * Counters are cumulative since the middleware was created; latencies are in
+ * nanoseconds.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface MiddlewareMetricsMXBean {
+    long getPublished();
+
+    long getPublishedBytes();
+
+    long getPublishFailures();
+
+    long getInFlight();
+
+    long getReceived();
+
+    long getReceivedBytes();
+
+    long getDuplicates();
+
+    long getConnects();
+
+    long getConnectFailures();
+
+    long getConnectionsLost();
+
+    LatencySnapshot getPublishLatency();
+
+    LatencySnapshot getAckLatency();
+
+    LatencySnapshot getCallbackLatency();
+
+    LatencySnapshot getEncryptLatency();
+
+    LatencySnapshot getDecryptLatency();
+
+    LatencySnapshot getConnectLatency();
+}
@@ -0,0 +1,21 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.trace;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+/**
+ * Middleware callback which also receives trace metadata of traced messages
+ * <p>
+ * Untraced messages are still delivered through IMiddlewareCallback methods.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface ITraceCallback extends IMiddlewareCallback {
+    /**
+     * Handle new traced message from middleware as a byte array
+     *
+     * @param topic   the topic the message was delivered from
+     * @param message the payload as a byte array (trace header removed)
+     * @param trace   trace metadata and hop times so far
+     */
+    void handleMessage(String topic, byte[] message, TraceRecord trace);
+}
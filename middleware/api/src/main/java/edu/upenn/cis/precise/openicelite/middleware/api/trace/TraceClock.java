@@ -0,0 +1,28 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.trace;
+
+/**
+ * Microsecond clock used for trace timestamps
+ * <p>
+ * The clock is anchored to the wall clock once per process and advanced with
+ * System.nanoTime(), so timestamps are monotonic within a process and comparable
+ * across hosts once the clock offset between them is known.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public final class TraceClock {
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private TraceClock() {
+
+    }
+
+    /**
+     * Return current time in microseconds since epoch
+     *
+     * @return current time (microseconds)
+     */
+    public static long currentTimeMicros() {
+        return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+    }
+}
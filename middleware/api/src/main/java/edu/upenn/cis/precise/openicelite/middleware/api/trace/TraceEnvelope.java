@@ -0,0 +1,83 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.trace;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Optional trace header prepended to a message payload
+ * <p>
+ * Layout: magic (0x00 'T' 'R'), version (byte), sequence (long), source time (long),
+ * publish time (long), followed by the original (possibly encrypted) payload. The
+ * header is outside encryption so that the publish time can be stamped last.
+ * <p>
+ * Binary payloads (e.g., AES IVs or device samples) may start with the magic bytes
+ * too, so receivers must only unwrap messages of channels configured for tracing.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public final class TraceEnvelope {
+    public static final int HEADER_LENGTH = 28;
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = 'T';
+    private static final byte MAGIC_2 = 'R';
+    private static final byte VERSION = 1;
+
+    private TraceEnvelope() {
+
+    }
+
+    /**
+     * Prepend a trace header to a payload
+     *
+     * @param sequence    per-device sequence number
+     * @param sourceTime  source time (microseconds)
+     * @param publishTime publish time (microseconds)
+     * @param payload     payload to wrap
+     * @return a new array with header and payload
+     */
+    public static byte[] wrap(long sequence, long sourceTime, long publishTime, byte[] payload) {
+        byte[] message = new byte[HEADER_LENGTH + payload.length];
+        ByteBuffer.wrap(message)
+                .put(MAGIC_0).put(MAGIC_1).put(MAGIC_2).put(VERSION)
+                .putLong(sequence)
+                .putLong(sourceTime)
+                .putLong(publishTime)
+                .put(payload);
+        return message;
+    }
+
+    /**
+     * Determine if a message carries a trace header
+     *
+     * @param message message as received
+     * @return true if traced
+     */
+    public static boolean isTraced(byte[] message) {
+        return message != null && message.length >= HEADER_LENGTH
+                && message[0] == MAGIC_0 && message[1] == MAGIC_1
+                && message[2] == MAGIC_2 && message[3] == VERSION;
+    }
+
+    /**
+     * Read the trace header of a traced message
+     *
+     * @param message traced message
+     * @return trace record with sequence, source and publish times
+     */
+    public static TraceRecord read(byte[] message) {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        return new TraceRecord(buffer.getLong(4), buffer.getLong(12), buffer.getLong(20));
+    }
+
+    /**
+     * Strip the trace header from a message (returned as is if not traced)
+     *
+     * @param message message as received
+     * @return original payload
+     */
+    public static byte[] unwrap(byte[] message) {
+        if (!isTraced(message)) return message;
+        return Arrays.copyOfRange(message, HEADER_LENGTH, message.length);
+    }
+}
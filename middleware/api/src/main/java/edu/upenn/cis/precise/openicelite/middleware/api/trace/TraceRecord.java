@@ -0,0 +1,64 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.trace;
+
+/**
+ * Trace metadata of a delivered message and the time it reached each hop
+ * <p>
+ * Source and publish times come from the publisher clock; receive and decrypt
+ * times from the subscriber clock (all in microseconds, see TraceClock).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class TraceRecord {
+    private final long sequence;
+    private final long sourceTime;
+    private final long publishTime;
+    private long receiveTime;
+    private long decryptTime;
+
+    /**
+     * Trace record constructor
+     *
+     * @param sequence    per-device sequence number
+     * @param sourceTime  time the sample was handed to the middleware by the driver
+     * @param publishTime time the (encrypted) message was handed to the network client
+     */
+    public TraceRecord(long sequence, long sourceTime, long publishTime) {
+        this.sequence = sequence;
+        this.sourceTime = sourceTime;
+        this.publishTime = publishTime;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getSourceTime() {
+        return sourceTime;
+    }
+
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    public void setReceiveTime(long receiveTime) {
+        this.receiveTime = receiveTime;
+    }
+
+    public long getDecryptTime() {
+        return decryptTime;
+    }
+
+    public void setDecryptTime(long decryptTime) {
+        this.decryptTime = decryptTime;
+    }
+
+    @Override
+    public String toString() {
+        return "seq=" + sequence + ", source=" + sourceTime + ", publish=" + publishTime +
+                ", receive=" + receiveTime + ", decrypt=" + decryptTime;
+    }
+}
@@ -0,0 +1,131 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.trace;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-hop and per-device latency statistics of traced messages
+ * <p>
+ * Hops:
+ * - publish:   source to publish (publisher clock, includes encryption)
+ * - transit:   publish to receive (network and broker, corrected by clock offset)
+ * - decrypt:   receive to decrypt (subscriber clock)
+ * - commit:    decrypt to commit (subscriber clock, e.g., database insert)
+ * <p>
+ * End-to-end latency (source to commit, corrected by clock offset) is kept per device,
+ * together with gaps in sequence numbers (lost or reordered messages).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class TraceStats {
+    private final LatencyHistogram publish = new LatencyHistogram();
+    private final LatencyHistogram transit = new LatencyHistogram();
+    private final LatencyHistogram decrypt = new LatencyHistogram();
+    private final LatencyHistogram commit = new LatencyHistogram();
+    private final ConcurrentHashMap<String, DeviceTrace> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Record a traced message once committed
+     *
+     * @param deviceId   device ID the message belongs to
+     * @param trace      trace record with receive and decrypt times
+     * @param offset     publisher clock minus subscriber clock (microseconds)
+     * @param commitTime commit time (microseconds, subscriber clock)
+     */
+    public void record(String deviceId, TraceRecord trace, long offset, long commitTime) {
+        publish.record((trace.getPublishTime() - trace.getSourceTime()) * 1000);
+        transit.record((trace.getReceiveTime() - (trace.getPublishTime() - offset)) * 1000);
+        decrypt.record((trace.getDecryptTime() - trace.getReceiveTime()) * 1000);
+        commit.record((commitTime - trace.getDecryptTime()) * 1000);
+
+        DeviceTrace device = devices.get(deviceId);
+        if (device == null) {
+            device = devices.computeIfAbsent(deviceId, id -> new DeviceTrace());
+        }
+        device.record(trace.getSequence(), (commitTime - (trace.getSourceTime() - offset)) * 1000);
+    }
+
+    public LatencySnapshot getPublishLatency() {
+        return publish.snapshot();
+    }
+
+    public LatencySnapshot getTransitLatency() {
+        return transit.snapshot();
+    }
+
+    public LatencySnapshot getDecryptLatency() {
+        return decrypt.snapshot();
+    }
+
+    public LatencySnapshot getCommitLatency() {
+        return commit.snapshot();
+    }
+
+    /**
+     * Return IDs of all traced devices
+     *
+     * @return sorted list of device IDs
+     */
+    public List<String> getDeviceIds() {
+        List<String> ids = new ArrayList<>(devices.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Return end-to-end latency of a device
+     *
+     * @param deviceId device ID
+     * @return latency snapshot (null if device was never traced)
+     */
+    public LatencySnapshot getEndToEndLatency(String deviceId) {
+        DeviceTrace device = devices.get(deviceId);
+        return (device == null) ? null : device.endToEnd.snapshot();
+    }
+
+    /**
+     * Return number of sequence gaps observed for a device
+     *
+     * @param deviceId device ID
+     * @return number of missing or reordered messages
+     */
+    public long getGaps(String deviceId) {
+        DeviceTrace device = devices.get(deviceId);
+        return (device == null) ? 0 : device.gaps;
+    }
+
+    /**
+     * Format all statistics as a human readable report (one line per hop and device)
+     *
+     * @return report
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("publish: ").append(getPublishLatency()).append('\n');
+        builder.append("transit: ").append(getTransitLatency()).append('\n');
+        builder.append("decrypt: ").append(getDecryptLatency()).append('\n');
+        builder.append("commit:  ").append(getCommitLatency());
+        for (String id : getDeviceIds()) {
+            builder.append('\n').append(id).append(": ").append(getEndToEndLatency(id))
+                    .append(", gaps=").append(getGaps(id));
+        }
+        return builder.toString();
+    }
+
+    private static class DeviceTrace {
+        private final LatencyHistogram endToEnd = new LatencyHistogram();
+        private volatile long lastSequence = -1;
+        private volatile long gaps = 0;
+
+        private synchronized void record(long sequence, long latency) {
+            endToEnd.record(latency);
+            if (lastSequence >= 0 && sequence != lastSequence + 1) gaps++;
+            lastSequence = sequence;
+        }
+    }
+}
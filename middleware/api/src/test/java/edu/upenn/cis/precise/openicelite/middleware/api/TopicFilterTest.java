@@ -0,0 +1,101 @@
+package edu.upenn.cis.precise.openicelite.middleware.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class TopicFilterTest {
+    @Test
+    public void matchesExactTopicOnly() {
+        TopicFilter filter = new TopicFilter("a/b/c");
+        assertTrue(filter.matches("a/b/c"));
+        assertFalse(filter.matches("a/b"));
+        assertFalse(filter.matches("a/b/c/d"));
+        assertFalse(filter.matches("a/b/cd"));
+        assertFalse(filter.matches("a/bb/c"));
+        assertFalse(filter.matches("a/b/c/"));
+        assertFalse(filter.matches(null));
+        assertFalse(filter.hasWildcard());
+    }
+
+    @Test
+    public void matchesOneLevelWithSingleLevelWildcard() {
+        TopicFilter filter = new TopicFilter("a/+/c");
+        assertTrue(filter.matches("a/b/c"));
+        assertTrue(filter.matches("a/xyz/c"));
+        assertTrue(filter.matches("a//c"));
+        assertFalse(filter.matches("a/b/x/c"));
+        assertFalse(filter.matches("a/c"));
+        assertFalse(filter.matches("a/b/c/d"));
+        assertTrue(filter.hasWildcard());
+
+        TopicFilter trailing = new TopicFilter("a/+");
+        assertTrue(trailing.matches("a/b"));
+        assertTrue(trailing.matches("a/"));
+        assertFalse(trailing.matches("a"));
+        assertFalse(trailing.matches("a/b/c"));
+
+        TopicFilter leading = new TopicFilter("+/+");
+        assertTrue(leading.matches("/finance"));
+        assertTrue(leading.matches("a/b"));
+        assertFalse(leading.matches("a"));
+    }
+
+    @Test
+    public void matchesRemainingLevelsWithMultiLevelWildcard() {
+        TopicFilter filter = new TopicFilter("a/b/#");
+        assertTrue(filter.matches("a/b"));
+        assertTrue(filter.matches("a/b/"));
+        assertTrue(filter.matches("a/b/c"));
+        assertTrue(filter.matches("a/b/c/d/e"));
+        assertFalse(filter.matches("a"));
+        assertFalse(filter.matches("a/bc"));
+        assertFalse(filter.matches("a/c/b"));
+
+        TopicFilter all = new TopicFilter("#");
+        assertTrue(all.matches("a"));
+        assertTrue(all.matches("a/b/c"));
+        assertTrue(all.matches("/a"));
+        assertTrue(all.hasWildcard());
+    }
+
+    @Test
+    public void combinesWildcards() {
+        TopicFilter filter = new TopicFilter("PRECISE/OpenICElite/+/Data/+/#");
+        assertTrue(filter.matches("PRECISE/OpenICElite/DEFAULT/Data/device-1"));
+        assertTrue(filter.matches("PRECISE/OpenICElite/DEFAULT/Data/device-1/ecg"));
+        assertFalse(filter.matches("PRECISE/OpenICElite/DEFAULT/Info/device-1"));
+        assertFalse(filter.matches("PRECISE/OpenICElite/DEFAULT/Data"));
+    }
+
+    @Test
+    public void treatsWildcardCharactersInsideLevelsLiterally() {
+        TopicFilter filter = new TopicFilter("a/b+/c#");
+        assertFalse(filter.hasWildcard());
+        assertTrue(filter.matches("a/b+/c#"));
+        assertFalse(filter.matches("a/bx/cd"));
+    }
+
+    @Test
+    public void matchesWithStaticHelper() {
+        assertTrue(TopicFilter.matches("a/+/c", "a/b/c"));
+        assertFalse(TopicFilter.matches("a/+/c", "a/b/d"));
+        assertEquals("a/+/c", new TopicFilter("a/+/c").getFilter());
+        assertEquals("a/+/c", new TopicFilter("a/+/c").toString());
+    }
+
+    @Test
+    public void rejectsInvalidFilters() {
+        for (String filter : new String[]{null, "", "a/#/b", "#/a"}) {
+            try {
+                new TopicFilter(filter);
+                fail("Expected " + filter + " to be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package edu.upenn.cis.precise.openicelite.middleware.api.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MiddlewareMetricsTest {
+    @Test
+    public void countsAckAfterPublish() {
+        MiddlewareMetrics metrics = new MiddlewareMetrics();
+        long start = System.nanoTime();
+        metrics.recordPublish(256, start);
+        assertEquals(1, metrics.getInFlight());
+        metrics.recordAck(start);
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getPublished());
+        assertEquals(256, metrics.getPublishedBytes());
+        assertEquals(1, metrics.getAckHistogram().getCount());
+    }
+
+    @Test
+    public void countsAckArrivingBeforePublishReturns() {
+        MiddlewareMetrics metrics = new MiddlewareMetrics();
+        long start = System.nanoTime();
+        metrics.recordAck(start);
+        metrics.recordPublish(256, start);
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getAckHistogram().getCount());
+
+        // Later messages are not affected by the early ack
+        long next = System.nanoTime();
+        metrics.recordPublish(256, next);
+        assertEquals(1, metrics.getInFlight());
+        metrics.recordAck(next);
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(2, metrics.getAckHistogram().getCount());
+    }
+
+    @Test
+    public void ignoresLatencyOfAckWithoutStart() {
+        MiddlewareMetrics metrics = new MiddlewareMetrics();
+        metrics.recordPublish(16, System.nanoTime());
+        metrics.recordAck(0);
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(0, metrics.getAckHistogram().getCount());
+    }
+}
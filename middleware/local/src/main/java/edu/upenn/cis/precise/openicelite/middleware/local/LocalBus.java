@@ -0,0 +1,65 @@
+package edu.upenn.cis.precise.openicelite.middleware.local;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process message bus shared by all local middleware clients with the same bus name
+ * <p>
+ * Publishing matches the topic against every subscription filter and hands the
+ * payload reference to the ring buffer of each matched subscription; no copy,
+ * serialization or encryption is involved.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class LocalBus {
+    private static final ConcurrentHashMap<String, LocalBus> buses = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private LocalBus(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Return the bus with a given name, creating it if needed
+     *
+     * @param name bus name
+     * @return the shared bus
+     */
+    static LocalBus get(String name) {
+        return buses.computeIfAbsent(name, LocalBus::new);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void add(Subscription subscription) {
+        subscriptions.add(subscription);
+        subscription.start();
+    }
+
+    void remove(Subscription subscription) {
+        if (subscriptions.remove(subscription)) subscription.stop();
+    }
+
+    /**
+     * Deliver a message reference to all matching subscriptions
+     *
+     * @param topic   the topic to deliver the message to
+     * @param payload message payload (byte array or string)
+     * @return number of subscriptions the message was delivered to
+     */
+    int publish(String topic, Object payload) {
+        int delivered = 0;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.matches(topic)) {
+                subscription.offer(topic, payload);
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,316 @@
+package edu.upenn.cis.precise.openicelite.middleware.local;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.TopicFilter;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process middleware for applications and drivers running in the same JVM
+ * <p>
+ * All clients connected to the same bus name exchange messages through lock-free
+ * ring buffers with MQTT-style topic matching (same topic scheme as the MQTT
+ * middleware). Payloads are passed by reference: byte arrays are delivered to
+ * handleMessage(String, byte[]) and strings to handleMessage(String, String), without
+ * serialization or encryption. Publishers must not modify a payload after publishing.
+ * <p>
+ * Available options for initialization:
+ * - "bus_name":            name of the in-process bus to join (default to DEFAULT)
+ * - "project_name":        project name will be used as a base topic separation
+ *                              (default to DEFAULT)
+ * - "queue_size":          ring buffer capacity per subscription (default to 4096)
+ * - "drop_when_full":      drop messages for a subscriber whose ring is full instead
+ *                              of waiting (default to false)
+ * - "full_timeout":        maximum time in milliseconds to wait for a full subscriber
+ *                              before dropping the message (default to 1000)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LocalMiddleware implements IMiddleware {
+    private static final Logger logger = LogManager.getLogger(LocalMiddleware.class);
+
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+    private static final long DEFAULT_FULL_TIMEOUT = 1000;
+
+    private final String dongleId;
+
+    // Overwritten-able configuration
+    private String busName = "DEFAULT";
+    private String projectName = "DEFAULT";
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private boolean dropWhenFull = false;
+    private long fullTimeout = DEFAULT_FULL_TIMEOUT;
+
+    // Bus
+    private final TopicHandler topicHandler = new TopicHandler();
+    private final Gson gson = new Gson();
+    private final HashMap<String, Subscription> subscriptions = new HashMap<>();
+    private final AtomicBoolean isConnected = new AtomicBoolean(false);
+    private volatile LocalBus bus;
+    private volatile IMiddlewareCallback callback;
+
+    // Dongle information
+    private final DongleInfo info;
+
+    /**
+     * Local middleware constructor
+     *
+     * @param dongleId dongle ID (UUID)
+     */
+    public LocalMiddleware(String dongleId) {
+        this.dongleId = dongleId;
+        this.info = new DongleInfo(dongleId);
+    }
+
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        logger.info("Initializing local middleware...");
+
+        if (options != null) {
+            if (options.containsKey("bus_name")) {
+                busName = (String) options.get("bus_name");
+            }
+            if (options.containsKey("project_name")) {
+                projectName = (String) options.get("project_name");
+            }
+            if (options.containsKey("queue_size")) {
+                queueSize = Integer.parseInt(options.get("queue_size").toString());
+            }
+            if (options.containsKey("drop_when_full")) {
+                dropWhenFull = Boolean.parseBoolean(options.get("drop_when_full").toString());
+            }
+            if (options.containsKey("full_timeout")) {
+                fullTimeout = Long.parseLong(options.get("full_timeout").toString());
+            }
+        }
+    }
+
+    /**
+     * Join an in-process bus. Connecting never fails.
+     *
+     * @param address bus name (overrides "bus_name" option if not null)
+     * @param name    ignored
+     * @param options ignored
+     */
+    @Override
+    public void connect(String address, String name, HashMap<String, Object> options) {
+        if (address != null) busName = address;
+        bus = LocalBus.get(busName);
+        isConnected.set(true);
+        logger.info("Dongle " + dongleId + " is connected to local bus " + busName + "!");
+        reportStatus();
+    }
+
+    /**
+     * Leave the bus and drop all subscriptions
+     */
+    @Override
+    public void disconnect() {
+        if (isConnected.getAndSet(false)) {
+            List<Subscription> removed;
+            synchronized (subscriptions) {
+                removed = new ArrayList<>(subscriptions.values());
+                subscriptions.clear();
+            }
+            for (Subscription subscription : removed) {
+                bus.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Close and release all associated resource
+     */
+    @Override
+    public void close() {
+        disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected.get();
+    }
+
+    @Override
+    public void waitConnected() {
+        while (!isConnected.get()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Subscribe to a topic; messages are delivered on a dedicated dispatcher thread
+     *
+     * @param topic    the topic to subscribe to
+     * @param options  additional subscribe options ("queue_size", "drop_when_full",
+     *                 "full_timeout")
+     * @param callback the class to callback for related events
+     */
+    @Override
+    public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        if (bus == null) {
+            logger.error("Failed to subscribe to topic: " + topic + " - not connected");
+            return;
+        }
+        if (callback != null) {
+            this.callback = callback;
+        }
+        IMiddlewareCallback target = this.callback;
+        if (target == null) {
+            logger.error("Failed to subscribe to topic: " + topic + " - no callback");
+            return;
+        }
+
+        int size = queueSize;
+        boolean drop = dropWhenFull;
+        long timeout = fullTimeout;
+        if (options != null) {
+            if (options.containsKey("queue_size")) size = Integer.parseInt(options.get("queue_size").toString());
+            if (options.containsKey("drop_when_full")) {
+                drop = Boolean.parseBoolean(options.get("drop_when_full").toString());
+            }
+            if (options.containsKey("full_timeout")) {
+                timeout = Long.parseLong(options.get("full_timeout").toString());
+            }
+        }
+
+        logger.info("Subscribing to " + topic + "...");
+        Subscription subscription = new Subscription(new TopicFilter(topic), target, size, drop, timeout);
+        Subscription previous;
+        synchronized (subscriptions) {
+            previous = subscriptions.put(topic, subscription);
+        }
+        if (previous != null) bus.remove(previous);
+        bus.add(subscription);
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        Subscription subscription;
+        synchronized (subscriptions) {
+            subscription = subscriptions.remove(topic);
+        }
+        if (subscription != null) {
+            logger.info("Un-subscribing to " + topic + "...");
+            bus.remove(subscription);
+        }
+    }
+
+    @Override
+    public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+        LocalBus target = bus;
+        if (target != null) target.publish(topic, message);
+    }
+
+    @Override
+    public void publish(String topic, String message, HashMap<String, Object> options) {
+        LocalBus target = bus;
+        if (target != null) target.publish(topic, message);
+    }
+
+    @Override
+    public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        publish(topicHandler.getDataTopic(projectName, dongleId, deviceId), message, options);
+    }
+
+    @Override
+    public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        publish(topicHandler.getDataTopic(projectName, dongleId, deviceId), message, options);
+    }
+
+    @Override
+    public void setCallback(IMiddlewareCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Add information about device connected to the dongle, then report to status topic
+     *
+     * @param info device information
+     */
+    @Override
+    public void addDevice(DeviceInfo info) {
+        synchronized (this.info) {
+            this.info.addDevice(info);
+        }
+        reportStatus();
+    }
+
+    /**
+     * Remove device from dongle, then report to status topic
+     *
+     * @param deviceId device ID as a string
+     */
+    @Override
+    public void removeDevice(String deviceId) {
+        synchronized (this.info) {
+            this.info.removeDevice(deviceId);
+        }
+        reportStatus();
+    }
+
+    /**
+     * Return the number of messages dropped for full subscribers of this client
+     *
+     * @return number of dropped messages
+     */
+    public long getDropped() {
+        long dropped = 0;
+        synchronized (subscriptions) {
+            for (Subscription subscription : subscriptions.values()) {
+                dropped += subscription.getDropped();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Return the number of messages waiting for delivery to subscribers of this client
+     *
+     * @return number of pending messages
+     */
+    public int getPending() {
+        int pending = 0;
+        synchronized (subscriptions) {
+            for (Subscription subscription : subscriptions.values()) {
+                pending += subscription.getPending();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Publish dongle information to status topic (there is no periodic pinger on a
+     * local bus, so status is reported on every change)
+     */
+    private void reportStatus() {
+        if (!isConnected.get()) return;
+        String message;
+        synchronized (info) {
+            message = gson.toJson(info);
+        }
+        publish(topicHandler.getStatusTopic(projectName, dongleId), message, null);
+    }
+}
@@ -0,0 +1,116 @@
+package edu.upenn.cis.precise.openicelite.middleware.local;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer, single-consumer ring buffer of (topic, payload)
+ * references
+ * <p>
+ * Each slot carries a sequence number: producers claim a position with a CAS on the
+ * tail and publish the slot by advancing its sequence, the consumer releases the
+ * slot for the next lap after reading it. Topics and payloads are kept in parallel
+ * arrays so that offering a message does not allocate.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class RingBuffer {
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final String[] topics;
+    private final Object[] payloads;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    /**
+     * Ring buffer constructor
+     *
+     * @param size minimum capacity (rounded up to a power of two)
+     */
+    RingBuffer(int size) {
+        if (size < 1) throw new IllegalArgumentException("Invalid ring buffer size - " + size);
+        this.capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.topics = new String[capacity];
+        this.payloads = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Offer a message to the ring (safe to call from any thread)
+     *
+     * @param topic   the topic the message was published to
+     * @param payload the message payload reference
+     * @return true if offered, false if the ring is full
+     */
+    boolean offer(String topic, Object payload) {
+        long pos;
+        while (true) {
+            pos = tail.get();
+            long diff = sequences.get((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+
+        int index = (int) pos & mask;
+        topics[index] = topic;
+        payloads[index] = payload;
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Drain available messages to a handler (must be called from the consumer thread only)
+     *
+     * @param handler the handler to receive messages
+     * @param limit   maximum number of messages to drain
+     * @return number of drained messages
+     */
+    int drain(Handler handler, int limit) {
+        int count = 0;
+        while (count < limit) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) break;
+
+            String topic = topics[index];
+            Object payload = payloads[index];
+            topics[index] = null;
+            payloads[index] = null;
+            sequences.lazySet(index, head + capacity);
+            head++;
+            count++;
+
+            handler.handle(topic, payload);
+        }
+        return count;
+    }
+
+    /**
+     * Return approximate number of messages waiting in the ring
+     *
+     * @return number of pending messages
+     */
+    int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Consumer of drained messages
+     */
+    interface Handler {
+        void handle(String topic, Object payload);
+    }
+}
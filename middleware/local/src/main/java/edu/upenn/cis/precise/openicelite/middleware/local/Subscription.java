@@ -0,0 +1,181 @@
+package edu.upenn.cis.precise.openicelite.middleware.local;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.TopicFilter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A subscription on a local bus with its own ring buffer and dispatcher thread
+ * <p>
+ * The dispatcher spins for a short while when the ring is empty before parking,
+ * so a busy subscriber is woken up without any system call.
+ * <p>
+ * Unless dropping when full, a publisher waits for a full ring up to a timeout and
+ * then drops the message with an error. Messages published to a full ring from its
+ * own dispatcher thread (a callback publishing to a topic it is subscribed to) are
+ * dropped right away, since waiting would block the only thread draining the ring.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class Subscription implements RingBuffer.Handler {
+    private static final Logger logger = LogManager.getLogger(Subscription.class);
+
+    private static final int DRAIN_LIMIT = 256;
+    private static final int SPIN_TRIES = 1000;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long WAIT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final TopicFilter filter;
+    private final IMiddlewareCallback callback;
+    private final RingBuffer ring;
+    private final boolean dropWhenFull;
+    private final long fullTimeoutNanos;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean warnedRecursive = false;
+
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+    private volatile boolean parked = false;
+
+    /**
+     * Subscription constructor
+     *
+     * @param filter       topic filter (may include wildcards)
+     * @param callback     the class to callback for delivered messages
+     * @param queueSize    ring buffer capacity
+     * @param dropWhenFull drop new messages instead of waiting when the ring is full
+     * @param fullTimeout  maximum time to wait for a full ring before dropping (ms)
+     */
+    Subscription(TopicFilter filter, IMiddlewareCallback callback, int queueSize, boolean dropWhenFull,
+                 long fullTimeout) {
+        this.filter = filter;
+        this.callback = callback;
+        this.ring = new RingBuffer(queueSize);
+        this.dropWhenFull = dropWhenFull;
+        this.fullTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(fullTimeout);
+        this.dispatcher = new Thread(this::dispatch, "LocalBus-" + filter);
+        this.dispatcher.setDaemon(true);
+    }
+
+    void start() {
+        dispatcher.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+    }
+
+    boolean matches(String topic) {
+        return filter.matches(topic);
+    }
+
+    TopicFilter getFilter() {
+        return filter;
+    }
+
+    IMiddlewareCallback getCallback() {
+        return callback;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    int getPending() {
+        return ring.size();
+    }
+
+    /**
+     * Enqueue a message reference for delivery
+     *
+     * @param topic   the topic the message was published to
+     * @param payload message payload (byte array or string)
+     */
+    void offer(String topic, Object payload) {
+        if (!ring.offer(topic, payload)) {
+            if (dropWhenFull || !running || isDispatcher(topic) || !offerWaiting(topic, payload)) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        if (parked) LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Check whether a message to the full ring is published from its own dispatcher
+     *
+     * @return true if so (the message must be dropped)
+     */
+    private boolean isDispatcher(String topic) {
+        if (Thread.currentThread() != dispatcher) return false;
+        if (!warnedRecursive) {
+            warnedRecursive = true;
+            logger.warn("Subscriber " + filter + " publishes to its own full queue - dropping message from " +
+                    topic + " (further drops are only counted)");
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the dispatcher to free a slot of the full ring, up to the timeout
+     *
+     * @return true if offered, false if timed out or stopped
+     */
+    private boolean offerWaiting(String topic, Object payload) {
+        long start = System.nanoTime();
+        int tries = 0;
+        do {
+            LockSupport.unpark(dispatcher);
+            if (tries++ < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+            }
+            if (ring.offer(topic, payload)) return true;
+        } while (running && System.nanoTime() - start < fullTimeoutNanos);
+        if (running) {
+            logger.error("Subscriber " + filter + " is full for " +
+                    TimeUnit.NANOSECONDS.toMillis(fullTimeoutNanos) + " ms - dropping message from " + topic);
+        }
+        return false;
+    }
+
+    @Override
+    public void handle(String topic, Object payload) {
+        try {
+            if (payload instanceof byte[]) {
+                callback.handleMessage(topic, (byte[]) payload);
+            } else {
+                callback.handleMessage(topic, (String) payload);
+            }
+        } catch (Exception ex) {
+            logger.error("Failed to deliver message from " + topic, ex);
+        }
+    }
+
+    private void dispatch() {
+        int idle = 0;
+        while (running) {
+            if (ring.drain(this, DRAIN_LIMIT) > 0) {
+                idle = 0;
+            } else if (idle < SPIN_TRIES) {
+                idle++;
+            } else {
+                parked = true;
+                // Re-check after announcing so that a concurrent offer is not missed
+                if (ring.size() == 0 && running) LockSupport.parkNanos(this, PARK_NANOS);
+                parked = false;
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Dispatcher of " + filter + " is exiting...");
+        }
+    }
+}
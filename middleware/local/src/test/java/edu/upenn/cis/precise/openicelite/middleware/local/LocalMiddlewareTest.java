@@ -0,0 +1,174 @@
+package edu.upenn.cis.precise.openicelite.middleware.local;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LocalMiddlewareTest {
+    private final List<LocalMiddleware> clients = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (LocalMiddleware client : clients) {
+            client.close();
+        }
+    }
+
+    @Test
+    public void deliversToMatchingFiltersOnly() throws Exception {
+        String bus = "test-match";
+        LocalMiddleware publisher = connect(bus, null);
+        LocalMiddleware subscriber = connect(bus, null);
+        CountDownLatch delivered = new CountDownLatch(2);
+        List<String> topics = new ArrayList<>();
+        subscriber.subscribe("a/+/c", null, callback((topic, message) -> {
+            synchronized (topics) {
+                topics.add(topic);
+            }
+            delivered.countDown();
+        }));
+        subscriber.subscribe("x/#", null, callback((topic, message) -> {
+            synchronized (topics) {
+                topics.add(topic);
+            }
+            delivered.countDown();
+        }));
+
+        publisher.publish("a/b/c", "1", null);
+        publisher.publish("a/b/d", "2", null);
+        publisher.publish("x/y/z", new byte[]{3}, null);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        synchronized (topics) {
+            assertEquals(2, topics.size());
+            assertTrue(topics.contains("a/b/c"));
+            assertTrue(topics.contains("x/y/z"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void callbackPublishingToItsOwnFullQueueDoesNotDeadlock() throws Exception {
+        String bus = "test-recursive";
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("queue_size", 2);
+        LocalMiddleware client = connect(bus, options);
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch last = new CountDownLatch(1);
+        client.subscribe("loop/#", null, callback((topic, message) -> {
+            received.incrementAndGet();
+            if (topic.equals("loop/seed")) {
+                // Fan out more messages than the queue holds from the dispatcher thread
+                for (int i = 0; i < 16; i++) {
+                    client.publish("loop/echo", "echo", null);
+                }
+            } else if (topic.equals("loop/last")) {
+                last.countDown();
+            }
+        }));
+
+        client.publish("loop/seed", "seed", null);
+        while (client.getDropped() == 0) {
+            Thread.sleep(1);
+        }
+        // The dispatcher is still draining: a later message is delivered
+        client.publish("loop/last", "last", null);
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        assertTrue(received.get() >= 3);
+    }
+
+    @Test(timeout = 10000)
+    public void publisherDropsAfterFullTimeout() throws Exception {
+        String bus = "test-timeout";
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("queue_size", 2);
+        options.put("full_timeout", 50);
+        LocalMiddleware publisher = connect(bus, null);
+        LocalMiddleware subscriber = connect(bus, options);
+        CountDownLatch release = new CountDownLatch(1);
+        subscriber.subscribe("stall", null, callback((topic, message) -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            publisher.publish("stall", "message", null);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+
+        assertTrue(subscriber.getDropped() > 0);
+        assertTrue("Publisher blocked for " + elapsed + " ms", elapsed < 5000);
+    }
+
+    @Test
+    public void publisherWaitsForSlowSubscriberWithinTimeout() throws Exception {
+        String bus = "test-wait";
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("queue_size", 2);
+        LocalMiddleware publisher = connect(bus, null);
+        LocalMiddleware subscriber = connect(bus, options);
+        AtomicInteger received = new AtomicInteger();
+        subscriber.subscribe("slow", null, callback((topic, message) -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            received.incrementAndGet();
+        }));
+
+        for (int i = 0; i < 50; i++) {
+            publisher.publish("slow", "message", null);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.get() < 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(50, received.get());
+        assertEquals(0, subscriber.getDropped());
+    }
+
+    private LocalMiddleware connect(String bus, HashMap<String, Object> options) {
+        LocalMiddleware client = new LocalMiddleware("client-" + clients.size());
+        client.init(options);
+        client.connect(bus, null, null);
+        clients.add(client);
+        return client;
+    }
+
+    private static IMiddlewareCallback callback(Handler handler) {
+        return new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                handler.handle(topic, message);
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                handler.handle(topic, message);
+            }
+        };
+    }
+
+    private interface Handler {
+        void handle(String topic, Object message);
+    }
+}
@@ -0,0 +1,215 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceClock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Estimate clock offsets between this client and dongles with a round-trip protocol
+ * over client topics (similar to NTP)
+ * <p>
+ * This client publishes "t0,replyTo" to the ClockPing channel of a dongle, which
+ * answers "dongleId,t0,t1,t2" to the ClockReply channel of the requester, where t1 and
+ * t2 are its receive and send times. With t3 as the reply arrival time:
+ * - offset = ((t1 - t0) + (t2 - t3)) / 2
+ * - delay  = (t3 - t0) - (t2 - t1)
+ * <p>
+ * The offset of the sample with the lowest delay among the last few samples is kept,
+ * since asymmetric queuing delays grow with the round-trip delay. All times are in
+ * microseconds (see TraceClock).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class ClockSync implements IMiddlewareCallback {
+    private static final Logger logger = LogManager.getLogger(ClockSync.class);
+
+    public static final String PING_CHANNEL = "ClockPing";
+    public static final String REPLY_CHANNEL = "ClockReply";
+
+    private static final int WINDOW = 8;
+
+    private final IMiddleware middleware;
+    private final ITopicHandler topicHandler;
+    private final String projectName;
+    private final String clientName;
+    private final ConcurrentHashMap<String, Estimate> estimates = new ConcurrentHashMap<>();
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private Thread pinger;
+
+    /**
+     * Clock synchronization constructor
+     *
+     * @param middleware   connected middleware to exchange pings
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     * @param clientName   name of this client (replies are sent to its client topic)
+     */
+    public ClockSync(IMiddleware middleware, ITopicHandler topicHandler,
+                     String projectName, String clientName) {
+        this.middleware = middleware;
+        this.topicHandler = topicHandler;
+        this.projectName = projectName;
+        this.clientName = clientName;
+    }
+
+    /**
+     * Subscribe to replies, then periodically ping all tracked dongles
+     *
+     * @param interval ping interval in seconds
+     */
+    public void start(int interval) {
+        if (isRunning.getAndSet(true)) return;
+        middleware.subscribe(topicHandler.getClientTopic(projectName, clientName, REPLY_CHANNEL),
+                null, this);
+
+        pinger = new Thread(() -> {
+            while (isRunning.get()) {
+                for (String dongleId : estimates.keySet()) {
+                    ping(dongleId);
+                }
+                try {
+                    Thread.sleep(interval * 1000L);
+                } catch (InterruptedException ex) {
+                    // ignore
+                }
+            }
+        }, "ClockSync-" + clientName);
+        pinger.setDaemon(true);
+        pinger.start();
+    }
+
+    /**
+     * Stop pinging dongles
+     */
+    public void stop() {
+        isRunning.set(false);
+        if (pinger != null) pinger.interrupt();
+    }
+
+    /**
+     * Start estimating clock offset of a dongle (pinged immediately the first time)
+     *
+     * @param dongleId dongle ID
+     */
+    public void track(String dongleId) {
+        if (estimates.putIfAbsent(dongleId, new Estimate()) == null && isRunning.get()) {
+            ping(dongleId);
+        }
+    }
+
+    /**
+     * Return current clock offset estimate of a dongle
+     *
+     * @param dongleId dongle ID
+     * @return dongle clock minus local clock in microseconds (0 if not estimated yet)
+     */
+    public long getOffset(String dongleId) {
+        Estimate estimate = estimates.get(dongleId);
+        return (estimate == null) ? 0 : estimate.offset;
+    }
+
+    /**
+     * Return round-trip delay of the sample used for the current offset estimate
+     *
+     * @param dongleId dongle ID
+     * @return delay in microseconds (-1 if not estimated yet)
+     */
+    public long getDelay(String dongleId) {
+        Estimate estimate = estimates.get(dongleId);
+        return (estimate == null) ? -1 : estimate.delay;
+    }
+
+    private void ping(String dongleId) {
+        String topic = topicHandler.getClientTopic(projectName, dongleId, PING_CHANNEL);
+        middleware.publish(topic, TraceClock.currentTimeMicros() + "," + clientName, null);
+    }
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        handleMessage(topic, new String(message, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Handle a reply from a dongle
+     *
+     * @param topic   the topic the message was delivered from
+     * @param message the reply as "dongleId,t0,t1,t2"
+     */
+    @Override
+    public void handleMessage(String topic, String message) {
+        long t3 = TraceClock.currentTimeMicros();
+        try {
+            String[] tokens = message.split(",");
+            Estimate estimate = estimates.get(tokens[0]);
+            if (estimate == null) return;
+            long t0 = Long.parseLong(tokens[1]);
+            long t1 = Long.parseLong(tokens[2]);
+            long t2 = Long.parseLong(tokens[3]);
+            estimate.add(((t1 - t0) + (t2 - t3)) / 2, (t3 - t0) - (t2 - t1));
+            if (logger.isDebugEnabled()) {
+                logger.debug("Clock offset of " + tokens[0] + ": " + estimate.offset +
+                        "us (delay " + estimate.delay + "us)");
+            }
+        } catch (Exception ex) {
+            logger.warn("Invalid clock reply: " + message);
+        }
+    }
+
+    /**
+     * Build the reply of a dongle to a ping
+     *
+     * @param dongleId    ID of the replying dongle
+     * @param ping        ping message as "t0,replyTo"
+     * @param receiveTime time the ping arrived (microseconds)
+     * @return reply message, or null if the ping is invalid
+     */
+    static String reply(String dongleId, String ping, long receiveTime) {
+        int separator = ping.indexOf(',');
+        if (separator <= 0) return null;
+        return dongleId + "," + ping.substring(0, separator) + "," + receiveTime + "," +
+                TraceClock.currentTimeMicros();
+    }
+
+    /**
+     * Return the client name to reply to from a ping
+     *
+     * @param ping ping message as "t0,replyTo"
+     * @return client name, or null if the ping is invalid
+     */
+    static String replyTo(String ping) {
+        int separator = ping.indexOf(',');
+        return (separator <= 0 || separator == ping.length() - 1) ? null : ping.substring(separator + 1);
+    }
+
+    /**
+     * Sliding window of offset samples, keeping the one with minimum delay
+     */
+    private static class Estimate {
+        private final long[] offsets = new long[WINDOW];
+        private final long[] delays = new long[WINDOW];
+        private int count = 0;
+        private volatile long offset = 0;
+        private volatile long delay = -1;
+
+        private synchronized void add(long sampleOffset, long sampleDelay) {
+            offsets[count % WINDOW] = sampleOffset;
+            delays[count % WINDOW] = sampleDelay;
+            count++;
+
+            int best = 0;
+            for (int i = 1; i < Math.min(count, WINDOW); i++) {
+                if (delays[i] < delays[best]) best = i;
+            }
+            offset = offsets[best];
+            delay = delays[best];
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package edu.upenn.cis.precise.openicelite.middleware.mqtt;
 
 import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.CallbackSupport;
 import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
 import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.ITraceCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceClock;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceEnvelope;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceRecord;
 import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
 import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.util.AESUtil;
 import edu.upenn.cis.precise.openicelite.middleware.mqtt.util.SSLUtil;
 
 import com.google.gson.Gson;
@@ -13,16 +21,14 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Enable an application to communicate with OpenICE-lite MQTT broker
@@ -30,6 +36,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * The application can either be a dongle loaded with multiple medical devices or
  * a client app to collect data from medical devices.
  * <p>
+ * Publish, delivery, encryption and connection metrics are recorded for every dongle
+ * and exposed through getMetrics() and JMX (type=class name, name=dongle ID).
+ * <p>
+ * With tracing enabled, device messages carry a trace header (sequence number, source
+ * and publish times, see TraceEnvelope) and the dongle answers clock pings on its
+ * ClockPing client channel (see ClockSync). Traced messages are delivered to
+ * ITraceCallback subscribers with their hop times; other callbacks receive the
+ * payload only. Receivers unwrap trace headers only when tracing is enabled, so all
+ * dongles of a traced project must enable it.
+ * <p>
  * Available options for initialization:
  * - "broker":              full address to the main broker
  *                              (e.g., ssl://hostname:port)
@@ -38,6 +54,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * - "retry_interval":      retry interval if lost connection
  * - "alive_interval":      alive interval for MQTT connection
  * - "qos":                 MQTT QoS settings (0,1,2)
+ * - "max_in_flight":       maximum number of unacknowledged messages (default to 1000)
  * - "project_name":        project name will be used as a base topic separation
  *                              (default to DEFAULT)
  * - "report_interval":     interval for which the dongle send report message to MapManager
@@ -51,18 +68,20 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * - "key_password":        password to unlock client private key if needed
  * - "aes_key":             AES secret key to encrypt/decrypt the message before publish to MQTT broker
  *                              (default to disable)
+ * - "trace":               add trace header to device messages, remove it from arrived
+ *                              device messages and answer clock pings (default to disable)
+ * <p>
+ * Available options for publishing:
+ * - "disable_aes":         publish this message in plaintext
+ * - "qos":                 MQTT QoS of this message (default to the dongle QoS), e.g., to
+ *                              deliver alarms at least once while data is sent at QoS 0
  *
  * @author Hung Nguyen (hungng@seas.upenn.edu)
  */
-@SuppressWarnings("SynchronizeOnNonFinalField")
 public class Dongle implements IMiddleware, MqttCallback {
     private static final Logger logger = LogManager.getLogger(Dongle.class);
 
-    private static final int MAX_IN_FLIGHT = 1000;
-
-    private static final int MIN_AES_KEY_LENGTH = 16;
-    private static final int IV_LEN = 12;
-    private static final int TAG_LEN = 16;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1000;
 
     private final String dongleId;
 
@@ -78,6 +97,8 @@ public class Dongle implements IMiddleware, MqttCallback {
     private int aliveInterval = 60;
     // -- QoS setting
     private int qos = 1;
+    // -- maximum in-flight messages
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
     // -- project name (can be used to separate environment for different projects
     private String projectName = "DEFAULT";
     // -- interval to ping Map Manager (in seconds)
@@ -99,7 +120,8 @@ public class Dongle implements IMiddleware, MqttCallback {
     private MqttAsyncClient mqttClient;
     private MqttConnectOptions mqttConnectOptions;
     private AtomicBoolean isConnected = new AtomicBoolean(false);
-    private IMiddlewareCallback callback;
+    private volatile IMiddlewareCallback callback;
+    private final MiddlewareMetrics metrics = new MiddlewareMetrics();
 
     // Dongle information
     private AtomicBoolean isRunning = new AtomicBoolean(true);
@@ -109,6 +131,12 @@ public class Dongle implements IMiddleware, MqttCallback {
     // AES encryption
     private boolean encryptMessage = false;
     private SecretKeySpec aesKey = null;
+    // -- plaintext of buffer-aware deliveries, reused by each callback thread
+    private final ThreadLocal<ByteBuffer> plainTexts = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024));
+
+    // Tracing
+    private boolean trace = false;
+    private final ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>();
 
     /**
      * Dongle constructor
@@ -138,22 +166,25 @@ public class Dongle implements IMiddleware, MqttCallback {
                 brokers = ((String) options.get("brokers")).split(",");
             }
             if (options.containsKey("connection_timeout")) {
-                connectionTimeout = (int) options.get("connection_timeout");
+                connectionTimeout = Integer.parseInt(options.get("connection_timeout").toString());
             }
             if (options.containsKey("retry_interval")) {
-                retryInterval = (int) options.get("retry_interval");
+                retryInterval = Integer.parseInt(options.get("retry_interval").toString());
             }
             if (options.containsKey("alive_interval")) {
-                aliveInterval = (int) options.get("alive_interval");
+                aliveInterval = Integer.parseInt(options.get("alive_interval").toString());
             }
             if (options.containsKey("qos")) {
-                qos = (int) options.get("qos");
+                qos = Integer.parseInt(options.get("qos").toString());
+            }
+            if (options.containsKey("max_in_flight")) {
+                maxInFlight = Integer.parseInt(options.get("max_in_flight").toString());
             }
             if (options.containsKey("project_name")) {
                 projectName = (String) options.get("project_name");
             }
             if (options.containsKey("report_interval")) {
-                reportInterval = (int) options.get("report_interval");
+                reportInterval = Integer.parseInt(options.get("report_interval").toString());
             }
             if (options.containsKey("username") && options.containsKey("password")) {
                 useAuthentication = true;
@@ -168,24 +199,12 @@ public class Dongle implements IMiddleware, MqttCallback {
                 keyPassword = (String) options.get("key_password");
             }
             if (options.containsKey("aes_key")) {
-                String key = (String) options.get("aes_key");
-                if (key.length() < MIN_AES_KEY_LENGTH) {
-                    logger.error("Invalid AES key: " + key);
-                    throw new IllegalArgumentException("Invalid AES key");
-                }
-
-                try {
-                    MessageDigest digester = MessageDigest.getInstance("SHA-256");
-                    digester.update(key.getBytes("UTF-8"));
-                    byte[] digest = digester.digest();
-                    aesKey = new SecretKeySpec(digest, "AES");
-                } catch (NoSuchAlgorithmException | UnsupportedEncodingException ex) {
-                    logger.error("Failed to initialize AES encryption!", ex);
-                    throw new IllegalArgumentException("Failed to AES encryption - " + ex.getMessage());
-                }
-
+                aesKey = AESUtil.getKey((String) options.get("aes_key"));
                 encryptMessage = true;
             }
+            if (options.containsKey("trace")) {
+                trace = Boolean.parseBoolean(options.get("trace").toString());
+            }
         }
 
         // Finalize connect option
@@ -193,7 +212,7 @@ public class Dongle implements IMiddleware, MqttCallback {
         mqttConnectOptions.setCleanSession(false);
         mqttConnectOptions.setConnectionTimeout(connectionTimeout);
         mqttConnectOptions.setKeepAliveInterval(aliveInterval);
-        mqttConnectOptions.setMaxInflight(MAX_IN_FLIGHT);
+        mqttConnectOptions.setMaxInflight(maxInFlight);
         if (brokers != null) mqttConnectOptions.setServerURIs(brokers);
 
         if (useAuthentication) {
@@ -209,6 +228,8 @@ public class Dongle implements IMiddleware, MqttCallback {
                 throw new IllegalArgumentException("Failed to initialize SSLSocket - " + ex.getMessage());
             }
         }
+
+        metrics.register(getClass().getSimpleName(), dongleId);
     }
 
     /**
@@ -244,20 +265,27 @@ public class Dongle implements IMiddleware, MqttCallback {
 
                 // Connect to broker
                 logger.info("Connecting to broker at " + brokerAddress + " as " + dongleId + "...");
+                long start = System.nanoTime();
                 IMqttToken connectToken = mqttClient.connect(mqttConnectOptions);
                 connectToken.waitForCompletion();
+                metrics.recordConnect(start);
                 logger.info("Dongle is connected to broker!");
 
                 // Start pinger if needed
                 if (pinger == null) {
                     pinger = new MapManagerPinger(this);
                     pinger.start();
+                    if (trace) {
+                        subscribe(topicHandler.getClientTopic(projectName, dongleId, ClockSync.PING_CHANNEL),
+                                (t, m) -> replyClock(t, m));
+                    }
                 }
 
                 isConnected.set(true);
                 isRunning.set(true);
             } catch (Exception ex) {
                 isConnected.set(false);
+                metrics.recordConnectFailure();
                 logger.error("Failed to connect to MQTT broker", ex);
                 logger.info("Retry in " + retryInterval + " seconds...");
             }
@@ -290,6 +318,7 @@ public class Dongle implements IMiddleware, MqttCallback {
         disconnect();
         isRunning.set(false);
         pinger = null;
+        metrics.unregister();
     }
 
     /**
@@ -325,13 +354,28 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
-        try {
-            if (callback != null) {
-                this.callback = callback;
-            }
+        if (callback != null) {
+            this.callback = callback;
+            subscribe(topic, (t, m) -> deliver(callback, t, m));
+        } else {
+            subscribe(topic, null);
+        }
+    }
 
+    /**
+     * Subscribe to a topic and bind its messages to a listener, so that each
+     * subscription can be delivered to its own callback
+     *
+     * @param topic    the topic to subscribe to
+     * @param listener the listener to receive messages from this topic
+     *                 (messages fall back to the dongle callback if null)
+     */
+    void subscribe(String topic, IMqttMessageListener listener) {
+        try {
             logger.info("Subscribing to " + topic + "...");
-            IMqttToken subscribeToken = mqttClient.subscribe(topic, qos, null, null);
+            IMqttToken subscribeToken = (listener == null) ?
+                    mqttClient.subscribe(topic, qos, null, null) :
+                    mqttClient.subscribe(topic, qos, null, null, listener);
             subscribeToken.waitForCompletion();
         } catch (Exception ex) {
             logger.error("Failed to subscribe to topicHandler: " + topic, ex);
@@ -345,8 +389,17 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void unsubscribe(String topic) {
+        callback = null;
+        unsubscribeTopic(topic);
+    }
+
+    /**
+     * Unsubscribe from a topic on the broker without touching the dongle callback
+     *
+     * @param topic the topic to unsubscribe from
+     */
+    void unsubscribeTopic(String topic) {
         try {
-            callback = null;
             logger.info("Un-subscribing to " + topic + "...");
             IMqttToken unsubscribeToken = mqttClient.unsubscribe(topic);
             unsubscribeToken.waitForCompletion();
@@ -364,29 +417,10 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void publish(String topic, byte[] message, HashMap<String, Object> options) {
-        if (mqttClient != null) {
-            try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Publishing message to broker...");
-                }
-                MqttMessage mqttMessage;
-                if (!encryptMessage || (options != null && options.containsKey("disable_aes"))) {
-                    mqttMessage = new MqttMessage(message);
-                } else {
-                    mqttMessage = new MqttMessage(encryptMessage(message));
-                }
-                mqttMessage.setQos(qos);
-                mqttClient.publish(topic, mqttMessage, null, null);
-            } catch (MqttException ex) {
-                if (ex.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED
-                        || ex.getReasonCode() == MqttException.REASON_CODE_CONNECTION_LOST) {
-                    logger.error("Failed to publish message to broker - connection lost!");
-                    connectionLost(null);
-                }
-            } catch (Exception ex) {
-                logger.error("Failed to publish message to broker", ex);
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publishing message to broker...");
         }
+        publishMessage(topic, message, options);
     }
 
     /**
@@ -398,29 +432,10 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void publish(String topic, String message, HashMap<String, Object> options) {
-        if (mqttClient != null) {
-            try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Publishing message to broker: " + message);
-                }
-                MqttMessage mqttMessage;
-                if (!encryptMessage || (options != null && options.containsKey("disable_aes"))) {
-                    mqttMessage = new MqttMessage(message.getBytes());
-                } else {
-                    mqttMessage = new MqttMessage(encryptMessage(message.getBytes()));
-                }
-                mqttMessage.setQos(qos);
-                mqttClient.publish(topic, mqttMessage, null, null);
-            } catch (MqttException ex) {
-                if (ex.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED
-                        || ex.getReasonCode() == MqttException.REASON_CODE_CONNECTION_LOST) {
-                    logger.error("Failed to publish message to broker - connection lost!");
-                    connectionLost(null);
-                }
-            } catch (Exception ex) {
-                logger.error("Failed to publish message to broker", ex);
-            }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publishing message to broker: " + message);
         }
+        publishMessage(topic, message.getBytes(), options);
     }
 
     /**
@@ -432,30 +447,12 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
-        if (mqttClient != null) {
-            try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Publishing message to broker...");
-                }
-                MqttMessage mqttMessage;
-                if (!encryptMessage || (options != null && options.containsKey("disable_aes"))) {
-                    mqttMessage = new MqttMessage(message);
-                } else {
-                    mqttMessage = new MqttMessage(encryptMessage(message));
-                }
-                mqttMessage.setQos(qos);
-                mqttClient.publish(topicHandler.getDataTopic(projectName, dongleId, deviceId),
-                        mqttMessage, null, null);
-            } catch (MqttException ex) {
-                if (ex.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED
-                        || ex.getReasonCode() == MqttException.REASON_CODE_CONNECTION_LOST) {
-                    logger.error("Failed to publish message to broker - connection lost!");
-                    connectionLost(null);
-                }
-            } catch (Exception ex) {
-                logger.error("Failed to publish message to broker", ex);
-            }
+        long sourceTime = trace ? TraceClock.currentTimeMicros() : 0;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publishing message to broker...");
         }
+        publishMessage(topicHandler.getDataTopic(projectName, dongleId, deviceId), message, options,
+                deviceId, sourceTime);
     }
 
     /**
@@ -467,27 +464,64 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        long sourceTime = trace ? TraceClock.currentTimeMicros() : 0;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Publishing message to broker: " + message);
+        }
+        publishMessage(topicHandler.getDataTopic(projectName, dongleId, deviceId),
+                message.getBytes(), options, deviceId, sourceTime);
+    }
+
+    /**
+     * Encrypt (if enabled) and publish a message through the underlying MQTT client
+     *
+     * @param topic   the topic to deliver the message to
+     * @param message the byte array to use as the message
+     * @param options additional publishing options
+     */
+    void publishMessage(String topic, byte[] message, HashMap<String, Object> options) {
+        publishMessage(topic, message, options, null, 0);
+    }
+
+    /**
+     * Encrypt (if enabled) and publish a message, adding a trace header to device
+     * messages if tracing is enabled
+     *
+     * @param topic      the topic to deliver the message to
+     * @param message    the byte array to use as the message
+     * @param options    additional publishing options
+     * @param deviceId   the device ID generates the message (null if not a device message)
+     * @param sourceTime time the message was handed to the dongle (microseconds)
+     */
+    private void publishMessage(String topic, byte[] message, HashMap<String, Object> options,
+                                String deviceId, long sourceTime) {
         if (mqttClient != null) {
+            long start = System.nanoTime();
             try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Publishing message to broker: " + message);
-                }
                 MqttMessage mqttMessage;
                 if (!encryptMessage || (options != null && options.containsKey("disable_aes"))) {
-                    mqttMessage = new MqttMessage(message.getBytes());
+                    mqttMessage = new TimedMessage(message, start);
                 } else {
-                    mqttMessage = new MqttMessage(encryptMessage(message.getBytes()));
+                    mqttMessage = new TimedMessage(encryptMessage(message), start);
+                }
+                if (trace && deviceId != null) {
+                    mqttMessage.setPayload(TraceEnvelope.wrap(nextSequence(deviceId), sourceTime,
+                            TraceClock.currentTimeMicros(), mqttMessage.getPayload()));
                 }
-                mqttMessage.setQos(qos);
-                mqttClient.publish(topicHandler.getDataTopic(projectName, dongleId, deviceId),
-                        mqttMessage, null, null);
+                mqttMessage.setQos((options != null && options.containsKey("qos")) ?
+                        Integer.parseInt(options.get("qos").toString()) : qos);
+                // The message is its own token context, so an early ack still finds the start time
+                mqttClient.publish(topic, mqttMessage, mqttMessage, null);
+                metrics.recordPublish(mqttMessage.getPayload().length, start);
             } catch (MqttException ex) {
+                metrics.recordPublishFailure();
                 if (ex.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED
                         || ex.getReasonCode() == MqttException.REASON_CODE_CONNECTION_LOST) {
                     logger.error("Failed to publish message to broker - connection lost!");
                     connectionLost(null);
                 }
             } catch (Exception ex) {
+                metrics.recordPublishFailure();
                 logger.error("Failed to publish message to broker", ex);
             }
         }
@@ -501,9 +535,7 @@ public class Dongle implements IMiddleware, MqttCallback {
     @Override
     public void setCallback(IMiddlewareCallback callback) {
         if (callback != null) {
-            synchronized (this.callback) {
-                this.callback = callback;
-            }
+            this.callback = callback;
         }
     }
 
@@ -515,6 +547,7 @@ public class Dongle implements IMiddleware, MqttCallback {
     @Override
     public void connectionLost(Throwable cause) {
         isConnected.set(false);
+        metrics.recordConnectionLost();
 
         logger.info("Broker Connection lost! Trying to reconnect...");
         connect(null, null, null);
@@ -550,19 +583,116 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void messageArrived(String topic, MqttMessage message) throws Exception {
-        if (!message.isDuplicate()) {
-            synchronized (callback) {
-                if (callback != null) {
-                    if (encryptMessage) {
-                        callback.handleMessage(topic, decryptMessage(message.getPayload()));
-                    } else {
-                        callback.handleMessage(topic, message.getPayload());
-                    }
-                }
-            }
+        deliver(callback, topic, message);
+    }
+
+    /**
+     * Decrypt (if enabled) and hand an arrived message over to a callback
+     *
+     * @param callback the callback to deliver the message to
+     * @param topic    name of the topic on the message was published to
+     * @param message  the actual message
+     */
+    void deliver(IMiddlewareCallback callback, String topic, MqttMessage message) {
+        byte[] raw = message.getPayload();
+        metrics.recordReceive(raw.length);
+        if (message.isDuplicate()) {
+            metrics.recordDuplicate();
+        } else if (callback instanceof ITraceCallback && isTraced(topic, raw)) {
+            TraceRecord record = TraceEnvelope.read(raw);
+            record.setReceiveTime(TraceClock.currentTimeMicros());
+            byte[] payload = TraceEnvelope.unwrap(raw);
+            if (encryptMessage) payload = decryptMessage(payload);
+            record.setDecryptTime(TraceClock.currentTimeMicros());
+            long start = System.nanoTime();
+            ((ITraceCallback) callback).handleMessage(topic, payload, record);
+            metrics.recordCallback(start);
+        } else if (CallbackSupport.isBufferAware(callback)) {
+            ByteBuffer payload = readPayload(topic, raw);
+            long start = System.nanoTime();
+            callback.handleMessage(topicHandler.parseTopic(topic), payload);
+            metrics.recordCallback(start);
+        } else if (callback != null) {
+            byte[] payload = readPayload(topic, message);
+            long start = System.nanoTime();
+            callback.handleMessage(topic, payload);
+            metrics.recordCallback(start);
         }
     }
 
+    /**
+     * Determine if an arrived message carries a trace header
+     * <p>
+     * Only device messages of a dongle with tracing enabled are unwrapped, so that
+     * untraced payloads (e.g., binary samples or AES IVs) starting with the trace
+     * magic bytes are delivered unchanged.
+     *
+     * @param topic name of the topic on the message was published to
+     * @param raw   payload as received
+     * @return true if the trace header must be removed
+     */
+    private boolean isTraced(String topic, byte[] raw) {
+        return trace && TraceEnvelope.isTraced(raw)
+                && topicHandler.getTopicType(topic) == ITopicHandler.TopicType.DATA;
+    }
+
+    /**
+     * Return the plaintext payload of an arrived message
+     *
+     * @param topic   name of the topic on the message was published to
+     * @param message the actual message
+     * @return payload as a byte array (trace header removed and decrypted if needed)
+     */
+    byte[] readPayload(String topic, MqttMessage message) {
+        byte[] raw = message.getPayload();
+        byte[] payload = isTraced(topic, raw) ? TraceEnvelope.unwrap(raw) : raw;
+        return encryptMessage ? decryptMessage(payload) : payload;
+    }
+
+    /**
+     * Return the plaintext payload of an arrived message without copying it
+     * <p>
+     * The returned buffer points into the message itself or, if encrypted, into the
+     * plaintext buffer of the calling thread; it is only valid until the next message
+     * is delivered on this thread.
+     *
+     * @param topic name of the topic on the message was published to
+     * @param raw   payload as received
+     * @return payload between position and limit (trace header removed and decrypted if needed)
+     */
+    private ByteBuffer readPayload(String topic, byte[] raw) {
+        ByteBuffer payload = isTraced(topic, raw) ?
+                ByteBuffer.wrap(raw, TraceEnvelope.HEADER_LENGTH, raw.length - TraceEnvelope.HEADER_LENGTH) :
+                ByteBuffer.wrap(raw);
+        return encryptMessage ? decryptMessage(payload) : payload;
+    }
+
+    /**
+     * Answer a clock ping from another client (see ClockSync)
+     *
+     * @param topic   the ping topic
+     * @param message the ping message
+     */
+    private void replyClock(String topic, MqttMessage message) {
+        long receiveTime = TraceClock.currentTimeMicros();
+        String ping = new String(readPayload(topic, message), StandardCharsets.UTF_8);
+        String replyTo = ClockSync.replyTo(ping);
+        String reply = ClockSync.reply(dongleId, ping, receiveTime);
+        if (replyTo == null || reply == null) {
+            logger.warn("Invalid clock ping: " + ping);
+            return;
+        }
+        publish(topicHandler.getClientTopic(projectName, replyTo, ClockSync.REPLY_CHANNEL), reply, null);
+    }
+
+    private long nextSequence(String deviceId) {
+        AtomicLong sequence = sequences.get(deviceId);
+        if (sequence == null) {
+            sequence = sequences.computeIfAbsent(deviceId, id -> new AtomicLong());
+        }
+        return sequence.getAndIncrement();
+    }
+
     /**
      * Called when delivery for a message has been completed, and all acknowledgments
      * have been received. For QoS 0 messages it is called once the message has been
@@ -574,7 +704,8 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
-        // ignore for now
+        Object context = token.getUserContext();
+        metrics.recordAck(context instanceof TimedMessage ? ((TimedMessage) context).start : 0);
     }
 
     /**
@@ -584,7 +715,9 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void addDevice(DeviceInfo info) {
-        this.info.addDevice(info);
+        synchronized (this.info) {
+            this.info.addDevice(info);
+        }
     }
 
     /**
@@ -594,7 +727,59 @@ public class Dongle implements IMiddleware, MqttCallback {
      */
     @Override
     public void removeDevice(String deviceId) {
-        this.info.removeDevice(deviceId);
+        synchronized (this.info) {
+            this.info.removeDevice(deviceId);
+        }
+    }
+
+    /**
+     * Publish current dongle information to its status topic (used by Map Manager)
+     *
+     * @param gson    serializer to use
+     * @param options publishing options
+     */
+    void reportStatus(Gson gson, HashMap<String, Object> options) {
+        String message;
+        synchronized (info) {
+            message = gson.toJson(info);
+        }
+        publish(topicHandler.getStatusTopic(projectName, dongleId), message, options);
+    }
+
+    /**
+     * Return publish, delivery, encryption and connection metrics of this dongle
+     *
+     * @return dongle metrics
+     */
+    public MiddlewareMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Return the dongle ID
+     *
+     * @return the dongle ID
+     */
+    public String getDongleId() {
+        return dongleId;
+    }
+
+    /**
+     * Return the project name used as base topic separation
+     *
+     * @return the project name
+     */
+    String getProjectName() {
+        return projectName;
+    }
+
+    /**
+     * Return the shared topic handler
+     *
+     * @return the topic handler
+     */
+    TopicHandler getTopicHandler() {
+        return topicHandler;
     }
 
     /**
@@ -603,26 +788,11 @@ public class Dongle implements IMiddleware, MqttCallback {
      * @param message plaintext message to be encrypted as a byte array
      * @return cipher text as a byte array
      */
-    private byte[] encryptMessage(byte[] message) {
-        try {
-            // Prepare environment
-            byte[] iv = new byte[IV_LEN];
-            (new SecureRandom()).nextBytes(iv);
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            GCMParameterSpec params = new GCMParameterSpec(TAG_LEN * Byte.SIZE, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, aesKey, params);
-
-            // Perform encryption
-            byte[] ciphertext = cipher.doFinal(message);
-            byte[] encrypted = new byte[IV_LEN + ciphertext.length];
-            System.arraycopy(iv, 0, encrypted, 0, IV_LEN);
-            System.arraycopy(ciphertext, 0, encrypted, IV_LEN, ciphertext.length);
-
-            return encrypted;
-        } catch (Exception ex) {
-            logger.error("Failed to encrypt message!", ex);
-            throw new IllegalArgumentException("Failed to encrypt message - " + ex.getMessage());
-        }
+    byte[] encryptMessage(byte[] message) {
+        long start = System.nanoTime();
+        byte[] cipherText = AESUtil.encrypt(aesKey, message);
+        metrics.recordEncrypt(start);
+        return cipherText;
     }
 
     /**
@@ -632,18 +802,32 @@ public class Dongle implements IMiddleware, MqttCallback {
      * @param message cipher text to be decrypted as a byte array
      * @return plaintext as a byte array
      */
-    private byte[] decryptMessage(byte[] message) {
-        try {
-            // Prepare environment
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            GCMParameterSpec params = new GCMParameterSpec(TAG_LEN * Byte.SIZE, message, 0, IV_LEN);
-            cipher.init(Cipher.DECRYPT_MODE, aesKey, params);
+    byte[] decryptMessage(byte[] message) {
+        long start = System.nanoTime();
+        byte[] plainText = AESUtil.decrypt(aesKey, message);
+        metrics.recordDecrypt(start);
+        return plainText;
+    }
 
-            return cipher.doFinal(message, IV_LEN, message.length - IV_LEN);
-        } catch (Exception ex) {
-            logger.error("Failed to decrypt message!", ex);
-            throw new IllegalArgumentException("Failed to decrypt message - " + ex.getMessage());
+    /**
+     * Decrypt message from MQTT broker into the plaintext buffer of the calling thread
+     *
+     * @param message cipher text between position and limit
+     * @return plaintext between position and limit (valid until the next call on this thread)
+     */
+    private ByteBuffer decryptMessage(ByteBuffer message) {
+        long start = System.nanoTime();
+        int size = Math.max(message.remaining() - AESUtil.IV_LEN - AESUtil.TAG_LEN, 0);
+        ByteBuffer plainText = plainTexts.get();
+        if (plainText.capacity() < size) {
+            plainText = ByteBuffer.allocate(Integer.highestOneBit(size) << 1);
+            plainTexts.set(plainText);
         }
+        plainText.clear();
+        AESUtil.decrypt(aesKey, message, plainText);
+        plainText.flip();
+        metrics.recordDecrypt(start);
+        return plainText;
     }
 
     /**
@@ -654,33 +838,26 @@ public class Dongle implements IMiddleware, MqttCallback {
 
         private final Dongle dongle;
         private final Gson gson;
-        private final String topic;
         private final int interval;
 
         private MapManagerPinger(Dongle dongle) {
             this.dongle = dongle;
             this.gson = new Gson();
-            this.topic = dongle.topicHandler.getStatusTopic(dongle.projectName, dongleId);
             this.interval = dongle.reportInterval;
         }
 
         @Override
         public void run() {
-            String message;
             HashMap<String, Object> options = new HashMap<>();
             options.put("disable_aes", "true");
             while (dongle.isRunning.get()) {
                 try {
                     Thread.sleep(interval * 1000);
-                    // Generate JSON message
-                    synchronized (dongle.info) {
-                        message = gson.toJson(dongle.info);
-                    }
 
                     // Publish to Map Manager
                     if (dongle.isConnected()) {
                         if (logger.isDebugEnabled()) logger.debug("Pinging Map Manager...");
-                        dongle.publish(topic, message, options);
+                        dongle.reportStatus(gson, options);
                     }
                 } catch (Exception ex) {
                     // ignore all exceptions
@@ -695,4 +872,17 @@ public class Dongle implements IMiddleware, MqttCallback {
             }
         }
     }
+
+    /**
+     * Message carrying its publish start time, passed as the token user context so an
+     * early ack still finds it without boxing the time
+     */
+    private static class TimedMessage extends MqttMessage {
+        private final long start;
+
+        private TimedMessage(byte[] payload, long start) {
+            super(payload);
+            this.start = start;
+        }
+    }
 }
@@ -0,0 +1,552 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.util.AESUtil;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.util.SSLUtil;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.paho.mqttv5.client.*;
+import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.eclipse.paho.mqttv5.common.MqttSubscription;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Enable an application to communicate with OpenICE-lite MQTT v5 broker
+ * <p>
+ * Same role and topics as the MQTT v3 Dongle, using MQTT v5 features to reduce
+ * per-sample overhead:
+ * - topic aliases: once the broker advertises a Topic Alias Maximum, the client
+ *   replaces repeated topic strings (e.g., device data topics) with a 2-byte alias
+ * - receive maximum: bounds the number of unacknowledged QoS 1/2 messages in each
+ *   direction instead of a fixed client-side in-flight window
+ * - message expiry: stale samples are discarded by the broker instead of being
+ *   delivered late to offline subscribers
+ * - session expiry: persistent sessions are released by the broker after a while
+ * <p>
+ * Metrics are recorded as in Dongle and exposed through getMetrics() and JMX.
+ * <p>
+ * Available options for initialization (in addition to Dongle options):
+ * - "session_expiry":      session expiry interval in seconds (default to 3600)
+ * - "receive_maximum":     maximum unacknowledged messages from broker (default to 1000)
+ * - "topic_alias_maximum": maximum topic aliases accepted from broker (default to 64)
+ * - "message_expiry":      expiry in seconds for device data messages (default to disable)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DongleV5 implements IMiddleware, MqttCallback {
+    private static final Logger logger = LogManager.getLogger(DongleV5.class);
+
+    private final String dongleId;
+
+    // Overwritten-able configuration
+    // -- MQTT broker address (main and fail-over)
+    private String broker = "tcp://broker.hivemq.com:1883";
+    private String[] brokers = {"tcp://broker.hivemq.com:1883"};
+    // -- broker connection timeout (seconds)
+    private int connectionTimeout = 10;
+    // -- broker connection retry interval (seconds)
+    private int retryInterval = 15;
+    // -- broker keep alive interval (seconds)
+    private int aliveInterval = 60;
+    // -- QoS setting
+    private int qos = 1;
+    // -- project name (can be used to separate environment for different projects
+    private String projectName = "DEFAULT";
+    // -- interval to ping Map Manager (in seconds)
+    private int reportInterval = 30;
+    // -- MQTT v5 session expiry (seconds)
+    private long sessionExpiry = 3600;
+    // -- MQTT v5 receive maximum
+    private int receiveMaximum = 1000;
+    // -- MQTT v5 topic alias maximum (inbound)
+    private int topicAliasMaximum = 64;
+    // -- MQTT v5 message expiry for data messages (seconds, 0 to disable)
+    private long messageExpiry = 0;
+
+    // Additional information from properties file
+    private boolean useAuthentication = false;
+    private String username = null;
+    private String password = null;
+
+    private boolean useSSL = false;
+    private String caCertFile = null;
+    private String clientCertFile = null;
+    private String clientKeyFile = null;
+    private String keyPassword = null;
+
+    // MQTT
+    private TopicHandler topicHandler = new TopicHandler();
+    private MqttAsyncClient mqttClient;
+    private MqttConnectionOptions mqttConnectionOptions;
+    private AtomicBoolean isConnected = new AtomicBoolean(false);
+    private volatile IMiddlewareCallback callback;
+    private final MiddlewareMetrics metrics = new MiddlewareMetrics();
+
+    // Dongle information
+    private AtomicBoolean isRunning = new AtomicBoolean(true);
+    private DongleInfo info;
+    private Thread pinger;
+
+    // AES encryption
+    private boolean encryptMessage = false;
+    private SecretKeySpec aesKey = null;
+
+    /**
+     * Dongle constructor
+     *
+     * @param dongleId dongle ID (UUID)
+     */
+    public DongleV5(String dongleId) {
+        this.dongleId = dongleId;
+        this.info = new DongleInfo(dongleId);
+    }
+
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        logger.info("Initializing Dongle MQTT v5...");
+
+        // Load options
+        if (options != null) {
+            if (options.containsKey("broker")) {
+                broker = (String) options.get("broker");
+            }
+            if (options.containsKey("brokers")) {
+                brokers = ((String) options.get("brokers")).split(",");
+            }
+            if (options.containsKey("connection_timeout")) {
+                connectionTimeout = Integer.parseInt(options.get("connection_timeout").toString());
+            }
+            if (options.containsKey("retry_interval")) {
+                retryInterval = Integer.parseInt(options.get("retry_interval").toString());
+            }
+            if (options.containsKey("alive_interval")) {
+                aliveInterval = Integer.parseInt(options.get("alive_interval").toString());
+            }
+            if (options.containsKey("qos")) {
+                qos = Integer.parseInt(options.get("qos").toString());
+            }
+            if (options.containsKey("project_name")) {
+                projectName = (String) options.get("project_name");
+            }
+            if (options.containsKey("report_interval")) {
+                reportInterval = Integer.parseInt(options.get("report_interval").toString());
+            }
+            if (options.containsKey("session_expiry")) {
+                sessionExpiry = Long.parseLong(options.get("session_expiry").toString());
+            }
+            if (options.containsKey("receive_maximum")) {
+                receiveMaximum = Integer.parseInt(options.get("receive_maximum").toString());
+            }
+            if (options.containsKey("topic_alias_maximum")) {
+                topicAliasMaximum = Integer.parseInt(options.get("topic_alias_maximum").toString());
+            }
+            if (options.containsKey("message_expiry")) {
+                messageExpiry = Long.parseLong(options.get("message_expiry").toString());
+            }
+            if (options.containsKey("username") && options.containsKey("password")) {
+                useAuthentication = true;
+                username = (String) options.get("username");
+                password = (String) options.get("password");
+            }
+            if (options.containsKey("ca_cert_file")) {
+                useSSL = true;
+                caCertFile = (String) options.get("ca_cert_file");
+                clientCertFile = (String) options.get("client_cert_file");
+                clientKeyFile = (String) options.get("client_key_file");
+                keyPassword = (String) options.get("key_password");
+            }
+            if (options.containsKey("aes_key")) {
+                aesKey = AESUtil.getKey((String) options.get("aes_key"));
+                encryptMessage = true;
+            }
+        }
+
+        // Finalize connect option
+        mqttConnectionOptions = new MqttConnectionOptions();
+        mqttConnectionOptions.setCleanStart(false);
+        mqttConnectionOptions.setSessionExpiryInterval(sessionExpiry);
+        mqttConnectionOptions.setReceiveMaximum(receiveMaximum);
+        mqttConnectionOptions.setTopicAliasMaximum(topicAliasMaximum);
+        mqttConnectionOptions.setConnectionTimeout(connectionTimeout);
+        mqttConnectionOptions.setKeepAliveInterval(aliveInterval);
+        mqttConnectionOptions.setAutomaticReconnect(true);
+        mqttConnectionOptions.setAutomaticReconnectDelay(1, retryInterval);
+        if (brokers != null) mqttConnectionOptions.setServerURIs(brokers);
+
+        if (useAuthentication) {
+            mqttConnectionOptions.setUserName(username);
+            mqttConnectionOptions.setPassword(password.getBytes(StandardCharsets.UTF_8));
+        }
+        if (useSSL) {
+            try {
+                mqttConnectionOptions.setSocketFactory(SSLUtil.getSocketFactory(caCertFile,
+                        clientCertFile, clientKeyFile, keyPassword));
+            } catch (Exception ex) {
+                logger.error("Failed to initialize SSLSocket!", ex);
+                throw new IllegalArgumentException("Failed to initialize SSLSocket - " + ex.getMessage());
+            }
+        }
+
+        metrics.register(getClass().getSimpleName(), dongleId);
+    }
+
+    /**
+     * Initiate a connection to server. Connection is keep alive (and automatically
+     * re-established by the client) until disconnect is called.
+     * <p>
+     * Dongle never exits and keeps retrying until connected.
+     * <p>
+     * This implementation will always ignore name and options (configuration should be
+     * set during init).
+     *
+     * @param address centralized server's address
+     * @param name    identified client name (must be unique within the system)
+     * @param options additional connecting options
+     */
+    @Override
+    public void connect(String address, String name, HashMap<String, Object> options) {
+        if (address != null) broker = address;
+        String brokerAddress = (brokers != null) ? Arrays.toString(brokers) : broker;
+
+        while (!isConnected.get()) {
+            try {
+                if (mqttClient == null) {
+                    MqttDefaultFilePersistence dataStore =
+                            new MqttDefaultFilePersistence("storage/" + projectName);
+                    mqttClient = new MqttAsyncClient(broker, dongleId, dataStore);
+                    mqttClient.setCallback(this);
+                } else {
+                    // Wait for retry if needed
+                    Thread.sleep(retryInterval * 1000);
+                }
+
+                // Connect to broker
+                logger.info("Connecting to broker at " + brokerAddress + " as " + dongleId + "...");
+                long start = System.nanoTime();
+                IMqttToken connectToken = mqttClient.connect(mqttConnectionOptions);
+                connectToken.waitForCompletion();
+                metrics.recordConnect(start);
+                logger.info("Dongle is connected to broker!");
+
+                // Start pinger if needed
+                if (pinger == null) {
+                    pinger = new MapManagerPinger();
+                    pinger.start();
+                }
+
+                isConnected.set(true);
+                isRunning.set(true);
+            } catch (Exception ex) {
+                isConnected.set(false);
+                metrics.recordConnectFailure();
+                logger.error("Failed to connect to MQTT broker", ex);
+                logger.info("Retry in " + retryInterval + " seconds...");
+            }
+        }
+    }
+
+    /**
+     * Disconnect from server
+     */
+    @Override
+    public void disconnect() {
+        if (mqttClient != null && isConnected.get()) {
+            try {
+                logger.info("Disconnecting from broker...");
+                IMqttToken disconnectToken = mqttClient.disconnect();
+                disconnectToken.waitForCompletion(1000);
+            } catch (Exception ex) {
+                logger.error("Failed to disconnect from MQTT broker", ex);
+            }
+            isConnected.set(false);
+        }
+    }
+
+    /**
+     * Close and release all associated resource
+     */
+    @Override
+    public void close() {
+        disconnect();
+        isRunning.set(false);
+        pinger = null;
+        metrics.unregister();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected.get();
+    }
+
+    @Override
+    public void waitConnected() {
+        while (!isConnected.get()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Subscribe to a topic, delivering its messages to the given callback
+     *
+     * @param topic    the topic to subscribe to
+     * @param options  additional subscribe options
+     * @param callback the class to callback for related events
+     */
+    @Override
+    public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        try {
+            logger.info("Subscribing to " + topic + "...");
+            IMqttToken subscribeToken;
+            if (callback != null) {
+                this.callback = callback;
+                subscribeToken = mqttClient.subscribe(new MqttSubscription(topic, qos),
+                        (t, m) -> deliver(callback, t, m));
+            } else {
+                subscribeToken = mqttClient.subscribe(topic, qos);
+            }
+            subscribeToken.waitForCompletion();
+        } catch (Exception ex) {
+            logger.error("Failed to subscribe to topic: " + topic, ex);
+        }
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        try {
+            logger.info("Un-subscribing to " + topic + "...");
+            IMqttToken unsubscribeToken = mqttClient.unsubscribe(topic);
+            unsubscribeToken.waitForCompletion();
+        } catch (Exception ex) {
+            logger.error("Failed to un-subscribe to topic: " + topic, ex);
+        }
+    }
+
+    @Override
+    public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+        publishMessage(topic, message, options, false);
+    }
+
+    @Override
+    public void publish(String topic, String message, HashMap<String, Object> options) {
+        publishMessage(topic, message.getBytes(), options, false);
+    }
+
+    @Override
+    public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        publishMessage(topicHandler.getDataTopic(projectName, dongleId, deviceId), message, options, true);
+    }
+
+    @Override
+    public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        publishMessage(topicHandler.getDataTopic(projectName, dongleId, deviceId),
+                message.getBytes(), options, true);
+    }
+
+    /**
+     * Encrypt (if enabled) and publish a message; device data messages carry the
+     * configured message expiry
+     *
+     * @param topic   the topic to deliver the message to
+     * @param message the byte array to use as the message
+     * @param options additional publishing options
+     * @param data    true if the message is device data
+     */
+    private void publishMessage(String topic, byte[] message, HashMap<String, Object> options, boolean data) {
+        if (mqttClient == null) return;
+        long start = System.nanoTime();
+        try {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Publishing message to broker...");
+            }
+            MqttMessage mqttMessage;
+            if (!encryptMessage || (options != null && options.containsKey("disable_aes"))) {
+                mqttMessage = new TimedMessage(message, start);
+            } else {
+                long encryptStart = System.nanoTime();
+                mqttMessage = new TimedMessage(AESUtil.encrypt(aesKey, message), start);
+                metrics.recordEncrypt(encryptStart);
+            }
+            mqttMessage.setQos(qos);
+            if (data && messageExpiry > 0) {
+                MqttProperties properties = new MqttProperties();
+                properties.setMessageExpiryInterval(messageExpiry);
+                mqttMessage.setProperties(properties);
+            }
+            // The message is its own token context, so an early ack still finds the start time
+            mqttClient.publish(topic, mqttMessage, mqttMessage, null);
+            metrics.recordPublish(mqttMessage.getPayload().length, start);
+        } catch (MqttException ex) {
+            metrics.recordPublishFailure();
+            logger.error("Failed to publish message to broker - " + ex.getMessage());
+        } catch (Exception ex) {
+            metrics.recordPublishFailure();
+            logger.error("Failed to publish message to broker", ex);
+        }
+    }
+
+    @Override
+    public void setCallback(IMiddlewareCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+    }
+
+    @Override
+    public void addDevice(DeviceInfo info) {
+        synchronized (this.info) {
+            this.info.addDevice(info);
+        }
+    }
+
+    @Override
+    public void removeDevice(String deviceId) {
+        synchronized (this.info) {
+            this.info.removeDevice(deviceId);
+        }
+    }
+
+    // ** MQTT v5 callback ** //
+
+    /**
+     * This method is called when the server gracefully disconnects the client or the
+     * connection is lost (the client reconnects automatically)
+     *
+     * @param disconnectResponse details about the disconnection
+     */
+    @Override
+    public void disconnected(MqttDisconnectResponse disconnectResponse) {
+        isConnected.set(false);
+        metrics.recordConnectionLost();
+        logger.info("Broker Connection lost! Reconnecting automatically...");
+    }
+
+    @Override
+    public void mqttErrorOccurred(MqttException exception) {
+        logger.error("MQTT error occurred", exception);
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        deliver(callback, topic, message);
+    }
+
+    @Override
+    public void deliveryComplete(IMqttToken token) {
+        Object context = token.getUserContext();
+        metrics.recordAck(context instanceof TimedMessage ? ((TimedMessage) context).start : 0);
+    }
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        if (reconnect) logger.info("Dongle is reconnected to broker at " + serverURI + "!");
+        isConnected.set(true);
+    }
+
+    @Override
+    public void authPacketArrived(int reasonCode, MqttProperties properties) {
+        // ignore - enhanced authentication is not used
+    }
+
+    private void deliver(IMiddlewareCallback callback, String topic, MqttMessage message) {
+        metrics.recordReceive(message.getPayload().length);
+        if (message.isDuplicate()) {
+            metrics.recordDuplicate();
+        } else if (callback != null) {
+            byte[] payload = message.getPayload();
+            if (encryptMessage) {
+                long start = System.nanoTime();
+                payload = AESUtil.decrypt(aesKey, payload);
+                metrics.recordDecrypt(start);
+            }
+            long start = System.nanoTime();
+            callback.handleMessage(topic, payload);
+            metrics.recordCallback(start);
+        }
+    }
+
+    /**
+     * Return publish, delivery, encryption and connection metrics of this dongle
+     *
+     * @return dongle metrics
+     */
+    public MiddlewareMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * A separate thread to periodically report status to Map Manager
+     */
+    private class MapManagerPinger extends Thread {
+        private final Logger logger = LogManager.getLogger(MapManagerPinger.class);
+
+        private final Gson gson = new Gson();
+        private final String topic = topicHandler.getStatusTopic(projectName, dongleId);
+
+        @Override
+        public void run() {
+            String message;
+            HashMap<String, Object> options = new HashMap<>();
+            options.put("disable_aes", "true");
+            while (isRunning.get()) {
+                try {
+                    Thread.sleep(reportInterval * 1000);
+                    // Generate JSON message
+                    synchronized (info) {
+                        message = gson.toJson(info);
+                    }
+
+                    // Publish to Map Manager
+                    if (isConnected()) {
+                        if (logger.isDebugEnabled()) logger.debug("Pinging Map Manager...");
+                        publish(topic, message, options);
+                    }
+                } catch (Exception ex) {
+                    // ignore all exceptions
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Failed to ping Map Manager - " + ex.getMessage());
+                    }
+                }
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Pinger is exiting...");
+            }
+        }
+    }
+
+    /**
+     * MQTT 5 message with the time its publish started (see Dongle)
+     */
+    private static class TimedMessage extends MqttMessage {
+        private final long start;
+
+        private TimedMessage(byte[] payload, long start) {
+            super(payload);
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Extract configured numeric fields of device messages at ingest into DOUBLE columns
+ * of the LoggerH2 table, so queries and rollups work on numbers instead of re-parsing
+ * the stored JSON
+ * <p>
+ * A message is read in one pass of a streaming JSON reader, without building a tree:
+ * nested objects are only entered if a configured field lies inside them, and reading
+ * stops as soon as all fields of the device type are found. Numbers given as strings
+ * are parsed as well; NaN is not a value, so a later occurrence of the field is still
+ * read. Fields of different device types with the same name share a
+ * column. An extractor reuses its state and belongs to one thread (the logging
+ * thread).
+ * <p>
+ * Available options (of LoggerH2):
+ * - "extract_fields.TYPE": comma-separated numeric fields of devices of type TYPE,
+ *                              nested fields separated with dots (e.g., "vitals.hr",
+ *                              stored in column vitals_hr)
+ * - "device_type.ID":      device type of the device ID (devices without a type use
+ *                              "extract_fields.default" if set)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+final class FieldExtractor {
+    private static final String FIELDS_PREFIX = "extract_fields.";
+    private static final String TYPE_PREFIX = "device_type.";
+    private static final String DEFAULT_TYPE = "default";
+    private static final Pattern COLUMN_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final HashSet<String> RESERVED = new HashSet<>(Arrays.asList(
+            "ID", "DONGLEID", "DEVICEID", "MESSAGE", "RECEIVEDTIME", "SOURCETIME", "SEQUENCE"));
+
+    private final HashMap<String, Fields> types = new HashMap<>();
+    private final HashMap<String, String> deviceTypes = new HashMap<>();
+    private final List<String> columns = new ArrayList<>();
+
+    // Parsing state of the current message
+    private Fields fields;
+    private double[] values;
+    private int remaining;
+
+    private FieldExtractor() {
+    }
+
+    /**
+     * Create an extractor from the logger options
+     *
+     * @param options logger options
+     * @return the extractor (null if no fields are configured)
+     */
+    static FieldExtractor fromOptions(HashMap<String, Object> options) {
+        if (options == null) return null;
+        FieldExtractor extractor = new FieldExtractor();
+        HashMap<String, Integer> columnIndexes = new HashMap<>();
+        for (Map.Entry<String, Object> option : options.entrySet()) {
+            String key = option.getKey();
+            if (key.startsWith(TYPE_PREFIX)) {
+                extractor.deviceTypes.put(key.substring(TYPE_PREFIX.length()), option.getValue().toString().trim());
+            }
+            if (!key.startsWith(FIELDS_PREFIX)) continue;
+
+            Fields fields = new Fields();
+            for (String field : option.getValue().toString().split(",")) {
+                field = field.trim();
+                if (field.isEmpty()) continue;
+                String column = field.replace('.', '_');
+                if (!COLUMN_NAME.matcher(column).matches() || RESERVED.contains(column.toUpperCase())) {
+                    throw new IllegalArgumentException("Invalid extract fields options!");
+                }
+                Integer index = columnIndexes.get(column.toUpperCase());
+                if (index == null) {
+                    index = extractor.columns.size();
+                    extractor.columns.add(column);
+                    columnIndexes.put(column.toUpperCase(), index);
+                }
+                fields.add(field, index);
+            }
+            extractor.types.put(key.substring(FIELDS_PREFIX.length()), fields);
+        }
+        return extractor.columns.isEmpty() ? null : extractor;
+    }
+
+    /**
+     * Return the names of the extracted columns, in value order
+     *
+     * @return column names
+     */
+    List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Add the extracted columns to the data table if not exist
+     *
+     * @param connection opened connection to database
+     * @param tableName  table name
+     */
+    void prepareColumns(Connection connection, String tableName) throws SQLException {
+        try (Statement stat = connection.createStatement()) {
+            for (String column : columns) {
+                stat.execute("ALTER TABLE `" + tableName + "` ADD COLUMN IF NOT EXISTS `" + column + "` DOUBLE;");
+            }
+        }
+    }
+
+    /**
+     * Extract the configured fields of a device message
+     *
+     * @param deviceId device ID
+     * @param message  JSON message
+     * @param values   extracted values by column index (NaN if missing)
+     * @return number of extracted values
+     */
+    int extract(String deviceId, String message, double[] values) {
+        Arrays.fill(values, Double.NaN);
+        String type = deviceTypes.get(deviceId);
+        Fields fields = types.get((type == null) ? DEFAULT_TYPE : type);
+        if (fields == null) return 0;
+
+        this.fields = fields;
+        this.values = values;
+        this.remaining = fields.count;
+        try (JsonReader reader = new JsonReader(new StringReader(message))) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                readObject(reader, null);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            // Keep what was extracted before the malformed part
+        }
+        this.values = null;
+        return fields.count - remaining;
+    }
+
+    /**
+     * Read the members of an object, until its end or until all fields are found
+     */
+    private void readObject(JsonReader reader, String path) throws IOException {
+        while (remaining > 0 && reader.hasNext()) {
+            String name = reader.nextName();
+            String field = (path == null) ? name : path + "." + name;
+            JsonToken token = reader.peek();
+            Integer index = fields.indexes.get(field);
+            if (index != null && (token == JsonToken.NUMBER || token == JsonToken.STRING)) {
+                double value;
+                try {
+                    value = (token == JsonToken.NUMBER) ? reader.nextDouble() :
+                            Double.parseDouble(reader.nextString());
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                // Missing values are NaN, so NaN is not counted as found
+                if (Double.isNaN(value)) continue;
+                if (Double.isNaN(values[index])) remaining--;
+                values[index] = value;
+            } else if (token == JsonToken.BEGIN_OBJECT && fields.objects.contains(field)) {
+                reader.beginObject();
+                readObject(reader, field);
+                if (remaining == 0) return;
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+    }
+
+    /**
+     * Fields extracted from the messages of a device type
+     */
+    private static final class Fields {
+        private final HashMap<String, Integer> indexes = new HashMap<>();
+        private final HashSet<String> objects = new HashSet<>();
+        private int count = 0;
+
+        private void add(String field, int index) {
+            if (indexes.put(field, index) == null) count++;
+            for (int dot = field.indexOf('.'); dot > 0; dot = field.indexOf('.', dot + 1)) {
+                objects.add(field.substring(0, dot));
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Host many logical dongles behind a single MQTT broker connection
+ * <p>
+ * A gateway is itself a Dongle (identified by the gateway ID) which owns the only
+ * MQTT client, persistence directory and socket. Each logical dongle added to the
+ * gateway is exposed as a lightweight IMiddleware that keeps its own DongleInfo,
+ * status topic and data topics, while sharing the connection, encryption and
+ * Map Manager pinger of the gateway.
+ * <p>
+ * Logical dongles ignore init and connect options - configuration should be set
+ * when initializing the gateway. Subscriptions from logical dongles to the same
+ * topic are merged into one broker subscription; a callback routed by several
+ * logical dongles is counted, so it receives each message once and stays routed
+ * until all of them unroute it.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class Gateway extends Dongle {
+    private static final Logger logger = LogManager.getLogger(Gateway.class);
+
+    private final ConcurrentHashMap<String, LogicalDongle> dongles = new ConcurrentHashMap<>();
+    private final HashMap<String, Route> routes = new HashMap<>();
+
+    /**
+     * Gateway constructor
+     *
+     * @param gatewayId gateway ID (UUID) used as MQTT client ID
+     */
+    public Gateway(String gatewayId) {
+        super(gatewayId);
+    }
+
+    /**
+     * Add a logical dongle to the gateway (or return the existing one)
+     *
+     * @param dongleId logical dongle ID (UUID)
+     * @return the logical dongle as a middleware
+     */
+    public IMiddleware addDongle(String dongleId) {
+        return dongles.computeIfAbsent(dongleId, id -> {
+            logger.info("Adding logical dongle " + id + "...");
+            return new LogicalDongle(this, id);
+        });
+    }
+
+    /**
+     * Return a logical dongle hosted by the gateway
+     *
+     * @param dongleId logical dongle ID
+     * @return the logical dongle, or null if not found
+     */
+    public IMiddleware getDongle(String dongleId) {
+        return dongles.get(dongleId);
+    }
+
+    /**
+     * Remove a logical dongle and drop all of its subscriptions
+     *
+     * @param dongleId logical dongle ID
+     */
+    public void removeDongle(String dongleId) {
+        LogicalDongle dongle = dongles.remove(dongleId);
+        if (dongle != null) {
+            logger.info("Removing logical dongle " + dongleId + "...");
+            dongle.unsubscribeAll();
+        }
+    }
+
+    /**
+     * Return IDs of all logical dongles hosted by the gateway
+     *
+     * @return logical dongle IDs
+     */
+    public Collection<String> getDongleIds() {
+        return Collections.unmodifiableSet(dongles.keySet());
+    }
+
+    /**
+     * Close all logical dongles, then release the shared connection
+     */
+    @Override
+    public void close() {
+        for (String dongleId : new ArrayList<>(dongles.keySet())) {
+            removeDongle(dongleId);
+        }
+        super.close();
+    }
+
+    /**
+     * Publish status of the gateway and every logical dongle to Map Manager
+     *
+     * @param gson    serializer to use
+     * @param options publishing options
+     */
+    @Override
+    void reportStatus(Gson gson, HashMap<String, Object> options) {
+        super.reportStatus(gson, options);
+        for (LogicalDongle dongle : dongles.values()) {
+            dongle.reportStatus(gson, options);
+        }
+    }
+
+    /**
+     * Route messages from a topic to a callback, subscribing to the broker only
+     * for the first callback of the topic (a callback routed again is counted)
+     * <p>
+     * The broker subscription is changed while holding the routes, so that a
+     * concurrent unroute of the same topic cannot leave it subscribed without route.
+     *
+     * @param topic    the topic to subscribe to
+     * @param callback the callback to receive messages from this topic
+     */
+    void route(String topic, IMiddlewareCallback callback) {
+        synchronized (routes) {
+            Route route = routes.get(topic);
+            if (route != null) {
+                route.add(callback);
+                return;
+            }
+            Route created = new Route();
+            created.add(callback);
+            routes.put(topic, created);
+            subscribe(topic, (t, m) -> deliver(created, t, m));
+        }
+    }
+
+    /**
+     * Stop routing messages from a topic to a callback once unrouted as many times as
+     * routed, un-subscribing from the broker once the topic has no callback left
+     *
+     * @param topic    the topic to unsubscribe from
+     * @param callback the callback to be removed
+     */
+    void unroute(String topic, IMiddlewareCallback callback) {
+        synchronized (routes) {
+            Route route = routes.get(topic);
+            if (route == null) return;
+            route.remove(callback);
+            if (!route.callbacks.isEmpty()) return;
+            routes.remove(topic);
+            unsubscribeTopic(topic);
+        }
+    }
+
+    /**
+     * Callbacks of the logical dongles subscribed to a topic, delivered to by the
+     * gateway as a single callback (changed while holding the routes)
+     */
+    private static final class Route implements IMiddlewareCallback {
+        private final CopyOnWriteArrayList<IMiddlewareCallback> callbacks = new CopyOnWriteArrayList<>();
+        // Number of logical dongle subscriptions of each callback
+        private final HashMap<IMiddlewareCallback, Integer> counts = new HashMap<>();
+
+        private void add(IMiddlewareCallback callback) {
+            if (counts.merge(callback, 1, Integer::sum) == 1) callbacks.add(callback);
+        }
+
+        private void remove(IMiddlewareCallback callback) {
+            Integer count = counts.get(callback);
+            if (count == null) return;
+            if (count > 1) {
+                counts.put(callback, count - 1);
+            } else {
+                counts.remove(callback);
+                callbacks.remove(callback);
+            }
+        }
+
+        @Override
+        public void handleMessage(String topic, byte[] message) {
+            for (IMiddlewareCallback callback : callbacks) {
+                callback.handleMessage(topic, message);
+            }
+        }
+
+        @Override
+        public void handleMessage(String topic, String message) {
+            for (IMiddlewareCallback callback : callbacks) {
+                callback.handleMessage(topic, message);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+/**
+ * Interface for receivers of the messages logged by LoggerH2 (e.g., DataCache)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface ILoggerListener {
+    /**
+     * Receive a device message once it is stored, on the logging thread (should return
+     * quickly)
+     *
+     * @param dongleId     dongle ID of the message
+     * @param deviceId     device ID of the message
+     * @param message      message as stored
+     * @param receivedTime time the logger received the message (epoch milliseconds)
+     * @param sourceTime   source time of a traced message in logger clock (epoch
+     *                     milliseconds, -1 if unknown)
+     */
+    void onLogged(String dongleId, String deviceId, String message, long receivedTime, long sourceTime);
+}
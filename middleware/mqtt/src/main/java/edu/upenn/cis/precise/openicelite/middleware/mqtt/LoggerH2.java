@@ -1,7 +1,14 @@
 package edu.upenn.cis.precise.openicelite.middleware.mqtt;
 
 import edu.upenn.cis.precise.openicelite.middleware.api.*;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.ITraceCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceClock;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceRecord;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceStats;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.cache.CachedSample;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.cache.DataCache;
 import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.rpc.RpcServer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,16 +18,38 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A simple logger application to collect data published by MQTT Dongle via MQTT
  * brokers and save to embedded H2 database.
  * <p>
+ * With tracing enabled, the source time (converted to logger clock) and sequence
+ * number of traced messages are stored with each row, clock offsets of dongles are
+ * estimated with ClockSync, and per-hop and per-device end-to-end latencies are
+ * recorded (see getTraceStats()) and logged periodically.
+ * <p>
+ * With RPC enabled, logged rows can be queried remotely through the "history" method
+ * served on the client topic of the logger (see LoggerHistory and RpcClient), instead
+ * of opening the database file.
+ * <p>
+ * Logged messages are passed to listeners (see ILoggerListener). With caching enabled,
+ * a DataCache keeps the latest message and a recent window per device in memory and
+ * reads older data from the database (see getCache()); the latest message of a device
+ * is then also served over RPC as the "latest" method.
+ * <p>
+ * Configured numeric fields of device messages are extracted at ingest into DOUBLE
+ * columns of the table, named after the fields (see FieldExtractor).
+ * <p>
  * Available options for initialization:
  * - "db_user":             (required) username to access H2 database file
  * - "db_pass":             (required) password to access H2 database file
@@ -50,6 +79,17 @@ import java.util.Properties;
  * - "key_password":        password to unlock client private key if needed
  * - "aes_key":             AES secret key to encrypt/decrypt the message before publish to MQTT broker
  *                              (default to disable)
+ * - "trace":               record trace metadata and latencies of traced messages
+ *                              (default to disable)
+ * - "trace_sync_interval": interval in seconds to ping dongles for clock offsets (default to 10)
+ * - "trace_report_interval": interval in seconds to log latency report (default to 60)
+ * - "rpc":                 serve history queries over RPC (default to disable, see
+ *                              RpcServer for its options)
+ * - "cache":               keep recent messages in memory (default to disable, see
+ *                              DataCache for its options)
+ * - "extract_fields.TYPE": comma-separated numeric fields of devices of type TYPE
+ *                              stored in their own columns (see FieldExtractor)
+ * - "device_type.ID":      device type of the device ID for field extraction
  *
  * @author Hung Nguyen (hungng@seas.upenn.edu)
  */
@@ -68,6 +108,24 @@ public class LoggerH2 implements IGracefulShutdown {
     private final String dbEncryptionPass;
     private final HashMap<String, Object> options;
 
+    // Tracing
+    private boolean trace = false;
+    private int traceSyncInterval = 10;
+    private int traceReportInterval = 60;
+    private final TraceStats traceStats = new TraceStats();
+    private ClockSync clockSync;
+
+    // Remote queries
+    private boolean rpc = false;
+    private RpcServer rpcServer;
+
+    // Ingest listeners
+    private final CopyOnWriteArrayList<ILoggerListener> listeners = new CopyOnWriteArrayList<>();
+    private DataCache cache;
+
+    // Ingest extraction
+    private final FieldExtractor extractor;
+
     // Running objects
     private Connection dbConnection;
     private IMiddleware middleware;
@@ -174,6 +232,27 @@ public class LoggerH2 implements IGracefulShutdown {
         this.dbPass = dbPass;
         this.dbEncryptionPass = dbEncryptionPass;
         this.options = options;
+        this.extractor = FieldExtractor.fromOptions(options);
+
+        if (options != null) {
+            if (options.containsKey("trace")) {
+                trace = Boolean.parseBoolean(options.get("trace").toString());
+            }
+            if (options.containsKey("trace_sync_interval")) {
+                traceSyncInterval = Integer.parseInt(options.get("trace_sync_interval").toString());
+            }
+            if (options.containsKey("trace_report_interval")) {
+                traceReportInterval = Integer.parseInt(options.get("trace_report_interval").toString());
+            }
+            if (options.containsKey("rpc")) {
+                rpc = Boolean.parseBoolean(options.get("rpc").toString());
+            }
+            if (options.containsKey("cache") && Boolean.parseBoolean(options.get("cache").toString())) {
+                cache = new DataCache(this::queryHistory);
+                cache.init(options);
+                listeners.add(cache);
+            }
+        }
     }
 
     /**
@@ -197,6 +276,7 @@ public class LoggerH2 implements IGracefulShutdown {
 
             // Create table if it doesn't exist
             prepareTable(dbConnection, dbName);
+            if (extractor != null) extractor.prepareColumns(dbConnection, dbName);
         } catch (Exception ex) {
             logger.error("Failed to initialize database!", ex);
             System.exit(-1);
@@ -212,6 +292,11 @@ public class LoggerH2 implements IGracefulShutdown {
         middleware.connect(null, null, null);
 
         topicHandler = new TopicHandler();
+        if (trace) clockSync = new ClockSync(middleware, topicHandler, dbName, clientName);
+        if (rpc) {
+            rpcServer = new RpcServer(middleware, topicHandler, dbName, clientName);
+            rpcServer.init(options);
+        }
     }
 
     /**
@@ -221,15 +306,74 @@ public class LoggerH2 implements IGracefulShutdown {
         middleware.waitConnected();
         MiddlewareCallback callback = new MiddlewareCallback(this);
         middleware.subscribe(topicHandler.getDataBaseTopic(dbName), null, callback);
+        if (clockSync != null) clockSync.start(traceSyncInterval);
+        if (rpcServer != null) {
+            rpcServer.register(LoggerHistory.METHOD, new LoggerHistory(dbConnection, dbName));
+            if (cache != null) {
+                rpcServer.register("latest", (request, stream) -> {
+                    CachedSample sample = cache.getLatest(new String(request, StandardCharsets.UTF_8));
+                    if (sample != null) stream.write(sample.getMessage().getBytes(StandardCharsets.UTF_8));
+                });
+            }
+            rpcServer.start();
+        }
     }
 
     /**
-     * Stop logging data
-     * <p>
-     * TODO: implement this
+     * Return the opened database connection
+     *
+     * @return database connection (null before init)
      */
-    public void stop() {
+    Connection getConnection() {
+        return dbConnection;
+    }
 
+    /**
+     * Add a listener of logged messages
+     *
+     * @param listener the listener
+     */
+    public void addListener(ILoggerListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener of logged messages
+     *
+     * @param listener the listener
+     */
+    public void removeListener(ILoggerListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Return the cache of recent messages
+     *
+     * @return data cache (null if caching is disabled)
+     */
+    public DataCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Return latency statistics of traced messages
+     *
+     * @return trace statistics (empty if tracing is disabled)
+     */
+    public TraceStats getTraceStats() {
+        return traceStats;
+    }
+
+    /**
+     * Stop logging data, then disconnect from MQTT broker
+     */
+    public void stop() {
+        if (clockSync != null) clockSync.stop();
+        if (rpcServer != null) rpcServer.stop();
+        if (middleware != null) {
+            middleware.unsubscribe(topicHandler.getDataBaseTopic(dbName));
+            middleware.close();
+        }
     }
 
     /**
@@ -255,12 +399,29 @@ public class LoggerH2 implements IGracefulShutdown {
         }
     }
 
-    private class MiddlewareCallback implements IMiddlewareCallback {
+    /**
+     * Decode a message payload as UTF-8 (whatever the platform charset)
+     */
+    static String decode(byte[] message) {
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode a message payload as UTF-8, without moving the buffer position
+     */
+    static String decode(ByteBuffer message) {
+        return StandardCharsets.UTF_8.decode(message.duplicate()).toString();
+    }
+
+    private class MiddlewareCallback implements ITraceCallback {
         private final LoggerH2 log;
         private PreparedStatement pStat = null;
+        private final double[] extracted;
+        private long lastReport = System.currentTimeMillis();
 
         MiddlewareCallback(LoggerH2 log) {
             this.log = log;
+            this.extracted = (log.extractor == null) ? null : new double[log.extractor.getColumns().size()];
         }
 
         /**
@@ -271,33 +432,100 @@ public class LoggerH2 implements IGracefulShutdown {
          */
         @Override
         public void handleMessage(String topic, byte[] message) {
+            handleMessage(topic, decode(message));
+        }
+
+        /**
+         * Handle new message from middleware as a string
+         *
+         * @param topic   the topic the message was delivered from
+         * @param message the payload as a string
+         */
+        @Override
+        public void handleMessage(String topic, String message) {
+            insert(log.topicHandler.parseTopic(topic), message, null);
+        }
+
+        /**
+         * Handle new message from middleware as a buffer (decoded straight from the
+         * delivered payload, without an intermediate array)
+         *
+         * @param topic   the parsed topic the message was delivered from
+         * @param message the payload as a buffer
+         */
+        @Override
+        public void handleMessage(ParsedTopic topic, ByteBuffer message) {
+            insert(topic, decode(message), null);
+        }
+
+        /**
+         * Handle new traced message from middleware
+         *
+         * @param topic   the topic the message was delivered from
+         * @param message the payload as a byte array
+         * @param trace   trace metadata and hop times so far
+         */
+        @Override
+        public void handleMessage(String topic, byte[] message, TraceRecord trace) {
+            insert(log.topicHandler.parseTopic(topic), decode(message), log.trace ? trace : null);
+        }
+
+        private void insert(ParsedTopic topic, String message, TraceRecord trace) {
             try {
                 if (pStat == null) pStat = log.prepareStatement(log.dbConnection, log.dbName);
 
-                if (topicHandler.getTopicType(topic) == ITopicHandler.TopicType.DATA) {
+                if (topic.getType() == ITopicHandler.TopicType.DATA) {
                     // Populate query
-                    String[] tokens = log.topicHandler.getTopicInfo(topic);
-                    pStat.setString(1, tokens[1]);
-                    pStat.setString(2, tokens[2]);
-                    pStat.setString(3, new String(message));
-                    pStat.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                    String dongleId = topic.getDongleId();
+                    String deviceId = topic.getDeviceId();
+                    long offset = 0;
+                    long receivedTime = System.currentTimeMillis();
+                    long sourceTime = -1;
+                    pStat.setString(1, dongleId);
+                    pStat.setString(2, deviceId);
+                    pStat.setString(3, message);
+                    pStat.setTimestamp(4, new Timestamp(receivedTime));
+                    if (trace != null) {
+                        log.clockSync.track(dongleId);
+                        offset = log.clockSync.getOffset(dongleId);
+                        sourceTime = (trace.getSourceTime() - offset) / 1000;
+                        pStat.setTimestamp(5, new Timestamp(sourceTime));
+                        pStat.setLong(6, trace.getSequence());
+                    } else {
+                        pStat.setNull(5, Types.TIMESTAMP);
+                        pStat.setNull(6, Types.BIGINT);
+                    }
+                    if (extracted != null) {
+                        log.extractor.extract(deviceId, message, extracted);
+                        for (int i = 0; i < extracted.length; i++) {
+                            if (Double.isNaN(extracted[i])) {
+                                pStat.setNull(7 + i, Types.DOUBLE);
+                            } else {
+                                pStat.setDouble(7 + i, extracted[i]);
+                            }
+                        }
+                    }
                     // Execute
                     pStat.execute();
+                    for (ILoggerListener listener : log.listeners) {
+                        listener.onLogged(dongleId, deviceId, message, receivedTime, sourceTime);
+                    }
+                    if (trace != null) {
+                        log.traceStats.record(deviceId, trace, offset, TraceClock.currentTimeMicros());
+                        report();
+                    }
                 }
             } catch (Exception ex) {
                 logger.error("Failed to handle incoming message!", ex);
             }
         }
 
-        /**
-         * Handle new message from middleware as a string
-         *
-         * @param topic   the topic the message was delivered from
-         * @param message the payload as a string
-         */
-        @Override
-        public void handleMessage(String topic, String message) {
-
+        private void report() {
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= log.traceReportInterval * 1000L) {
+                lastReport = now;
+                logger.info("Trace latency report:\n" + log.traceStats.report());
+            }
         }
     }
 
@@ -309,23 +537,66 @@ public class LoggerH2 implements IGracefulShutdown {
      * @param connection opened connection to database
      * @param tableName  table name
      */
-    private static void prepareTable(Connection connection, String tableName) throws SQLException {
+    static void prepareTable(Connection connection, String tableName) throws SQLException {
         Statement stat = connection.createStatement();
         String query = "CREATE TABLE IF NOT EXISTS `" + tableName + "` " +
                 "(`ID` BIGINT AUTO_INCREMENT PRIMARY KEY," +
                 "`DongleID` VARCHAR(50) NOT NULL," +
                 "`DeviceID` VARCHAR(50) NOT NULL," +
                 "`Message` TEXT NOT NULL," +
-                "`ReceivedTime` TIMESTAMP NOT NULL);";
+                "`ReceivedTime` TIMESTAMP NOT NULL," +
+                "`SourceTime` TIMESTAMP," +
+                "`Sequence` BIGINT);";
         stat.execute(query);
+        // Upgrade tables created before trace columns were added
+        stat.execute("ALTER TABLE `" + tableName + "` ADD COLUMN IF NOT EXISTS `SourceTime` TIMESTAMP;");
+        stat.execute("ALTER TABLE `" + tableName + "` ADD COLUMN IF NOT EXISTS `Sequence` BIGINT;");
+        // History and replay queries select the messages of a device in a time range
+        stat.execute("CREATE INDEX IF NOT EXISTS `" + tableName + "_DeviceTime` ON `" + tableName + "` " +
+                "(`DeviceID`, `ReceivedTime`);");
         stat.close();
     }
 
-    private PreparedStatement prepareStatement(Connection connection, String tableName)
+    /**
+     * Read the messages of a device received in a time range (for DataCache)
+     *
+     * @param deviceId device ID
+     * @param from     start of the range (epoch milliseconds, inclusive)
+     * @param to       end of the range (epoch milliseconds, exclusive)
+     * @return stored messages in received order
+     */
+    List<CachedSample> queryHistory(String deviceId, long from, long to) throws SQLException {
+        String query = "SELECT `DongleID`, `Message`, `ReceivedTime`, `SourceTime` FROM `" + dbName + "` " +
+                "WHERE `DeviceID` = ? AND `ReceivedTime` >= ? AND `ReceivedTime` < ? " +
+                "ORDER BY `ReceivedTime`, `ID`;";
+        List<CachedSample> samples = new ArrayList<>();
+        try (PreparedStatement pStat = dbConnection.prepareStatement(query)) {
+            pStat.setString(1, deviceId);
+            pStat.setTimestamp(2, new Timestamp(from));
+            pStat.setTimestamp(3, new Timestamp(to));
+            try (ResultSet result = pStat.executeQuery()) {
+                while (result.next()) {
+                    Timestamp sourceTime = result.getTimestamp(4);
+                    samples.add(new CachedSample(result.getString(1), deviceId, result.getString(2),
+                            result.getTimestamp(3).getTime(), (sourceTime == null) ? -1 : sourceTime.getTime()));
+                }
+            }
+        }
+        return samples;
+    }
+
+    PreparedStatement prepareStatement(Connection connection, String tableName)
             throws SQLException {
-        String query = "INSERT INTO `" + tableName + "` " +
-                "(`DongleID`, `DeviceID`, `Message`, `ReceivedTime`) VALUES " +
-                "(?,?,?,?);";
+        StringBuilder columns = new StringBuilder("`DongleID`, `DeviceID`, `Message`, `ReceivedTime`, " +
+                "`SourceTime`, `Sequence`");
+        StringBuilder values = new StringBuilder("?,?,?,?,?,?");
+        if (extractor != null) {
+            for (String column : extractor.getColumns()) {
+                columns.append(", `").append(column).append('`');
+                values.append(",?");
+            }
+        }
+        String query = "INSERT INTO `" + tableName + "` (" + columns + ") VALUES (" + values + ");";
         return connection.prepareStatement(query);
     }
 }
@@ -0,0 +1,126 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.rpc.IRpcHandler;
+import edu.upenn.cis.precise.openicelite.middleware.rpc.RpcStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * History query of LoggerH2, served as the "history" RPC method (see RpcServer)
+ * <p>
+ * The request is a JSON object with the optional fields "device_id" (all devices if
+ * absent), "from" and "to" (received time range in epoch milliseconds, to exclusive)
+ * and "limit" (maximum number of rows). The response is one JSON object per line and
+ * per row, with "id", "dongle_id", "device_id", "received_time", "source_time",
+ * "sequence" and "message", in the order rows were logged.
+ * <p>
+ * Rows are read in pages by ID, so each query holds the database only briefly and a
+ * long pull does not stall logging, however slowly the caller consumes it.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class LoggerHistory implements IRpcHandler {
+    static final String METHOD = "history";
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final Connection connection;
+    private final String tableName;
+    private final Gson gson = new Gson();
+
+    /**
+     * History query constructor
+     *
+     * @param connection opened connection to database
+     * @param tableName  table name
+     */
+    LoggerHistory(Connection connection, String tableName) {
+        this.connection = connection;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void handle(byte[] request, RpcStream stream) throws Exception {
+        Query query = (request.length == 0) ? new Query() :
+                gson.fromJson(new String(request, StandardCharsets.UTF_8), Query.class);
+        if (query == null) query = new Query();
+        long remaining = (query.limit == null) ? Long.MAX_VALUE : query.limit;
+
+        Writer writer = new OutputStreamWriter(stream.getOutputStream(), StandardCharsets.UTF_8);
+        long lastId = Long.MIN_VALUE;
+        try (PreparedStatement pStat = prepareQuery(query)) {
+            while (remaining > 0 && !stream.isCancelled()) {
+                int page = (int) Math.min(PAGE_SIZE, remaining);
+                int index = 1;
+                pStat.setLong(index++, lastId);
+                if (query.deviceId != null) pStat.setString(index++, query.deviceId);
+                if (query.from != null) pStat.setTimestamp(index++, new Timestamp(query.from));
+                if (query.to != null) pStat.setTimestamp(index++, new Timestamp(query.to));
+                pStat.setInt(index, page);
+
+                // Read the page before writing, since writing blocks on the caller
+                JsonObject[] rows = new JsonObject[page];
+                int count = 0;
+                try (ResultSet result = pStat.executeQuery()) {
+                    while (result.next()) {
+                        lastId = result.getLong(1);
+                        rows[count++] = toJson(result);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    gson.toJson(rows[i], writer);
+                    writer.write('\n');
+                }
+                remaining -= count;
+                if (count < page) break;
+            }
+        }
+        writer.flush();
+    }
+
+    private PreparedStatement prepareQuery(Query query) throws SQLException {
+        String sql = "SELECT `ID`, `DongleID`, `DeviceID`, `ReceivedTime`, `SourceTime`, `Sequence`, `Message` " +
+                "FROM `" + tableName + "` WHERE `ID` > ?" +
+                ((query.deviceId != null) ? " AND `DeviceID` = ?" : "") +
+                ((query.from != null) ? " AND `ReceivedTime` >= ?" : "") +
+                ((query.to != null) ? " AND `ReceivedTime` < ?" : "") +
+                " ORDER BY `ID` LIMIT ?;";
+        return connection.prepareStatement(sql);
+    }
+
+    private static JsonObject toJson(ResultSet result) throws SQLException {
+        JsonObject row = new JsonObject();
+        row.addProperty("id", result.getLong(1));
+        row.addProperty("dongle_id", result.getString(2));
+        row.addProperty("device_id", result.getString(3));
+        row.addProperty("received_time", result.getTimestamp(4).getTime());
+        Timestamp sourceTime = result.getTimestamp(5);
+        if (sourceTime != null) row.addProperty("source_time", sourceTime.getTime());
+        long sequence = result.getLong(6);
+        if (!result.wasNull()) row.addProperty("sequence", sequence);
+        row.addProperty("message", result.getString(7));
+        return row;
+    }
+
+    /**
+     * Request of a history query
+     */
+    private static class Query {
+        @SerializedName("device_id")
+        private String deviceId;
+        private Long from;
+        private Long to;
+        private Long limit;
+    }
+}
@@ -0,0 +1,492 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IGracefulShutdown;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ShutdownHook;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replay a session logged by LoggerH2 onto the data topics it was received on, at its
+ * original pace or faster (e.g., to validate algorithms against recorded data)
+ * <p>
+ * Rows are read through a streaming cursor ordered by received time (an index on it is
+ * created once if missing) by a reader thread, which keeps a window of rows prefetched
+ * ahead of publishing. Messages are republished through Dongle.publish on the data
+ * topic of their original dongle and device. Each message is due at its original
+ * offset from the first row divided by the speed factor, measured from the start of
+ * the replay, so spacing errors do not accumulate; messages found late are published
+ * immediately and the maximum lag is reported. With a speed of 0 messages are
+ * published as fast as the broker accepts them: publishing pauses while the number of
+ * unacknowledged messages of the dongle reaches its in-flight limit, instead of
+ * having publishes rejected.
+ * <p>
+ * Available options for initialization (with those of Dongle):
+ * - "db_user":             (required) username to access H2 database file
+ * - "db_pass":             (required) password to access H2 database file
+ * - "db_encryption_pass":  (required) encryption password to access H2 database file
+ * - "project_name":        project name of the logged session and the replay
+ *                              (default to DEFAULT)
+ * - "db_dir":              relative path to directory of the database file
+ * - "replay_speed":        speed factor over the original spacing, 0 to publish as fast
+ *                              as possible (default to 1)
+ * - "replay_from":         replay rows received from this epoch time in milliseconds
+ *                              (default to the first row)
+ * - "replay_to":           replay rows received before this epoch time in milliseconds
+ *                              (default to the last row)
+ * - "replay_device_id":    only replay messages of this device (default to all)
+ * - "replay_prefetch":     number of rows read ahead of publishing (default to 8192)
+ * - "max_in_flight":       in-flight limit of the dongle (default to 1000)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LoggerReplay implements IGracefulShutdown {
+    private static final String PROPERTIES_FILE_NAME = "logger_replay.properties";
+    private static final String UUID = java.util.UUID.randomUUID().toString();
+    private static final String DB_CONNECTION = "jdbc:h2:";
+    private static final int BATCH_SIZE = 256;
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Logger logger = LogManager.getLogger(LoggerReplay.class);
+
+    private final String clientName;
+    private final String dbDir;
+    private final String dbName;
+    private final String dbUser;
+    private final String dbPass;
+    private final String dbEncryptionPass;
+    private final HashMap<String, Object> options;
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    // Overwritten-able configuration
+    private double speed = 1;
+    private Long from = null;
+    private Long to = null;
+    private String deviceId = null;
+    private int prefetch = 8192;
+    private int maxInFlight = 1000;
+
+    // Running objects
+    private Connection dbConnection;
+    private Dongle middleware;
+    private ITopicHandler topicHandler;
+    private volatile Thread publisher;
+
+    // Statistics of the last replay
+    private volatile long published = 0;
+    private volatile long maxLagNanos = 0;
+    private volatile long stalls = 0;
+
+    public static void main(String[] args) {
+        logger.info("Starting H2 Logger replay...");
+
+        // Load configuration
+        ClassLoader loader = LoggerReplay.class.getClassLoader();
+        URL propResource = loader.getResource(PROPERTIES_FILE_NAME);
+        File propFile = new File("./" + PROPERTIES_FILE_NAME);
+
+        String clientName = "Replay-" + UUID;
+        String dbDir = "data";
+        String dbName = "DEFAULT";
+        String dbUser = null;
+        String dbPass = null;
+        String dbEncryptionPass = null;
+        HashMap<String, Object> options = new HashMap<>();
+
+        if (propFile.isFile() || propResource != null) {
+            logger.info("Loading configuration from " +
+                    (propFile.isFile() ? "./" : "default ") + PROPERTIES_FILE_NAME + "...");
+            try (InputStream input = (propFile.isFile() ?
+                    new FileInputStream("./" + PROPERTIES_FILE_NAME) :
+                    loader.getResourceAsStream(PROPERTIES_FILE_NAME))) {
+                Properties properties = new Properties();
+                properties.load(input);
+
+                // -- database location
+                if (properties.containsKey("db_dir")) {
+                    dbDir = properties.getProperty("db_dir");
+                }
+                if (properties.containsKey("project_name")) {
+                    dbName = properties.getProperty("project_name");
+                }
+                dbDir = Paths.get(dbDir).toAbsolutePath().toString();
+                logger.info("-- Client Name   : " + clientName);
+                logger.info("-- Data Path     : " + dbDir + "/" + dbName);
+                // -- credentials
+                dbUser = properties.getProperty("db_user");
+                dbPass = properties.getProperty("db_pass");
+                dbEncryptionPass = properties.getProperty("db_encryption_pass");
+
+                if (dbUser == null || dbPass == null || dbEncryptionPass == null) {
+                    throw new IllegalArgumentException("Invalid properties file!");
+                }
+
+                // -- other properties
+                Enumeration<?> p = properties.propertyNames();
+                while (p.hasMoreElements()) {
+                    String key = (String) p.nextElement();
+                    options.put(key, properties.getProperty(key));
+                }
+            } catch (Exception ex) {
+                logger.error("Failed to load configuration!", ex);
+                System.exit(-1);
+            }
+        } else {
+            logger.error("Cannot find configuration file - " + PROPERTIES_FILE_NAME + "!");
+            System.exit(-1);
+        }
+
+        LoggerReplay replay = new LoggerReplay(clientName, dbDir, dbName, dbUser, dbPass, dbEncryptionPass,
+                options);
+        replay.init();
+        Runtime.getRuntime().addShutdownHook(new ShutdownHook(replay));
+
+        replay.startMiddleware();
+        replay.replay();
+        replay.stop();
+        replay.close();
+    }
+
+    /**
+     * Replay constructor
+     *
+     * @param clientName       MQTT Client name
+     * @param dbDir            absolute path to database directory
+     * @param dbName           database file name (project name)
+     * @param dbUser           database username
+     * @param dbPass           database password
+     * @param dbEncryptionPass database encryption password
+     * @param options          replay options and additional options to initialize MQTT dongle
+     */
+    public LoggerReplay(String clientName,
+                        String dbDir, String dbName, String dbUser, String dbPass, String dbEncryptionPass,
+                        HashMap<String, Object> options) {
+        this.clientName = clientName;
+        this.dbDir = dbDir;
+        this.dbName = dbName;
+        this.dbUser = dbUser;
+        this.dbPass = dbPass;
+        this.dbEncryptionPass = dbEncryptionPass;
+        this.options = options;
+
+        if (options != null) {
+            if (options.containsKey("replay_speed")) {
+                speed = Double.parseDouble(options.get("replay_speed").toString());
+            }
+            if (options.containsKey("replay_from")) {
+                from = Long.parseLong(options.get("replay_from").toString());
+            }
+            if (options.containsKey("replay_to")) {
+                to = Long.parseLong(options.get("replay_to").toString());
+            }
+            if (options.containsKey("replay_device_id")) {
+                deviceId = options.get("replay_device_id").toString();
+            }
+            if (options.containsKey("replay_prefetch")) {
+                prefetch = Integer.parseInt(options.get("replay_prefetch").toString());
+            }
+            if (options.containsKey("max_in_flight")) {
+                maxInFlight = Integer.parseInt(options.get("max_in_flight").toString());
+            }
+        }
+        if (speed < 0 || Double.isNaN(speed) || prefetch < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Invalid replay options!");
+        }
+    }
+
+    /**
+     * Open the existing H2 database of the logged session
+     * <p>
+     * Any exception will cause the application to exit without any retry
+     */
+    public void init() {
+        try {
+            Class.forName("org.h2.Driver");
+            dbConnection = DriverManager.getConnection(DB_CONNECTION + dbDir + "/" + dbName +
+                            ";MV_STORE=FALSE;MVCC=FALSE;CIPHER=AES;IFEXISTS=TRUE;LAZY_QUERY_EXECUTION=TRUE",
+                    dbUser, dbEncryptionPass + " " + dbPass);
+            prepareIndex(dbConnection, dbName);
+        } catch (Exception ex) {
+            logger.error("Failed to open database!", ex);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Initialize middleware object, then connect to MQTT broker
+     */
+    public void startMiddleware() {
+        middleware = new Dongle(clientName);
+        middleware.init(options);
+        middleware.connect(null, null, null);
+        topicHandler = new TopicHandler();
+    }
+
+    /**
+     * Use an opened database and middleware instead of init and startMiddleware
+     * (e.g., an in-memory database and a local dongle)
+     *
+     * @param dbConnection opened connection to the database of the logged session
+     * @param middleware   dongle to publish through
+     */
+    void attach(Connection dbConnection, Dongle middleware) {
+        this.dbConnection = dbConnection;
+        this.middleware = middleware;
+        this.topicHandler = new TopicHandler();
+    }
+
+    /**
+     * Replay the session (blocking until all rows are published or stop is called)
+     *
+     * @return number of published messages
+     */
+    public long replay() {
+        if (isRunning.getAndSet(true)) throw new IllegalStateException("Replay is already running!");
+        publisher = Thread.currentThread();
+        middleware.waitConnected();
+        published = 0;
+        maxLagNanos = 0;
+        stalls = 0;
+
+        BlockingQueue<Row[]> queue = new ArrayBlockingQueue<>(Math.max(1, prefetch / BATCH_SIZE));
+        Thread reader = new Thread(() -> read(queue), "LoggerReplay-Reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        logger.info("Replaying " + dbName + " at " + ((speed == 0) ? "full speed" : speed + "x") + "...");
+        try {
+            publish(queue);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            isRunning.set(false);
+            publisher = null;
+            reader.interrupt();
+        }
+        logger.info("Replay finished: " + report());
+        return published;
+    }
+
+    private void publish(BlockingQueue<Row[]> queue) throws InterruptedException {
+        MiddlewareMetrics metrics = middleware.getMetrics();
+        HashMap<String, String> topics = new HashMap<>();
+        HashMap<String, Object> publishOptions = new HashMap<>();
+        long start = 0;
+        long origin = 0;
+        long lastReport = System.nanoTime();
+        long count = 0;
+
+        while (isRunning.get()) {
+            Row[] batch = queue.take();
+            if (batch.length == 0) break;
+            for (Row row : batch) {
+                if (row == null || !isRunning.get()) break;
+                if (count == 0) {
+                    start = System.nanoTime();
+                    origin = row.receivedTime;
+                }
+
+                // Keep the original spacing, scaled by the speed factor
+                if (speed > 0) {
+                    long due = start + (long) ((row.receivedTime - origin) * 1e6 / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait < 0 && -wait > maxLagNanos) maxLagNanos = -wait;
+                    while (wait > 0 && isRunning.get()) {
+                        LockSupport.parkNanos(wait);
+                        wait = due - System.nanoTime();
+                    }
+                    if (!isRunning.get()) break;
+                }
+                // Wait for acknowledgments rather than exceed the in-flight limit
+                if (metrics.getInFlight() >= maxInFlight) {
+                    stalls++;
+                    while (metrics.getInFlight() >= maxInFlight && isRunning.get()) {
+                        LockSupport.parkNanos(50000);
+                    }
+                }
+
+                String key = row.dongleId + "/" + row.deviceId;
+                String topic = topics.get(key);
+                if (topic == null) {
+                    topic = topicHandler.getDataTopic(dbName, row.dongleId, row.deviceId);
+                    topics.put(key, topic);
+                }
+                middleware.publish(topic, row.message, publishOptions);
+                published = ++count;
+            }
+
+            long now = System.nanoTime();
+            if (now - lastReport >= REPORT_INTERVAL) {
+                lastReport = now;
+                logger.info("Replay progress: " + report());
+            }
+        }
+    }
+
+    private void read(BlockingQueue<Row[]> queue) {
+        Row[] batch = new Row[BATCH_SIZE];
+        int count = 0;
+        try (PreparedStatement pStat = prepareQuery(dbConnection, dbName)) {
+            int index = 1;
+            if (deviceId != null) pStat.setString(index++, deviceId);
+            if (from != null) pStat.setTimestamp(index++, new Timestamp(from));
+            if (to != null) pStat.setTimestamp(index, new Timestamp(to));
+            pStat.setFetchSize(BATCH_SIZE * 4);
+            try (ResultSet result = pStat.executeQuery()) {
+                while (result.next() && isRunning.get()) {
+                    batch[count++] = new Row(result.getString(1), result.getString(2), result.getString(3),
+                            result.getTimestamp(4).getTime());
+                    if (count == BATCH_SIZE) {
+                        queue.put(batch);
+                        batch = new Row[BATCH_SIZE];
+                        count = 0;
+                    }
+                }
+            }
+            if (count > 0) queue.put(batch);
+        } catch (InterruptedException ex) {
+            return;
+        } catch (Exception ex) {
+            logger.error("Failed to read logged session!", ex);
+        }
+        try {
+            queue.put(new Row[0]);
+        } catch (InterruptedException ex) {
+            // Publisher is gone
+        }
+    }
+
+    /**
+     * Stop an ongoing replay, then disconnect from MQTT broker
+     */
+    public void stop() {
+        isRunning.set(false);
+        // Wake up the publisher if it is waiting for the due time of a message
+        Thread thread = publisher;
+        if (thread != null) LockSupport.unpark(thread);
+        if (middleware != null) middleware.close();
+    }
+
+    /**
+     * Return the number of messages published by the last replay
+     *
+     * @return number of messages
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * Return the maximum delay of a message behind its due time in the last replay
+     *
+     * @return lag in milliseconds
+     */
+    public double getMaxLagMillis() {
+        return maxLagNanos / 1e6;
+    }
+
+    /**
+     * Return the number of times publishing waited for the in-flight limit
+     *
+     * @return number of stalls
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    private String report() {
+        return String.format("published=%d, max lag=%.3fms, in-flight stalls=%d", published,
+                getMaxLagMillis(), stalls);
+    }
+
+    /**
+     * Disconnect from broker
+     */
+    @Override
+    public void disconnect() {
+        // Does not apply in this context
+    }
+
+    /**
+     * Close and release all associated resource
+     */
+    @Override
+    public void close() {
+        isRunning.set(false);
+        try {
+            if (dbConnection != null && !dbConnection.isClosed()) {
+                logger.info("Closing database...");
+                dbConnection.close();
+            }
+        } catch (Exception ex) {
+            logger.warn("Failed to gracefully shutdown!", ex);
+        }
+    }
+
+    /**
+     * A logged message
+     */
+    private static final class Row {
+        private final String dongleId;
+        private final String deviceId;
+        private final String message;
+        private final long receivedTime;
+
+        private Row(String dongleId, String deviceId, String message, long receivedTime) {
+            this.dongleId = dongleId;
+            this.deviceId = deviceId;
+            this.message = message;
+            this.receivedTime = receivedTime;
+        }
+    }
+
+    // ** H2 SQL Statements ** //
+
+    /**
+     * Create an index on received time if not exists, so rows are streamed in order
+     * instead of sorted first
+     *
+     * @param connection opened connection to database
+     * @param tableName  table name
+     */
+    static void prepareIndex(Connection connection, String tableName) throws SQLException {
+        try (Statement stat = connection.createStatement()) {
+            stat.execute("CREATE INDEX IF NOT EXISTS `" + tableName + "_ReceivedTime` ON `" + tableName +
+                    "` (`ReceivedTime`, `ID`);");
+        }
+    }
+
+    PreparedStatement prepareQuery(Connection connection, String tableName) throws SQLException {
+        String query = "SELECT `DongleID`, `DeviceID`, `Message`, `ReceivedTime` FROM `" + tableName + "`" +
+                " WHERE TRUE" +
+                ((deviceId != null) ? " AND `DeviceID` = ?" : "") +
+                ((from != null) ? " AND `ReceivedTime` >= ?" : "") +
+                ((to != null) ? " AND `ReceivedTime` < ?" : "") +
+                " ORDER BY `ReceivedTime`, `ID`;";
+        return connection.prepareStatement(query);
+    }
+}
@@ -0,0 +1,200 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A logical dongle hosted by a Gateway
+ * <p>
+ * Logical dongle keeps its own DongleInfo, status topic and data topics, but has no
+ * MQTT client of its own - all traffic goes through the gateway connection.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class LogicalDongle implements IMiddleware {
+    private final Gateway gateway;
+    private final String dongleId;
+    private final DongleInfo info;
+
+    private final HashMap<String, IMiddlewareCallback> subscriptions = new HashMap<>();
+    private final IMiddlewareCallback fallback = new FallbackCallback();
+    private volatile IMiddlewareCallback callback;
+
+    LogicalDongle(Gateway gateway, String dongleId) {
+        this.gateway = gateway;
+        this.dongleId = dongleId;
+        this.info = new DongleInfo(dongleId);
+    }
+
+    /**
+     * Configuration is shared with the gateway - options are ignored
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        // Does not apply in this context
+    }
+
+    /**
+     * Connection is shared with the gateway - block until the gateway is connected
+     *
+     * @param address ignored
+     * @param name    ignored
+     * @param options ignored
+     */
+    @Override
+    public void connect(String address, String name, HashMap<String, Object> options) {
+        gateway.waitConnected();
+    }
+
+    /**
+     * Drop all subscriptions of this logical dongle (the gateway connection stays open)
+     */
+    @Override
+    public void disconnect() {
+        unsubscribeAll();
+    }
+
+    /**
+     * Detach this logical dongle from the gateway
+     */
+    @Override
+    public void close() {
+        gateway.removeDongle(dongleId);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return gateway.isConnected();
+    }
+
+    @Override
+    public void waitConnected() {
+        gateway.waitConnected();
+    }
+
+    @Override
+    public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        IMiddlewareCallback target = (callback != null) ? callback : fallback;
+        IMiddlewareCallback previous;
+        synchronized (subscriptions) {
+            previous = subscriptions.put(topic, target);
+        }
+        // Routed once per subscription, so the gateway count matches unsubscribes; the
+        // new callback is routed first, so the broker subscription is kept meanwhile
+        if (previous == target) return;
+        gateway.route(topic, target);
+        if (previous != null) gateway.unroute(topic, previous);
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        IMiddlewareCallback target;
+        synchronized (subscriptions) {
+            target = subscriptions.remove(topic);
+        }
+        if (target != null) gateway.unroute(topic, target);
+    }
+
+    @Override
+    public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+        gateway.publishMessage(topic, message, options);
+    }
+
+    @Override
+    public void publish(String topic, String message, HashMap<String, Object> options) {
+        gateway.publishMessage(topic, message.getBytes(), options);
+    }
+
+    @Override
+    public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        gateway.publishMessage(getDataTopic(deviceId), message, options);
+    }
+
+    @Override
+    public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        gateway.publishMessage(getDataTopic(deviceId), message.getBytes(), options);
+    }
+
+    @Override
+    public void setCallback(IMiddlewareCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+    }
+
+    @Override
+    public void addDevice(DeviceInfo info) {
+        synchronized (this.info) {
+            this.info.addDevice(info);
+        }
+    }
+
+    @Override
+    public void removeDevice(String deviceId) {
+        synchronized (this.info) {
+            this.info.removeDevice(deviceId);
+        }
+    }
+
+    /**
+     * Publish this logical dongle information to its own status topic
+     *
+     * @param gson    serializer to use
+     * @param options publishing options
+     */
+    void reportStatus(Gson gson, HashMap<String, Object> options) {
+        String message;
+        synchronized (info) {
+            message = gson.toJson(info);
+        }
+        gateway.publishMessage(getStatusTopic(), message.getBytes(), options);
+    }
+
+    void unsubscribeAll() {
+        ArrayList<Map.Entry<String, IMiddlewareCallback>> entries;
+        synchronized (subscriptions) {
+            entries = new ArrayList<>(subscriptions.entrySet());
+            subscriptions.clear();
+        }
+        for (Map.Entry<String, IMiddlewareCallback> entry : entries) {
+            gateway.unroute(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Computed on use, since the project name is only known once the gateway is initialized
+    private String getStatusTopic() {
+        return gateway.getTopicHandler().getStatusTopic(gateway.getProjectName(), dongleId);
+    }
+
+    private String getDataTopic(String deviceId) {
+        return gateway.getTopicHandler().getDataTopic(gateway.getProjectName(), dongleId, deviceId);
+    }
+
+    /**
+     * Forward messages of subscriptions without explicit callback to the current
+     * callback of this logical dongle
+     */
+    private class FallbackCallback implements IMiddlewareCallback {
+        @Override
+        public void handleMessage(String topic, byte[] message) {
+            IMiddlewareCallback target = callback;
+            if (target != null) target.handleMessage(topic, message);
+        }
+
+        @Override
+        public void handleMessage(String topic, String message) {
+            IMiddlewareCallback target = callback;
+            if (target != null) target.handleMessage(topic, message);
+        }
+    }
+}
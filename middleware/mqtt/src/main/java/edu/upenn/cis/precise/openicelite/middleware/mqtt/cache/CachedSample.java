@@ -0,0 +1,93 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.cache;
+
+/**
+ * A device message held by DataCache
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public final class CachedSample {
+    // Approximate heap overhead of a sample, its strings and its ring slot
+    private static final int OVERHEAD = 96;
+
+    private final String dongleId;
+    private final String deviceId;
+    private final String message;
+    private final long receivedTime;
+    private final long sourceTime;
+
+    /**
+     * Cached sample constructor
+     *
+     * @param dongleId     dongle ID
+     * @param deviceId     device ID
+     * @param message      device message
+     * @param receivedTime received time (epoch milliseconds)
+     * @param sourceTime   source time (epoch milliseconds, -1 if unknown)
+     */
+    public CachedSample(String dongleId, String deviceId, String message, long receivedTime, long sourceTime) {
+        this.dongleId = dongleId;
+        this.deviceId = deviceId;
+        this.message = message;
+        this.receivedTime = receivedTime;
+        this.sourceTime = sourceTime;
+    }
+
+    /**
+     * Return the dongle ID
+     *
+     * @return dongle ID
+     */
+    public String getDongleId() {
+        return dongleId;
+    }
+
+    /**
+     * Return the device ID
+     *
+     * @return device ID
+     */
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Return the device message
+     *
+     * @return message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Return the time the logger received the message
+     *
+     * @return epoch time in milliseconds
+     */
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    /**
+     * Return the source time of the message in logger clock
+     *
+     * @return epoch time in milliseconds (-1 if unknown)
+     */
+    public long getSourceTime() {
+        return sourceTime;
+    }
+
+    /**
+     * Return the approximate memory held by this sample
+     *
+     * @return size in bytes
+     */
+    int getSize() {
+        return OVERHEAD + 2 * message.length();
+    }
+
+    @Override
+    public String toString() {
+        return deviceId + "@" + receivedTime + ": " + message;
+    }
+}
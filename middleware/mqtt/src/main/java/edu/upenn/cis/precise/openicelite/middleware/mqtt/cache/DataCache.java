@@ -0,0 +1,249 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.cache;
+
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.ILoggerListener;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory cache of the latest message and a recent window of messages per device,
+ * fed with the messages logged by LoggerH2 (see ILoggerListener)
+ * <p>
+ * The latest message of a device is read without locking, and recent windows are
+ * copied under a per-device lock, so hot queries (e.g., the current HR of a bed, or
+ * the last 5 minutes of its SpO2) are served from memory in microseconds. Each window
+ * is bounded by age and number of samples. Once the memory held by all windows
+ * exceeds the budget, the oldest samples of the inserting device are evicted while it
+ * holds more than its fair share of the budget, then those of the largest windows.
+ * <p>
+ * Each window knows the time from which it holds every sample. Range queries
+ * starting earlier read the older part from the history source (e.g., the H2 database
+ * of the logger) and only the rest from memory; without a history source they return
+ * the cached part only.
+ * <p>
+ * Available options for initialization:
+ * - "cache_window":        maximum age in milliseconds of cached samples, relative to
+ *                              the latest sample of the device (default to 300000)
+ * - "cache_samples":       maximum number of cached samples per device (default to 4096)
+ * - "cache_max_bytes":     memory budget of all windows in bytes (default to 67108864)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DataCache implements ILoggerListener {
+    private final ConcurrentHashMap<String, DeviceWindow> devices = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final long started = System.currentTimeMillis();
+    private final IHistorySource history;
+
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder memoryReads = new LongAdder();
+    private final LongAdder historyReads = new LongAdder();
+
+    // Overwritten-able configuration
+    private long window = 300000;
+    private int maxSamples = 4096;
+    private long maxBytes = 67108864;
+
+    /**
+     * Data cache constructor
+     *
+     * @param history source of data older than the cached windows (null if none)
+     */
+    public DataCache(IHistorySource history) {
+        this.history = history;
+    }
+
+    /**
+     * Load cache options (before the first sample)
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("cache_window")) {
+            window = Long.parseLong(options.get("cache_window").toString());
+        }
+        if (options.containsKey("cache_samples")) {
+            maxSamples = Integer.parseInt(options.get("cache_samples").toString());
+        }
+        if (options.containsKey("cache_max_bytes")) {
+            maxBytes = Long.parseLong(options.get("cache_max_bytes").toString());
+        }
+        if (window < 1 || maxSamples < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Invalid cache options!");
+        }
+    }
+
+    @Override
+    public void onLogged(String dongleId, String deviceId, String message, long receivedTime, long sourceTime) {
+        put(new CachedSample(dongleId, deviceId, message, receivedTime, sourceTime));
+    }
+
+    /**
+     * Add a sample (samples of a device must be added in received order)
+     *
+     * @param sample the sample
+     */
+    public void put(CachedSample sample) {
+        DeviceWindow device = devices.computeIfAbsent(sample.getDeviceId(), k -> new DeviceWindow(started));
+        long delta = device.add(sample, sample.getReceivedTime() - window, maxSamples);
+        inserted.increment();
+        if (bytes.addAndGet(delta) > maxBytes) evict(device);
+    }
+
+    private void evict(DeviceWindow device) {
+        long share = maxBytes / Math.max(1, devices.size());
+        while (bytes.get() > maxBytes && device.getBytes() > share) {
+            if (!evictOldest(device)) break;
+        }
+        while (bytes.get() > maxBytes) {
+            DeviceWindow largest = null;
+            long largestBytes = 0;
+            for (DeviceWindow other : devices.values()) {
+                long size = other.getBytes();
+                if (size > largestBytes) {
+                    largest = other;
+                    largestBytes = size;
+                }
+            }
+            if (largest == null || !evictOldest(largest)) break;
+        }
+    }
+
+    private boolean evictOldest(DeviceWindow device) {
+        long freed = device.removeOldest();
+        if (freed == 0) return false;
+        bytes.addAndGet(-freed);
+        evicted.increment();
+        return true;
+    }
+
+    /**
+     * Return the latest sample of a device
+     *
+     * @param deviceId device ID
+     * @return latest sample (null if none since the cache started)
+     */
+    public CachedSample getLatest(String deviceId) {
+        DeviceWindow device = devices.get(deviceId);
+        return (device == null) ? null : device.getLatest();
+    }
+
+    /**
+     * Return the samples of a device received in the last period of time
+     *
+     * @param deviceId device ID
+     * @param millis   period in milliseconds
+     * @return samples in received order
+     * @throws SQLException if older samples are needed and cannot be read
+     */
+    public List<CachedSample> getRecent(String deviceId, long millis) throws SQLException {
+        return getRange(deviceId, System.currentTimeMillis() - millis, Long.MAX_VALUE);
+    }
+
+    /**
+     * Return the samples of a device received in a time range, from memory as far as
+     * the cached window reaches and from the history source before
+     *
+     * @param deviceId device ID
+     * @param from     start of the range (epoch milliseconds, inclusive)
+     * @param to       end of the range (epoch milliseconds, exclusive)
+     * @return samples in received order
+     * @throws SQLException if older samples are needed and cannot be read
+     */
+    public List<CachedSample> getRange(String deviceId, long from, long to) throws SQLException {
+        DeviceWindow device = devices.get(deviceId);
+        List<CachedSample> recent = new ArrayList<>();
+        long covered = (device == null) ? started : device.copy(from, to, recent);
+        if (from >= covered || history == null) {
+            memoryReads.increment();
+            return recent;
+        }
+        historyReads.increment();
+        List<CachedSample> samples = new ArrayList<>(history.query(deviceId, from, Math.min(to, covered)));
+        samples.addAll(recent);
+        return samples;
+    }
+
+    /**
+     * Return the IDs of cached devices
+     *
+     * @return device IDs
+     */
+    public Set<String> getDevices() {
+        return Collections.unmodifiableSet(devices.keySet());
+    }
+
+    /**
+     * Return the number of cached samples
+     *
+     * @return number of samples
+     */
+    public long getSamples() {
+        long samples = 0;
+        for (DeviceWindow device : devices.values()) {
+            samples += device.size();
+        }
+        return samples;
+    }
+
+    /**
+     * Return the approximate memory held by the cached windows
+     *
+     * @return size in bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Return the number of added samples
+     *
+     * @return number of samples
+     */
+    public long getInserted() {
+        return inserted.sum();
+    }
+
+    /**
+     * Return the number of samples evicted to stay within the memory budget
+     *
+     * @return number of samples
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Return the number of range queries served from memory only
+     *
+     * @return number of queries
+     */
+    public long getMemoryReads() {
+        return memoryReads.sum();
+    }
+
+    /**
+     * Return the number of range queries which read the history source
+     *
+     * @return number of queries
+     */
+    public long getHistoryReads() {
+        return historyReads.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache: devices=%d, samples=%d, bytes=%d, inserted=%d, evicted=%d, " +
+                        "memory reads=%d, history reads=%d", devices.size(), getSamples(), getBytes(),
+                getInserted(), getEvicted(), getMemoryReads(), getHistoryReads());
+    }
+}
@@ -0,0 +1,116 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.cache;
+
+import java.util.List;
+
+/**
+ * Recent samples of one device in received order, in a ring growing up to the
+ * maximum number of samples
+ * <p>
+ * The window is complete from its covered time: every sample received since then
+ * is held, older ones were evicted or received before the cache started.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+final class DeviceWindow {
+    private CachedSample[] ring = new CachedSample[16];
+    private int head = 0;
+    private int count = 0;
+    private long bytes = 0;
+    private long coveredFrom;
+    private volatile CachedSample latest;
+
+    DeviceWindow(long coveredFrom) {
+        this.coveredFrom = coveredFrom;
+    }
+
+    /**
+     * Append a sample after evicting samples older than a time or beyond the
+     * maximum number of samples
+     *
+     * @return change of held bytes
+     */
+    synchronized long add(CachedSample sample, long oldest, int maxSamples) {
+        latest = sample;
+        long delta = 0;
+        while (count > 0 && (count >= maxSamples || ring[head].getReceivedTime() < oldest)) {
+            delta -= removeFirst();
+        }
+        if (count == ring.length) grow(maxSamples);
+        ring[index(count)] = sample;
+        count++;
+        bytes += sample.getSize();
+        return delta + sample.getSize();
+    }
+
+    /**
+     * Evict the oldest sample
+     *
+     * @return freed bytes (0 if empty)
+     */
+    synchronized long removeOldest() {
+        return (count == 0) ? 0 : removeFirst();
+    }
+
+    private long removeFirst() {
+        CachedSample sample = ring[head];
+        ring[head] = null;
+        head = index(1);
+        count--;
+        bytes -= sample.getSize();
+        coveredFrom = Math.max(coveredFrom, sample.getReceivedTime() + 1);
+        return sample.getSize();
+    }
+
+    private void grow(int maxSamples) {
+        CachedSample[] larger = new CachedSample[Math.max(count + 1, Math.min(ring.length * 2, maxSamples))];
+        for (int i = 0; i < count; i++) {
+            larger[i] = ring[index(i)];
+        }
+        ring = larger;
+        head = 0;
+    }
+
+    private int index(int i) {
+        int index = head + i;
+        return (index >= ring.length) ? index - ring.length : index;
+    }
+
+    /**
+     * Copy the held samples received in a time range, from the covered time at the
+     * earliest
+     *
+     * @return covered time when copied
+     */
+    synchronized long copy(long from, long to, List<CachedSample> output) {
+        long start = Math.max(from, coveredFrom);
+        // Binary search for the first sample received at start or later
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ring[index(middle)].getReceivedTime() < start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < count; i++) {
+            CachedSample sample = ring[index(i)];
+            if (sample.getReceivedTime() >= to) break;
+            output.add(sample);
+        }
+        return coveredFrom;
+    }
+
+    CachedSample getLatest() {
+        return latest;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+}
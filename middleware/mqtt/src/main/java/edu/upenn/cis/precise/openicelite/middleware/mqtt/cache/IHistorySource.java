@@ -0,0 +1,23 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.cache;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Interface for the store DataCache reads data older than its window from (e.g., the
+ * H2 database of LoggerH2)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IHistorySource {
+    /**
+     * Read the messages of a device received in a time range, in received order
+     *
+     * @param deviceId device ID
+     * @param from     start of the range (epoch milliseconds, inclusive)
+     * @param to       end of the range (epoch milliseconds, exclusive)
+     * @return stored messages
+     * @throws SQLException if the store cannot be read
+     */
+    List<CachedSample> query(String deviceId, long from, long to) throws SQLException;
+}
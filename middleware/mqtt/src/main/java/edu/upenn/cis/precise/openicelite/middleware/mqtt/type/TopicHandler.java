@@ -1,6 +1,7 @@
 package edu.upenn.cis.precise.openicelite.middleware.mqtt.type;
 
 import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
 
 /**
  * Shared class to ensure standardized and centralized place for MQTT topic
@@ -13,6 +14,8 @@ public class TopicHandler implements ITopicHandler {
     private static final String TOPIC_CLIENT = "Client";
     private static final String TOPIC_STATUS = "Status";
     private static final String TOPIC_DATA = "Data";
+    private static final String TOPIC_SYSMON = "Sysmon";
+    private static final String TOPIC_ALARM = "Alarm";
 
     public TopicHandler() {
 
@@ -60,6 +63,23 @@ public class TopicHandler implements ITopicHandler {
         return TOPIC_BASE + projectName + "/" + TOPIC_CLIENT + "/" + clientName;
     }
 
+    /**
+     * Return a channel under the topic of corresponding client
+     *
+     * @param projectName project name
+     * @param clientName client name
+     * @param channel channel name
+     * @return corresponding topic name
+     */
+    @Override
+    public String getClientTopic(String projectName, String clientName, String channel) {
+        if (channel == null || channel.isEmpty()) {
+            return null;
+        }
+        String clientTopic = getClientTopic(projectName, clientName);
+        return (clientTopic == null) ? null : clientTopic + "/" + channel;
+    }
+
     /**
      * Return root topic for all statues (should be used by MapManager to subscribe to
      * all status topics)
@@ -123,6 +143,70 @@ public class TopicHandler implements ITopicHandler {
         return TOPIC_BASE + projectName + "/" + TOPIC_DATA + "/" + dongleId + "/" + deviceId;
     }
 
+    /**
+     * Return root topic for all runtime telemetry
+     *
+     * @param projectName project name
+     * @return corresponding topic name
+     */
+    @Override
+    public String getSysmonBaseTopic(String projectName) {
+        if (projectName == null || projectName.isEmpty()) {
+            return null;
+        }
+        return TOPIC_BASE + projectName + "/" + TOPIC_SYSMON + "/#";
+    }
+
+    /**
+     * Return runtime telemetry topic based on project name, dongle ID
+     *
+     * @param projectName project name
+     * @param dongleId    dongle ID
+     * @return corresponding topic name
+     */
+    @Override
+    public String getSysmonTopic(String projectName, String dongleId) {
+        if (projectName == null || projectName.isEmpty()
+                || dongleId == null || dongleId.isEmpty()) {
+            return null;
+        }
+
+        return TOPIC_BASE + projectName + "/" + TOPIC_SYSMON + "/" + dongleId;
+    }
+
+    /**
+     * Return root topic for all alarms
+     *
+     * @param projectName project name
+     * @return corresponding topic name
+     */
+    @Override
+    public String getAlarmBaseTopic(String projectName) {
+        if (projectName == null || projectName.isEmpty()) {
+            return null;
+        }
+        return TOPIC_BASE + projectName + "/" + TOPIC_ALARM + "/#";
+    }
+
+    /**
+     * Return alarm topic based on project name, dongle ID, and device ID
+     *
+     * @param projectName project name
+     * @param dongleId    dongle ID of the device
+     * @param deviceId    device ID
+     * @return corresponding topic name
+     */
+    @Override
+    public String getAlarmTopic(String projectName, String dongleId, String deviceId) {
+        if (projectName == null || projectName.isEmpty()
+                || dongleId == null || dongleId.isEmpty()
+                || deviceId == null || deviceId.isEmpty()) {
+            return null;
+        }
+
+        return TOPIC_BASE + projectName + "/" + TOPIC_ALARM + "/" + dongleId + "/" + deviceId;
+    }
+
     /**
      * Return topic type from published topic
      *
@@ -134,6 +218,8 @@ public class TopicHandler implements ITopicHandler {
         if (topic == null || topic.isEmpty()) return null;
 
         String[] tokens = topic.replace(TOPIC_BASE, "").split("/");
+        // Telemetry topics have no device level
+        if (tokens.length == 3 && TOPIC_SYSMON.equals(tokens[1])) return TopicType.SYSMON;
         if (tokens.length < 4) return null;
         switch (tokens[1]) {
             case "Data":
@@ -142,6 +228,8 @@ public class TopicHandler implements ITopicHandler {
                 return TopicType.STATUS;
             case "Client":
                 return TopicType.CLIENT;
+            case "Alarm":
+                return TopicType.ALARM;
             default:
                 return null;
         }
@@ -212,4 +300,54 @@ public class TopicHandler implements ITopicHandler {
         if (tokens.length < 4) return null;
         return tokens[3];
     }
+
+    /**
+     * Split a published topic into its parts in a single pass (called for every
+     * message delivered to buffer-aware callbacks)
+     *
+     * @param topic topic name
+     * @return parsed topic (null if the topic is null)
+     */
+    @Override
+    public ParsedTopic parseTopic(String topic) {
+        if (topic == null) return null;
+        if (!topic.startsWith(TOPIC_BASE)) return new ParsedTopic(topic, null, null, null, null);
+
+        // Boundaries of the first four levels after the base topic
+        String[] tokens = new String[4];
+        int count = 0;
+        int start = TOPIC_BASE.length();
+        while (count < tokens.length) {
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                tokens[count++] = topic.substring(start);
+                break;
+            }
+            tokens[count++] = topic.substring(start, end);
+            start = end + 1;
+        }
+
+        if (count == 3 && TOPIC_SYSMON.equals(tokens[1])) {
+            return new ParsedTopic(topic, TopicType.SYSMON, tokens[0], tokens[2], null);
+        }
+        if (count < 4) return new ParsedTopic(topic, null, null, null, null);
+        TopicType type;
+        switch (tokens[1]) {
+            case TOPIC_DATA:
+                type = TopicType.DATA;
+                break;
+            case TOPIC_STATUS:
+                type = TopicType.STATUS;
+                break;
+            case TOPIC_CLIENT:
+                type = TopicType.CLIENT;
+                break;
+            case TOPIC_ALARM:
+                type = TopicType.ALARM;
+                break;
+            default:
+                type = null;
+        }
+        return new ParsedTopic(topic, type, tokens[0], tokens[2], tokens[3]);
+    }
 }
@@ -0,0 +1,128 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Helper to encrypt/decrypt MQTT messages with AES-GCM
+ * <p>
+ * Encrypted message layout: IV (12 bytes) followed by cipher text and tag.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class AESUtil {
+    private static final Logger logger = LogManager.getLogger(AESUtil.class);
+
+    public static final int MIN_AES_KEY_LENGTH = 16;
+    public static final int IV_LEN = 12;
+    public static final int TAG_LEN = 16;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Derive an AES key from a shared secret
+     *
+     * @param key shared secret (at least 16 characters)
+     * @return AES key
+     */
+    public static SecretKeySpec getKey(String key) {
+        if (key == null || key.length() < MIN_AES_KEY_LENGTH) {
+            logger.error("Invalid AES key: " + key);
+            throw new IllegalArgumentException("Invalid AES key");
+        }
+
+        try {
+            MessageDigest digester = MessageDigest.getInstance("SHA-256");
+            digester.update(key.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(digester.digest(), "AES");
+        } catch (NoSuchAlgorithmException ex) {
+            logger.error("Failed to initialize AES encryption!", ex);
+            throw new IllegalArgumentException("Failed to AES encryption - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Encrypt message before publishing to MQTT broker
+     *
+     * @param key     AES key
+     * @param message plaintext message to be encrypted as a byte array
+     * @return cipher text as a byte array
+     */
+    public static byte[] encrypt(SecretKeySpec key, byte[] message) {
+        try {
+            // Prepare environment
+            byte[] iv = new byte[IV_LEN];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            GCMParameterSpec params = new GCMParameterSpec(TAG_LEN * Byte.SIZE, iv);
+            cipher.init(Cipher.ENCRYPT_MODE, key, params);
+
+            // Perform encryption
+            byte[] encrypted = new byte[IV_LEN + cipher.getOutputSize(message.length)];
+            System.arraycopy(iv, 0, encrypted, 0, IV_LEN);
+            cipher.doFinal(message, 0, message.length, encrypted, IV_LEN);
+
+            return encrypted;
+        } catch (Exception ex) {
+            logger.error("Failed to encrypt message!", ex);
+            throw new IllegalArgumentException("Failed to encrypt message - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt message from MQTT broker (the message was encrypted by the publisher and
+     * should be confidential with the broker)
+     *
+     * @param key     AES key
+     * @param message cipher text to be decrypted as a byte array
+     * @return plaintext as a byte array
+     */
+    public static byte[] decrypt(SecretKeySpec key, byte[] message) {
+        try {
+            // Prepare environment
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            GCMParameterSpec params = new GCMParameterSpec(TAG_LEN * Byte.SIZE, message, 0, IV_LEN);
+            cipher.init(Cipher.DECRYPT_MODE, key, params);
+
+            return cipher.doFinal(message, IV_LEN, message.length - IV_LEN);
+        } catch (Exception ex) {
+            logger.error("Failed to decrypt message!", ex);
+            throw new IllegalArgumentException("Failed to decrypt message - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt message from MQTT broker into a buffer, without copying the cipher text
+     *
+     * @param key     AES key
+     * @param message cipher text between position and limit (left unchanged)
+     * @param output  buffer to write the plaintext at its position (must have at least
+     *                cipher text length - IV_LEN - TAG_LEN bytes remaining)
+     * @return plaintext length
+     */
+    public static int decrypt(SecretKeySpec key, ByteBuffer message, ByteBuffer output) {
+        try {
+            // Prepare environment
+            ByteBuffer input = message.duplicate();
+            byte[] iv = new byte[IV_LEN];
+            input.get(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            GCMParameterSpec params = new GCMParameterSpec(TAG_LEN * Byte.SIZE, iv);
+            cipher.init(Cipher.DECRYPT_MODE, key, params);
+
+            return cipher.doFinal(input, output);
+        } catch (Exception ex) {
+            logger.error("Failed to decrypt message!", ex);
+            throw new IllegalArgumentException("Failed to decrypt message - " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ParsedTopic;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.ITraceCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceEnvelope;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceRecord;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DongleTest {
+    private static final String DONGLE_ID = "5c0e1a7d-93b2-4f61-a8d4-2e7f90c3b615";
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+    private static final TopicHandler topics = new TopicHandler();
+    private static final String DATA_TOPIC = topics.getDataTopic("DEFAULT", DONGLE_ID, DEVICE_ID);
+    private static final String STATUS_TOPIC = topics.getStatusTopic("DEFAULT", DONGLE_ID);
+
+    @Test
+    public void untracedPayloadStartingWithMagicIsDeliveredUnchanged() {
+        // E.g. a binary sample or an IV that happens to start with 00 'T' 'R' 01
+        byte[] payload = new byte[64];
+        payload[1] = 'T';
+        payload[2] = 'R';
+        payload[3] = 1;
+        for (int i = 4; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        assertTrue(TraceEnvelope.isTraced(payload));
+
+        Dongle dongle = dongle(false);
+        assertArrayEquals(payload, dongle.readPayload(DATA_TOPIC, new MqttMessage(payload)));
+
+        Recorder arrays = new Recorder();
+        dongle.deliver(arrays, DATA_TOPIC, new MqttMessage(payload));
+        assertArrayEquals(payload, arrays.bytes);
+        assertNull(arrays.trace);
+
+        BufferRecorder buffers = new BufferRecorder();
+        dongle.deliver(buffers, DATA_TOPIC, new MqttMessage(payload));
+        assertArrayEquals(payload, buffers.bytes);
+    }
+
+    @Test
+    public void tracedDongleUnwrapsDeviceMessagesOnly() {
+        byte[] payload = "{\"hr\":72}".getBytes(StandardCharsets.UTF_8);
+        byte[] traced = TraceEnvelope.wrap(7, 100, 200, payload);
+        Dongle dongle = dongle(true);
+
+        Recorder recorder = new Recorder();
+        dongle.deliver(recorder, DATA_TOPIC, new MqttMessage(traced));
+        assertArrayEquals(payload, recorder.bytes);
+        assertNotNull(recorder.trace);
+        assertEquals(7, recorder.trace.getSequence());
+
+        BufferRecorder buffers = new BufferRecorder();
+        dongle.deliver(buffers, DATA_TOPIC, new MqttMessage(traced));
+        assertArrayEquals(payload, buffers.bytes);
+
+        // Only device messages are traced, so other topics are never unwrapped
+        assertArrayEquals(traced, dongle.readPayload(STATUS_TOPIC, new MqttMessage(traced)));
+    }
+
+    private static Dongle dongle(boolean trace) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("trace", trace);
+        Dongle dongle = new Dongle(DONGLE_ID);
+        dongle.init(options);
+        return dongle;
+    }
+
+    private static class Recorder implements ITraceCallback {
+        private byte[] bytes;
+        private TraceRecord trace;
+
+        @Override
+        public void handleMessage(String topic, byte[] message, TraceRecord trace) {
+            this.bytes = message;
+            this.trace = trace;
+        }
+
+        @Override
+        public void handleMessage(String topic, byte[] message) {
+            this.bytes = message;
+        }
+
+        @Override
+        public void handleMessage(String topic, String message) {
+            fail("Unexpected string message");
+        }
+    }
+
+    private static class BufferRecorder implements IMiddlewareCallback {
+        private byte[] bytes;
+
+        @Override
+        public void handleMessage(ParsedTopic topic, ByteBuffer message) {
+            bytes = new byte[message.remaining()];
+            message.get(bytes);
+        }
+
+        @Override
+        public void handleMessage(String topic, byte[] message) {
+            fail("Expected a buffer");
+        }
+
+        @Override
+        public void handleMessage(String topic, String message) {
+            fail("Unexpected string message");
+        }
+    }
+}
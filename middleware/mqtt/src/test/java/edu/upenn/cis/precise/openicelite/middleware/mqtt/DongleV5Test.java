@@ -0,0 +1,85 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DongleV5Test {
+    private static final String DONGLE_ID = "5c0e1a7d-93b2-4f61-a8d4-2e7f90c3b615";
+    private static final String DEVICE_ID = "a41d9c70-52b8-4f3e-8d26-7e9b0c5f1a82";
+    private static final int SAMPLE_SIZE = 32;
+
+    @Test
+    public void acceptsNumericOptionsAsStrings() {
+        // Options loaded from properties files are strings
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("connection_timeout", "5");
+        options.put("retry_interval", "3");
+        options.put("alive_interval", "20");
+        options.put("qos", "0");
+        options.put("report_interval", "10");
+        options.put("session_expiry", "60");
+        options.put("receive_maximum", "100");
+        options.put("topic_alias_maximum", "16");
+        options.put("message_expiry", "30");
+        new DongleV5(DONGLE_ID).init(options);
+
+        options.put("connection_timeout", 5);
+        options.put("session_expiry", 60L);
+        new DongleV5(DONGLE_ID).init(options);
+    }
+
+    @Test
+    public void aliasedSampleIsSmallerThanV3() throws Exception {
+        String topic = new TopicHandler().getDataTopic("DEFAULT", DONGLE_ID, DEVICE_ID);
+        byte[] sample = new byte[SAMPLE_SIZE];
+
+        int v3 = sizeV3(topic, sample);
+        int v5First = sizeV5(topic, sample, 1, 0);
+        int v5Aliased = sizeV5("", sample, 1, 0);
+        int v5Expiring = sizeV5("", sample, 1, 30);
+
+        // The first sample carries the topic and the alias property (145 vs 149 bytes),
+        // later ones only the alias (42 bytes, 47 with a message expiry)
+        assertEquals(v3 + 4, v5First);
+        assertTrue(v5Aliased <= v3 + 4 - topic.length());
+        assertEquals(v5Aliased + 5, v5Expiring);
+        assertTrue(v5Expiring * 3 < v3);
+    }
+
+    /**
+     * Return the encoded size of an MQTT v3 QoS 1 publish
+     */
+    static int sizeV3(String topic, byte[] payload) throws Exception {
+        org.eclipse.paho.client.mqttv3.MqttMessage message = new org.eclipse.paho.client.mqttv3.MqttMessage(payload);
+        message.setQos(1);
+        org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish publish =
+                new org.eclipse.paho.client.mqttv3.internal.wire.MqttPublish(topic, message);
+        publish.setMessageId(1);
+        return publish.getHeader().length + publish.getPayload().length;
+    }
+
+    /**
+     * Return the encoded size of an MQTT v5 QoS 1 publish using a topic alias (the
+     * topic is empty once the alias is established) and an optional message expiry
+     */
+    static int sizeV5(String topic, byte[] payload, int alias, long expiry) throws Exception {
+        org.eclipse.paho.mqttv5.common.MqttMessage message = new org.eclipse.paho.mqttv5.common.MqttMessage(payload);
+        message.setQos(1);
+        MqttProperties properties = new MqttProperties();
+        properties.setTopicAlias(alias);
+        if (expiry > 0) properties.setMessageExpiryInterval(expiry);
+        org.eclipse.paho.mqttv5.common.packet.MqttPublish publish =
+                new org.eclipse.paho.mqttv5.common.packet.MqttPublish(topic, message, properties);
+        publish.setMessageId(1);
+        return publish.serialize().length;
+    }
+}
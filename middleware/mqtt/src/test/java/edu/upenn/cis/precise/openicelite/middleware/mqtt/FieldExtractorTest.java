@@ -0,0 +1,117 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class FieldExtractorTest {
+    @Test
+    public void extractsNumbersAndNumericStrings() {
+        FieldExtractor extractor = extractor("extract_fields.default", "hr, spo2, rr");
+        double[] values = new double[3];
+        assertEquals(2, extractor.extract("device", "{\"hr\": 72, \"note\": \"ok\", \"spo2\": \"97.5\"}", values));
+        assertArrayEquals(new double[]{72, 97.5, Double.NaN}, values, 0);
+        assertEquals(Arrays.asList("hr", "spo2", "rr"), extractor.getColumns());
+    }
+
+    @Test
+    public void readsFieldsAfterNaN() {
+        FieldExtractor extractor = extractor("extract_fields.default", "a,b,c");
+        double[] values = new double[3];
+        assertEquals(3, extractor.extract("device", "{\"a\": \"NaN\", \"b\": 1, \"a\": 2, \"c\": 3}", values));
+        assertArrayEquals(new double[]{2, 1, 3}, values, 0);
+
+        assertEquals(1, extractor.extract("device", "{\"a\": \"NaN\", \"b\": 1}", values));
+        assertArrayEquals(new double[]{Double.NaN, 1, Double.NaN}, values, 0);
+    }
+
+    @Test
+    public void extractsNestedFields() {
+        FieldExtractor extractor = extractor("extract_fields.default", "vitals.hr,vitals.bp.sys,temp");
+        double[] values = new double[3];
+        String message = "{\"meta\": {\"hr\": 1}, \"vitals\": {\"hr\": 80, \"list\": [1, {\"x\": 2}],"
+                + " \"bp\": {\"sys\": 120, \"dia\": 80}}, \"temp\": 36.6}";
+        assertEquals(3, extractor.extract("device", message, values));
+        assertArrayEquals(new double[]{80, 120, 36.6}, values, 0);
+        assertEquals(Arrays.asList("vitals_hr", "vitals_bp_sys", "temp"), extractor.getColumns());
+    }
+
+    @Test
+    public void stopsReadingOnceAllFieldsAreFound() {
+        FieldExtractor extractor = extractor("extract_fields.default", "a,b");
+        double[] values = new double[2];
+        // The rest of the message is never read
+        assertEquals(2, extractor.extract("device", "{\"a\": 1, \"b\": 2, \"c\": ]]]", values));
+        assertArrayEquals(new double[]{1, 2}, values, 0);
+    }
+
+    @Test
+    public void keepsValuesBeforeMalformedPart() {
+        FieldExtractor extractor = extractor("extract_fields.default", "a,b");
+        double[] values = new double[2];
+        assertEquals(1, extractor.extract("device", "{\"a\": 1, \"c\": ]]] \"b\": 2}", values));
+        assertArrayEquals(new double[]{1, Double.NaN}, values, 0);
+
+        assertEquals(0, extractor.extract("device", "not json", values));
+        assertEquals(0, extractor.extract("device", "[1, 2]", values));
+        assertEquals(0, extractor.extract("device", "{\"a\": \"fast\", \"b\": true}", values));
+        assertArrayEquals(new double[]{Double.NaN, Double.NaN}, values, 0);
+    }
+
+    @Test
+    public void selectsFieldsByDeviceType() {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("extract_fields.monitor", "hr,spo2");
+        options.put("extract_fields.pump", "rate,hr");
+        options.put("device_type.pump-1", "pump");
+        options.put("device_type.monitor-1", " monitor ");
+        FieldExtractor extractor = FieldExtractor.fromOptions(options);
+        assertNotNull(extractor);
+        assertEquals(3, extractor.getColumns().size());
+        int hr = extractor.getColumns().indexOf("hr");
+        int rate = extractor.getColumns().indexOf("rate");
+
+        double[] values = new double[3];
+        String message = "{\"hr\": 60, \"spo2\": 99, \"rate\": 5}";
+        assertEquals(2, extractor.extract("pump-1", message, values));
+        assertEquals(60, values[hr], 0);
+        assertEquals(5, values[rate], 0);
+        assertTrue(Double.isNaN(values[extractor.getColumns().indexOf("spo2")]));
+
+        assertEquals(2, extractor.extract("monitor-1", message, values));
+        assertTrue(Double.isNaN(values[rate]));
+        // No type and no default fields
+        assertEquals(0, extractor.extract("other", message, values));
+    }
+
+    @Test
+    public void returnsNullWithoutFields() {
+        assertNull(FieldExtractor.fromOptions(null));
+        assertNull(FieldExtractor.fromOptions(new HashMap<>()));
+        assertNull(extractor("extract_fields.default", " , "));
+    }
+
+    @Test
+    public void rejectsInvalidColumns() {
+        for (String fields : new String[]{"message", "a-b", "1a", "Sequence"}) {
+            try {
+                extractor("extract_fields.default", fields);
+                fail("Expected " + fields + " to be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    private static FieldExtractor extractor(String key, String value) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put(key, value);
+        return FieldExtractor.fromOptions(options);
+    }
+}
@@ -0,0 +1,101 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class GatewayTest {
+    private static final String TOPIC = "ICU/commands";
+
+    @Test
+    public void mergesSubscriptionsOfDongles() throws Exception {
+        RecordingGateway gateway = new RecordingGateway();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        IMiddleware a = gateway.addDongle("a");
+        IMiddleware b = gateway.addDongle("b");
+        a.subscribe(TOPIC, null, first);
+        b.subscribe(TOPIC, null, second);
+        assertEquals(1, gateway.subscribes.size());
+
+        gateway.arrive(TOPIC, "m1");
+        assertEquals(1, first.messages.size());
+        assertEquals(1, second.messages.size());
+
+        a.unsubscribe(TOPIC);
+        assertTrue(gateway.unsubscribes.isEmpty());
+        gateway.arrive(TOPIC, "m2");
+        assertEquals(1, first.messages.size());
+        assertEquals(2, second.messages.size());
+
+        b.unsubscribe(TOPIC);
+        assertEquals(1, gateway.unsubscribes.size());
+        assertTrue(gateway.subscribed.isEmpty());
+    }
+
+    @Test
+    public void keepsSharedCallbackUntilEveryDongleUnsubscribes() throws Exception {
+        RecordingGateway gateway = new RecordingGateway();
+        Recorder shared = new Recorder();
+        IMiddleware a = gateway.addDongle("a");
+        IMiddleware b = gateway.addDongle("b");
+        a.subscribe(TOPIC, null, shared);
+        b.subscribe(TOPIC, null, shared);
+
+        // Routed twice, delivered once
+        gateway.arrive(TOPIC, "m1");
+        assertEquals(1, shared.messages.size());
+
+        a.unsubscribe(TOPIC);
+        assertTrue(gateway.unsubscribes.isEmpty());
+        gateway.arrive(TOPIC, "m2");
+        assertEquals(2, shared.messages.size());
+
+        b.unsubscribe(TOPIC);
+        assertEquals(1, gateway.unsubscribes.size());
+    }
+
+    @Test
+    public void removesSubscriptionsOfRemovedDongle() throws Exception {
+        RecordingGateway gateway = new RecordingGateway();
+        Recorder shared = new Recorder();
+        gateway.addDongle("a").subscribe(TOPIC, null, shared);
+        gateway.addDongle("a").subscribe("ICU/other", null, shared);
+        gateway.addDongle("b").subscribe(TOPIC, null, shared);
+        assertSame(gateway.getDongle("a"), gateway.addDongle("a"));
+
+        gateway.removeDongle("a");
+        assertNull(gateway.getDongle("a"));
+        assertEquals(1, gateway.unsubscribes.size());
+        assertEquals("ICU/other", gateway.unsubscribes.get(0));
+        gateway.arrive(TOPIC, "m1");
+        assertEquals(1, shared.messages.size());
+
+        gateway.close();
+        assertTrue(gateway.subscribed.isEmpty());
+        assertTrue(gateway.getDongleIds().isEmpty());
+    }
+
+    private static class Recorder implements IMiddlewareCallback {
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void handleMessage(String topic, byte[] message) {
+            messages.add(new String(message));
+        }
+
+        @Override
+        public void handleMessage(String topic, String message) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LoggerH2Test {
+    private static final String MESSAGE = "{\"unit\": \"µmol/L\", \"temp\": \"37 °C\", \"name\": \"心率 💓\"}";
+
+    @Test
+    public void decodesArrayAndBufferPayloadsAsUtf8() {
+        byte[] payload = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        assertEquals(MESSAGE, LoggerH2.decode(payload));
+
+        ByteBuffer heap = ByteBuffer.wrap(payload);
+        assertEquals(MESSAGE, LoggerH2.decode(heap));
+        assertEquals(0, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length + 4);
+        direct.put(new byte[]{1, 2}).put(payload).put(new byte[]{3, 4});
+        direct.position(2).limit(2 + payload.length);
+        assertEquals(MESSAGE, LoggerH2.decode(direct));
+        assertEquals(2, direct.position());
+    }
+
+    @Test
+    public void queriesDeviceHistoryThroughIndex() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:LoggerH2Test")) {
+            LoggerH2.prepareTable(connection, "Logs");
+            // Preparing an existing table again keeps its index
+            LoggerH2.prepareTable(connection, "Logs");
+            try (Statement stat = connection.createStatement();
+                 ResultSet result = stat.executeQuery("EXPLAIN SELECT `Message` FROM `Logs` " +
+                         "WHERE `DeviceID` = 'pump' AND `ReceivedTime` >= TIMESTAMP '2020-01-01 00:00:00' " +
+                         "AND `ReceivedTime` < TIMESTAMP '2020-01-02 00:00:00'")) {
+                assertTrue(result.next());
+                assertTrue(result.getString(1), result.getString(1).toUpperCase().contains("LOGS_DEVICETIME"));
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.rpc.RpcClient;
+import edu.upenn.cis.precise.openicelite.middleware.rpc.RpcServer;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LoggerHistoryTest {
+    private static final String TABLE = "History";
+    private static final long ORIGIN = 1500000000000L;
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private final LoopbackMiddleware middleware = new LoopbackMiddleware();
+    private final TopicHandler topicHandler = new TopicHandler();
+    private Connection connection;
+    private RpcServer server;
+    private RpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:LoggerHistoryTest" + databases.incrementAndGet());
+        LoggerH2.prepareTable(connection, TABLE);
+
+        server = new RpcServer(middleware, topicHandler, "project", "logger");
+        server.init(new HashMap<>());
+        server.register(LoggerHistory.METHOD, new LoggerHistory(connection, TABLE));
+        server.start();
+        client = new RpcClient(middleware, topicHandler, "project", "app");
+        client.init(new HashMap<>());
+        client.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.stop();
+        server.stop();
+        middleware.close();
+        connection.close();
+    }
+
+    @Test(timeout = 10000)
+    public void returnsAllRowsInLoggedOrder() throws Exception {
+        insert("pump", "{\"rate\":5}", 200, 150L, 7L);
+        insert("monitor", "{\"hr\":72}", 100, null, null);
+        insert("pump", "{\"rate\":6}", 300, null, 8L);
+
+        List<JsonObject> rows = history("");
+        assertEquals(3, rows.size());
+        assertEquals("pump", rows.get(0).get("device_id").getAsString());
+        assertEquals("monitor", rows.get(1).get("device_id").getAsString());
+        assertEquals("pump", rows.get(2).get("device_id").getAsString());
+        assertTrue(rows.get(0).get("id").getAsLong() < rows.get(1).get("id").getAsLong());
+
+        JsonObject first = rows.get(0);
+        assertEquals("dongle", first.get("dongle_id").getAsString());
+        assertEquals("{\"rate\":5}", first.get("message").getAsString());
+        assertEquals(ORIGIN + 200, first.get("received_time").getAsLong());
+        assertEquals(ORIGIN + 150, first.get("source_time").getAsLong());
+        assertEquals(7, first.get("sequence").getAsLong());
+
+        // Trace columns are left out when not logged
+        assertFalse(rows.get(1).has("source_time"));
+        assertFalse(rows.get(1).has("sequence"));
+        assertFalse(rows.get(2).has("source_time"));
+    }
+
+    @Test(timeout = 10000)
+    public void filtersByDeviceAndTimeRange() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            insert((i % 2 == 0) ? "pump" : "monitor", "m" + i, i * 100, null, null);
+        }
+
+        assertEquals(list("m0", "m2", "m4", "m6", "m8"), messages(history("{\"device_id\": \"pump\"}")));
+        // From is inclusive and to is exclusive
+        assertEquals(list("m3", "m4", "m5", "m6"),
+                messages(history("{\"from\": " + (ORIGIN + 300) + ", \"to\": " + (ORIGIN + 700) + "}")));
+        assertEquals(list("m3", "m5"), messages(history("{\"device_id\": \"monitor\", \"from\": " +
+                (ORIGIN + 300) + ", \"to\": " + (ORIGIN + 700) + "}")));
+        assertEquals(list("m0", "m1", "m2"), messages(history("{\"limit\": 3}")));
+        assertTrue(history("{\"device_id\": \"unknown\"}").isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void pagesThroughLongHistories() throws Exception {
+        connection.setAutoCommit(false);
+        for (int i = 0; i < 2500; i++) {
+            insert("pump", "m" + i, i, null, null);
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        List<String> messages = messages(history(""));
+        assertEquals(2500, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals("m" + i, messages.get(i));
+        }
+
+        // A limit across page boundaries
+        messages = messages(history("{\"limit\": 2100}"));
+        assertEquals(2100, messages.size());
+        assertEquals("m2099", messages.get(2099));
+    }
+
+    private List<JsonObject> history(String request) throws Exception {
+        byte[] response = client.call("logger", LoggerHistory.METHOD, request.getBytes(StandardCharsets.UTF_8))
+                .get(10, TimeUnit.SECONDS);
+        List<JsonObject> rows = new ArrayList<>();
+        JsonParser parser = new JsonParser();
+        for (String line : new String(response, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) rows.add(parser.parse(line).getAsJsonObject());
+        }
+        return rows;
+    }
+
+    private void insert(String deviceId, String message, long offset, Long sourceOffset, Long sequence)
+            throws Exception {
+        try (PreparedStatement pStat = connection.prepareStatement("INSERT INTO `" + TABLE + "` " +
+                "(`DongleID`, `DeviceID`, `Message`, `ReceivedTime`, `SourceTime`, `Sequence`) " +
+                "VALUES (?, ?, ?, ?, ?, ?);")) {
+            pStat.setString(1, "dongle");
+            pStat.setString(2, deviceId);
+            pStat.setString(3, message);
+            pStat.setTimestamp(4, new Timestamp(ORIGIN + offset));
+            if (sourceOffset == null) {
+                pStat.setNull(5, Types.TIMESTAMP);
+            } else {
+                pStat.setTimestamp(5, new Timestamp(ORIGIN + sourceOffset));
+            }
+            if (sequence == null) {
+                pStat.setNull(6, Types.BIGINT);
+            } else {
+                pStat.setLong(6, sequence);
+            }
+            pStat.executeUpdate();
+        }
+    }
+
+    private static List<String> messages(List<JsonObject> rows) {
+        List<String> messages = new ArrayList<>();
+        for (JsonObject row : rows) {
+            messages.add(row.get("message").getAsString());
+        }
+        return messages;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * A middleware delivering publishes to subscribers of the same topic, in order on
+     * one thread like a broker connection
+     */
+    private static class LoopbackMiddleware implements IMiddleware {
+        private final ConcurrentHashMap<String, IMiddlewareCallback> subscribers = new ConcurrentHashMap<>();
+        private final ExecutorService delivery = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Loopback");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void waitConnected() {
+        }
+
+        @Override
+        public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+            subscribers.put(topic, callback);
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+            subscribers.remove(topic);
+        }
+
+        @Override
+        public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+            delivery.execute(() -> {
+                IMiddlewareCallback callback = subscribers.get(topic);
+                if (callback != null) callback.handleMessage(topic, message);
+            });
+        }
+
+        @Override
+        public void publish(String topic, String message, HashMap<String, Object> options) {
+            publish(topic, message.getBytes(StandardCharsets.UTF_8), options);
+        }
+
+        @Override
+        public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void setCallback(IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void addDevice(DeviceInfo info) {
+        }
+
+        @Override
+        public void removeDevice(String deviceId) {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+            delivery.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LoggerReplayTest {
+    private static final String TABLE = "Replay";
+    private static final String DONGLE_ID = "d1";
+    private static final long ORIGIN = 1500000000000L;
+    private static final AtomicInteger databases = new AtomicInteger();
+    private static final TopicHandler topics = new TopicHandler();
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:LoggerReplayTest" + databases.incrementAndGet());
+        LoggerH2.prepareTable(connection, TABLE);
+        LoggerReplay.prepareIndex(connection, TABLE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test(timeout = 10000)
+    public void replaysRowsInReceivedOrder() throws Exception {
+        // Inserted out of order, and two rows share a received time
+        insert("pump", "m2", 200);
+        insert("monitor", "m0", 0);
+        insert("pump", "m1", 100);
+        insert("monitor", "m3", 200);
+        insert("monitor", "m4", 300);
+
+        RecordingDongle dongle = new RecordingDongle();
+        LoggerReplay replay = replay(dongle, options(0));
+        assertEquals(5, replay.replay());
+        assertEquals(5, replay.getPublished());
+        assertEquals(list("m0", "m1", "m2", "m3", "m4"), dongle.messages);
+        assertEquals(topics.getDataTopic(TABLE, DONGLE_ID, "monitor"), dongle.topics.get(0));
+        assertEquals(topics.getDataTopic(TABLE, DONGLE_ID, "pump"), dongle.topics.get(1));
+        assertEquals(0, replay.getStalls());
+    }
+
+    @Test(timeout = 10000)
+    public void filtersByDeviceAndTimeRange() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            insert((i % 2 == 0) ? "pump" : "monitor", "m" + i, i * 100);
+        }
+
+        HashMap<String, Object> options = options(0);
+        options.put("replay_device_id", "pump");
+        RecordingDongle dongle = new RecordingDongle();
+        replay(dongle, options).replay();
+        assertEquals(list("m0", "m2", "m4", "m6", "m8"), dongle.messages);
+
+        // From is inclusive and to is exclusive
+        options = options(0);
+        options.put("replay_from", ORIGIN + 300);
+        options.put("replay_to", ORIGIN + 700);
+        dongle = new RecordingDongle();
+        replay(dongle, options).replay();
+        assertEquals(list("m3", "m4", "m5", "m6"), dongle.messages);
+
+        options.put("replay_device_id", "monitor");
+        dongle = new RecordingDongle();
+        replay(dongle, options).replay();
+        assertEquals(list("m3", "m5"), dongle.messages);
+    }
+
+    @Test(timeout = 10000)
+    public void scalesOriginalSpacingBySpeed() throws Exception {
+        // Spaced 2 seconds apart, replayed 20ms apart at 100x
+        for (int i = 0; i < 6; i++) {
+            insert("pump", "m" + i, i * 2000);
+        }
+
+        RecordingDongle dongle = new RecordingDongle();
+        LoggerReplay replay = replay(dongle, options(100));
+        long start = System.nanoTime();
+        assertEquals(6, replay.replay());
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue("Elapsed " + elapsed, elapsed >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue("Elapsed " + elapsed, elapsed < TimeUnit.SECONDS.toNanos(5));
+        for (int i = 1; i < 6; i++) {
+            long offset = dongle.times.get(i) - dongle.times.get(0);
+            assertTrue("Offset " + offset, offset >= TimeUnit.MILLISECONDS.toNanos(20 * i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void endsOnEmptyBatch() throws Exception {
+        // No rows at all, then exactly one full batch of 256 rows
+        RecordingDongle dongle = new RecordingDongle();
+        LoggerReplay replay = replay(dongle, options(0));
+        assertEquals(0, replay.replay());
+        assertTrue(dongle.messages.isEmpty());
+
+        for (int i = 0; i < 256; i++) {
+            insert("pump", "m" + i, i);
+        }
+        assertEquals(256, replay.replay());
+        assertEquals(256, dongle.messages.size());
+        assertEquals("m255", dongle.messages.get(255));
+    }
+
+    @Test(timeout = 10000)
+    public void stopsDuringReplay() throws Exception {
+        // The second message is due an hour after the first
+        insert("pump", "m0", 0);
+        insert("pump", "m1", 3600000);
+
+        RecordingDongle dongle = new RecordingDongle();
+        LoggerReplay replay = replay(dongle, options(1));
+        long[] result = new long[]{-1};
+        Thread thread = new Thread(() -> result[0] = replay.replay());
+        thread.start();
+        await(() -> dongle.size() == 1);
+
+        try {
+            replay.replay();
+            fail("Replay should already be running");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        replay.stop();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, result[0]);
+        assertEquals(list("m0"), dongle.messages);
+        assertTrue(dongle.closed);
+    }
+
+    private LoggerReplay replay(RecordingDongle dongle, HashMap<String, Object> options) {
+        LoggerReplay replay = new LoggerReplay("test", null, TABLE, null, null, null, options);
+        replay.attach(connection, dongle);
+        return replay;
+    }
+
+    private void insert(String deviceId, String message, long offset) throws Exception {
+        try (PreparedStatement pStat = connection.prepareStatement("INSERT INTO `" + TABLE + "` " +
+                "(`DongleID`, `DeviceID`, `Message`, `ReceivedTime`) VALUES (?, ?, ?, ?);")) {
+            pStat.setString(1, DONGLE_ID);
+            pStat.setString(2, deviceId);
+            pStat.setString(3, message);
+            pStat.setTimestamp(4, new Timestamp(ORIGIN + offset));
+            pStat.executeUpdate();
+        }
+    }
+
+    private static HashMap<String, Object> options(double speed) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("replay_speed", speed);
+        return options;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A dongle recording publishes instead of connecting to a broker
+     */
+    private static class RecordingDongle extends Dongle {
+        private final List<String> topics = new ArrayList<>();
+        private final List<String> messages = new ArrayList<>();
+        private final List<Long> times = new ArrayList<>();
+        private volatile boolean closed = false;
+
+        private RecordingDongle() {
+            super(DONGLE_ID);
+        }
+
+        @Override
+        public void waitConnected() {
+            // Always connected
+        }
+
+        @Override
+        public synchronized void publish(String topic, String message, HashMap<String, Object> options) {
+            topics.add(topic);
+            messages.add(message);
+            times.add(System.nanoTime());
+        }
+
+        private synchronized int size() {
+            return messages.size();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LogicalDongleTest {
+    private static final String TOPIC = "ICU/commands";
+    private static final TopicHandler topics = new TopicHandler();
+
+    @Test
+    public void usesProjectNameOfGatewayInitializedAfterwards() {
+        RecordingGateway gateway = new RecordingGateway();
+        IMiddleware dongle = gateway.addDongle("a");
+
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("project_name", "ICU");
+        gateway.init(options);
+
+        ((LogicalDongle) dongle).reportStatus(new Gson(), null);
+        assertEquals(topics.getStatusTopic("ICU", "a"), gateway.published.get(0));
+        dongle.publishId("pump", "{}", null);
+        assertEquals(topics.getDataTopic("ICU", "a", "pump"), gateway.published.get(1));
+    }
+
+    @Test
+    public void routesRepeatedSubscriptionOnce() throws Exception {
+        RecordingGateway gateway = new RecordingGateway();
+        IMiddleware dongle = gateway.addDongle("a");
+        Recorder recorder = new Recorder();
+        dongle.subscribe(TOPIC, null, recorder);
+        dongle.subscribe(TOPIC, null, recorder);
+
+        dongle.unsubscribe(TOPIC);
+        assertEquals(1, gateway.unsubscribes.size());
+        gateway.arrive(TOPIC, "m1");
+        assertTrue(recorder.messages.isEmpty());
+    }
+
+    @Test
+    public void replacesCallbackOfResubscribedTopic() throws Exception {
+        RecordingGateway gateway = new RecordingGateway();
+        IMiddleware dongle = gateway.addDongle("a");
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        dongle.subscribe(TOPIC, null, first);
+        dongle.subscribe(TOPIC, null, second);
+
+        gateway.arrive(TOPIC, "m1");
+        assertTrue(first.messages.isEmpty());
+        assertEquals(1, second.messages.size());
+        assertEquals(1, gateway.subscribes.size());
+        assertTrue(gateway.unsubscribes.isEmpty());
+    }
+
+    @Test
+    public void forwardsSubscriptionsWithoutCallbackToCurrentCallback() throws Exception {
+        RecordingGateway gateway = new RecordingGateway();
+        IMiddleware dongle = gateway.addDongle("a");
+        dongle.subscribe(TOPIC, null, null);
+        gateway.arrive(TOPIC, "dropped");
+
+        Recorder recorder = new Recorder();
+        dongle.setCallback(recorder);
+        gateway.arrive(TOPIC, "m1");
+        assertEquals(1, recorder.messages.size());
+        assertEquals("m1", recorder.messages.get(0));
+
+        dongle.disconnect();
+        assertEquals(1, gateway.unsubscribes.size());
+    }
+
+    private static class Recorder implements IMiddlewareCallback {
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void handleMessage(String topic, byte[] message) {
+            messages.add(new String(message));
+        }
+
+        @Override
+        public void handleMessage(String topic, String message) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A gateway recording broker subscriptions and publishes instead of connecting
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class RecordingGateway extends Gateway {
+    final HashMap<String, IMqttMessageListener> subscribed = new HashMap<>();
+    final List<String> subscribes = new ArrayList<>();
+    final List<String> unsubscribes = new ArrayList<>();
+    final List<String> published = new ArrayList<>();
+    final List<String> messages = new ArrayList<>();
+
+    RecordingGateway() {
+        super("gateway");
+    }
+
+    @Override
+    void subscribe(String topic, IMqttMessageListener listener) {
+        subscribes.add(topic);
+        subscribed.put(topic, listener);
+    }
+
+    @Override
+    void unsubscribeTopic(String topic) {
+        unsubscribes.add(topic);
+        subscribed.remove(topic);
+    }
+
+    @Override
+    void publishMessage(String topic, byte[] message, HashMap<String, Object> options) {
+        published.add(topic);
+        messages.add(new String(message, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void waitConnected() {
+        // Always connected
+    }
+
+    /**
+     * Deliver a message as if it arrived from the broker
+     *
+     * @param topic   topic of a broker subscription
+     * @param message message
+     */
+    void arrive(String topic, String message) throws Exception {
+        IMqttMessageListener listener = subscribed.get(topic);
+        if (listener != null) listener.messageArrived(topic, new MqttMessage(message.getBytes(StandardCharsets.UTF_8)));
+    }
+}
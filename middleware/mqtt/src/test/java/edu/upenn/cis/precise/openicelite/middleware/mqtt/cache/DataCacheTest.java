@@ -0,0 +1,164 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DataCacheTest {
+    // Samples are received after the cache started
+    private final long base = System.currentTimeMillis() + 1000;
+    private final RecordingHistory history = new RecordingHistory();
+
+    @Test
+    public void boundsWindowsBySamplesAndAge() throws Exception {
+        DataCache cache = cache(null, 1000, 3, 1 << 20);
+        for (int i = 0; i < 5; i++) {
+            cache.put(sample("pump", i * 100));
+        }
+        assertEquals(times(200, 300, 400), times(cache.getRange("pump", 0, Long.MAX_VALUE)));
+
+        // 200 and 300 are more than a second older than 1350
+        cache.put(sample("pump", 1350));
+        assertEquals(times(400, 1350), times(cache.getRange("pump", 0, Long.MAX_VALUE)));
+        assertEquals(2, cache.getSamples());
+        assertEquals(6, cache.getInserted());
+        assertEquals(0, cache.getEvicted());
+        assertEquals(1350, cache.getLatest("pump").getReceivedTime() - base);
+        assertNull(cache.getLatest("other"));
+    }
+
+    @Test
+    public void evictsLargestWindowOverMemoryBudget() throws Exception {
+        int size = sample("a", 0).getSize();
+        DataCache cache = cache(null, 1000000, 100, 10 * size);
+        for (int i = 0; i < 8; i++) {
+            cache.put(sample("a", i));
+        }
+        for (int i = 0; i < 3; i++) {
+            cache.put(sample("b", i));
+        }
+        // "b" is under its fair share, so the oldest sample of "a" goes
+        assertEquals(10 * size, cache.getBytes());
+        assertEquals(1, cache.getEvicted());
+        assertEquals(7, cache.getRange("a", 0, Long.MAX_VALUE).size());
+        assertEquals(3, cache.getRange("b", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void evictsOwnSamplesOverFairShare() throws Exception {
+        int size = sample("a", 0).getSize();
+        DataCache cache = cache(null, 1000000, 100, 10 * size);
+        for (int i = 0; i < 2; i++) {
+            cache.put(sample("a", i));
+        }
+        for (int i = 0; i < 12; i++) {
+            cache.put(sample("b", i));
+        }
+        assertEquals(10 * size, cache.getBytes());
+        assertEquals(2, cache.getRange("a", 0, Long.MAX_VALUE).size());
+        assertEquals(times(4, 5, 6, 7, 8, 9, 10, 11), times(cache.getRange("b", 0, Long.MAX_VALUE)));
+        assertEquals(4, cache.getEvicted());
+    }
+
+    @Test
+    public void readsHistoryBeforeCoveredTimeAfterEviction() throws Exception {
+        DataCache cache = cache(history, 1000000, 3, 1 << 20);
+        for (int i = 1; i <= 5; i++) {
+            cache.put(sample("pump", i * 10));
+        }
+        history.samples.add(sample("pump", 15));
+
+        // 10 and 20 were evicted: every sample from 21 is held
+        List<CachedSample> samples = cache.getRange("pump", base, base + 45);
+        assertEquals(Arrays.asList("pump", base, base + 21), history.queries.get(0));
+        assertEquals(times(15, 30, 40), times(samples));
+        assertEquals(1, cache.getHistoryReads());
+
+        // Ranges within the covered time are served from memory
+        assertEquals(times(30, 40, 50), times(cache.getRange("pump", base + 21, Long.MAX_VALUE)));
+        assertEquals(1, history.queries.size());
+        assertEquals(1, cache.getMemoryReads());
+    }
+
+    @Test
+    public void readsHistoryOnlyForRangesEndingBeforeCoveredTime() throws Exception {
+        DataCache cache = cache(history, 1000000, 3, 1 << 20);
+        for (int i = 1; i <= 5; i++) {
+            cache.put(sample("pump", i * 10));
+        }
+        cache.getRange("pump", base, base + 15);
+        assertEquals(Arrays.asList("pump", base, base + 15), history.queries.get(0));
+
+        // Devices never seen are covered from the start of the cache only
+        cache.getRange("other", base - 5000, base);
+        assertEquals("other", history.queries.get(1).get(0));
+    }
+
+    @Test
+    public void returnsCachedPartWithoutHistory() throws Exception {
+        DataCache cache = cache(null, 1000000, 3, 1 << 20);
+        for (int i = 1; i <= 5; i++) {
+            cache.put(sample("pump", i * 10));
+        }
+        assertEquals(times(30, 40), times(cache.getRange("pump", base, base + 45)));
+        assertEquals(1, cache.getMemoryReads());
+        assertTrue(cache.getRange("other", 0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidOptions() {
+        cache(null, 0, 1, 1);
+    }
+
+    private static DataCache cache(IHistorySource history, long window, int samples, long bytes) {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("cache_window", window);
+        options.put("cache_samples", samples);
+        options.put("cache_max_bytes", bytes);
+        DataCache cache = new DataCache(history);
+        cache.init(options);
+        return cache;
+    }
+
+    private CachedSample sample(String deviceId, long offset) {
+        return new CachedSample("dongle", deviceId, "{\"hr\":72}", base + offset, -1);
+    }
+
+    private List<Long> times(long... offsets) {
+        List<Long> list = new ArrayList<>();
+        for (long offset : offsets) {
+            list.add(base + offset);
+        }
+        return list;
+    }
+
+    private static List<Long> times(List<CachedSample> samples) {
+        List<Long> list = new ArrayList<>();
+        for (CachedSample sample : samples) {
+            list.add(sample.getReceivedTime());
+        }
+        return list;
+    }
+
+    /**
+     * History source keeping queries and returning preset samples
+     */
+    private static class RecordingHistory implements IHistorySource {
+        private final List<List<Object>> queries = new ArrayList<>();
+        private final List<CachedSample> samples = new ArrayList<>();
+
+        @Override
+        public List<CachedSample> query(String deviceId, long from, long to) {
+            queries.add(Arrays.asList(deviceId, from, to));
+            return samples;
+        }
+    }
+}
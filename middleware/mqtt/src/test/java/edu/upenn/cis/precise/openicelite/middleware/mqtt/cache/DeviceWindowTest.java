@@ -0,0 +1,109 @@
+package edu.upenn.cis.precise.openicelite.middleware.mqtt.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class DeviceWindowTest {
+    @Test
+    public void evictsBeyondMaximumSamples() {
+        DeviceWindow window = new DeviceWindow(0);
+        long delta = 0;
+        for (int i = 1; i <= 5; i++) {
+            delta += window.add(sample(i * 10), 0, 3);
+        }
+        assertEquals(3, window.size());
+        assertEquals(3 * sample(0).getSize(), window.getBytes());
+        assertEquals(window.getBytes(), delta);
+        assertEquals(50, window.getLatest().getReceivedTime());
+
+        // Every sample after the last evicted one (20) is held
+        List<CachedSample> output = new ArrayList<>();
+        assertEquals(21, window.copy(0, Long.MAX_VALUE, output));
+        assertEquals(times(30, 40, 50), times(output));
+    }
+
+    @Test
+    public void evictsOlderThanOldestTime() {
+        DeviceWindow window = new DeviceWindow(0);
+        for (int i = 1; i <= 5; i++) {
+            window.add(sample(i * 10), i * 10 - 25, 100);
+        }
+        List<CachedSample> output = new ArrayList<>();
+        assertEquals(21, window.copy(0, Long.MAX_VALUE, output));
+        assertEquals(times(30, 40, 50), times(output));
+    }
+
+    @Test
+    public void growsRingInReceivedOrder() {
+        DeviceWindow window = new DeviceWindow(0);
+        for (int i = 0; i < 100; i++) {
+            window.add(sample(i), 0, 40);
+        }
+        assertEquals(40, window.size());
+        List<CachedSample> output = new ArrayList<>();
+        window.copy(0, Long.MAX_VALUE, output);
+        for (int i = 0; i < output.size(); i++) {
+            assertEquals(60 + i, output.get(i).getReceivedTime());
+        }
+    }
+
+    @Test
+    public void copiesRangeFromCoveredTime() {
+        DeviceWindow window = new DeviceWindow(15);
+        for (int i = 1; i <= 6; i++) {
+            window.add(sample(i * 10), 0, 100);
+        }
+        List<CachedSample> output = new ArrayList<>();
+        assertEquals(15, window.copy(25, 50, output));
+        assertEquals(times(30, 40), times(output));
+
+        // Samples before the covered time are not returned even if held
+        output.clear();
+        window.copy(0, 35, output);
+        assertEquals(times(20, 30), times(output));
+    }
+
+    @Test
+    public void removeOldestMovesCoveredTime() {
+        DeviceWindow window = new DeviceWindow(0);
+        window.add(sample(10), 0, 100);
+        window.add(sample(20), 0, 100);
+        assertEquals(sample(10).getSize(), window.removeOldest());
+        assertEquals(sample(20).getSize(), window.removeOldest());
+        assertEquals(0, window.removeOldest());
+        assertEquals(0, window.getBytes());
+
+        List<CachedSample> output = new ArrayList<>();
+        assertEquals(21, window.copy(0, Long.MAX_VALUE, output));
+        assertTrue(output.isEmpty());
+        // The latest sample is kept for hot reads
+        assertEquals(20, window.getLatest().getReceivedTime());
+    }
+
+    private static CachedSample sample(long time) {
+        return new CachedSample("dongle", "pump", "{\"rate\":" + (time % 10) + "}", time, -1);
+    }
+
+    private static List<Long> times(long... times) {
+        List<Long> list = new ArrayList<>();
+        for (long time : times) {
+            list.add(time);
+        }
+        return list;
+    }
+
+    private static List<Long> times(List<CachedSample> samples) {
+        List<Long> list = new ArrayList<>();
+        for (CachedSample sample : samples) {
+            list.add(sample.getReceivedTime());
+        }
+        return list;
+    }
+}
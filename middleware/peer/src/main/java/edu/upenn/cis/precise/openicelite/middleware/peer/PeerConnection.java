@@ -0,0 +1,239 @@
+package edu.upenn.cis.precise.openicelite.middleware.peer;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.TopicFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A TCP connection to another peer with length-prefixed framing
+ * <p>
+ * Frame layout: body length (int), frame type (byte), body. Writes are gathering
+ * writes of a frame header and the payload; whatever the socket does not accept
+ * immediately is queued and flushed by the selector thread.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class PeerConnection {
+    static final byte TYPE_HELLO = 1;
+    static final byte TYPE_SUBSCRIBE = 2;
+    static final byte TYPE_UNSUBSCRIBE = 3;
+    static final byte TYPE_PEERS = 4;
+    static final byte TYPE_PUBLISH = 5;
+
+    static final byte KIND_BYTES = 0;
+    static final byte KIND_STRING = 1;
+
+    static final int FRAME_HEADER = 5;
+    static final int PUBLISH_HEADER = FRAME_HEADER + 3;
+
+    private final SocketChannel channel;
+    private final boolean outbound;
+    private final ByteBuffer readBuffer;
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final ConcurrentHashMap<String, TopicFilter> filters = new ConcurrentHashMap<>();
+    private long queuedBytes = 0;
+
+    private SelectionKey key;
+    private volatile String name;
+    private volatile String address;
+    private volatile boolean closed = false;
+    // Set once HELLO and the subscriptions of this node are queued to the peer
+    private volatile boolean introduced = false;
+
+    /**
+     * Peer connection constructor
+     *
+     * @param channel  connected (or connecting) socket channel
+     * @param outbound true if this node initiated the connection
+     * @param address  peer listening address as host:port (null if not known yet)
+     * @param maxFrame maximum frame size
+     */
+    PeerConnection(SocketChannel channel, boolean outbound, String address, int maxFrame) {
+        this.channel = channel;
+        this.outbound = outbound;
+        this.address = address;
+        this.readBuffer = ByteBuffer.allocateDirect(maxFrame + FRAME_HEADER);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    boolean isOutbound() {
+        return outbound;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    boolean isIntroduced() {
+        return introduced;
+    }
+
+    void setIntroduced() {
+        this.introduced = true;
+    }
+
+    void setAddress(String address) {
+        this.address = address;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    // ** Remote subscriptions ** //
+
+    void addFilter(String filter) {
+        filters.put(filter, new TopicFilter(filter));
+    }
+
+    void removeFilter(String filter) {
+        filters.remove(filter);
+    }
+
+    /**
+     * Determine if the peer subscribed to a topic
+     *
+     * @param topic topic name
+     * @return true if any remote subscription matches
+     */
+    boolean matches(String topic) {
+        for (TopicFilter filter : filters.values()) {
+            if (filter.matches(topic)) return true;
+        }
+        return false;
+    }
+
+    // ** Writing ** //
+
+    /**
+     * Send a frame made of a header and an optional payload
+     * <p>
+     * The frame is written straight to the socket if nothing is queued; otherwise (or
+     * if the socket buffer is full) the remaining bytes are queued.
+     *
+     * @param header  frame header (position to limit is written)
+     * @param payload frame payload, may be null
+     * @param maxQueued maximum bytes allowed in the write queue
+     * @return true if bytes were queued and the connection needs OP_WRITE
+     * @throws IOException if writing fails or the write queue overflows
+     */
+    synchronized boolean send(ByteBuffer header, ByteBuffer payload, long maxQueued) throws IOException {
+        if (closed) return false;
+        if (writeQueue.isEmpty()) {
+            if (payload == null) {
+                channel.write(header);
+            } else {
+                channel.write(new ByteBuffer[]{header, payload});
+            }
+            if (!header.hasRemaining() && (payload == null || !payload.hasRemaining())) return false;
+        }
+
+        int remaining = header.remaining() + (payload == null ? 0 : payload.remaining());
+        if (queuedBytes + remaining > maxQueued) {
+            throw new IOException("Write queue overflow for peer " + name);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(remaining);
+        copy.put(header);
+        if (payload != null) copy.put(payload);
+        copy.flip();
+        writeQueue.add(copy);
+        queuedBytes += remaining;
+        return true;
+    }
+
+    /**
+     * Flush queued frames with a gathering write
+     *
+     * @return true if the queue is drained
+     * @throws IOException if writing fails
+     */
+    synchronized boolean flush() throws IOException {
+        if (writeQueue.isEmpty()) return true;
+        ByteBuffer[] buffers = writeQueue.toArray(new ByteBuffer[0]);
+        queuedBytes -= channel.write(buffers);
+        while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+            writeQueue.poll();
+        }
+        return writeQueue.isEmpty();
+    }
+
+    synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    void close() {
+        closed = true;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    // ** Frame encoding ** //
+
+    /**
+     * Encode a control frame whose body is a UTF-8 string
+     *
+     * @param type frame type
+     * @param body frame body
+     * @return encoded frame ready to be written
+     */
+    static ByteBuffer encode(byte type, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + bytes.length);
+        frame.putInt(bytes.length + 1).put(type).put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encode the header of a publish frame into a reusable buffer
+     *
+     * @param buffer        destination buffer (cleared first)
+     * @param topic         topic as UTF-8 bytes
+     * @param payloadLength payload length
+     * @param kind          payload kind
+     * @return the header ready to be written (followed by the payload)
+     */
+    static ByteBuffer encodePublish(ByteBuffer buffer, byte[] topic, int payloadLength, byte kind) {
+        buffer.clear();
+        buffer.putInt(1 + 3 + topic.length + payloadLength)
+                .put(TYPE_PUBLISH)
+                .put(kind)
+                .putShort((short) topic.length)
+                .put(topic);
+        buffer.flip();
+        return buffer;
+    }
+}
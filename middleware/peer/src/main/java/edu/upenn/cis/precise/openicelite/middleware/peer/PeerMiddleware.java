@@ -0,0 +1,700 @@
+package edu.upenn.cis.precise.openicelite.middleware.peer;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.TopicFilter;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Brokerless middleware where peers exchange messages directly over non-blocking TCP
+ * <p>
+ * Each peer listens for other peers and dials the peers it knows about. On every
+ * connection, peers introduce themselves, advertise their subscriptions and gossip
+ * the addresses of the peers they know, so the group converges to a full mesh from
+ * any connected seed list. A message is sent only to the peers whose advertised
+ * subscriptions match its topic (and delivered to matching local subscriptions),
+ * so losing any single node does not affect the others.
+ * <p>
+ * Frames are length-prefixed; publish frames are written with a gathering write of
+ * a direct header buffer and the payload. Each local subscription has a bounded
+ * queue and its own dispatcher thread, so callbacks never run on the selector thread
+ * and a slow subscriber only drops its own messages. Topics follow the same scheme
+ * as the MQTT middleware.
+ * <p>
+ * Available options for initialization:
+ * - "listen_address":      address to accept peer connections on (default to 0.0.0.0)
+ * - "listen_port":         port to accept peer connections on (default to 7883)
+ * - "peers":               seed peer addresses as host:port, separated with comma
+ * - "retry_interval":      interval (seconds) to re-dial disconnected peers and gossip
+ *                              (default to 5)
+ * - "max_frame":           maximum frame size in bytes (default to 1 MB)
+ * - "max_queued":          maximum bytes queued for a slow peer before it is dropped
+ *                              (default to 16 MB)
+ * - "queue_size":          maximum messages waiting for delivery per subscription
+ *                              before new ones are dropped (default to 4096)
+ * - "project_name":        project name will be used as a base topic separation
+ *                              (default to DEFAULT)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class PeerMiddleware implements IMiddleware {
+    private static final Logger logger = LogManager.getLogger(PeerMiddleware.class);
+
+    private static final int MAX_TOPIC_LENGTH = 65535;
+
+    private String nodeName;
+
+    // Overwritten-able configuration
+    private String listenAddress = "0.0.0.0";
+    private int listenPort = 7883;
+    private int retryInterval = 5;
+    private int maxFrame = 1024 * 1024;
+    private long maxQueued = 16 * 1024 * 1024;
+    private int queueSize = 4096;
+    private String projectName = "DEFAULT";
+
+    // Network
+    private final Set<String> knownPeers = ConcurrentHashMap.newKeySet();
+    private final Set<String> selfAddresses = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, String> addressNames = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<PeerConnection> connections = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<PeerConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ByteBuffer> headers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(PeerConnection.PUBLISH_HEADER + MAX_TOPIC_LENGTH));
+    private final AtomicBoolean isConnected = new AtomicBoolean(false);
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread selectorThread;
+    private volatile boolean running = false;
+
+    // Subscriptions
+    private final TopicHandler topicHandler = new TopicHandler();
+    private final ConcurrentHashMap<String, PeerSubscription> subscriptions = new ConcurrentHashMap<>();
+    // Orders subscription changes with the snapshots sent to new peers (see introduce)
+    private final Object subscriptionLock = new Object();
+    private volatile IMiddlewareCallback callback;
+
+    // Dongle information
+    private final Gson gson = new Gson();
+    private final DongleInfo info;
+
+    /**
+     * Peer middleware constructor
+     *
+     * @param dongleId dongle ID (UUID), also used as node name unless overridden on connect
+     */
+    public PeerMiddleware(String dongleId) {
+        this.nodeName = dongleId;
+        this.info = new DongleInfo(dongleId);
+    }
+
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        logger.info("Initializing peer middleware...");
+
+        if (options != null) {
+            if (options.containsKey("listen_address")) {
+                listenAddress = (String) options.get("listen_address");
+            }
+            if (options.containsKey("listen_port")) {
+                listenPort = Integer.parseInt(options.get("listen_port").toString());
+            }
+            if (options.containsKey("peers")) {
+                addPeers((String) options.get("peers"));
+            }
+            if (options.containsKey("retry_interval")) {
+                retryInterval = Integer.parseInt(options.get("retry_interval").toString());
+            }
+            if (options.containsKey("max_frame")) {
+                maxFrame = Integer.parseInt(options.get("max_frame").toString());
+            }
+            if (options.containsKey("max_queued")) {
+                maxQueued = Long.parseLong(options.get("max_queued").toString());
+            }
+            if (options.containsKey("queue_size")) {
+                queueSize = Integer.parseInt(options.get("queue_size").toString());
+            }
+            if (options.containsKey("project_name")) {
+                projectName = (String) options.get("project_name");
+            }
+        }
+    }
+
+    /**
+     * Start listening for peers and dial known peers. Connecting succeeds even if no
+     * peer is reachable yet; peers are re-dialed in background.
+     *
+     * @param address additional seed peers as host:port, separated with comma (may be null)
+     * @param name    node name (must be unique within the system, default to dongle ID)
+     * @param options ignored
+     */
+    @Override
+    public void connect(String address, String name, HashMap<String, Object> options) {
+        if (running) return;
+        if (address != null) addPeers(address);
+        if (name != null) nodeName = name;
+
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(listenAddress, listenPort));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            listenPort = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        } catch (IOException ex) {
+            logger.error("Failed to listen for peers on " + listenAddress + ":" + listenPort, ex);
+            throw new IllegalArgumentException("Failed to listen for peers - " + ex.getMessage());
+        }
+
+        running = true;
+        selectorThread = new Thread(this::runSelector, "Peer-" + nodeName);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+
+        isConnected.set(true);
+        logger.info("Peer " + nodeName + " is listening on " + listenAddress + ":" + listenPort + "!");
+    }
+
+    /**
+     * Close all peer connections and stop listening
+     */
+    @Override
+    public void disconnect() {
+        if (!running) return;
+        logger.info("Disconnecting from peers...");
+        running = false;
+        isConnected.set(false);
+        selector.wakeup();
+        try {
+            selectorThread.join(1000);
+        } catch (InterruptedException ex) {
+            // ignore
+        }
+    }
+
+    /**
+     * Close and release all associated resource, including subscription dispatchers
+     */
+    @Override
+    public void close() {
+        disconnect();
+        for (PeerSubscription subscription : subscriptions.values()) {
+            subscription.stop();
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * Determine if the peer is up (listening); use getPeerCount to check reachable peers
+     *
+     * @return true if connected, false otherwise.
+     */
+    @Override
+    public boolean isConnected() {
+        return isConnected.get();
+    }
+
+    @Override
+    public void waitConnected() {
+        while (!isConnected.get()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Subscribe to a topic and advertise the subscription to all peers
+     *
+     * @param topic    the topic to subscribe to
+     * @param options  additional subscribe options
+     * @param callback the class to callback for related events
+     */
+    @Override
+    public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+        IMiddlewareCallback target = this.callback;
+        if (target == null) {
+            logger.error("Failed to subscribe to topic: " + topic + " - no callback");
+            return;
+        }
+
+        logger.info("Subscribing to " + topic + "...");
+        PeerSubscription subscription = new PeerSubscription(new TopicFilter(topic), target, queueSize);
+        subscription.start();
+        PeerSubscription previous;
+        synchronized (subscriptionLock) {
+            previous = subscriptions.put(topic, subscription);
+            broadcast(PeerConnection.encode(PeerConnection.TYPE_SUBSCRIBE, topic));
+        }
+        if (previous != null) previous.stop();
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        PeerSubscription subscription;
+        synchronized (subscriptionLock) {
+            subscription = subscriptions.remove(topic);
+            if (subscription != null) broadcast(PeerConnection.encode(PeerConnection.TYPE_UNSUBSCRIBE, topic));
+        }
+        if (subscription != null) {
+            subscription.stop();
+            logger.info("Un-subscribing to " + topic + "...");
+        }
+    }
+
+    @Override
+    public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+        send(topic, message, PeerConnection.KIND_BYTES);
+        deliverLocal(topic, message);
+    }
+
+    @Override
+    public void publish(String topic, String message, HashMap<String, Object> options) {
+        send(topic, message.getBytes(StandardCharsets.UTF_8), PeerConnection.KIND_STRING);
+        deliverLocal(topic, message);
+    }
+
+    @Override
+    public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        publish(topicHandler.getDataTopic(projectName, info.getDongleId(), deviceId), message, options);
+    }
+
+    @Override
+    public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        publish(topicHandler.getDataTopic(projectName, info.getDongleId(), deviceId), message, options);
+    }
+
+    @Override
+    public void setCallback(IMiddlewareCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Add information about device connected to the dongle, then report to status topic
+     *
+     * @param info device information
+     */
+    @Override
+    public void addDevice(DeviceInfo info) {
+        synchronized (this.info) {
+            this.info.addDevice(info);
+        }
+        reportStatus();
+    }
+
+    /**
+     * Remove device from dongle, then report to status topic
+     *
+     * @param deviceId device ID as a string
+     */
+    @Override
+    public void removeDevice(String deviceId) {
+        synchronized (this.info) {
+            this.info.removeDevice(deviceId);
+        }
+        reportStatus();
+    }
+
+    /**
+     * Return the number of peers this node has introduced itself to
+     *
+     * @return number of connected peers
+     */
+    public int getPeerCount() {
+        int count = 0;
+        for (PeerConnection connection : connections) {
+            if (connection.getName() != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of messages dropped for full subscriptions of this node
+     *
+     * @return number of dropped messages
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (PeerSubscription subscription : subscriptions.values()) {
+            dropped += subscription.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * Return the port this node is listening on (useful with "listen_port" 0)
+     *
+     * @return listening port
+     */
+    public int getListenPort() {
+        return listenPort;
+    }
+
+    // ** Sending ** //
+
+    private void send(String topic, byte[] payload, byte kind) {
+        if (!running) return;
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        if (topicBytes.length > MAX_TOPIC_LENGTH || topicBytes.length + payload.length + 4 > maxFrame) {
+            logger.error("Failed to publish message to peers - message too large");
+            return;
+        }
+
+        ByteBuffer header = null;
+        ByteBuffer body = null;
+        for (PeerConnection connection : connections) {
+            if (connection.getName() == null || !connection.matches(topic)) continue;
+            if (header == null) {
+                header = PeerConnection.encodePublish(headers.get(), topicBytes, payload.length, kind);
+                body = ByteBuffer.wrap(payload);
+            } else {
+                header.rewind();
+                body.rewind();
+            }
+            write(connection, header, body);
+        }
+    }
+
+    /**
+     * Send a control frame to every peer this node has introduced itself to (peers
+     * introduced later get the subscriptions in their snapshot)
+     */
+    private void broadcast(ByteBuffer frame) {
+        if (!running) return;
+        for (PeerConnection connection : connections) {
+            if (!connection.isIntroduced()) continue;
+            write(connection, frame.duplicate(), null);
+        }
+    }
+
+    private void write(PeerConnection connection, ByteBuffer header, ByteBuffer payload) {
+        try {
+            if (connection.send(header, payload, maxQueued)) {
+                pendingWrites.add(connection);
+                selector.wakeup();
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to write to peer " + connection.getName() + " - " + ex.getMessage());
+            pendingWrites.add(connection);
+            connection.close();
+            selector.wakeup();
+        }
+    }
+
+    private void deliverLocal(String topic, Object payload) {
+        for (PeerSubscription subscription : subscriptions.values()) {
+            if (subscription.matches(topic)) subscription.offer(topic, payload);
+        }
+    }
+
+    private void reportStatus() {
+        if (!running) return;
+        String message;
+        synchronized (info) {
+            message = gson.toJson(info);
+        }
+        publish(topicHandler.getStatusTopic(projectName, info.getDongleId()), message, null);
+    }
+
+    // ** Selector loop ** //
+
+    private void runSelector() {
+        long nextDial = 0;
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+                if (now >= nextDial) {
+                    dialPeers();
+                    gossipPeers();
+                    nextDial = now + retryInterval * 1000L;
+                }
+
+                selector.select(Math.max(1, nextDial - now));
+
+                PeerConnection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    if (pending.isClosed()) {
+                        drop(pending);
+                    } else if (pending.getKey() != null && pending.getKey().isValid()) {
+                        pending.getKey().interestOps(pending.getKey().interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    PeerConnection connection = (PeerConnection) key.attachment();
+                    try {
+                        if (key.isConnectable()) finishConnect(connection);
+                        if (key.isValid() && key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable() && connection.flush()) {
+                            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        logger.warn("Lost connection to peer " +
+                                (connection.getName() != null ? connection.getName() : connection.getAddress()) +
+                                " - " + ex.getMessage());
+                        drop(connection);
+                    }
+                }
+            } catch (Exception ex) {
+                logger.error("Unexpected error in peer selector", ex);
+            }
+        }
+
+        for (PeerConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Peer selector is exiting...");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        PeerConnection connection = new PeerConnection(channel, false, null, maxFrame);
+        connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+        connections.add(connection);
+        introduce(connection);
+    }
+
+    private void dialPeers() {
+        for (String address : knownPeers) {
+            if (selfAddresses.contains(address) || isDialed(address)) continue;
+            String name = addressNames.get(address);
+            if (name != null && isConnectedTo(name)) continue;
+            int separator = address.lastIndexOf(':');
+            if (separator <= 0) continue;
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                PeerConnection connection = new PeerConnection(channel, true, address, maxFrame);
+                channel.connect(new InetSocketAddress(address.substring(0, separator),
+                        Integer.parseInt(address.substring(separator + 1))));
+                connection.setKey(channel.register(selector, SelectionKey.OP_CONNECT, connection));
+                connections.add(connection);
+            } catch (IOException | RuntimeException ex) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Failed to dial peer " + address + " - " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isDialed(String address) {
+        for (PeerConnection connection : connections) {
+            if (address.equals(connection.getAddress())) return true;
+        }
+        return false;
+    }
+
+    private boolean isConnectedTo(String name) {
+        for (PeerConnection connection : connections) {
+            if (name.equals(connection.getName())) return true;
+        }
+        return false;
+    }
+
+    private void finishConnect(PeerConnection connection) throws IOException {
+        if (connection.getChannel().finishConnect()) {
+            connection.getKey().interestOps(SelectionKey.OP_READ);
+            introduce(connection);
+        }
+    }
+
+    /**
+     * Send HELLO and all local subscriptions to a newly connected peer
+     * <p>
+     * The snapshot is taken under the subscription lock and the connection is marked
+     * introduced before releasing it, so every later change is broadcast to the peer.
+     */
+    private void introduce(PeerConnection connection) throws IOException {
+        synchronized (subscriptionLock) {
+            sendControl(connection, PeerConnection.encode(PeerConnection.TYPE_HELLO, nodeName + "\n" + listenPort));
+            for (String topic : subscriptions.keySet()) {
+                sendControl(connection, PeerConnection.encode(PeerConnection.TYPE_SUBSCRIBE, topic));
+            }
+            connection.setIntroduced();
+        }
+    }
+
+    private void gossipPeers() {
+        StringBuilder addresses = new StringBuilder();
+        for (PeerConnection connection : connections) {
+            if (connection.getName() == null || connection.getAddress() == null) continue;
+            if (addresses.length() > 0) addresses.append(',');
+            addresses.append(connection.getAddress());
+        }
+        if (addresses.length() > 0) {
+            broadcast(PeerConnection.encode(PeerConnection.TYPE_PEERS, addresses.toString()));
+        }
+    }
+
+    private void sendControl(PeerConnection connection, ByteBuffer frame) throws IOException {
+        if (connection.send(frame, null, maxQueued)) {
+            connection.getKey().interestOps(connection.getKey().interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void drop(PeerConnection connection) {
+        connection.close();
+        connections.remove(connection);
+    }
+
+    // ** Reading ** //
+
+    private void read(PeerConnection connection) throws IOException {
+        ByteBuffer buffer = connection.getReadBuffer();
+        if (connection.getChannel().read(buffer) < 0) {
+            throw new IOException("connection closed by peer");
+        }
+
+        buffer.flip();
+        while (buffer.remaining() >= PeerConnection.FRAME_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 1 || length > maxFrame) {
+                throw new IOException("invalid frame length " + length);
+            }
+            if (buffer.remaining() < 4 + length) break;
+
+            byte type = buffer.get(start + 4);
+            buffer.position(start + PeerConnection.FRAME_HEADER);
+            int bodyLength = length - 1;
+            handleFrame(connection, type, buffer, bodyLength);
+            buffer.position(start + 4 + length);
+            if (connection.isClosed()) return;
+        }
+        buffer.compact();
+    }
+
+    private void handleFrame(PeerConnection connection, byte type, ByteBuffer buffer, int length) throws IOException {
+        switch (type) {
+            case PeerConnection.TYPE_PUBLISH: {
+                byte kind = buffer.get();
+                byte[] topic = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(topic);
+                byte[] payload = new byte[length - 3 - topic.length];
+                buffer.get(payload);
+                String topicName = new String(topic, StandardCharsets.UTF_8);
+                if (kind == PeerConnection.KIND_STRING) {
+                    deliverLocal(topicName, new String(payload, StandardCharsets.UTF_8));
+                } else {
+                    deliverLocal(topicName, payload);
+                }
+                break;
+            }
+            case PeerConnection.TYPE_SUBSCRIBE:
+                connection.addFilter(readString(buffer, length));
+                break;
+            case PeerConnection.TYPE_UNSUBSCRIBE:
+                connection.removeFilter(readString(buffer, length));
+                break;
+            case PeerConnection.TYPE_PEERS:
+                addPeers(readString(buffer, length));
+                break;
+            case PeerConnection.TYPE_HELLO:
+                handleHello(connection, readString(buffer, length));
+                break;
+            default:
+                throw new IOException("unknown frame type " + type);
+        }
+    }
+
+    private void handleHello(PeerConnection connection, String hello) {
+        String[] tokens = hello.split("\n");
+        String name = tokens[0];
+        String host = ((InetSocketAddress) connection.getChannel().socket().getRemoteSocketAddress())
+                .getAddress().getHostAddress();
+
+        if (connection.isOutbound()) addressNames.put(connection.getAddress(), name);
+        if (name.equals(nodeName)) {
+            // Dialed ourselves - never dial this address again
+            if (connection.getAddress() != null) selfAddresses.add(connection.getAddress());
+            drop(connection);
+            return;
+        }
+
+        // Keep a single connection per pair of peers: the one dialed by the smaller name
+        String initiator = name.compareTo(nodeName) < 0 ? name : nodeName;
+        for (PeerConnection other : connections) {
+            if (other == connection || !name.equals(other.getName())) continue;
+            boolean keepOther = (other.isOutbound() ? nodeName : name).equals(initiator);
+            if (keepOther) {
+                if (connection.getAddress() == null) connection.setAddress(other.getAddress());
+                drop(connection);
+                return;
+            }
+            drop(other);
+        }
+
+        connection.setName(name);
+        if (connection.getAddress() == null && tokens.length > 1) {
+            connection.setAddress(host + ":" + tokens[1]);
+            knownPeers.add(connection.getAddress());
+        }
+        logger.info("Connected to peer " + name + " at " + connection.getAddress());
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void addPeers(String peers) {
+        for (String peer : peers.split(",")) {
+            String address = peer.trim();
+            if (!address.isEmpty()) knownPeers.add(address);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.upenn.cis.precise.openicelite.middleware.peer;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.TopicFilter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local subscription of a peer with its own bounded queue and dispatcher thread
+ * <p>
+ * Callbacks run on the dispatcher thread, so a slow subscriber never holds up the
+ * selector thread (and with it every peer connection). Messages for a full queue
+ * are dropped and counted; the first drop is logged.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class PeerSubscription {
+    private static final Logger logger = LogManager.getLogger(PeerSubscription.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    private final TopicFilter filter;
+    private final IMiddlewareCallback callback;
+    private final BlockingQueue<Delivery> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean warnedFull = false;
+
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    /**
+     * Peer subscription constructor
+     *
+     * @param filter    topic filter (may include wildcards)
+     * @param callback  the class to callback for delivered messages
+     * @param queueSize maximum number of messages waiting for delivery
+     */
+    PeerSubscription(TopicFilter filter, IMiddlewareCallback callback, int queueSize) {
+        this.filter = filter;
+        this.callback = callback;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.dispatcher = new Thread(this::dispatch, "Peer-" + filter);
+        this.dispatcher.setDaemon(true);
+    }
+
+    void start() {
+        dispatcher.start();
+    }
+
+    void stop() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    boolean matches(String topic) {
+        return filter.matches(topic);
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Enqueue a message for delivery without blocking
+     *
+     * @param topic   the topic the message was published to
+     * @param payload message payload (byte array or string)
+     */
+    void offer(String topic, Object payload) {
+        if (running && queue.offer(new Delivery(topic, payload))) return;
+        dropped.incrementAndGet();
+        if (running && !warnedFull) {
+            warnedFull = true;
+            logger.warn("Subscriber " + filter + " is full - dropping message from " + topic +
+                    " (further drops are only counted)");
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            Delivery delivery;
+            try {
+                delivery = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            if (delivery == null) continue;
+            try {
+                if (delivery.payload instanceof byte[]) {
+                    callback.handleMessage(delivery.topic, (byte[]) delivery.payload);
+                } else {
+                    callback.handleMessage(delivery.topic, (String) delivery.payload);
+                }
+            } catch (Exception ex) {
+                logger.error("Failed to deliver message from " + delivery.topic, ex);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Dispatcher of " + filter + " is exiting...");
+        }
+    }
+
+    /**
+     * A message waiting for delivery
+     */
+    private static class Delivery {
+        private final String topic;
+        private final Object payload;
+
+        private Delivery(String topic, Object payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+    }
+}
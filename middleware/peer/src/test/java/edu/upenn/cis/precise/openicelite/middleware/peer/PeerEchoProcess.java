@@ -0,0 +1,53 @@
+package edu.upenn.cis.precise.openicelite.middleware.peer;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peer process of PeerMiddlewareTest: dial the test peer, announce readiness until the
+ * first ping arrives, then echo every "ping/n" message back as "pong/n"
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class PeerEchoProcess {
+    public static void main(String[] args) throws Exception {
+        int count = Integer.parseInt(args[1]);
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("listen_address", "127.0.0.1");
+        options.put("listen_port", 0);
+        options.put("peers", "127.0.0.1:" + args[0]);
+        options.put("retry_interval", 1);
+
+        PeerMiddleware peer = new PeerMiddleware("echo-process");
+        peer.init(options);
+        CountDownLatch pinged = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(count);
+        peer.subscribe("ping/#", null, new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                pinged.countDown();
+                peer.publish("pong/" + topic.substring("ping/".length()), message, null);
+                done.countDown();
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                handleMessage(topic, message.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        peer.connect(null, "echo-process", null);
+
+        while (!pinged.await(100, TimeUnit.MILLISECONDS)) {
+            peer.publish("pong/ready", "ready", null);
+        }
+        boolean finished = done.await(60, TimeUnit.SECONDS);
+        // Let the last echoes leave the socket before closing
+        Thread.sleep(500);
+        peer.close();
+        System.exit(finished ? 0 : 1);
+    }
+}
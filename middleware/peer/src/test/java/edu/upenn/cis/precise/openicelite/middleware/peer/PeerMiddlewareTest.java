@@ -0,0 +1,237 @@
+package edu.upenn.cis.precise.openicelite.middleware.peer;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class PeerMiddlewareTest {
+    private final List<PeerMiddleware> peers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (PeerMiddleware peer : peers) {
+            peer.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void deliversToSubscribedPeersOnly() throws Exception {
+        PeerMiddleware publisher = start("publisher", null);
+        PeerMiddleware subscriber = start("subscriber", publisher);
+        CountDownLatch delivered = new CountDownLatch(2);
+        List<String> topics = new ArrayList<>();
+        subscriber.subscribe("a/+/c", null, callback((topic, message) -> {
+            synchronized (topics) {
+                topics.add(topic + "=" + message);
+            }
+            delivered.countDown();
+        }));
+        awaitSubscribed(publisher, subscriber);
+
+        publisher.publish("a/b/c", "1", null);
+        publisher.publish("a/b/d", "2", null);
+        publisher.publish("a/e/c", "3", null);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        synchronized (topics) {
+            assertEquals(2, topics.size());
+            assertTrue(topics.contains("a/b/c=1"));
+            assertTrue(topics.contains("a/e/c=3"));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void sendsSubscriptionsMadeDuringHandshake() throws Exception {
+        PeerMiddleware publisher = start("publisher", null);
+        for (int i = 0; i < 5; i++) {
+            PeerMiddleware subscriber = start("subscriber-" + i, publisher);
+            // Subscribe right away, while the peers are still exchanging HELLO
+            CountDownLatch delivered = new CountDownLatch(1);
+            subscriber.subscribe("early/" + i, null, callback((topic, message) -> delivered.countDown()));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (delivered.getCount() > 0 && System.currentTimeMillis() < deadline) {
+                publisher.publish("early/" + i, "message", null);
+                delivered.await(20, TimeUnit.MILLISECONDS);
+            }
+            assertEquals("Subscription " + i + " never reached the publisher", 0, delivered.getCount());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void slowSubscriberDoesNotStallOtherMessages() throws Exception {
+        PeerMiddleware publisher = start("publisher", null);
+        PeerMiddleware subscriber = start("subscriber", publisher);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch stalled = new CountDownLatch(1);
+        subscriber.subscribe("slow", null, callback((topic, message) -> {
+            stalled.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        AtomicInteger fast = new AtomicInteger();
+        subscriber.subscribe("fast/#", null, callback((topic, message) -> fast.incrementAndGet()));
+        awaitSubscribed(publisher, subscriber);
+
+        try {
+            publisher.publish("slow", "block", null);
+            assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            // The slow callback is blocked, yet the connection keeps delivering
+            for (int i = 0; i < 100; i++) {
+                publisher.publish("fast/" + i, "message", null);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fast.get() < 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(100, fast.get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void dropsMessagesForFullSubscriber() throws Exception {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("queue_size", 2);
+        PeerMiddleware publisher = start("publisher", null);
+        PeerMiddleware subscriber = start("subscriber", publisher, options);
+        CountDownLatch release = new CountDownLatch(1);
+        subscriber.subscribe("stall/#", null, callback((topic, message) -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        awaitSubscribed(publisher, subscriber);
+
+        for (int i = 0; i < 20; i++) {
+            publisher.publish("stall/" + i, "message", null);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (subscriber.getDropped() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        assertTrue(subscriber.getDropped() > 0);
+    }
+
+    @Test(timeout = 120000)
+    public void echoesMessagesOfAnotherProcess() throws Exception {
+        int count = 2000;
+        PeerMiddleware peer = start("test-process", null);
+        CountDownLatch ready = new CountDownLatch(1);
+        boolean[] echoed = new boolean[count];
+        AtomicInteger received = new AtomicInteger();
+        peer.subscribe("pong/#", null, new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                int sequence = ByteBuffer.wrap(message).getInt();
+                assertEquals("pong/" + sequence, topic);
+                echoed[sequence] = true;
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                ready.countDown();
+            }
+        });
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                PeerEchoProcess.class.getName(), Integer.toString(peer.getListenPort()), Integer.toString(count))
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            while (!ready.await(100, TimeUnit.MILLISECONDS)) {
+                assertTrue("Peer process exited early", process.isAlive());
+            }
+            assertEquals(1, peer.getPeerCount());
+
+            for (int i = 0; i < count; i++) {
+                peer.publish("ping/" + i, ByteBuffer.allocate(64).putInt(0, i).array(), null);
+            }
+            long deadline = System.currentTimeMillis() + 60000;
+            while (received.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, process.waitFor());
+            for (int i = 0; i < count; i++) {
+                assertTrue("Missing echo " + i, echoed[i]);
+            }
+            assertEquals(0, peer.getDropped());
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private PeerMiddleware start(String name, PeerMiddleware seed) {
+        return start(name, seed, new HashMap<>());
+    }
+
+    private PeerMiddleware start(String name, PeerMiddleware seed, HashMap<String, Object> options) {
+        options.put("listen_address", "127.0.0.1");
+        options.put("listen_port", 0);
+        options.put("retry_interval", 1);
+        if (seed != null) options.put("peers", "127.0.0.1:" + seed.getListenPort());
+        PeerMiddleware peer = new PeerMiddleware(name);
+        peer.init(options);
+        peer.connect(null, name, null);
+        peers.add(peer);
+        return peer;
+    }
+
+    /**
+     * Publish probes until the subscriber delivers one; subscriptions are advertised in
+     * order, so the publisher then knows all earlier subscriptions of the subscriber
+     */
+    private static void awaitSubscribed(PeerMiddleware publisher, PeerMiddleware subscriber)
+            throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        subscriber.subscribe("probe/done", null, callback((topic, message) -> delivered.countDown()));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            publisher.publish("probe/done", "probe", null);
+            if (delivered.await(50, TimeUnit.MILLISECONDS)) break;
+        }
+        subscriber.unsubscribe("probe/done");
+        assertEquals(0, delivered.getCount());
+    }
+
+    private static IMiddlewareCallback callback(Handler handler) {
+        return new IMiddlewareCallback() {
+            @Override
+            public void handleMessage(String topic, byte[] message) {
+                handler.handle(topic, message);
+            }
+
+            @Override
+            public void handleMessage(String topic, String message) {
+                handler.handle(topic, message);
+            }
+        };
+    }
+
+    private interface Handler {
+        void handle(String topic, Object message);
+    }
+}
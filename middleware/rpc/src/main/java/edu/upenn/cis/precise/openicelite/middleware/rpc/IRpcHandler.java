@@ -0,0 +1,19 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+/**
+ * Interface for methods served by an RpcServer
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IRpcHandler {
+    /**
+     * Handle a call on a worker thread of the server and write the response to the
+     * stream, which blocks while the caller is behind (the stream is flushed and ended
+     * after returning)
+     *
+     * @param request request payload
+     * @param stream  response stream to the caller
+     * @throws Exception if the call fails (reported to the caller as ERROR)
+     */
+    void handle(byte[] request, RpcStream stream) throws Exception;
+}
@@ -0,0 +1,28 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+/**
+ * Interface for receivers of a streamed response (see RpcClient)
+ * <p>
+ * Both methods are called on the middleware callback thread. Credits for more chunks
+ * are granted to the server as onChunk returns, so a slow receiver slows down the
+ * server instead of piling up chunks in memory.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public interface IRpcResponseHandler {
+    /**
+     * Receive the next chunk of the response, in order
+     *
+     * @param chunk chunk data
+     * @throws Exception to cancel the call (completed as ERROR)
+     */
+    void onChunk(byte[] chunk) throws Exception;
+
+    /**
+     * Receive the outcome of the call, after the last chunk
+     *
+     * @param status outcome
+     * @param error  error message (empty if none)
+     */
+    void onComplete(RpcStatus status, String error);
+}
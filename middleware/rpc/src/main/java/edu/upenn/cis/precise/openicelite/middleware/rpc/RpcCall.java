@@ -0,0 +1,104 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An outstanding call of an RpcClient
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RpcCall {
+    private final RpcClient client;
+    private final long id;
+    private final String server;
+    private final String method;
+    private final IRpcResponseHandler handler;
+    private final CompletableFuture<RpcStatus> future = new CompletableFuture<>();
+    final long start;
+
+    // Updated on the middleware callback thread
+    volatile long lastActivity;
+    volatile int nextSeq = 0;
+    int consumed = 0;
+    volatile long bytes = 0;
+
+    RpcCall(RpcClient client, long id, String server, String method, IRpcResponseHandler handler, long start) {
+        this.client = client;
+        this.id = id;
+        this.server = server;
+        this.method = method;
+        this.handler = handler;
+        this.start = start;
+        this.lastActivity = start;
+    }
+
+    /**
+     * Return the correlation ID of the call
+     *
+     * @return correlation ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Return the client name of the server
+     *
+     * @return client name
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Return the called method
+     *
+     * @return method name
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Return the number of chunks received so far
+     *
+     * @return number of chunks
+     */
+    public int getChunks() {
+        return nextSeq;
+    }
+
+    /**
+     * Return the number of response bytes received so far
+     *
+     * @return number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Return the future outcome of the call (completed after the handler's onComplete)
+     *
+     * @return future status
+     */
+    public CompletableFuture<RpcStatus> getFuture() {
+        return future;
+    }
+
+    /**
+     * Cancel the call on the server and complete it with CANCELLED
+     */
+    public void cancel() {
+        client.cancel(this);
+    }
+
+    IRpcResponseHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public String toString() {
+        return "call " + id + " of " + method + " on " + server;
+    }
+}
@@ -0,0 +1,386 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call methods of RpcServers over the middleware and receive their streamed responses
+ * <p>
+ * Every call gets a correlation ID (counting up from a random value), so any number of
+ * calls to any number of servers can be outstanding at once over the same connection.
+ * Responses arrive on the RpcReply channel of this client's topic as numbered chunks.
+ * The server may send a window of chunks ahead; as chunks are consumed, this client
+ * grants credits for more in batches of half the window. A call is completed with
+ * INCOMPLETE when a chunk is missing (e.g., dropped at QoS 0), and with TIMEOUT when
+ * nothing is received from the server for the timeout, which applies between chunks
+ * rather than to the whole call so long responses are not cut off. The time from
+ * sending a request to receiving its first frame is recorded in a latency histogram.
+ * <p>
+ * Available options for initialization:
+ * - "rpc_window":          number of chunks the server may send ahead (default to 16)
+ * - "rpc_timeout":         milliseconds without frames before a call times out
+ *                              (default to 10000)
+ * - "rpc_max_response":    maximum size in bytes of a response collected in memory
+ *                              (default to 16777216)
+ * - "rpc_qos":             MQTT QoS of requests and credits (default to 1)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RpcClient implements IMiddlewareCallback {
+    private static final Logger logger = LogManager.getLogger(RpcClient.class);
+
+    public static final String REPLY_CHANNEL = "RpcReply";
+
+    private final IMiddleware middleware;
+    private final ITopicHandler topicHandler;
+    private final String projectName;
+    private final String clientName;
+    private final HashMap<String, Object> publishOptions = new HashMap<>();
+    private final ConcurrentHashMap<Long, RpcCall> calls = new ConcurrentHashMap<>();
+    // IDs start at a random value, so a restarted client does not reuse the IDs
+    // of its previous session still remembered by servers as finished calls
+    private final AtomicLong nextId = new AtomicLong(ThreadLocalRandom.current().nextLong());
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private ScheduledThreadPoolExecutor timer;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder lateFrames = new LongAdder();
+    private final LatencyHistogram firstFrame = new LatencyHistogram();
+
+    // Overwritten-able configuration
+    private int window = 16;
+    private long timeout = 10000;
+    private int maxResponse = 16777216;
+    private int qos = 1;
+
+    /**
+     * RPC client constructor
+     *
+     * @param middleware   connected middleware
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     * @param clientName   name of this client (responses are sent to its client topic)
+     */
+    public RpcClient(IMiddleware middleware, ITopicHandler topicHandler, String projectName, String clientName) {
+        this.middleware = middleware;
+        this.topicHandler = topicHandler;
+        this.projectName = projectName;
+        this.clientName = clientName;
+    }
+
+    /**
+     * Load client options
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("rpc_window")) {
+            window = Integer.parseInt(options.get("rpc_window").toString());
+        }
+        if (options.containsKey("rpc_timeout")) {
+            timeout = Long.parseLong(options.get("rpc_timeout").toString());
+        }
+        if (options.containsKey("rpc_max_response")) {
+            maxResponse = Integer.parseInt(options.get("rpc_max_response").toString());
+        }
+        if (options.containsKey("rpc_qos")) {
+            qos = Integer.parseInt(options.get("rpc_qos").toString());
+        }
+        if (window < 1 || timeout < 1 || maxResponse < 0 || qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("Invalid RPC client options!");
+        }
+    }
+
+    /**
+     * Subscribe to responses and start the timeout timer
+     */
+    public void start() {
+        if (isRunning.getAndSet(true)) return;
+        publishOptions.put("qos", qos);
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "RpcClient-" + clientName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(timeout / 4, 1000));
+        timer.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+        middleware.subscribe(topicHandler.getClientTopic(projectName, clientName, REPLY_CHANNEL), null, this);
+    }
+
+    /**
+     * Unsubscribe from responses and cancel outstanding calls
+     */
+    public void stop() {
+        if (!isRunning.getAndSet(false)) return;
+        middleware.unsubscribe(topicHandler.getClientTopic(projectName, clientName, REPLY_CHANNEL));
+        timer.shutdownNow();
+        for (RpcCall call : calls.values()) {
+            cancel(call);
+        }
+    }
+
+    /**
+     * Call a method and stream its response to a handler
+     *
+     * @param server  client name of the server
+     * @param method  method name
+     * @param request request payload
+     * @param handler receiver of the response
+     * @return the outstanding call
+     */
+    public RpcCall call(String server, String method, byte[] request, IRpcResponseHandler handler) {
+        if (!isRunning.get()) throw new IllegalArgumentException("RPC client is not started!");
+        String topic = topicHandler.getClientTopic(projectName, server, RpcServer.REQUEST_CHANNEL);
+        if (topic == null || method == null || handler == null) {
+            throw new IllegalArgumentException("Invalid RPC call!");
+        }
+
+        long id = nextId.getAndIncrement();
+        RpcCall call = new RpcCall(this, id, server, method, handler, System.nanoTime());
+        calls.put(id, call);
+        sent.increment();
+        try {
+            middleware.publish(topic, RpcFrame.request(id, clientName, method, window, request), publishOptions);
+        } catch (Exception ex) {
+            logger.error("Failed to send " + call, ex);
+            complete(call, RpcStatus.ERROR, "Failed to publish - " + ex.getMessage());
+        }
+        return call;
+    }
+
+    /**
+     * Call a method and collect its whole response in memory (up to the maximum
+     * response size)
+     *
+     * @param server  client name of the server
+     * @param method  method name
+     * @param request request payload
+     * @return future response, failed with an RpcException unless OK
+     */
+    public CompletableFuture<byte[]> call(String server, String method, byte[] request) {
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        call(server, method, request, new IRpcResponseHandler() {
+            @Override
+            public void onChunk(byte[] chunk) throws Exception {
+                if (buffer.size() + chunk.length > maxResponse) {
+                    throw new RpcException(RpcStatus.ERROR, "Response exceeds " + maxResponse + " bytes");
+                }
+                buffer.write(chunk);
+            }
+
+            @Override
+            public void onComplete(RpcStatus status, String error) {
+                if (status == RpcStatus.OK) {
+                    response.complete(buffer.toByteArray());
+                } else {
+                    response.completeExceptionally(new RpcException(status, error));
+                }
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Cancel an outstanding call on the server and complete it with CANCELLED
+     *
+     * @param call the call
+     */
+    void cancel(RpcCall call) {
+        if (complete(call, RpcStatus.CANCELLED, "")) sendCancel(call);
+    }
+
+    private void sendCancel(RpcCall call) {
+        String topic = topicHandler.getClientTopic(projectName, call.getServer(), RpcServer.REQUEST_CHANNEL);
+        try {
+            middleware.publish(topic, RpcFrame.cancel(call.getId(), clientName), publishOptions);
+        } catch (Exception ex) {
+            logger.warn("Failed to cancel " + call + " - " + ex.getMessage());
+        }
+    }
+
+    private void grant(RpcCall call, int credits) {
+        String topic = topicHandler.getClientTopic(projectName, call.getServer(), RpcServer.REQUEST_CHANNEL);
+        try {
+            middleware.publish(topic, RpcFrame.credit(call.getId(), clientName, credits), publishOptions);
+        } catch (Exception ex) {
+            logger.warn("Failed to grant credits to " + call + " - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Complete a call once (false if it was already completed)
+     */
+    private boolean complete(RpcCall call, RpcStatus status, String error) {
+        if (!calls.remove(call.getId(), call)) return false;
+        if (status == RpcStatus.OK) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+        try {
+            call.getHandler().onComplete(status, error);
+        } catch (Exception ex) {
+            logger.warn("Response handler of " + call + " failed", ex);
+        }
+        call.getFuture().complete(status);
+        return true;
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        long limit = TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (RpcCall call : calls.values()) {
+            if (now - call.lastActivity > limit && complete(call, RpcStatus.TIMEOUT, "No response for " +
+                    timeout + " ms")) {
+                timedOut.increment();
+                sendCancel(call);
+            }
+        }
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        long now = System.nanoTime();
+        RpcFrame frame;
+        try {
+            frame = RpcFrame.decode(message);
+        } catch (Exception ex) {
+            logger.warn("Invalid RPC frame on " + topic + " - " + ex.getMessage());
+            return;
+        }
+        RpcCall call = calls.get(frame.id);
+        if (call == null) {
+            lateFrames.increment();
+            return;
+        }
+        if (call.lastActivity == call.start) firstFrame.record(now - call.start);
+        call.lastActivity = now;
+
+        if (frame.type == RpcFrame.END) {
+            if (frame.status == RpcStatus.OK && frame.value != call.nextSeq) {
+                complete(call, RpcStatus.INCOMPLETE, "Received " + call.nextSeq + " of " + frame.value + " chunks");
+            } else {
+                complete(call, frame.status, frame.error);
+            }
+            return;
+        }
+        if (frame.type != RpcFrame.CHUNK) return;
+        if (frame.value != call.nextSeq) {
+            if (complete(call, RpcStatus.INCOMPLETE, "Chunk " + call.nextSeq + " is missing")) sendCancel(call);
+            return;
+        }
+        call.nextSeq++;
+        call.bytes += frame.payload.length;
+        try {
+            call.getHandler().onChunk(frame.payload);
+        } catch (Exception ex) {
+            if (complete(call, RpcStatus.ERROR, String.valueOf(ex.getMessage()))) sendCancel(call);
+            return;
+        }
+        if (++call.consumed >= Math.max(1, window / 2)) {
+            grant(call, call.consumed);
+            call.consumed = 0;
+        }
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        handleMessage(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Return the number of sent calls
+     *
+     * @return number of calls
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * Return the number of calls completed with OK
+     *
+     * @return number of calls
+     */
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * Return the number of calls completed with any other status
+     *
+     * @return number of calls
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Return the number of calls without frames from the server in time
+     *
+     * @return number of calls
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Return the number of frames received for calls already completed
+     *
+     * @return number of frames
+     */
+    public long getLateFrames() {
+        return lateFrames.sum();
+    }
+
+    /**
+     * Return the number of outstanding calls
+     *
+     * @return number of calls
+     */
+    public int getPending() {
+        return calls.size();
+    }
+
+    /**
+     * Return the histogram of the time from sending a request to receiving the first
+     * frame of its response
+     *
+     * @return latency histogram (nanoseconds)
+     */
+    public LatencyHistogram getFirstFrame() {
+        return firstFrame;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rpc client: sent=%d, completed=%d, failed=%d, timed out=%d, late=%d, " +
+                        "pending=%d, first frame p99=%.3fms",
+                getSent(), getCompleted(), getFailed(), getTimedOut(), getLateFrames(), getPending(),
+                firstFrame.snapshot().getP99() / 1e6);
+    }
+}
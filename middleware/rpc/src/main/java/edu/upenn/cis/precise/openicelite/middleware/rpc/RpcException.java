@@ -0,0 +1,32 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+/**
+ * Failure of a remote call, with its status
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RpcException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final RpcStatus status;
+
+    /**
+     * RPC exception constructor
+     *
+     * @param status  outcome of the call
+     * @param message error message
+     */
+    public RpcException(RpcStatus status, String message) {
+        super(status + ((message == null || message.isEmpty()) ? "" : " - " + message));
+        this.status = status;
+    }
+
+    /**
+     * Return the outcome of the call
+     *
+     * @return status
+     */
+    public RpcStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,182 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A message of the RPC protocol in its binary form
+ * <p>
+ * Callers send REQUEST, CREDIT and CANCEL frames to the Rpc channel of the server,
+ * naming their own client topic to reply to. Servers answer on the RpcReply channel of
+ * the caller with numbered CHUNK frames followed by a single END frame carrying the
+ * number of chunks and the outcome. The value of a frame is the credit window for
+ * REQUEST and CREDIT, the sequence number for CHUNK, and the chunk count for END.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+final class RpcFrame {
+    static final byte REQUEST = 1;
+    static final byte CREDIT = 2;
+    static final byte CANCEL = 3;
+    static final byte CHUNK = 4;
+    static final byte END = 5;
+
+    private static final byte VERSION = 1;
+    private static final byte[] EMPTY = new byte[0];
+
+    final byte type;
+    final long id;
+    final String replyTo;
+    final String method;
+    final int value;
+    final RpcStatus status;
+    final String error;
+    final byte[] payload;
+
+    private RpcFrame(byte type, long id, String replyTo, String method, int value, RpcStatus status,
+                     String error, byte[] payload) {
+        this.type = type;
+        this.id = id;
+        this.replyTo = replyTo;
+        this.method = method;
+        this.value = value;
+        this.status = status;
+        this.error = error;
+        this.payload = payload;
+    }
+
+    static byte[] request(long id, String replyTo, String method, int window, byte[] payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + payload.length);
+            DataOutputStream output = header(bytes, REQUEST, id);
+            output.writeUTF(replyTo);
+            output.writeUTF(method);
+            output.writeInt(window);
+            output.writeInt(payload.length);
+            output.write(payload);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // Not expected with an in-memory stream
+            throw new IllegalStateException("Failed to encode RPC request", ex);
+        }
+    }
+
+    static byte[] credit(long id, String replyTo, int credits) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream output = header(bytes, CREDIT, id);
+            output.writeUTF(replyTo);
+            output.writeInt(credits);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to encode RPC credit", ex);
+        }
+    }
+
+    static byte[] cancel(long id, String replyTo) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream output = header(bytes, CANCEL, id);
+            output.writeUTF(replyTo);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to encode RPC cancel", ex);
+        }
+    }
+
+    static byte[] chunk(long id, int seq, byte[] data, int offset, int length) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(18 + length);
+            DataOutputStream output = header(bytes, CHUNK, id);
+            output.writeInt(seq);
+            output.writeInt(length);
+            output.write(data, offset, length);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to encode RPC chunk", ex);
+        }
+    }
+
+    static byte[] end(long id, int chunks, RpcStatus status, String error) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream output = header(bytes, END, id);
+            output.writeInt(chunks);
+            output.writeByte(status.ordinal());
+            output.writeUTF((error == null) ? "" : error);
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to encode RPC end", ex);
+        }
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes, byte type, long id) throws IOException {
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(VERSION);
+        output.writeByte(type);
+        output.writeLong(id);
+        return output;
+    }
+
+    /**
+     * Decode a frame from its binary form
+     *
+     * @param message encoded frame
+     * @return the frame
+     * @throws IOException if the message is not a valid frame
+     */
+    static RpcFrame decode(byte[] message) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported RPC version: " + version);
+        }
+        byte type = input.readByte();
+        long id = input.readLong();
+        switch (type) {
+            case REQUEST: {
+                String replyTo = input.readUTF();
+                String method = input.readUTF();
+                int window = input.readInt();
+                return new RpcFrame(type, id, replyTo, method, window, null, null, readPayload(input));
+            }
+            case CREDIT:
+                return new RpcFrame(type, id, input.readUTF(), null, input.readInt(), null, null, EMPTY);
+            case CANCEL:
+                return new RpcFrame(type, id, input.readUTF(), null, 0, null, null, EMPTY);
+            case CHUNK: {
+                int seq = input.readInt();
+                return new RpcFrame(type, id, null, null, seq, null, null, readPayload(input));
+            }
+            case END: {
+                int chunks = input.readInt();
+                int status = input.readUnsignedByte();
+                if (status >= RpcStatus.values().length) {
+                    throw new IOException("Unknown RPC status: " + status);
+                }
+                return new RpcFrame(type, id, null, null, chunks, RpcStatus.values()[status], input.readUTF(),
+                        EMPTY);
+            }
+            default:
+                throw new IOException("Unknown RPC frame type: " + type);
+        }
+    }
+
+    private static byte[] readPayload(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("Invalid RPC payload length: " + length);
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        return payload;
+    }
+}
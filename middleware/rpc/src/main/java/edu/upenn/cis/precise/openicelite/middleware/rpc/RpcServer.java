@@ -0,0 +1,465 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serve request/response calls to registered methods over the middleware
+ * <p>
+ * Requests arrive on the Rpc channel of the server's client topic and are answered on
+ * the RpcReply channel of the caller (see RpcClient), the same way as clock pings (see
+ * ClockSync). The middleware callback only decodes frames: calls run on a pool of
+ * worker threads, so any number of callers can have calls outstanding and a long
+ * response (e.g., a multi-hour history pull) only occupies its own worker. Responses
+ * are streamed in chunks under credit-based flow control (see RpcStream). Calls
+ * arriving while all workers are busy and the queue is full are answered with BUSY.
+ * <p>
+ * Requests arrive at QoS 1, so the same request may be delivered more than once. A
+ * request still running is not run again, and the END frame of a finished call is kept
+ * for the dedup time and sent again instead of running the call again (its chunks are
+ * not kept, so the caller gets the outcome but not the response).
+ * <p>
+ * Available options for initialization:
+ * - "rpc_threads":         number of worker threads (default to 4)
+ * - "rpc_queue":           maximum number of calls waiting for a worker (default to 64)
+ * - "rpc_chunk_size":      maximum size of a response chunk in bytes (default to 65536)
+ * - "rpc_stall_timeout":   milliseconds a response waits for credits before the call
+ *                              is aborted (default to 30000)
+ * - "rpc_max_window":      maximum number of chunks a caller may have sent ahead
+ *                              (default to 1024)
+ * - "rpc_dedup_time":      milliseconds finished calls are remembered to answer
+ *                              duplicate requests (default to 60000)
+ * - "rpc_qos":             MQTT QoS of responses (default to 1)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RpcServer implements IMiddlewareCallback {
+    private static final Logger logger = LogManager.getLogger(RpcServer.class);
+
+    public static final String REQUEST_CHANNEL = "Rpc";
+
+    private static final int MAX_FINISHED = 4096;
+
+    private final IMiddleware middleware;
+    private final ITopicHandler topicHandler;
+    private final String projectName;
+    private final String serverName;
+    private final HashMap<String, Object> publishOptions = new HashMap<>();
+    private final ConcurrentHashMap<String, IRpcHandler> handlers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RpcStream> calls = new ConcurrentHashMap<>();
+    // END frames of finished calls, oldest first
+    private final LinkedHashMap<String, Finished> finished = new LinkedHashMap<String, Finished>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Finished> eldest) {
+            return size() > MAX_FINISHED;
+        }
+    };
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private ThreadPoolExecutor workers;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    // Overwritten-able configuration
+    private int threads = 4;
+    private int queueSize = 64;
+    private int chunkSize = 65536;
+    private long stallTimeout = 30000;
+    private int maxWindow = 1024;
+    private long dedupTime = 60000;
+    private int qos = 1;
+
+    /**
+     * RPC server constructor
+     *
+     * @param middleware   connected middleware
+     * @param topicHandler topic handler
+     * @param projectName  project name
+     * @param serverName   client name of this server (requests are received on its
+     *                     client topic)
+     */
+    public RpcServer(IMiddleware middleware, ITopicHandler topicHandler, String projectName, String serverName) {
+        this.middleware = middleware;
+        this.topicHandler = topicHandler;
+        this.projectName = projectName;
+        this.serverName = serverName;
+    }
+
+    /**
+     * Load server options
+     *
+     * @param options initializing options
+     */
+    public void init(HashMap<String, Object> options) {
+        if (options == null) return;
+        if (options.containsKey("rpc_threads")) {
+            threads = Integer.parseInt(options.get("rpc_threads").toString());
+        }
+        if (options.containsKey("rpc_queue")) {
+            queueSize = Integer.parseInt(options.get("rpc_queue").toString());
+        }
+        if (options.containsKey("rpc_chunk_size")) {
+            chunkSize = Integer.parseInt(options.get("rpc_chunk_size").toString());
+        }
+        if (options.containsKey("rpc_stall_timeout")) {
+            stallTimeout = Long.parseLong(options.get("rpc_stall_timeout").toString());
+        }
+        if (options.containsKey("rpc_max_window")) {
+            maxWindow = Integer.parseInt(options.get("rpc_max_window").toString());
+        }
+        if (options.containsKey("rpc_dedup_time")) {
+            dedupTime = Long.parseLong(options.get("rpc_dedup_time").toString());
+        }
+        if (options.containsKey("rpc_qos")) {
+            qos = Integer.parseInt(options.get("rpc_qos").toString());
+        }
+        if (threads < 1 || queueSize < 1 || chunkSize < 1 || stallTimeout < 1 || maxWindow < 1 || dedupTime < 0
+                || qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("Invalid RPC server options!");
+        }
+    }
+
+    /**
+     * Register the handler of a method (replacing any previous handler)
+     *
+     * @param method  method name
+     * @param handler method handler
+     */
+    public void register(String method, IRpcHandler handler) {
+        if (method == null || handler == null) throw new IllegalArgumentException("Invalid RPC method!");
+        handlers.put(method, handler);
+    }
+
+    /**
+     * Remove the handler of a method
+     *
+     * @param method method name
+     */
+    public void unregister(String method) {
+        handlers.remove(method);
+    }
+
+    /**
+     * Start the workers and subscribe to requests
+     */
+    public void start() {
+        if (isRunning.getAndSet(true)) return;
+        publishOptions.put("qos", qos);
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "RpcServer-" + serverName + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        middleware.subscribe(getRequestTopic(), null, this);
+    }
+
+    /**
+     * Unsubscribe from requests and cancel running calls
+     */
+    public void stop() {
+        if (!isRunning.getAndSet(false)) return;
+        middleware.unsubscribe(getRequestTopic());
+        for (RpcStream stream : calls.values()) {
+            stream.cancel();
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.SECONDS)) workers.shutdownNow();
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the topic requests are received on
+     *
+     * @return topic name
+     */
+    public String getRequestTopic() {
+        return topicHandler.getClientTopic(projectName, serverName, REQUEST_CHANNEL);
+    }
+
+    // ** Middleware callback ** //
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        RpcFrame frame;
+        try {
+            frame = RpcFrame.decode(message);
+        } catch (Exception ex) {
+            invalid.increment();
+            logger.warn("Invalid RPC frame on " + topic + " - " + ex.getMessage());
+            return;
+        }
+        String key = frame.replyTo + "/" + frame.id;
+        switch (frame.type) {
+            case RpcFrame.REQUEST:
+                call(key, frame);
+                break;
+            case RpcFrame.CREDIT: {
+                if (frame.value <= 0) {
+                    invalid.increment();
+                    logger.warn("Invalid RPC credit " + frame.value + " from " + frame.replyTo);
+                    break;
+                }
+                RpcStream stream = calls.get(key);
+                if (stream != null) stream.grant(frame.value);
+                break;
+            }
+            case RpcFrame.CANCEL: {
+                RpcStream stream = calls.get(key);
+                if (stream != null) stream.cancel();
+                break;
+            }
+            default:
+                invalid.increment();
+        }
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        handleMessage(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void call(String key, RpcFrame request) {
+        byte[] end = getFinished(key);
+        if (end != null) {
+            // Duplicate delivery of a finished request (QoS 1)
+            duplicates.increment();
+            reply(request.replyTo, end);
+            return;
+        }
+        IRpcHandler handler = handlers.get(request.method);
+        if (handler == null) {
+            received.increment();
+            failed.increment();
+            reply(request.replyTo, RpcFrame.end(request.id, 0, RpcStatus.UNKNOWN_METHOD, request.method));
+            return;
+        }
+        int window = Math.min(Math.max(request.value, 1), maxWindow);
+        RpcStream stream = new RpcStream(this, request.id, request.replyTo, window, chunkSize, stallTimeout);
+        if (calls.putIfAbsent(key, stream) != null) {
+            // Duplicate delivery of a running request (QoS 1)
+            duplicates.increment();
+            return;
+        }
+        received.increment();
+        try {
+            workers.execute(() -> run(key, handler, request.payload, stream));
+        } catch (RejectedExecutionException ex) {
+            calls.remove(key);
+            busy.increment();
+            reply(request.replyTo, RpcFrame.end(request.id, 0, RpcStatus.BUSY, "Server is busy"));
+        }
+    }
+
+    private void run(String key, IRpcHandler handler, byte[] request, RpcStream stream) {
+        RpcStatus status = RpcStatus.OK;
+        String error = "";
+        byte[] end;
+        try {
+            try {
+                // Skip calls cancelled while waiting for a worker
+                if (stream.isCancelled()) throw new IOException("Call was cancelled");
+                handler.handle(request, stream);
+                stream.finish();
+            } catch (Exception ex) {
+                if (stream.isCancelled()) {
+                    status = RpcStatus.CANCELLED;
+                } else {
+                    status = RpcStatus.ERROR;
+                    error = String.valueOf(ex.getMessage());
+                    logger.warn("Call " + stream.getId() + " from " + stream.getCaller() + " failed", ex);
+                }
+            }
+            if (status == RpcStatus.OK && stream.isCancelled()) status = RpcStatus.CANCELLED;
+            end = RpcFrame.end(stream.getId(), stream.getChunks(), status, error);
+            // Kept before the call is removed, so that a duplicate finds one or the other
+            putFinished(key, end);
+        } finally {
+            calls.remove(key);
+        }
+        switch (status) {
+            case OK:
+                completed.increment();
+                break;
+            case CANCELLED:
+                cancelled.increment();
+                break;
+            default:
+                failed.increment();
+        }
+        chunks.add(stream.getChunks());
+        bytes.add(stream.getBytes());
+        reply(stream.getCaller(), end);
+    }
+
+    private byte[] getFinished(String key) {
+        synchronized (finished) {
+            expireFinished(System.nanoTime());
+            Finished call = finished.get(key);
+            return (call == null) ? null : call.end;
+        }
+    }
+
+    private void putFinished(String key, byte[] end) {
+        if (dedupTime == 0) return;
+        long now = System.nanoTime();
+        synchronized (finished) {
+            expireFinished(now);
+            finished.put(key, new Finished(now, end));
+        }
+    }
+
+    private void expireFinished(long now) {
+        Iterator<Finished> iterator = finished.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().nanos < TimeUnit.MILLISECONDS.toNanos(dedupTime)) break;
+            iterator.remove();
+        }
+    }
+
+    void reply(String caller, byte[] frame) {
+        String topic = topicHandler.getClientTopic(projectName, caller, RpcClient.REPLY_CHANNEL);
+        if (topic == null) return;
+        try {
+            middleware.publish(topic, frame, publishOptions);
+        } catch (Exception ex) {
+            logger.error("Failed to reply to " + caller, ex);
+        }
+    }
+
+    /**
+     * Return the number of received calls
+     *
+     * @return number of calls
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * Return the number of calls completed with OK
+     *
+     * @return number of calls
+     */
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * Return the number of calls failed or to unknown methods
+     *
+     * @return number of calls
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Return the number of calls cancelled while running
+     *
+     * @return number of calls
+     */
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    /**
+     * Return the number of calls answered with BUSY
+     *
+     * @return number of calls
+     */
+    public long getBusy() {
+        return busy.sum();
+    }
+
+    /**
+     * Return the number of duplicate requests not run again
+     *
+     * @return number of requests
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Return the number of calls running or waiting for a worker
+     *
+     * @return number of calls
+     */
+    public int getActive() {
+        return calls.size();
+    }
+
+    /**
+     * Return the number of response chunks sent by finished calls
+     *
+     * @return number of chunks
+     */
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    /**
+     * Return the number of response bytes sent by finished calls
+     *
+     * @return number of bytes
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rpc: received=%d, completed=%d, failed=%d, cancelled=%d, busy=%d, " +
+                        "invalid=%d, duplicates=%d, active=%d, chunks=%d, bytes=%d",
+                getReceived(), getCompleted(), getFailed(), getCancelled(), getBusy(), invalid.sum(),
+                getDuplicates(), getActive(), getChunks(), getBytes());
+    }
+
+    /**
+     * END frame of a finished call with the time it finished
+     */
+    private static final class Finished {
+        private final long nanos;
+        private final byte[] end;
+
+        private Finished(long nanos, byte[] end) {
+            this.nanos = nanos;
+            this.end = end;
+        }
+    }
+}
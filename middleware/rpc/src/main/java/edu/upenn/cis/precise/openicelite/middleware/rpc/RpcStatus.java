@@ -0,0 +1,37 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+/**
+ * Outcome of a remote call
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public enum RpcStatus {
+    /**
+     * The handler returned and all chunks were delivered
+     */
+    OK,
+    /**
+     * The handler threw an exception (see the error message)
+     */
+    ERROR,
+    /**
+     * No handler is registered for the method on the server
+     */
+    UNKNOWN_METHOD,
+    /**
+     * The server has no free worker and its queue is full
+     */
+    BUSY,
+    /**
+     * The call was cancelled by the caller or the server stopped
+     */
+    CANCELLED,
+    /**
+     * Nothing was received from the server in time (set by the caller)
+     */
+    TIMEOUT,
+    /**
+     * A chunk was lost on the way (set by the caller)
+     */
+    INCOMPLETE
+}
@@ -0,0 +1,201 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response stream of a call on the server, sending the response in chunks
+ * <p>
+ * Every chunk takes one credit of the call. The caller starts with a window of credits
+ * and grants more as it consumes chunks, so a writer blocks once the caller is a full
+ * window behind, instead of queuing the whole response in the broker or in memory.
+ * The credits held never exceed the window, whatever the caller grants.
+ * A writer blocked longer than the stall timeout, or writing to a cancelled call, gets
+ * an IOException which should end the handler.
+ * <p>
+ * Responses can be written as whole chunks (write) or through getOutputStream(),
+ * which buffers writes into chunks of the configured chunk size.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RpcStream {
+    private final RpcServer server;
+    private final long id;
+    private final String caller;
+    private final int chunkSize;
+    private final long stallTimeout;
+    private final int window;
+    private final Semaphore credits;
+    private volatile boolean cancelled = false;
+    private int chunks = 0;
+    private long bytes = 0;
+    private ChunkOutputStream output;
+
+    RpcStream(RpcServer server, long id, String caller, int window, int chunkSize, long stallTimeout) {
+        this.server = server;
+        this.id = id;
+        this.caller = caller;
+        this.chunkSize = chunkSize;
+        this.stallTimeout = stallTimeout;
+        this.window = Math.max(window, 1);
+        this.credits = new Semaphore(this.window);
+    }
+
+    /**
+     * Return the client name of the caller
+     *
+     * @return client name
+     */
+    public String getCaller() {
+        return caller;
+    }
+
+    /**
+     * Return the correlation ID of the call (unique per caller)
+     *
+     * @return correlation ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Return the maximum size of a chunk
+     *
+     * @return chunk size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Determine if the call was cancelled by the caller or the server stopped
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Send data as one chunk (split if larger than the chunk size)
+     *
+     * @param data data to send
+     * @throws IOException if the call is cancelled or the caller stalls
+     */
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Send data as one chunk (split if larger than the chunk size)
+     *
+     * @param data   buffer holding the data
+     * @param offset offset of the data in the buffer
+     * @param length length of the data
+     * @throws IOException if the call is cancelled or the caller stalls
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (output != null) output.flush();
+        send(data, offset, length);
+    }
+
+    /**
+     * Return an output stream over this response which sends full chunks as data is
+     * written (the rest is sent on flush or when the handler returns)
+     *
+     * @return buffered output stream
+     */
+    public OutputStream getOutputStream() {
+        if (output == null) output = new ChunkOutputStream();
+        return output;
+    }
+
+    private void send(byte[] data, int offset, int length) throws IOException {
+        do {
+            int size = Math.min(length, chunkSize);
+            acquire();
+            server.reply(caller, RpcFrame.chunk(id, chunks, data, offset, size));
+            chunks++;
+            bytes += size;
+            offset += size;
+            length -= size;
+        } while (length > 0);
+    }
+
+    private void acquire() throws IOException {
+        if (cancelled) throw new IOException("Call was cancelled");
+        try {
+            if (!credits.tryAcquire(stallTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Caller stalled for " + stallTimeout + " ms");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for credits");
+        }
+        if (cancelled) throw new IOException("Call was cancelled");
+    }
+
+    synchronized void grant(int credits) {
+        // Only writers take credits meanwhile, so the window cannot be exceeded
+        int room = window - this.credits.availablePermits();
+        if (credits > 0 && room > 0) this.credits.release(Math.min(credits, room));
+    }
+
+    void cancel() {
+        cancelled = true;
+        // Wake up a blocked writer
+        credits.release();
+    }
+
+    /**
+     * Send buffered data left in the output stream
+     */
+    void finish() throws IOException {
+        if (output != null) output.flush();
+    }
+
+    int getChunks() {
+        return chunks;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Output stream collecting writes into chunks
+     */
+    private class ChunkOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[chunkSize];
+        private int count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flush();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) flush();
+                int size = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, size);
+                count += size;
+                offset += size;
+                length -= size;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count == 0) return;
+            send(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package edu.upenn.cis.precise.openicelite.middleware.rpc;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class RpcServerTest {
+    private final RecordingMiddleware middleware = new RecordingMiddleware();
+    private final RpcServer server = new RpcServer(middleware, new SimpleTopicHandler(), "project", "server");
+    private final AtomicInteger invocations = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void keepsCreditsWithinWindow() throws Exception {
+        start(new HashMap<>());
+        server.handleMessage("topic", RpcFrame.request(1, "app", "chunks", 2, new byte[0]));
+        await(() -> middleware.count(RpcFrame.CHUNK) == 2);
+
+        // Would overflow the credits if added as they are
+        for (int expected = 4; expected <= 8; expected += 2) {
+            server.handleMessage("topic", RpcFrame.credit(1, "app", Integer.MAX_VALUE));
+            final int chunks = expected;
+            await(() -> middleware.count(RpcFrame.CHUNK) == chunks);
+            Thread.sleep(100);
+            assertEquals(expected, middleware.count(RpcFrame.CHUNK));
+        }
+        server.handleMessage("topic", RpcFrame.credit(1, "app", 2));
+        await(() -> middleware.count(RpcFrame.END) == 1);
+        assertEquals(RpcStatus.OK, middleware.frames(RpcFrame.END).get(0).status);
+    }
+
+    @Test(timeout = 10000)
+    public void rejectsNonPositiveCredits() throws Exception {
+        start(new HashMap<>());
+        server.handleMessage("topic", RpcFrame.request(1, "app", "chunks", 1, new byte[0]));
+        await(() -> middleware.count(RpcFrame.CHUNK) == 1);
+        server.handleMessage("topic", RpcFrame.credit(1, "app", 0));
+        server.handleMessage("topic", RpcFrame.credit(1, "app", Integer.MIN_VALUE));
+        Thread.sleep(100);
+        assertEquals(1, middleware.count(RpcFrame.CHUNK));
+        assertTrue(server.toString().contains("invalid=2"));
+        server.handleMessage("topic", RpcFrame.cancel(1, "app"));
+        await(() -> middleware.count(RpcFrame.END) == 1);
+    }
+
+    @Test(timeout = 10000)
+    public void clampsRequestedWindow() throws Exception {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("rpc_max_window", 3);
+        start(options);
+        server.handleMessage("topic", RpcFrame.request(1, "app", "chunks", 1000, new byte[0]));
+        await(() -> middleware.count(RpcFrame.CHUNK) == 3);
+        Thread.sleep(100);
+        assertEquals(3, middleware.count(RpcFrame.CHUNK));
+        server.handleMessage("topic", RpcFrame.cancel(1, "app"));
+        await(() -> middleware.count(RpcFrame.END) == 1);
+        assertEquals(RpcStatus.CANCELLED, middleware.frames(RpcFrame.END).get(0).status);
+    }
+
+    @Test(timeout = 10000)
+    public void replaysEndOfFinishedCall() throws Exception {
+        start(new HashMap<>());
+        byte[] request = RpcFrame.request(1, "app", "echo", 4, new byte[]{1});
+        server.handleMessage("topic", request);
+        await(() -> middleware.count(RpcFrame.END) == 1);
+
+        server.handleMessage("topic", request);
+        await(() -> middleware.count(RpcFrame.END) == 2);
+        assertEquals(1, invocations.get());
+        assertEquals(1, middleware.count(RpcFrame.CHUNK));
+        assertEquals(1, server.getDuplicates());
+        assertEquals(1, server.getReceived());
+        RpcFrame replayed = middleware.frames(RpcFrame.END).get(1);
+        assertEquals(RpcStatus.OK, replayed.status);
+        assertEquals(1, replayed.value);
+
+        // Another caller may use the same ID
+        server.handleMessage("topic", RpcFrame.request(1, "other", "echo", 4, new byte[]{2}));
+        await(() -> middleware.count(RpcFrame.END) == 3);
+        assertEquals(2, invocations.get());
+    }
+
+    @Test(timeout = 10000)
+    public void ignoresDuplicateOfRunningCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        start(new HashMap<>());
+        server.register("wait", (request, stream) -> {
+            invocations.incrementAndGet();
+            release.await();
+        });
+        byte[] request = RpcFrame.request(1, "app", "wait", 4, new byte[0]);
+        server.handleMessage("topic", request);
+        server.handleMessage("topic", request);
+        assertEquals(1, server.getDuplicates());
+        release.countDown();
+        await(() -> middleware.count(RpcFrame.END) == 1);
+        Thread.sleep(100);
+        assertEquals(1, invocations.get());
+        assertEquals(1, middleware.count(RpcFrame.END));
+    }
+
+    @Test(timeout = 10000)
+    public void runsRequestAgainAfterDedupTime() throws Exception {
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("rpc_dedup_time", 50);
+        start(options);
+        byte[] request = RpcFrame.request(1, "app", "echo", 4, new byte[]{1});
+        server.handleMessage("topic", request);
+        await(() -> middleware.count(RpcFrame.END) == 1);
+        Thread.sleep(100);
+        server.handleMessage("topic", request);
+        await(() -> middleware.count(RpcFrame.END) == 2);
+        assertEquals(2, invocations.get());
+        assertEquals(0, server.getDuplicates());
+    }
+
+    @Test
+    public void rejectsInvalidOptions() {
+        for (String key : new String[]{"rpc_max_window", "rpc_dedup_time"}) {
+            HashMap<String, Object> options = new HashMap<>();
+            options.put(key, -1);
+            try {
+                new RpcServer(middleware, new SimpleTopicHandler(), "project", "server").init(options);
+                fail("Expected " + options + " to be rejected");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    private void start(HashMap<String, Object> options) {
+        options.put("rpc_stall_timeout", 60000);
+        server.init(options);
+        server.register("echo", (request, stream) -> {
+            invocations.incrementAndGet();
+            stream.write(request);
+        });
+        server.register("chunks", (request, stream) -> {
+            for (int i = 0; i < 10; i++) {
+                stream.write(new byte[]{(byte) i});
+            }
+        });
+        server.start();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Middleware keeping published reply frames
+     */
+    private static class RecordingMiddleware implements IMiddleware {
+        private final List<RpcFrame> replies = new CopyOnWriteArrayList<>();
+
+        private int count(byte type) {
+            return frames(type).size();
+        }
+
+        private List<RpcFrame> frames(byte type) {
+            List<RpcFrame> frames = new CopyOnWriteArrayList<>();
+            for (RpcFrame frame : replies) {
+                if (frame.type == type) frames.add(frame);
+            }
+            return frames;
+        }
+
+        @Override
+        public void init(HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void connect(String address, String name, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void waitConnected() {
+        }
+
+        @Override
+        public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+        }
+
+        @Override
+        public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+            try {
+                replies.add(RpcFrame.decode(message));
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void publish(String topic, String message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        }
+
+        @Override
+        public void setCallback(IMiddlewareCallback callback) {
+        }
+
+        @Override
+        public void addDevice(DeviceInfo info) {
+        }
+
+        @Override
+        public void removeDevice(String deviceId) {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Topic handler joining the parts of client topics with slashes
+     */
+    private static class SimpleTopicHandler implements ITopicHandler {
+        @Override
+        public String getOnlineTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getClientBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getClientTopic(String projectName, String clientName) {
+            return projectName + "/" + clientName;
+        }
+
+        @Override
+        public String getClientTopic(String projectName, String clientName, String channel) {
+            return projectName + "/" + clientName + "/" + channel;
+        }
+
+        @Override
+        public String getStatusBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getStatusTopic(String projectName, String dongleId) {
+            return null;
+        }
+
+        @Override
+        public String getDataBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getDataTopic(String projectName, String dongleId, String deviceId) {
+            return null;
+        }
+
+        @Override
+        public String getSysmonBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getSysmonTopic(String projectName, String dongleId) {
+            return null;
+        }
+
+        @Override
+        public String getAlarmBaseTopic(String projectName) {
+            return null;
+        }
+
+        @Override
+        public String getAlarmTopic(String projectName, String dongleId, String deviceId) {
+            return null;
+        }
+
+        @Override
+        public TopicType getTopicType(String topic) {
+            return null;
+        }
+
+        @Override
+        public String[] getTopicInfo(String topic) {
+            return null;
+        }
+
+        @Override
+        public String getProjectName(String topic) {
+            return null;
+        }
+
+        @Override
+        public String getDongleId(String topic) {
+            return null;
+        }
+
+        @Override
+        public String getDeviceId(String topic) {
+            return null;
+        }
+    }
+}
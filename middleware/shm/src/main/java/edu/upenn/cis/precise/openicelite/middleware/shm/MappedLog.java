@@ -0,0 +1,356 @@
+package edu.upenn.cis.precise.openicelite.middleware.shm;
+
+import sun.misc.Unsafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Multi-producer, multi-consumer message log over a shared memory-mapped file
+ * <p>
+ * File layout:
+ * - [0, 64):       header - magic (int), capacity (int)
+ * - [64, 128):     reserved tail (long), on its own cache line
+ * - [128, ...):    data region used as a ring of 8-byte aligned records
+ * <p>
+ * Record layout: commit (long), length (int), kind (int), topic length (int), payload
+ * length (int), topic bytes, payload bytes. A padding record fills the end of the ring
+ * when the next record does not fit.
+ * <p>
+ * Producers (in any process) never lock: a producer reserves the space of its record
+ * (and of the padding before it, if any) with a CAS on the reserved tail, writes the
+ * record and then commits it by storing its position plus one into the commit word
+ * (a volatile store, so the record is visible before the commit in every process).
+ * Consumers keep their own cursor and read records in log order once committed; a
+ * record is valid if no producer has reserved space over it by the time it has been
+ * copied out, otherwise the reader was lapped and skips to the reserved tail. A record
+ * reserved by a producer which dies before committing it holds readers back until
+ * they are lapped.
+ * <p>
+ * The mapped memory is accessed with sun.misc.Unsafe, which provides the CAS and the
+ * volatile accesses (and fences) that a MappedByteBuffer does not.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+class MappedLog implements Closeable {
+    static final int KIND_BYTES = 0;
+    static final int KIND_STRING = 1;
+    private static final int KIND_PADDING = 2;
+
+    private static final int MAGIC = 0x4F49434D;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int TAIL_OFFSET = 64;
+    private static final int DATA_OFFSET = 128;
+    private static final int RECORD_HEADER = 24;
+    private static final int ALIGNMENT = 8;
+
+    private static final Unsafe UNSAFE;
+    private static final long BYTE_ARRAY_OFFSET;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+            BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+            ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    // Producers of the same file within this process must be serialized before
+    // taking the file lock to create the file (file locks are held on behalf of the
+    // whole JVM)
+    private static final ConcurrentHashMap<Path, Object> monitors = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final FileChannel channel;
+    // Keeps the mapping alive while its memory is accessed through addresses
+    private final MappedByteBuffer buffer;
+    private final long tailAddress;
+    private final long dataAddress;
+    private final int capacity;
+    private final int mask;
+    private final int maxRecord;
+
+    private MappedLog(Path path, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        long address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+        this.tailAddress = address + TAIL_OFFSET;
+        this.dataAddress = address + DATA_OFFSET;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxRecord = capacity / 4;
+    }
+
+    /**
+     * Open (or create) a shared log file
+     *
+     * @param path     path to the shared file (preferably on a memory-backed file system)
+     * @param capacity data region size in bytes for a new file (rounded up to a power of two);
+     *                 an existing file keeps its own capacity
+     * @return the opened log
+     * @throws IOException if the file cannot be opened or is not a valid log
+     */
+    static MappedLog open(Path path, int capacity) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        FileChannel channel = FileChannel.open(absolute, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+            synchronized (monitors.computeIfAbsent(absolute, p -> new Object())) {
+                FileLock lock = channel.lock(0, DATA_OFFSET, false);
+                try {
+                    if (channel.size() >= DATA_OFFSET) {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA_OFFSET);
+                        if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+                            throw new IOException("Not a shared memory log - " + absolute);
+                        }
+                        size = header.getInt(CAPACITY_OFFSET);
+                    } else {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + size);
+                        header.putLong(TAIL_OFFSET, 0);
+                        header.putInt(CAPACITY_OFFSET, size);
+                        header.putInt(MAGIC_OFFSET, MAGIC);
+                        header.force();
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + size);
+            return new MappedLog(absolute, channel, buffer, size);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Append a record to the log
+     *
+     * @param topic   topic as UTF-8 bytes
+     * @param payload payload bytes
+     * @param kind    payload kind (KIND_BYTES or KIND_STRING)
+     * @throws IOException if the record is too large
+     */
+    void append(byte[] topic, byte[] payload, int kind) throws IOException {
+        int length = align(RECORD_HEADER + topic.length + payload.length);
+        if (length > maxRecord) {
+            throw new IOException("Message too large for shared memory log (" + length + " > " + maxRecord + ")");
+        }
+
+        // Reserve the record, with the padding to the end of the ring if it does not fit
+        long tail;
+        long start;
+        do {
+            tail = readTail();
+            int remaining = capacity - ((int) tail & mask);
+            start = (remaining < length) ? tail + remaining : tail;
+        } while (!UNSAFE.compareAndSwapLong(null, tailAddress, tail, start + length));
+
+        // Pad to the end of the ring (implicit if too short for a record header)
+        if (start != tail && start - tail >= RECORD_HEADER) {
+            long padding = dataAddress + ((int) tail & mask);
+            UNSAFE.putInt(padding + 8, (int) (start - tail));
+            UNSAFE.putInt(padding + 12, KIND_PADDING);
+            UNSAFE.putLongVolatile(null, padding, tail + 1);
+        }
+
+        long base = dataAddress + ((int) start & mask);
+        UNSAFE.putInt(base + 8, length);
+        UNSAFE.putInt(base + 12, kind);
+        UNSAFE.putInt(base + 16, topic.length);
+        UNSAFE.putInt(base + 20, payload.length);
+        UNSAFE.copyMemory(topic, BYTE_ARRAY_OFFSET, null, base + RECORD_HEADER, topic.length);
+        UNSAFE.copyMemory(payload, BYTE_ARRAY_OFFSET, null, base + RECORD_HEADER + topic.length, payload.length);
+        UNSAFE.putLongVolatile(null, base, start + 1);
+    }
+
+    /**
+     * Return the reserved tail (total bytes ever reserved by producers)
+     *
+     * @return reserved tail position
+     */
+    long readTail() {
+        return UNSAFE.getLongVolatile(null, tailAddress);
+    }
+
+    /**
+     * Create a reader positioned at the current tail (only new records will be read)
+     *
+     * @return a new reader
+     */
+    Reader newReader() {
+        return new Reader(readTail());
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the maximum record length (header and padding included)
+     *
+     * @return maximum length in bytes
+     */
+    int getMaxRecord() {
+        return maxRecord;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Independent reader with its own cursor and buffer view (not thread-safe)
+     */
+    class Reader {
+        private long cursor;
+        private long lapped = 0;
+
+        // Last read record
+        private int kind;
+        private String topic;
+        private byte[] payload;
+
+        private Reader(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Read the next committed record
+         *
+         * @return true if a record was read, false if the reader is up to date (or the
+         * next record is not committed yet)
+         */
+        boolean next() {
+            while (true) {
+                long tail = readTail();
+                if (cursor >= tail) return false;
+                if (isOverrun(tail)) continue;
+
+                int pos = (int) cursor & mask;
+                int remaining = capacity - pos;
+                if (remaining < RECORD_HEADER) {
+                    cursor += remaining;
+                    continue;
+                }
+
+                // The volatile read of the commit orders the reads of the record after it
+                long base = dataAddress + pos;
+                if (UNSAFE.getLongVolatile(null, base) != cursor + 1) return false;
+                int length = UNSAFE.getInt(base + 8);
+                int recordKind = UNSAFE.getInt(base + 12);
+                int topicLength = UNSAFE.getInt(base + 16);
+                int payloadLength = UNSAFE.getInt(base + 20);
+                if (recordKind == KIND_PADDING) {
+                    if (isOverwritten()) continue;
+                    cursor += remaining;
+                    continue;
+                }
+                if (length < RECORD_HEADER || length > maxRecord || topicLength < 0 || payloadLength < 0
+                        || RECORD_HEADER + topicLength + payloadLength > length) {
+                    // Torn read while being overwritten
+                    if (!isOverwritten()) skipToTail();
+                    continue;
+                }
+
+                byte[] topicBytes = new byte[topicLength];
+                byte[] payloadBytes = new byte[payloadLength];
+                UNSAFE.copyMemory(null, base + RECORD_HEADER, topicBytes, BYTE_ARRAY_OFFSET, topicLength);
+                UNSAFE.copyMemory(null, base + RECORD_HEADER + topicLength, payloadBytes, BYTE_ARRAY_OFFSET,
+                        payloadLength);
+
+                // The record is valid only if no producer has reserved space over it
+                if (isOverwritten()) continue;
+
+                kind = recordKind;
+                topic = new String(topicBytes, StandardCharsets.UTF_8);
+                payload = payloadBytes;
+                cursor += length;
+                return true;
+            }
+        }
+
+        /**
+         * Check, after the reads of the current record, whether a producer may have
+         * overwritten it (skipping to the tail if so)
+         */
+        private boolean isOverwritten() {
+            UNSAFE.loadFence();
+            return isOverrun(readTail());
+        }
+
+        /**
+         * Check whether producers have reserved space over the record at the cursor:
+         * the first byte of the record is the first to be reserved again, once the
+         * tail is more than a capacity ahead of it
+         */
+        private boolean isOverrun(long tail) {
+            if (tail - cursor <= capacity) return false;
+            skipToTail();
+            return true;
+        }
+
+        private void skipToTail() {
+            long latest = readTail();
+            lapped += latest - cursor;
+            cursor = latest;
+        }
+
+        int getKind() {
+            return kind;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Return number of bytes skipped because producers lapped this reader
+         *
+         * @return skipped bytes
+         */
+        long getLapped() {
+            return lapped;
+        }
+
+        /**
+         * Return number of bytes reserved by producers but not read yet
+         *
+         * @return pending bytes
+         */
+        long getPending() {
+            return Math.max(0, readTail() - cursor);
+        }
+    }
+}
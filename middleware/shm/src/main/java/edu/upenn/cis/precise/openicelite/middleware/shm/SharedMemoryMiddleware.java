@@ -0,0 +1,361 @@
+package edu.upenn.cis.precise.openicelite.middleware.shm;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddleware;
+import edu.upenn.cis.precise.openicelite.middleware.api.IMiddlewareCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.TopicFilter;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.DongleInfo;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Middleware for processes on the same host, exchanging messages through a shared
+ * memory-mapped log file instead of the network stack
+ * <p>
+ * Every process maps the same file; publishing appends a record to the log and each
+ * subscription follows the log with its own cursor on a dedicated thread, spinning
+ * for a short while and then parking between polls (no kernel wake-up is involved).
+ * Topics follow the same scheme as the MQTT middleware. A subscriber which falls
+ * behind by more than the log capacity skips the overwritten messages.
+ * <p>
+ * Available options for initialization:
+ * - "log_file":            path to the shared log file, preferably on tmpfs
+ *                              (default to /dev/shm/openice-lite.log)
+ * - "log_capacity":        log capacity in bytes when creating the file (default to 16 MB)
+ * - "project_name":        project name will be used as a base topic separation
+ *                              (default to DEFAULT)
+ * - "park_interval":       parking interval in microseconds once a subscriber is idle
+ *                              (default to 50)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SharedMemoryMiddleware implements IMiddleware {
+    private static final Logger logger = LogManager.getLogger(SharedMemoryMiddleware.class);
+
+    private static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    private static final int SPIN_TRIES = 1000;
+
+    private final String dongleId;
+
+    // Overwritten-able configuration
+    private String logFile = "/dev/shm/openice-lite.log";
+    private int logCapacity = DEFAULT_CAPACITY;
+    private String projectName = "DEFAULT";
+    private long parkNanos = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // Shared log
+    private final TopicHandler topicHandler = new TopicHandler();
+    private final Gson gson = new Gson();
+    private final HashMap<String, Subscription> subscriptions = new HashMap<>();
+    private final AtomicBoolean isConnected = new AtomicBoolean(false);
+    private volatile MappedLog log;
+    private volatile IMiddlewareCallback callback;
+
+    // Dongle information
+    private final DongleInfo info;
+
+    /**
+     * Shared memory middleware constructor
+     *
+     * @param dongleId dongle ID (UUID)
+     */
+    public SharedMemoryMiddleware(String dongleId) {
+        this.dongleId = dongleId;
+        this.info = new DongleInfo(dongleId);
+    }
+
+    /**
+     * Perform some initializing tasks if needed
+     *
+     * @param options initializing options
+     */
+    @Override
+    public void init(HashMap<String, Object> options) {
+        logger.info("Initializing shared memory middleware...");
+
+        if (options != null) {
+            if (options.containsKey("log_file")) {
+                logFile = (String) options.get("log_file");
+            }
+            if (options.containsKey("log_capacity")) {
+                logCapacity = Integer.parseInt(options.get("log_capacity").toString());
+            }
+            if (options.containsKey("project_name")) {
+                projectName = (String) options.get("project_name");
+            }
+            if (options.containsKey("park_interval")) {
+                parkNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.get("park_interval").toString()));
+            }
+        }
+    }
+
+    /**
+     * Map the shared log file (created if not exist)
+     *
+     * @param address path to the shared log file (overrides "log_file" option if not null)
+     * @param name    ignored
+     * @param options ignored
+     */
+    @Override
+    public void connect(String address, String name, HashMap<String, Object> options) {
+        if (address != null) logFile = address;
+        if (isConnected.get()) return;
+
+        try {
+            log = MappedLog.open(Paths.get(logFile), logCapacity);
+            isConnected.set(true);
+            logger.info("Dongle " + dongleId + " is connected to shared log " + log +
+                    " (" + log.getCapacity() + " bytes)!");
+            reportStatus();
+        } catch (Exception ex) {
+            logger.error("Failed to open shared log " + logFile, ex);
+            throw new IllegalArgumentException("Failed to open shared log - " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Stop all subscriptions and un-map the shared log
+     */
+    @Override
+    public void disconnect() {
+        if (isConnected.getAndSet(false)) {
+            List<Subscription> removed;
+            synchronized (subscriptions) {
+                removed = new ArrayList<>(subscriptions.values());
+                subscriptions.clear();
+            }
+            for (Subscription subscription : removed) {
+                subscription.shutdown();
+            }
+            try {
+                log.close();
+            } catch (Exception ex) {
+                logger.warn("Failed to close shared log " + log, ex);
+            }
+        }
+    }
+
+    /**
+     * Close and release all associated resource
+     */
+    @Override
+    public void close() {
+        disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected.get();
+    }
+
+    @Override
+    public void waitConnected() {
+        while (!isConnected.get()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Subscribe to a topic; only messages published after subscribing are delivered
+     *
+     * @param topic    the topic to subscribe to
+     * @param options  additional subscribe options
+     * @param callback the class to callback for related events
+     */
+    @Override
+    public void subscribe(String topic, HashMap<String, Object> options, IMiddlewareCallback callback) {
+        if (!isConnected.get()) {
+            logger.error("Failed to subscribe to topic: " + topic + " - not connected");
+            return;
+        }
+        if (callback != null) {
+            this.callback = callback;
+        }
+        IMiddlewareCallback target = this.callback;
+        if (target == null) {
+            logger.error("Failed to subscribe to topic: " + topic + " - no callback");
+            return;
+        }
+
+        logger.info("Subscribing to " + topic + "...");
+        Subscription subscription = new Subscription(new TopicFilter(topic), target, log.newReader());
+        Subscription previous;
+        synchronized (subscriptions) {
+            previous = subscriptions.put(topic, subscription);
+        }
+        if (previous != null) previous.shutdown();
+        subscription.start();
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        Subscription subscription;
+        synchronized (subscriptions) {
+            subscription = subscriptions.remove(topic);
+        }
+        if (subscription != null) {
+            logger.info("Un-subscribing to " + topic + "...");
+            subscription.shutdown();
+        }
+    }
+
+    @Override
+    public void publish(String topic, byte[] message, HashMap<String, Object> options) {
+        append(topic, message, MappedLog.KIND_BYTES);
+    }
+
+    @Override
+    public void publish(String topic, String message, HashMap<String, Object> options) {
+        append(topic, message.getBytes(StandardCharsets.UTF_8), MappedLog.KIND_STRING);
+    }
+
+    @Override
+    public void publishId(String deviceId, byte[] message, HashMap<String, Object> options) {
+        publish(topicHandler.getDataTopic(projectName, dongleId, deviceId), message, options);
+    }
+
+    @Override
+    public void publishId(String deviceId, String message, HashMap<String, Object> options) {
+        publish(topicHandler.getDataTopic(projectName, dongleId, deviceId), message, options);
+    }
+
+    @Override
+    public void setCallback(IMiddlewareCallback callback) {
+        if (callback != null) {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Add information about device connected to the dongle, then report to status topic
+     *
+     * @param info device information
+     */
+    @Override
+    public void addDevice(DeviceInfo info) {
+        synchronized (this.info) {
+            this.info.addDevice(info);
+        }
+        reportStatus();
+    }
+
+    /**
+     * Remove device from dongle, then report to status topic
+     *
+     * @param deviceId device ID as a string
+     */
+    @Override
+    public void removeDevice(String deviceId) {
+        synchronized (this.info) {
+            this.info.removeDevice(deviceId);
+        }
+        reportStatus();
+    }
+
+    /**
+     * Return the number of bytes skipped by subscribers of this client which fell
+     * behind producers by more than the log capacity
+     *
+     * @return number of skipped bytes
+     */
+    public long getLapped() {
+        long lapped = 0;
+        synchronized (subscriptions) {
+            for (Subscription subscription : subscriptions.values()) {
+                lapped += subscription.reader.getLapped();
+            }
+        }
+        return lapped;
+    }
+
+    private void append(String topic, byte[] payload, int kind) {
+        MappedLog target = log;
+        if (target == null || !isConnected.get()) return;
+        try {
+            target.append(topic.getBytes(StandardCharsets.UTF_8), payload, kind);
+        } catch (Exception ex) {
+            logger.error("Failed to publish message to shared log", ex);
+        }
+    }
+
+    /**
+     * Publish dongle information to status topic (there is no periodic pinger on a
+     * shared log, so status is reported on every change)
+     */
+    private void reportStatus() {
+        if (!isConnected.get()) return;
+        String message;
+        synchronized (info) {
+            message = gson.toJson(info);
+        }
+        publish(topicHandler.getStatusTopic(projectName, dongleId), message, null);
+    }
+
+    /**
+     * A subscription following the shared log on its own thread
+     */
+    private class Subscription extends Thread {
+        private final TopicFilter filter;
+        private final IMiddlewareCallback callback;
+        private final MappedLog.Reader reader;
+        private volatile boolean running = true;
+
+        private Subscription(TopicFilter filter, IMiddlewareCallback callback, MappedLog.Reader reader) {
+            super("SharedLog-" + filter);
+            this.filter = filter;
+            this.callback = callback;
+            this.reader = reader;
+            setDaemon(true);
+        }
+
+        private void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                try {
+                    if (reader.next()) {
+                        idle = 0;
+                        if (!filter.matches(reader.getTopic())) continue;
+                        if (reader.getKind() == MappedLog.KIND_STRING) {
+                            callback.handleMessage(reader.getTopic(),
+                                    new String(reader.getPayload(), StandardCharsets.UTF_8));
+                        } else {
+                            callback.handleMessage(reader.getTopic(), reader.getPayload());
+                        }
+                    } else if (idle < SPIN_TRIES) {
+                        idle++;
+                    } else {
+                        LockSupport.parkNanos(this, parkNanos);
+                    }
+                } catch (Exception ex) {
+                    logger.error("Failed to deliver message from shared log", ex);
+                }
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Subscription to " + filter + " is exiting...");
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.upenn.cis.precise.openicelite.middleware.shm;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Producer process of MappedLogTest: append numbered messages of producer 9 to a log
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MappedLogProducer {
+    public static void main(String[] args) throws Exception {
+        int count = Integer.parseInt(args[1]);
+        byte[] topic = "PRECISE/OpenICElite/TEST/Data/d/x".getBytes(StandardCharsets.UTF_8);
+        try (MappedLog log = MappedLog.open(Paths.get(args[0]), 16 * 1024 * 1024)) {
+            for (int i = 0; i < count; i++) {
+                log.append(topic, MappedLogTest.message(9, i, i % 64), MappedLog.KIND_BYTES);
+            }
+        }
+    }
+}
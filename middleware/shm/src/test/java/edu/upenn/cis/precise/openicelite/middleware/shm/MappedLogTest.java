@@ -0,0 +1,306 @@
+package edu.upenn.cis.precise.openicelite.middleware.shm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class MappedLogTest {
+    private static final byte[] TOPIC = "PRECISE/OpenICElite/TEST/Data/d/x".getBytes(StandardCharsets.UTF_8);
+
+    private Path file;
+    private final List<MappedLog> logs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("mapped-log-test", ".log");
+        Files.delete(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (MappedLog log : logs) {
+            log.close();
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void readsRecordsInOrder() throws IOException {
+        MappedLog log = open(4096);
+        MappedLog.Reader reader = log.newReader();
+        assertFalse(reader.next());
+
+        log.append(TOPIC, "first".getBytes(StandardCharsets.UTF_8), MappedLog.KIND_STRING);
+        log.append("other".getBytes(StandardCharsets.UTF_8), new byte[]{1, 2, 3}, MappedLog.KIND_BYTES);
+
+        assertTrue(reader.next());
+        assertEquals(MappedLog.KIND_STRING, reader.getKind());
+        assertEquals(new String(TOPIC, StandardCharsets.UTF_8), reader.getTopic());
+        assertEquals("first", new String(reader.getPayload(), StandardCharsets.UTF_8));
+        assertTrue(reader.next());
+        assertEquals(MappedLog.KIND_BYTES, reader.getKind());
+        assertEquals("other", reader.getTopic());
+        assertArrayEquals(new byte[]{1, 2, 3}, reader.getPayload());
+        assertFalse(reader.next());
+        assertEquals(0, reader.getLapped());
+    }
+
+    @Test
+    public void newReaderStartsAtTail() throws IOException {
+        MappedLog log = open(4096);
+        log.append(TOPIC, new byte[8], MappedLog.KIND_BYTES);
+        MappedLog.Reader reader = log.newReader();
+        assertFalse(reader.next());
+        log.append(TOPIC, message(0, 7, 16), MappedLog.KIND_BYTES);
+        assertTrue(reader.next());
+        assertMessage(reader.getPayload(), 0, 7);
+    }
+
+    @Test
+    public void wrapsAroundWithPadding() throws IOException {
+        // Record sizes vary so that both explicit padding records and ends of ring too
+        // short for a record header occur
+        MappedLog log = open(1024);
+        MappedLog.Reader reader = log.newReader();
+        for (int i = 0; i < 2000; i++) {
+            int size = (i * 37) % (log.getMaxRecord() - 64);
+            log.append(TOPIC, message(0, i, size), MappedLog.KIND_BYTES);
+            assertTrue(reader.next());
+            assertMessage(reader.getPayload(), 0, i);
+            assertEquals(8 + size, reader.getPayload().length);
+            assertFalse(reader.next());
+        }
+        assertEquals(0, reader.getLapped());
+        assertTrue(log.readTail() > 10 * log.getCapacity());
+    }
+
+    @Test
+    public void skipsToTailWhenLapped() throws IOException {
+        MappedLog log = open(1024);
+        MappedLog.Reader reader = log.newReader();
+        for (int i = 0; i < 100; i++) {
+            log.append(TOPIC, message(0, i, 24), MappedLog.KIND_BYTES);
+        }
+
+        // Lapped by producers: the overwritten records are skipped, not read torn
+        assertFalse(reader.next());
+        assertTrue(reader.getLapped() > log.getCapacity());
+        assertEquals(0, reader.getPending());
+
+        log.append(TOPIC, message(0, 100, 24), MappedLog.KIND_BYTES);
+        assertTrue(reader.next());
+        assertMessage(reader.getPayload(), 0, 100);
+    }
+
+    @Test
+    public void readsRecordsUpToCapacityBehind() throws IOException {
+        MappedLog log = open(1024);
+        MappedLog.Reader reader = log.newReader();
+        // Records of 128 bytes filling the capacity exactly, none overwritten yet
+        int count = log.getCapacity() / 128;
+        for (int i = 0; i < count; i++) {
+            log.append(TOPIC, message(0, i, 128 - 24 - TOPIC.length - 8), MappedLog.KIND_BYTES);
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue(reader.next());
+            assertMessage(reader.getPayload(), 0, i);
+        }
+        assertEquals(0, reader.getLapped());
+    }
+
+    @Test
+    public void rejectsTooLargeRecords() throws IOException {
+        MappedLog log = open(1024);
+        try {
+            log.append(TOPIC, new byte[log.getMaxRecord()], MappedLog.KIND_BYTES);
+            fail("Expected a too large record to be rejected");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sharesRecordsBetweenMappings() throws IOException {
+        MappedLog producer = open(4096);
+        MappedLog consumer = open(1 << 20);
+        assertEquals(4096, consumer.getCapacity());
+        MappedLog.Reader reader = consumer.newReader();
+        producer.append(TOPIC, message(3, 42, 10), MappedLog.KIND_BYTES);
+        assertTrue(reader.next());
+        assertMessage(reader.getPayload(), 3, 42);
+    }
+
+    @Test(timeout = 60000)
+    public void deliversEveryRecordOfConcurrentProducers() throws Exception {
+        int producers = 4;
+        int count = 20000;
+        MappedLog log = open(16 * 1024 * 1024);
+        MappedLog.Reader reader = log.newReader();
+
+        List<Thread> threads = startProducers(log, producers, count);
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * count) {
+            if (!reader.next()) {
+                Thread.yield();
+                continue;
+            }
+            ByteBuffer payload = ByteBuffer.wrap(reader.getPayload());
+            int producer = payload.getInt(0);
+            // Records of one producer are read in the order it appended them
+            assertMessage(reader.getPayload(), producer, next[producer]++);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(reader.next());
+        assertEquals(0, reader.getLapped());
+    }
+
+    @Test(timeout = 60000)
+    public void neverReturnsTornRecordsWhenLapped() throws Exception {
+        int producers = 4;
+        MappedLog log = open(16 * 1024);
+        MappedLog.Reader reader = log.newReader();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; running.get(); i++) {
+                        log.append(TOPIC, message(producer, i, (i * 13) % 512), MappedLog.KIND_BYTES);
+                        // Let the reader run on machines with few cores
+                        if (i % 64 == 0) Thread.yield();
+                    }
+                } catch (Throwable ex) {
+                    failure.set(ex);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(30);
+        int read = 0;
+        while ((System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3) || read < 100 || reader.getLapped() == 0)
+                && System.nanoTime() < deadline) {
+            if (reader.next()) {
+                int producer = ByteBuffer.wrap(reader.getPayload()).getInt(0);
+                assertMessage(reader.getPayload(), producer, -1);
+                read++;
+            } else {
+                Thread.yield();
+            }
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue("Read " + read + " records", read >= 100);
+        assertTrue(reader.getLapped() > 0);
+    }
+
+    @Test(timeout = 120000)
+    public void readsRecordsOfAnotherProcess() throws Exception {
+        int count = 20000;
+        MappedLog log = open(16 * 1024 * 1024);
+        MappedLog.Reader reader = log.newReader();
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                MappedLogProducer.class.getName(), file.toString(), Integer.toString(count))
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            int next = 0;
+            while (next < count) {
+                if (!reader.next()) {
+                    assertTrue("Producer process exited early", process.isAlive() || reader.getPending() > 0);
+                    Thread.yield();
+                    continue;
+                }
+                // All records fit in the log, so none may be skipped
+                assertMessage(reader.getPayload(), 9, next++);
+            }
+            assertEquals(0, process.waitFor());
+            assertEquals(0, reader.getLapped());
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private MappedLog open(int capacity) throws IOException {
+        MappedLog log = MappedLog.open(file, capacity);
+        logs.add(log);
+        return log;
+    }
+
+    private static List<Thread> startProducers(MappedLog log, int producers, int count) {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        log.append(TOPIC, message(producer, i, i % 64), MappedLog.KIND_BYTES);
+                    }
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    /**
+     * Payload of producer, sequence and filler bytes derived from both
+     */
+    static byte[] message(int producer, int sequence, int filler) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + filler);
+        buffer.putInt(producer).putInt(sequence);
+        for (int i = 0; i < filler; i++) {
+            buffer.put((byte) (producer * 31 + sequence + i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Check a payload built by message() (any sequence if expected is negative)
+     *
+     * @return the sequence of the payload
+     */
+    private static int assertMessage(byte[] payload, int producer, int expected) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        assertEquals(producer, buffer.getInt());
+        int sequence = buffer.getInt();
+        if (expected >= 0) assertEquals(expected, sequence);
+        for (int i = 0; buffer.hasRemaining(); i++) {
+            assertEquals("Torn payload at " + i, (byte) (producer * 31 + sequence + i), buffer.get());
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,82 @@
+package edu.upenn.cis.precise.openicelite.tools.loadtest;
+
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * In-process MQTT broker (Moquette) bound to the loopback interface
+ * <p>
+ * Sessions and retained messages are kept in memory only, anonymous clients are
+ * allowed and websocket is disabled, so the broker needs neither network nor disk.
+ * Writes are flushed immediately (Moquette otherwise flushes its client buffers once a
+ * second, which would dominate any latency measured through the broker).
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class EmbeddedBroker {
+    private static final Logger logger = LogManager.getLogger(EmbeddedBroker.class);
+
+    private static final String HOST = "127.0.0.1";
+
+    private final int port;
+    private final int maxMessageSize;
+    private Server server;
+
+    /**
+     * Broker constructor
+     *
+     * @param port           TCP port to listen on (loopback only)
+     * @param maxMessageSize maximum MQTT message size accepted (bytes)
+     */
+    public EmbeddedBroker(int port, int maxMessageSize) {
+        this.port = port;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Start the broker
+     *
+     * @throws IOException if the broker cannot bind its port
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) return;
+        Properties properties = new Properties();
+        properties.setProperty(BrokerConstants.HOST_PROPERTY_NAME, HOST);
+        properties.setProperty(BrokerConstants.PORT_PROPERTY_NAME, Integer.toString(port));
+        properties.setProperty(BrokerConstants.WEB_SOCKET_PORT_PROPERTY_NAME, BrokerConstants.DISABLED_PORT_BIND);
+        properties.setProperty(BrokerConstants.PERSISTENT_STORE_PROPERTY_NAME, "");
+        properties.setProperty(BrokerConstants.ALLOW_ANONYMOUS_PROPERTY_NAME, "true");
+        properties.setProperty(BrokerConstants.NETTY_MAX_BYTES_PROPERTY_NAME, Integer.toString(maxMessageSize));
+        properties.setProperty(BrokerConstants.IMMEDIATE_BUFFER_FLUSH_PROPERTY_NAME, "true");
+
+        logger.info("Starting embedded broker at " + getAddress() + "...");
+        Server broker = new Server();
+        broker.startServer(new MemoryConfig(properties));
+        server = broker;
+    }
+
+    /**
+     * Stop the broker, dropping all client connections
+     */
+    public synchronized void stop() {
+        if (server == null) return;
+        logger.info("Stopping embedded broker...");
+        server.stopServer();
+        server = null;
+    }
+
+    /**
+     * Return the address clients should connect to
+     *
+     * @return broker address (e.g., tcp://127.0.0.1:1883)
+     */
+    public String getAddress() {
+        return "tcp://" + HOST + ":" + port;
+    }
+}
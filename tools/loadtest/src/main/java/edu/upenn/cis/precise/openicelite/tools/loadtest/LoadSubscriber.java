@@ -0,0 +1,108 @@
+package edu.upenn.cis.precise.openicelite.tools.loadtest;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.ITopicHandler;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencyHistogram;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.ITraceCallback;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceClock;
+import edu.upenn.cis.precise.openicelite.middleware.api.trace.TraceRecord;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Subscriber which counts device messages and measures their end-to-end latency
+ * <p>
+ * Publishers and this subscriber share one process (and one clock), so source to
+ * receive latency needs no clock offset. Sequence numbers from the trace header
+ * are checked per device: a jump forward counts the skipped messages as gaps, a
+ * jump backward counts as reordered.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LoadSubscriber implements ITraceCallback {
+    private final ITopicHandler topicHandler;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder untraced = new LongAdder();
+    private final LongAdder gaps = new LongAdder();
+    private final LongAdder reordered = new LongAdder();
+    private final ConcurrentHashMap<String, AtomicLong> nextSequences = new ConcurrentHashMap<>();
+    private volatile LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Subscriber constructor
+     *
+     * @param topicHandler topic handler used to extract device IDs
+     */
+    public LoadSubscriber(ITopicHandler topicHandler) {
+        this.topicHandler = topicHandler;
+    }
+
+    @Override
+    public void handleMessage(String topic, byte[] message, TraceRecord trace) {
+        long now = TraceClock.currentTimeMicros();
+        latency.record((now - trace.getSourceTime()) * 1000);
+        received.increment();
+        receivedBytes.add(message.length);
+
+        String[] tokens = topicHandler.getTopicInfo(topic);
+        if (tokens == null || tokens.length < 3) return;
+        AtomicLong next = nextSequences.get(tokens[2]);
+        if (next == null) {
+            next = nextSequences.computeIfAbsent(tokens[2], id -> new AtomicLong());
+        }
+        long expected = next.get();
+        long sequence = trace.getSequence();
+        if (sequence > expected) {
+            gaps.add(sequence - expected);
+        } else if (sequence < expected) {
+            reordered.increment();
+            return;
+        }
+        next.set(sequence + 1);
+    }
+
+    @Override
+    public void handleMessage(String topic, byte[] message) {
+        untraced.increment();
+        received.increment();
+        receivedBytes.add(message.length);
+    }
+
+    @Override
+    public void handleMessage(String topic, String message) {
+        handleMessage(topic, message.getBytes());
+    }
+
+    /**
+     * Discard latencies recorded so far (e.g., at the end of warm-up)
+     */
+    public void resetLatency() {
+        latency = new LatencyHistogram();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    public long getUntraced() {
+        return untraced.sum();
+    }
+
+    public long getGaps() {
+        return gaps.sum();
+    }
+
+    public long getReordered() {
+        return reordered.sum();
+    }
+}
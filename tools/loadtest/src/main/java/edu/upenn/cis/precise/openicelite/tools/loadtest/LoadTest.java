@@ -0,0 +1,430 @@
+package edu.upenn.cis.precise.openicelite.tools.loadtest;
+
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.LatencySnapshot;
+import edu.upenn.cis.precise.openicelite.middleware.api.metrics.MiddlewareMetrics;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.LoggerH2;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.type.TopicHandler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test on a single machine without network
+ * <p>
+ * The load test starts an embedded MQTT broker on the loopback interface, a fleet of
+ * simulated dongles (each loaded with synthetic devices publishing at a fixed rate),
+ * a LoggerH2 instance writing to a temporary database and a counting subscriber.
+ * All messages are traced, so the subscriber measures end-to-end latency and detects
+ * lost messages from sequence gaps, while LoggerH2 records per-hop latencies up to
+ * the database commit.
+ * <p>
+ * After warm-up, throughput and latency are measured over the test duration. The
+ * publishers are then stopped and messages in flight are drained before counting
+ * drops:
+ * - rejected:      offered to a Dongle but failed to publish (e.g., in-flight window full)
+ * - undelivered:   published but never received by the subscriber
+ * - unlogged:      published but never committed by LoggerH2
+ * <p>
+ * Available options (loadtest.properties, any other option is passed to all Dongles):
+ * - "broker_port":         loopback port of the embedded broker (default to 18830)
+ * - "max_message_size":    maximum MQTT message size accepted by the broker (default to 1048576)
+ * - "project_name":        project name used as base topic and database name
+ *                              (default to LOADTEST)
+ * - "dongles":             number of simulated dongles (default to 4)
+ * - "devices":             number of synthetic devices per dongle (default to 4)
+ * - "rate":                messages per second per device (default to 10)
+ * - "payload_shape":       json, waveform or binary (default to json)
+ * - "payload_size":        approximate payload size in bytes (default to 256)
+ * - "publisher_threads":   threads running the publishing ticks (default to number of CPUs)
+ * - "warmup":              warm-up in seconds, excluded from measurement (default to 10)
+ * - "duration":            measured duration in seconds (default to 60)
+ * - "drain":               maximum seconds to wait for messages in flight (default to 30)
+ * - "progress_interval":   interval in seconds to log progress (default to 5)
+ * - "logger":              run LoggerH2 against the fleet (default to true)
+ * - "db_dir":              database directory (default to a temporary directory,
+ *                              deleted afterwards)
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class LoadTest {
+    private static final String PROPERTIES_FILE_NAME = "loadtest.properties";
+
+    private static final Logger logger = LogManager.getLogger(LoadTest.class);
+
+    private final HashMap<String, Object> options;
+
+    // Overwritten-able configuration
+    private int brokerPort = 18830;
+    private int maxMessageSize = 1024 * 1024;
+    private String projectName = "LOADTEST";
+    private int dongles = 4;
+    private int devices = 4;
+    private double rate = 10;
+    private PayloadGenerator.Shape shape = PayloadGenerator.Shape.JSON;
+    private int payloadSize = 256;
+    private int publisherThreads = Runtime.getRuntime().availableProcessors();
+    private int warmup = 10;
+    private int duration = 60;
+    private int drain = 30;
+    private int progressInterval = 5;
+    private boolean runLogger = true;
+    private String dbDir = null;
+
+    // Running objects
+    private EmbeddedBroker broker;
+    private Dongle subscriberDongle;
+    private LoadSubscriber subscriber;
+    private LoggerH2 log;
+    private Path tempDbDir;
+    private final List<SimulatedDongle> fleet = new ArrayList<>();
+    private ScheduledThreadPoolExecutor scheduler;
+
+    public static void main(String[] args) {
+        logger.info("Starting load test...");
+
+        // Load configuration
+        ClassLoader loader = LoadTest.class.getClassLoader();
+        URL propResource = loader.getResource(PROPERTIES_FILE_NAME);
+        File propFile = new File("./" + PROPERTIES_FILE_NAME);
+        HashMap<String, Object> options = new HashMap<>();
+
+        if (propFile.isFile() || propResource != null) {
+            logger.info("Loading configuration from " +
+                    (propFile.isFile() ? "./" : "default ") + PROPERTIES_FILE_NAME + "...");
+            try (InputStream input = (propFile.isFile() ?
+                    new FileInputStream("./" + PROPERTIES_FILE_NAME) :
+                    loader.getResourceAsStream(PROPERTIES_FILE_NAME))) {
+                Properties properties = new Properties();
+                properties.load(input);
+                Enumeration<?> p = properties.propertyNames();
+                while (p.hasMoreElements()) {
+                    String key = (String) p.nextElement();
+                    options.put(key, properties.getProperty(key));
+                }
+            } catch (Exception ex) {
+                logger.error("Failed to load configuration!", ex);
+                System.exit(-1);
+            }
+        } else {
+            logger.info("Cannot find configuration file - " + PROPERTIES_FILE_NAME + ", using defaults");
+        }
+
+        int status = 0;
+        try {
+            LoadTest test = new LoadTest(options);
+            logger.info("Load test report:\n" + test.run());
+        } catch (Exception ex) {
+            logger.error("Load test failed!", ex);
+            status = -1;
+        }
+        // MQTT client threads may linger after disconnect
+        System.exit(status);
+    }
+
+    /**
+     * Load test constructor
+     *
+     * @param options load test options (see class documentation)
+     */
+    public LoadTest(HashMap<String, Object> options) {
+        this.options = (options != null) ? options : new HashMap<>();
+        if (this.options.containsKey("broker_port")) {
+            brokerPort = Integer.parseInt(this.options.get("broker_port").toString());
+        }
+        if (this.options.containsKey("max_message_size")) {
+            maxMessageSize = Integer.parseInt(this.options.get("max_message_size").toString());
+        }
+        if (this.options.containsKey("project_name")) {
+            projectName = this.options.get("project_name").toString();
+        }
+        if (this.options.containsKey("dongles")) {
+            dongles = Integer.parseInt(this.options.get("dongles").toString());
+        }
+        if (this.options.containsKey("devices")) {
+            devices = Integer.parseInt(this.options.get("devices").toString());
+        }
+        if (this.options.containsKey("rate")) {
+            rate = Double.parseDouble(this.options.get("rate").toString());
+        }
+        if (this.options.containsKey("payload_shape")) {
+            shape = PayloadGenerator.Shape.parse(this.options.get("payload_shape").toString());
+        }
+        if (this.options.containsKey("payload_size")) {
+            payloadSize = Integer.parseInt(this.options.get("payload_size").toString());
+        }
+        if (this.options.containsKey("publisher_threads")) {
+            publisherThreads = Integer.parseInt(this.options.get("publisher_threads").toString());
+        }
+        if (this.options.containsKey("warmup")) {
+            warmup = Integer.parseInt(this.options.get("warmup").toString());
+        }
+        if (this.options.containsKey("duration")) {
+            duration = Integer.parseInt(this.options.get("duration").toString());
+        }
+        if (this.options.containsKey("drain")) {
+            drain = Integer.parseInt(this.options.get("drain").toString());
+        }
+        if (this.options.containsKey("progress_interval")) {
+            progressInterval = Integer.parseInt(this.options.get("progress_interval").toString());
+        }
+        if (this.options.containsKey("logger")) {
+            runLogger = Boolean.parseBoolean(this.options.get("logger").toString());
+        }
+        if (this.options.containsKey("db_dir")) {
+            dbDir = this.options.get("db_dir").toString();
+        }
+
+        if (dongles < 1 || devices < 1 || rate <= 0 || duration < 1 || publisherThreads < 1) {
+            throw new IllegalArgumentException("Invalid load test options!");
+        }
+    }
+
+    /**
+     * Run the load test, then release all resources
+     *
+     * @return human readable report
+     * @throws Exception if the broker, logger or fleet cannot be started
+     */
+    public String run() throws Exception {
+        try {
+            setUp();
+            return measure();
+        } finally {
+            tearDown();
+        }
+    }
+
+    private void setUp() throws IOException {
+        broker = new EmbeddedBroker(brokerPort, maxMessageSize);
+        broker.start();
+        HashMap<String, Object> dongleOptions = getDongleOptions();
+        TopicHandler topicHandler = new TopicHandler();
+
+        // Counting subscriber
+        subscriber = new LoadSubscriber(topicHandler);
+        subscriberDongle = new Dongle("LoadTest-" + UUID.randomUUID().toString());
+        subscriberDongle.init(dongleOptions);
+        subscriberDongle.connect(null, null, null);
+        subscriberDongle.subscribe(topicHandler.getDataBaseTopic(projectName), null, subscriber);
+
+        // Logger
+        if (runLogger) {
+            if (dbDir == null) {
+                tempDbDir = Files.createTempDirectory("loadtest-h2");
+                dbDir = tempDbDir.toString();
+            }
+            String dbPass = UUID.randomUUID().toString();
+            log = new LoggerH2("Logger-" + UUID.randomUUID().toString(),
+                    Paths.get(dbDir).toAbsolutePath().toString(), projectName,
+                    "loadtest", dbPass, dbPass, dongleOptions);
+            log.init(true);
+            log.startMiddleware();
+            log.start();
+        }
+
+        // Fleet
+        logger.info("Connecting " + dongles + " dongles with " + devices + " devices each...");
+        for (int i = 0; i < dongles; i++) {
+            SimulatedDongle dongle = new SimulatedDongle(devices, shape, payloadSize, i);
+            dongle.connect(dongleOptions);
+            fleet.add(dongle);
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        scheduler = new ScheduledThreadPoolExecutor(publisherThreads, r -> {
+            Thread thread = new Thread(r, "loadtest-publisher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private String measure() throws InterruptedException {
+        logger.info(String.format("Offering %.1f msg/s (%d dongles x %d devices x %.1f msg/s, %s, %d bytes)...",
+                dongles * devices * rate, dongles, devices, rate, shape.name().toLowerCase(), payloadSize));
+        for (SimulatedDongle dongle : fleet) dongle.start(scheduler, rate);
+
+        // Warm-up
+        Thread.sleep(warmup * 1000L);
+        subscriber.resetLatency();
+        long startOffered = getOffered();
+        long startReceived = subscriber.getReceived();
+        long startLogged = getLogged();
+        long start = System.nanoTime();
+
+        // Measurement
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long lastOffered = startOffered;
+        long lastReceived = startReceived;
+        long lastLogged = startLogged;
+        long last = start;
+        while (System.nanoTime() < end) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+            Thread.sleep(Math.max(1, Math.min(progressInterval * 1000L, remaining)));
+            long now = System.nanoTime();
+            long offered = getOffered();
+            long received = subscriber.getReceived();
+            long logged = getLogged();
+            double seconds = (now - last) / 1e9;
+            logger.info(String.format("offered %.1f/s, received %.1f/s, logged %.1f/s, gaps %d",
+                    (offered - lastOffered) / seconds, (received - lastReceived) / seconds,
+                    (logged - lastLogged) / seconds, subscriber.getGaps()));
+            lastOffered = offered;
+            lastReceived = received;
+            lastLogged = logged;
+            last = now;
+        }
+        double elapsed = (last - start) / 1e9;
+        long measuredOffered = lastOffered - startOffered;
+        long measuredReceived = lastReceived - startReceived;
+        long measuredLogged = lastLogged - startLogged;
+        LatencySnapshot latency = subscriber.getLatency().snapshot();
+
+        // Drain messages in flight
+        for (SimulatedDongle dongle : fleet) dongle.stop();
+        long published = getPublished();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drain);
+        while (System.nanoTime() < deadline && (subscriber.getReceived() < published
+                || (log != null && getLogged() < published))) {
+            Thread.sleep(100);
+        }
+
+        return report(elapsed, measuredOffered, measuredReceived, measuredLogged, latency, published);
+    }
+
+    private String report(double elapsed, long measuredOffered, long measuredReceived,
+                          long measuredLogged, LatencySnapshot latency, long published) {
+        long offered = getOffered();
+        long received = subscriber.getReceived();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("fleet: %d dongles x %d devices, %.1f msg/s per device, %s %d bytes",
+                dongles, devices, rate, shape.name().toLowerCase(), payloadSize));
+        builder.append(String.format("%nthroughput (%.1f s): offered %.1f msg/s, received %.1f msg/s",
+                elapsed, measuredOffered / elapsed, measuredReceived / elapsed));
+        if (log != null) builder.append(String.format(", logged %.1f msg/s", measuredLogged / elapsed));
+        builder.append(String.format("%nend-to-end latency (us): %s", toMicros(latency)));
+
+        builder.append(String.format("%ntotal: offered %d, published %d, received %d",
+                offered, published, received));
+        if (log != null) builder.append(", logged ").append(getLogged());
+        builder.append(String.format("%ndrops: rejected %d, undelivered %d", offered - published,
+                Math.max(0, published - received)));
+        if (log != null) builder.append(", unlogged ").append(Math.max(0, published - getLogged()));
+        builder.append(String.format(", sequence gaps %d, reordered %d, untraced %d",
+                subscriber.getGaps(), subscriber.getReordered(), subscriber.getUntraced()));
+
+        // Slowest dongle by p99
+        MiddlewareMetrics worstPublish = null;
+        MiddlewareMetrics worstAck = null;
+        for (SimulatedDongle dongle : fleet) {
+            MiddlewareMetrics metrics = dongle.getDongle().getMetrics();
+            if (worstPublish == null || metrics.getPublishLatency().getP99() > worstPublish.getPublishLatency().getP99()) {
+                worstPublish = metrics;
+            }
+            if (worstAck == null || metrics.getAckLatency().getP99() > worstAck.getAckLatency().getP99()) {
+                worstAck = metrics;
+            }
+        }
+        if (worstPublish != null) {
+            builder.append(String.format("%nslowest dongle publish (us): %s",
+                    toMicros(worstPublish.getPublishLatency())));
+            builder.append(String.format("%nslowest dongle ack (us): %s", toMicros(worstAck.getAckLatency())));
+        }
+        if (log != null) builder.append("\nlogger hops (whole run):\n").append(log.getTraceStats().report());
+        return builder.toString();
+    }
+
+    private void tearDown() {
+        if (scheduler != null) scheduler.shutdownNow();
+        for (SimulatedDongle dongle : fleet) {
+            try {
+                dongle.close();
+            } catch (Exception ex) {
+                logger.warn("Failed to close simulated dongle", ex);
+            }
+        }
+        if (log != null) {
+            log.stop();
+            log.close();
+        }
+        if (subscriberDongle != null) subscriberDongle.close();
+        if (broker != null) broker.stop();
+        if (tempDbDir != null) {
+            try (Stream<Path> paths = Files.walk(tempDbDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException ex) {
+                logger.warn("Failed to delete temporary database " + tempDbDir, ex);
+            }
+        }
+    }
+
+    /**
+     * Build options shared by all Dongles (simulated, subscriber and logger)
+     *
+     * @return Dongle options
+     */
+    private HashMap<String, Object> getDongleOptions() {
+        HashMap<String, Object> dongleOptions = new HashMap<>(options);
+        dongleOptions.put("broker", broker.getAddress());
+        dongleOptions.put("brokers", broker.getAddress());
+        dongleOptions.put("project_name", projectName);
+        dongleOptions.put("trace", "true");
+        // Dongle expects integers for these
+        String[] integers = {"connection_timeout", "retry_interval", "alive_interval", "qos",
+                "max_in_flight", "report_interval"};
+        for (String key : integers) {
+            if (options.containsKey(key)) {
+                dongleOptions.put(key, Integer.parseInt(options.get(key).toString()));
+            }
+        }
+        if (!dongleOptions.containsKey("retry_interval")) dongleOptions.put("retry_interval", 1);
+        return dongleOptions;
+    }
+
+    private long getOffered() {
+        long offered = 0;
+        for (SimulatedDongle dongle : fleet) offered += dongle.getOffered();
+        return offered;
+    }
+
+    /**
+     * Return the number of device messages published (the Dongle metrics also count
+     * status messages, which are never received by the subscriber)
+     */
+    private long getPublished() {
+        long published = 0;
+        for (SimulatedDongle dongle : fleet) published += dongle.getOffered() - dongle.getRejected();
+        return published;
+    }
+
+    private long getLogged() {
+        return (log == null) ? 0 : log.getTraceStats().getCommitLatency().getCount();
+    }
+
+    private static String toMicros(LatencySnapshot snapshot) {
+        return String.format("count=%d, mean=%.1f, p50=%.1f, p90=%.1f, p99=%.1f, p99.9=%.1f, max=%.1f",
+                snapshot.getCount(), snapshot.getMean() / 1e3, snapshot.getP50() / 1e3,
+                snapshot.getP90() / 1e3, snapshot.getP99() / 1e3, snapshot.getP999() / 1e3,
+                snapshot.getMax() / 1e3);
+    }
+}
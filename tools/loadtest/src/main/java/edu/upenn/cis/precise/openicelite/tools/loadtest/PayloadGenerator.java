@@ -0,0 +1,120 @@
+package edu.upenn.cis.precise.openicelite.tools.loadtest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generate synthetic device messages of a given shape and approximate size
+ * <p>
+ * Shapes:
+ * - "json":        numeric vitals as sent by Capnostream-like monitors, padded to size
+ * - "waveform":    JSON array of waveform samples filling the size
+ * - "binary":      opaque bytes (counter followed by random filler)
+ * <p>
+ * A generator is used by one publishing thread only.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class PayloadGenerator {
+    public enum Shape {
+        JSON,
+        WAVEFORM,
+        BINARY;
+
+        /**
+         * Parse shape from its name
+         *
+         * @param name shape name (case insensitive)
+         * @return shape
+         */
+        public static Shape parse(String name) {
+            try {
+                return Shape.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown payload shape - " + name);
+            }
+        }
+    }
+
+    private final Shape shape;
+    private final int size;
+    private final Random random;
+    private final byte[] filler;
+    private long counter = 0;
+
+    /**
+     * Generator constructor
+     *
+     * @param shape payload shape
+     * @param size  approximate payload size in bytes
+     * @param seed  random seed (different per device to avoid identical streams)
+     */
+    public PayloadGenerator(Shape shape, int size, long seed) {
+        if (size < 1) throw new IllegalArgumentException("Invalid payload size - " + size);
+        this.shape = shape;
+        this.size = size;
+        this.random = new Random(seed);
+        this.filler = new byte[size];
+        random.nextBytes(filler);
+    }
+
+    /**
+     * Generate the next message
+     *
+     * @return message as a byte array
+     */
+    public byte[] next() {
+        counter++;
+        switch (shape) {
+            case JSON:
+                return nextJson();
+            case WAVEFORM:
+                return nextWaveform();
+            default:
+                return nextBinary();
+        }
+    }
+
+    private byte[] nextJson() {
+        StringBuilder builder = new StringBuilder(size + 16);
+        builder.append("{\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"etco2\":").append(30 + random.nextInt(15))
+                .append(",\"fico2\":").append(random.nextInt(2))
+                .append(",\"rr\":").append(10 + random.nextInt(12))
+                .append(",\"spo2\":").append(92 + random.nextInt(8))
+                .append(",\"pr\":").append(55 + random.nextInt(50));
+        // Pad to requested size with a string field
+        int pad = size - builder.length() - 10;
+        if (pad > 0) {
+            builder.append(",\"pad\":\"");
+            for (int i = 0; i < pad; i++) builder.append((char) ('a' + (i % 26)));
+            builder.append('"');
+        }
+        builder.append('}');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] nextWaveform() {
+        StringBuilder builder = new StringBuilder(size + 16);
+        builder.append("{\"timestamp\":").append(System.currentTimeMillis()).append(",\"samples\":[");
+        // ECG-like baseline with a spike every 50 samples
+        long sample = counter * 1000;
+        do {
+            int value = (sample % 50 == 0) ? 900 : 480 + random.nextInt(40);
+            builder.append(value).append(',');
+            sample++;
+        } while (builder.length() < size - 2);
+        builder.setCharAt(builder.length() - 1, ']');
+        builder.append('}');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] nextBinary() {
+        byte[] message = filler.clone();
+        if (message.length >= Long.BYTES) {
+            ByteBuffer.wrap(message).putLong(counter);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,150 @@
+package edu.upenn.cis.precise.openicelite.tools.loadtest;
+
+import edu.upenn.cis.precise.openicelite.iomt.api.DeviceInfo;
+import edu.upenn.cis.precise.openicelite.middleware.mqtt.Dongle;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Dongle loaded with synthetic devices which publish at a fixed rate
+ * <p>
+ * On every tick, each device of the dongle publishes one message. Ticks are scheduled
+ * at a fixed rate, so a dongle which cannot keep up publishes late ticks back to back
+ * instead of silently lowering the offered load.
+ *
+ * @author Hung Nguyen (hungng@seas.upenn.edu)
+ */
+public class SimulatedDongle {
+    private static final Logger logger = LogManager.getLogger(SimulatedDongle.class);
+
+    private final Dongle dongle;
+    private final List<String> deviceIds = new ArrayList<>();
+    private final List<PayloadGenerator> generators = new ArrayList<>();
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private ScheduledFuture<?> task;
+
+    /**
+     * Simulated dongle constructor
+     *
+     * @param devices number of synthetic devices
+     * @param shape   payload shape
+     * @param size    approximate payload size in bytes
+     * @param seed    random seed of the payload generators
+     */
+    public SimulatedDongle(int devices, PayloadGenerator.Shape shape, int size, long seed) {
+        dongle = new Dongle(UUID.randomUUID().toString());
+        for (int i = 0; i < devices; i++) {
+            String deviceId = UUID.randomUUID().toString();
+            DeviceInfo info = new DeviceInfo(deviceId);
+            info.setDeviceType("Synthetic");
+            info.setAttribute("shape", shape.name().toLowerCase());
+            info.setAttribute("size", Integer.toString(size));
+            dongle.addDevice(info);
+            deviceIds.add(deviceId);
+            generators.add(new PayloadGenerator(shape, size, seed * 31 + i));
+        }
+    }
+
+    /**
+     * Initialize and connect the underlying Dongle
+     *
+     * @param options Dongle options (see Dongle)
+     */
+    public void connect(HashMap<String, Object> options) {
+        dongle.init(options);
+        dongle.connect(null, null, null);
+    }
+
+    /**
+     * Start publishing
+     *
+     * @param scheduler scheduler running the publishing ticks
+     * @param rate      messages per second per device
+     */
+    public synchronized void start(ScheduledExecutorService scheduler, double rate) {
+        if (task != null) return;
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        // Spread dongles over the period so they do not all publish at once
+        long delay = (long) (Math.random() * period);
+        task = scheduler.scheduleAtFixedRate(this::tick, delay, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop publishing (messages in flight are still delivered)
+     */
+    public synchronized void stop() {
+        if (task == null) return;
+        task.cancel(false);
+        task = null;
+    }
+
+    /**
+     * Disconnect and release the underlying Dongle
+     */
+    public void close() {
+        stop();
+        dongle.close();
+    }
+
+    private void tick() {
+        try {
+            for (int i = 0; i < deviceIds.size(); i++) {
+                // Dongle counts failures of status messages too, so only count ours
+                long failures = dongle.getMetrics().getPublishFailures();
+                dongle.publishId(deviceIds.get(i), generators.get(i).next(), null);
+                if (dongle.getMetrics().getPublishFailures() != failures) rejected.incrementAndGet();
+                offered.incrementAndGet();
+            }
+        } catch (Exception ex) {
+            // An exception would cancel all further ticks of this dongle
+            logger.error("Failed to publish synthetic message", ex);
+        }
+    }
+
+    /**
+     * Return the number of messages handed to the Dongle so far
+     *
+     * @return offered messages
+     */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /**
+     * Return the number of offered messages the Dongle failed to publish
+     *
+     * @return rejected messages
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Return the underlying Dongle (e.g., for its metrics)
+     *
+     * @return dongle
+     */
+    public Dongle getDongle() {
+        return dongle;
+    }
+
+    /**
+     * Return IDs of the synthetic devices
+     *
+     * @return device IDs
+     */
+    public List<String> getDeviceIds() {
+        return deviceIds;
+    }
+}